@@ -0,0 +1,71 @@
+package de.charite.zpgen;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.semanticweb.owlapi.io.OWLFunctionalSyntaxOntologyFormat;
+import org.semanticweb.owlapi.io.RDFXMLOntologyFormat;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyFormat;
+
+/**
+ * Measures writing the ontology in both output syntaxes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SaveOntologyBenchmark {
+
+	@Param({ "10000", "100000" })
+	public int rows;
+
+	@Param({ "functional", "rdfxml" })
+	public String syntax;
+
+	private OWLOntology zp;
+	private OWLOntologyFormat format;
+
+	/**
+	 * Discards the output but counts the bytes.
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		zp = new SyntheticZFIN(42).ontology(rows);
+		format = syntax.equals("rdfxml") ? new RDFXMLOntologyFormat() : new OWLFunctionalSyntaxOntologyFormat();
+	}
+
+	@Benchmark
+	public long save() throws Exception {
+		CountingOutputStream out = new CountingOutputStream();
+		zp.getOWLOntologyManager().saveOntology(zp, format, out);
+		return out.count;
+	}
+}
@@ -0,0 +1,132 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Random;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+
+import de.charite.zpgen.ZFINWalker.ZFIN_FILE_TYPE;
+
+/**
+ * Generates rows in the format of phenoGeneCleanData_fish.txt for the
+ * benchmarks. The terms are drawn from a fixed vocabulary with a skewed
+ * distribution, so that, like in the real data, many rows share the same
+ * phenotype.
+ */
+public class SyntheticZFIN {
+
+	private static final int NUM_COLUMNS = 25;
+
+	private final Random random;
+
+	public SyntheticZFIN(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * @param numRows
+	 * @return the content of a pheno gene file with the given number of rows.
+	 */
+	public byte[] geneFile(int numRows) {
+		StringBuilder file = new StringBuilder(numRows * 200);
+		for (int i = 0; i < numRows; i++)
+			file.append(geneLine()).append('\n');
+		return file.toString().getBytes();
+	}
+
+	/**
+	 * @param numRows
+	 * @return parsed entries of the pheno gene format.
+	 * @throws IOException
+	 */
+	public List<ZFINEntry> entries(int numRows) throws IOException {
+		return ZFINWalker.readEntries(new ByteArrayInputStream(geneFile(numRows)), ZFIN_FILE_TYPE.PHENO_GENES_TXT);
+	}
+
+	/**
+	 * @param numRows
+	 * @return a zp ontology generated from the given number of rows.
+	 * @throws OWLOntologyCreationException
+	 * @throws IOException
+	 */
+	public OWLOntology ontology(int numRows) throws OWLOntologyCreationException, IOException {
+		OWLOntology zp = OWLManager.createOWLOntologyManager().createOntology(IRI.create("http://purl.obolibrary.org/obo/upheno/zp.owl"));
+		ZFINOntologyVisitor visitor = new ZFINOntologyVisitor(zp, new ZPIDDB(), true);
+		BufferedWriter out = nullWriter();
+		for (ZFINEntry entry : entries(numRows))
+			visitor.visit(entry, out, out);
+		visitor.flush();
+		return zp;
+	}
+
+	/**
+	 * @return a writer that discards everything.
+	 */
+	public static BufferedWriter nullWriter() {
+		return new BufferedWriter(new Writer() {
+			@Override
+			public void write(char[] cbuf, int off, int len) throws IOException {
+			}
+
+			@Override
+			public void flush() throws IOException {
+			}
+
+			@Override
+			public void close() throws IOException {
+			}
+		});
+	}
+
+	/**
+	 * @return a single row of a pheno gene file.
+	 */
+	public String geneLine() {
+		String[] cols = new String[NUM_COLUMNS];
+		for (int i = 0; i < cols.length; i++)
+			cols[i] = "";
+		cols[0] = "ZDB-EXP-" + random.nextInt(1000000);
+		cols[2] = "ZDB-GENE-" + skewed(30000);
+		cols[7] = term("ZFA", 3000);
+		if (random.nextInt(3) == 0)
+			cols[3] = term("ZFA", 3000);
+		cols[9] = term("PATO", 600);
+		cols[11] = random.nextInt(10) < 8 ? "abnormal" : "normal";
+		if (random.nextInt(5) == 0) {
+			cols[16] = random.nextBoolean() ? term("GO", 500) : term("ZFA", 3000);
+			if (random.nextInt(3) == 0)
+				cols[12] = term("ZFA", 3000);
+		}
+		for (int c : new int[] { 3, 7, 9, 12, 16 }) {
+			if (cols[c].length() > 0)
+				cols[c + 1] = "name of " + cols[c];
+		}
+
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < cols.length; i++) {
+			if (i > 0)
+				line.append('\t');
+			line.append(cols[i]);
+		}
+		return line.toString();
+	}
+
+	private String term(String prefix, int vocabularySize) {
+		return String.format("%s:%07d", prefix, skewed(vocabularySize));
+	}
+
+	/**
+	 * Draws from [0,n) with small values being much more frequent.
+	 */
+	private int skewed(int n) {
+		double r = random.nextDouble();
+		return (int) (n * r * r * r);
+	}
+}
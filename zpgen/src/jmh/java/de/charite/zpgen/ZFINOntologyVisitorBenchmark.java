@@ -0,0 +1,75 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+/**
+ * Measures building the class expressions for already parsed entries, with and
+ * without the expression cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZFINOntologyVisitorBenchmark {
+
+	@Param({ "100000" })
+	public int rows;
+
+	@Param({ "0", "65536" })
+	public int expressionCacheSize;
+
+	private List<ZFINEntry> entries;
+
+	@Setup
+	public void setup() throws Exception {
+		entries = new SyntheticZFIN(42).entries(rows);
+	}
+
+	private ZFINOntologyVisitor createVisitor() throws Exception {
+		OWLOntology zp = OWLManager.createOWLOntologyManager().createOntology(IRI.create("http://purl.obolibrary.org/obo/upheno/zp.owl"));
+		return new ZFINOntologyVisitor(zp, new ZPIDDB(), true, expressionCacheSize);
+	}
+
+	@Benchmark
+	public int prepare() throws Exception {
+		ZFINOntologyVisitor visitor = createVisitor();
+		int count = 0;
+		for (ZFINEntry entry : entries) {
+			if (visitor.prepare(entry) != null)
+				count++;
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int visit() throws Exception {
+		ZFINOntologyVisitor visitor = createVisitor();
+		BufferedWriter out = SyntheticZFIN.nullWriter();
+		int count = 0;
+		for (ZFINEntry entry : entries) {
+			if (visitor.visit(entry, out, out))
+				count++;
+		}
+		visitor.flush();
+		return count;
+	}
+}
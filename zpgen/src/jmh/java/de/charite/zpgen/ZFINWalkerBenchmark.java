@@ -0,0 +1,87 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+import de.charite.zpgen.ZFINWalker.ZFIN_FILE_TYPE;
+
+/**
+ * Measures walking a ZFIN file, once only parsing the rows and once with the
+ * ontology visitor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZFINWalkerBenchmark {
+
+	@Param({ "10000", "100000" })
+	public int rows;
+
+	@Param({ "1", "4" })
+	public int threads;
+
+	private byte[] input;
+
+	/**
+	 * Only counts the entries.
+	 */
+	private static class CountingVisitor implements ZFINParallelVisitor<ZFINEntry> {
+		int count;
+
+		public boolean visit(ZFINEntry entry, BufferedWriter outPositiveAnnotations, BufferedWriter outNegativeAnnotations) {
+			count++;
+			return true;
+		}
+
+		public ZFINEntry prepare(ZFINEntry entry) {
+			return entry;
+		}
+
+		public boolean commit(ZFINEntry prepared, BufferedWriter outPositiveAnnotations, BufferedWriter outNegativeAnnotations) {
+			count++;
+			return true;
+		}
+	}
+
+	@Setup
+	public void setup() {
+		input = new SyntheticZFIN(42).geneFile(rows);
+	}
+
+	@Benchmark
+	public int parse() throws Exception {
+		CountingVisitor visitor = new CountingVisitor();
+		BufferedWriter out = SyntheticZFIN.nullWriter();
+		ZFINWalker.walk(new ByteArrayInputStream(input), visitor, ZFIN_FILE_TYPE.PHENO_GENES_TXT, out, out, threads);
+		return visitor.count;
+	}
+
+	@Benchmark
+	public int walkAndVisit() throws Exception {
+		OWLOntology zp = OWLManager.createOWLOntologyManager().createOntology(IRI.create("http://purl.obolibrary.org/obo/upheno/zp.owl"));
+		ZFINOntologyVisitor visitor = new ZFINOntologyVisitor(zp, new ZPIDDB(), true);
+		BufferedWriter out = SyntheticZFIN.nullWriter();
+		ZFINWalker.walk(new ByteArrayInputStream(input), visitor, ZFIN_FILE_TYPE.PHENO_GENES_TXT, out, out, threads);
+		visitor.flush();
+		return zp.getAxiomCount();
+	}
+}
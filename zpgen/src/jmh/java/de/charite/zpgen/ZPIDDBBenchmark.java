@@ -0,0 +1,70 @@
+package de.charite.zpgen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+/**
+ * Measures the construction of a {@link ZPIDDB} from a previous ontology and
+ * the lookup of existing ids.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZPIDDBBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int rows;
+
+	private OWLOntology zp;
+	private ZPIDDB zpIdDB;
+	private List<OWLClassExpression> expressions;
+	private int next;
+
+	@Setup
+	public void setup() throws Exception {
+		zp = new SyntheticZFIN(42).ontology(rows);
+		zpIdDB = new ZPIDDB(zp);
+		expressions = new ArrayList<OWLClassExpression>();
+		for (OWLEquivalentClassesAxiom eq : zp.getAxioms(AxiomType.EQUIVALENT_CLASSES)) {
+			for (OWLClassExpression expression : eq.getClassExpressions()) {
+				if (expression.isAnonymous())
+					expressions.add(expression);
+			}
+		}
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public ZPIDDB construct() {
+		return new ZPIDDB(zp);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public IRI lookup() {
+		OWLClassExpression expression = expressions.get(next);
+		if (++next == expressions.size())
+			next = 0;
+		return zpIdDB.getZPId(expression);
+	}
+}
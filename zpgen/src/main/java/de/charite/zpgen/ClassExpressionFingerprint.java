@@ -0,0 +1,172 @@
+package de.charite.zpgen;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLObjectIntersectionOf;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+import org.semanticweb.owlapi.model.OWLObjectSomeValuesFrom;
+
+/**
+ * Computes a canonical 128 bit fingerprint of a class expression. Two class
+ * expressions that are equal in the sense of OWLAPI (i.e., intersections are
+ * compared as sets) get the same fingerprint, regardless of how their IRIs
+ * were split into namespace and fragment.
+ *
+ * The fingerprint is computed structurally without rendering the expression,
+ * so an instance can be reused to fingerprint many expressions without
+ * allocating. Instances are not thread safe.
+ */
+public class ClassExpressionFingerprint {
+
+	private static final long TAG_CLASS = 0x436c617373L;
+	private static final long TAG_PROPERTY = 0x50726f70L;
+	private static final long TAG_SOME = 0x536f6d65L;
+	private static final long TAG_AND = 0x416e64L;
+	private static final long TAG_OTHER = 0x4f74686572L;
+
+	private static final String OBO_NAMESPACE = "http://purl.obolibrary.org/obo/";
+
+	/** The upper 64 bits of the last computed fingerprint */
+	public long hi;
+
+	/** The lower 64 bits of the last computed fingerprint */
+	public long lo;
+
+	/**
+	 * Computes the fingerprint of the given class expression. The result is
+	 * stored in {@link #hi} and {@link #lo}.
+	 *
+	 * @param classExpression
+	 * @return this object
+	 */
+	public ClassExpressionFingerprint compute(OWLClassExpression classExpression) {
+		if (classExpression instanceof OWLClass) {
+			hash(TAG_CLASS, ((OWLClass) classExpression).getIRI());
+		} else if (classExpression instanceof OWLObjectSomeValuesFrom) {
+			OWLObjectSomeValuesFrom some = (OWLObjectSomeValuesFrom) classExpression;
+			compute(some.getFiller());
+			long fillerHi = hi;
+			long fillerLo = lo;
+			OWLObjectPropertyExpression property = some.getProperty();
+			if (property.isAnonymous())
+				hash(TAG_PROPERTY, property.toString());
+			else
+				hash(TAG_PROPERTY, property.asOWLObjectProperty().getIRI());
+			hi = mix(TAG_SOME + hi * 31 + fillerHi);
+			lo = mix(~TAG_SOME + lo * 37 + fillerLo);
+		} else if (classExpression instanceof OWLObjectIntersectionOf) {
+			/* Operands are a set, hence combine them in an order independent way */
+			long sumHi = 0;
+			long sumLo = 0;
+			for (OWLClassExpression operand : ((OWLObjectIntersectionOf) classExpression).getOperands()) {
+				compute(operand);
+				sumHi += hi;
+				sumLo += lo;
+			}
+			hi = mix(TAG_AND + sumHi);
+			lo = mix(~TAG_AND + sumLo);
+		} else {
+			/* Not used by ZP, fall back to the rendering of the expression */
+			hash(TAG_OTHER, classExpression.toString());
+		}
+		return this;
+	}
+
+	/**
+	 * Returns a compact canonical form of the class expression, which is equal
+	 * for two expressions exactly if the fingerprint treats them as equal. It
+	 * is used to tell apart expressions whose fingerprints collide without
+	 * keeping the OWLAPI objects. IRIs in the OBO namespace are shortened.
+	 *
+	 * @param classExpression
+	 * @return the canonical form in UTF-8.
+	 */
+	public static byte[] canonicalKey(OWLClassExpression classExpression) {
+		StringBuilder key = new StringBuilder(64);
+		appendKey(classExpression, key);
+		return key.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void appendKey(OWLClassExpression classExpression, StringBuilder key) {
+		if (classExpression instanceof OWLClass) {
+			appendIRI(((OWLClass) classExpression).getIRI(), key);
+		} else if (classExpression instanceof OWLObjectSomeValuesFrom) {
+			OWLObjectSomeValuesFrom some = (OWLObjectSomeValuesFrom) classExpression;
+			OWLObjectPropertyExpression property = some.getProperty();
+			key.append('(');
+			if (property.isAnonymous())
+				key.append('{').append(property.toString()).append('}');
+			else
+				appendIRI(property.asOWLObjectProperty().getIRI(), key);
+			key.append(' ');
+			appendKey(some.getFiller(), key);
+			key.append(')');
+		} else if (classExpression instanceof OWLObjectIntersectionOf) {
+			/* Operands are a set, hence sort their keys */
+			Set<OWLClassExpression> operands = ((OWLObjectIntersectionOf) classExpression).getOperands();
+			String[] operandKeys = new String[operands.size()];
+			int i = 0;
+			for (OWLClassExpression operand : operands) {
+				StringBuilder operandKey = new StringBuilder(32);
+				appendKey(operand, operandKey);
+				operandKeys[i++] = operandKey.toString();
+			}
+			Arrays.sort(operandKeys);
+			key.append('[');
+			for (i = 0; i < operandKeys.length; i++) {
+				if (i > 0)
+					key.append(' ');
+				key.append(operandKeys[i]);
+			}
+			key.append(']');
+		} else {
+			key.append('{').append(classExpression.toString()).append('}');
+		}
+	}
+
+	private static void appendIRI(IRI iri, StringBuilder key) {
+		String string = iri.toString();
+		if (string.startsWith(OBO_NAMESPACE))
+			key.append(string, OBO_NAMESPACE.length(), string.length());
+		else
+			key.append('<').append(string).append('>');
+	}
+
+	/**
+	 * Hashes the given tag and character sequence into {@link #hi} and
+	 * {@link #lo}.
+	 */
+	private void hash(long tag, CharSequence chars) {
+		long h1 = 0xcbf29ce484222325L ^ tag;
+		long h2 = 0x84222325cbf29ce4L ^ (tag * 0x9e3779b97f4a7c15L);
+		for (int i = 0, len = chars.length(); i < len; i++) {
+			char c = chars.charAt(i);
+			h1 = (h1 ^ c) * 0x100000001b3L;
+			h2 = (h2 ^ c) * 0xc6a4a7935bd1e995L;
+		}
+		hi = mix(h1);
+		lo = mix(h2 ^ ((long) chars.length() << 32));
+	}
+
+	/**
+	 * Finalization step of MurmurHash3.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", hi, lo);
+	}
+}
@@ -0,0 +1,234 @@
+package de.charite.zpgen;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * Opens files that may be compressed with gzip or zstd. Inputs are recognized
+ * by their magic bytes, outputs by the file extension (".gz" or ".zst").
+ * Compressed inputs are decompressed on a separate thread, so that this
+ * overlaps with parsing.
+ */
+public class CompressedStreams {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** Size of the chunks handed over by the read ahead thread */
+	private static final int CHUNK_SIZE = 1 << 20;
+
+	/** Number of chunks the read ahead thread may be ahead */
+	private static final int CHUNKS_AHEAD = 4;
+
+	/**
+	 * @param file
+	 * @return whether the file starts with the magic bytes of gzip or zstd.
+	 * @throws IOException
+	 */
+	public static boolean isCompressed(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] magic = new byte[4];
+			int n = readMagic(in, magic);
+			return isGzip(magic, n) || isZstd(magic, n);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int readMagic(InputStream in, byte[] magic) throws IOException {
+		int n = 0;
+		while (n < magic.length) {
+			int read = in.read(magic, n, magic.length - n);
+			if (read < 0)
+				break;
+			n += read;
+		}
+		return n;
+	}
+
+	private static boolean isGzip(byte[] magic, int n) {
+		return n >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b;
+	}
+
+	private static boolean isZstd(byte[] magic, int n) {
+		return n >= 4 && (magic[0] & 0xff) == 0x28 && (magic[1] & 0xff) == 0xb5 && (magic[2] & 0xff) == 0x2f && (magic[3] & 0xff) == 0xfd;
+	}
+
+	/**
+	 * Opens the given file for reading. If it is compressed, the returned
+	 * stream delivers the decompressed content, which is produced by a
+	 * separate thread.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static InputStream openInput(File file) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+		byte[] magic = new byte[4];
+		in.mark(magic.length);
+		int n = readMagic(in, magic);
+		in.reset();
+
+		if (isGzip(magic, n))
+			return new ReadAheadInputStream(new GZIPInputStream(in, BUFFER_SIZE), file.getName());
+		if (isZstd(magic, n))
+			return new ReadAheadInputStream(new ZstdInputStream(in), file.getName());
+		return in;
+	}
+
+	/**
+	 * Opens the given file for writing. The content is compressed if the name
+	 * ends with ".gz" or ".zst".
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static OutputStream openOutput(File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		String name = file.getName();
+		if (name.endsWith(".gz"))
+			return new GZIPOutputStream(out, BUFFER_SIZE);
+		if (name.endsWith(".zst"))
+			return new BufferedOutputStream(new ZstdOutputStream(out), BUFFER_SIZE);
+		return new BufferedOutputStream(out, BUFFER_SIZE);
+	}
+
+	/**
+	 * Reads the underlying stream on a separate thread in chunks. The thread
+	 * always ends the queue with {@link #EOF} or with the throwable that
+	 * stopped it, which is then rethrown on every read.
+	 */
+	private static class ReadAheadInputStream extends InputStream {
+		private static final byte[] EOF = new byte[0];
+
+		private final BlockingQueue<Object> chunks = new ArrayBlockingQueue<Object>(CHUNKS_AHEAD);
+		private final Thread thread;
+
+		private byte[] chunk;
+		private int chunkLength;
+		private int pos;
+		private boolean eof;
+
+		/** What stopped the read ahead thread, if it failed */
+		private Throwable failure;
+
+		ReadAheadInputStream(final InputStream source, String name) {
+			thread = new Thread("read ahead " + name) {
+				@Override
+				public void run() {
+					Object end = EOF;
+					try {
+						while (true) {
+							byte[] buffer = new byte[CHUNK_SIZE];
+							int length = 0;
+							int read = 0;
+							while (length < CHUNK_SIZE && (read = source.read(buffer, length, CHUNK_SIZE - length)) >= 0)
+								length += read;
+							if (length > 0)
+								chunks.put(length == CHUNK_SIZE ? buffer : Arrays.copyOf(buffer, length));
+							if (read < 0)
+								break;
+						}
+					} catch (InterruptedException e) {
+						/* The stream was closed */
+						closeSource();
+						return;
+					} catch (Throwable t) {
+						end = t;
+					}
+					closeSource();
+					try {
+						chunks.put(end);
+					} catch (InterruptedException e) {
+						/* The stream was closed */
+					}
+				}
+
+				private void closeSource() {
+					try {
+						source.close();
+					} catch (IOException e) {
+						/* Closing failed, nothing left to do */
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/**
+		 * Makes the next chunk the current one.
+		 *
+		 * @return false at the end of the stream.
+		 */
+		private boolean nextChunk() throws IOException {
+			if (failure != null)
+				throw new IOException("Failed to read compressed input", failure);
+			if (eof)
+				return false;
+			Object next;
+			try {
+				next = chunks.take();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			if (next instanceof Throwable) {
+				failure = (Throwable) next;
+				throw new IOException("Failed to read compressed input", failure);
+			}
+			chunk = (byte[]) next;
+			chunkLength = chunk.length;
+			pos = 0;
+			if (chunk == EOF) {
+				eof = true;
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (chunk == null || pos == chunkLength) {
+				if (!nextChunk())
+					return -1;
+			}
+			return chunk[pos++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (chunk == null || pos == chunkLength) {
+				if (!nextChunk())
+					return -1;
+			}
+			int n = Math.min(len, chunkLength - pos);
+			System.arraycopy(chunk, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			thread.interrupt();
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package de.charite.zpgen;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+
+/**
+ * A writer that collects lines and, on {@link #close()}, writes them sorted and
+ * without duplicates to the target file. Lines are kept in memory up to the
+ * given budget, beyond that sorted runs are spilled to temporary files, which
+ * are merged at the end.
+ */
+public class ExternalSortWriter extends Writer {
+	private static Logger log = Logger.getLogger(ExternalSortWriter.class.getName());
+
+	/** Rough per line overhead of a String in an ArrayList */
+	private static final int LINE_OVERHEAD = 64;
+
+	private final File target;
+	private final long memoryBudget;
+
+	/** The current, not yet terminated line */
+	private final StringBuilder partial = new StringBuilder();
+
+	private final ArrayList<String> lines = new ArrayList<String>();
+	private long bufferedBytes;
+
+	private final List<File> runs = new ArrayList<File>();
+	private boolean closed;
+
+	/**
+	 * @param target
+	 *            the file to which the sorted lines are written on close,
+	 *            compressed if the name ends with ".gz" or ".zst"
+	 * @param memoryBudget
+	 *            the approximate number of bytes used for buffering lines
+	 *            before a run is spilled to disk
+	 */
+	public ExternalSortWriter(File target, long memoryBudget) {
+		this.target = target;
+		this.memoryBudget = memoryBudget;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		int end = off + len;
+		for (int i = off; i < end; i++) {
+			char c = cbuf[i];
+			if (c == '\n') {
+				addLine(partial.toString());
+				partial.setLength(0);
+			} else {
+				partial.append(c);
+			}
+		}
+	}
+
+	private void addLine(String line) throws IOException {
+		lines.add(line);
+		bufferedBytes += LINE_OVERHEAD + 2 * line.length();
+		if (bufferedBytes > memoryBudget)
+			spill();
+	}
+
+	/**
+	 * Writes the buffered lines sorted and deduplicated to a new run.
+	 */
+	private void spill() throws IOException {
+		File run = File.createTempFile(target.getName() + ".", ".run", target.getAbsoluteFile().getParentFile());
+		runs.add(run);
+		writeSorted(lines, run);
+		lines.clear();
+		bufferedBytes = 0;
+	}
+
+	private static int writeSorted(List<String> lines, File file) throws IOException {
+		Collections.sort(lines);
+		int written = 0;
+		BufferedWriter out = openWriter(file);
+		try {
+			String last = null;
+			for (String line : lines) {
+				if (line.equals(last))
+					continue;
+				out.write(line);
+				out.write('\n');
+				last = line;
+				written++;
+			}
+		} finally {
+			out.close();
+		}
+		return written;
+	}
+
+	private static BufferedWriter openWriter(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(CompressedStreams.openOutput(file), StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		/* Nothing is written before close */
+	}
+
+	/**
+	 * Sorts and merges all lines into the target file. The runs are removed,
+	 * even if this fails.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		if (partial.length() > 0) {
+			lines.add(partial.toString());
+			partial.setLength(0);
+		}
+
+		try {
+			int written;
+			if (runs.isEmpty()) {
+				written = writeSorted(lines, target);
+				lines.clear();
+			} else {
+				if (!lines.isEmpty())
+					spill();
+				written = merge();
+			}
+			log.info("Wrote " + written + " sorted lines to \"" + target + "\"" + (runs.isEmpty() ? "" : " from " + runs.size() + " runs"));
+		} finally {
+			for (File run : runs)
+				run.delete();
+		}
+	}
+
+	/**
+	 * A run that is read line by line.
+	 */
+	private static class Run implements Comparable<Run> {
+		final BufferedReader reader;
+		String line;
+
+		Run(File file) throws IOException {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16);
+			line = reader.readLine();
+		}
+
+		boolean advance() throws IOException {
+			line = reader.readLine();
+			return line != null;
+		}
+
+		public int compareTo(Run o) {
+			return line.compareTo(o.line);
+		}
+	}
+
+	/**
+	 * k-way merge of the runs into the target file.
+	 */
+	private int merge() throws IOException {
+		PriorityQueue<Run> queue = new PriorityQueue<Run>(runs.size());
+		int written = 0;
+		BufferedWriter out = openWriter(target);
+		try {
+			for (File file : runs) {
+				Run run = new Run(file);
+				if (run.line != null)
+					queue.add(run);
+				else
+					run.reader.close();
+			}
+
+			String last = null;
+			while (!queue.isEmpty()) {
+				Run run = queue.poll();
+				if (!run.line.equals(last)) {
+					out.write(run.line);
+					out.write('\n');
+					last = run.line;
+					written++;
+				}
+				if (run.advance())
+					queue.add(run);
+				else
+					run.reader.close();
+			}
+		} finally {
+			for (Run run : queue)
+				run.reader.close();
+			out.close();
+		}
+		return written;
+	}
+}
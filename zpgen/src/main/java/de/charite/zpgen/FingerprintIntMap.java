@@ -0,0 +1,139 @@
+package de.charite.zpgen;
+
+/**
+ * An open addressing hash map from 128 bit fingerprints (see
+ * {@link ClassExpressionFingerprint}) to non-negative ints. Keys and values
+ * are stored in primitive arrays, so neither lookups nor insertions allocate
+ * (apart from growing the table).
+ *
+ * Keys are compared on all 128 bits, the hash only selects the slot where
+ * probing starts. Instances are not thread safe.
+ */
+public class FingerprintIntMap {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	/** Hi and lo of the keys, interleaved */
+	private long[] keys;
+
+	/** The values plus one, so that 0 marks a free slot */
+	private int[] values;
+
+	private int mask;
+	private int size;
+
+	public FingerprintIntMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            the number of entries that can be put without growing the
+	 *            table
+	 */
+	public FingerprintIntMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+		allocate(capacity);
+	}
+
+	/**
+	 * Creates a copy of the given map.
+	 *
+	 * @param other
+	 */
+	public FingerprintIntMap(FingerprintIntMap other) {
+		keys = other.keys.clone();
+		values = other.values.clone();
+		mask = other.mask;
+		size = other.size;
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity * 2];
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * @return the slot where the probing for the given key starts.
+	 */
+	private int slot(long hi, long lo) {
+		long h = (hi ^ lo) * 0x9e3779b97f4a7c15L;
+		return (int) (h >>> 32) & mask;
+	}
+
+	/**
+	 * @param hi
+	 * @param lo
+	 * @return the slot of the given key or the free slot where it would be
+	 *         inserted.
+	 */
+	private int find(long hi, long lo) {
+		int slot = slot(hi, lo);
+		while (values[slot] != 0 && (keys[slot * 2] != hi || keys[slot * 2 + 1] != lo))
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/**
+	 * @param hi
+	 * @param lo
+	 * @return the value stored for the given fingerprint or -1 if there is
+	 *         none.
+	 */
+	public int get(long hi, long lo) {
+		return values[find(hi, lo)] - 1;
+	}
+
+	/**
+	 * Stores the given value for the given fingerprint, replacing any previous
+	 * value.
+	 *
+	 * @param hi
+	 * @param lo
+	 * @param value
+	 *            a non-negative value
+	 * @return the previous value or -1 if there was none.
+	 */
+	public int put(long hi, long lo, int value) {
+		if (value < 0)
+			throw new IllegalArgumentException("Negative value " + value);
+
+		int slot = find(hi, lo);
+		int previous = values[slot] - 1;
+		if (previous < 0) {
+			if ((size + 1) * 2 > values.length) {
+				grow();
+				slot = find(hi, lo);
+			}
+			keys[slot * 2] = hi;
+			keys[slot * 2 + 1] = lo;
+			size++;
+		}
+		values[slot] = value + 1;
+		return previous;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(oldValues.length * 2);
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] == 0)
+				continue;
+			long hi = oldKeys[i * 2];
+			long lo = oldKeys[i * 2 + 1];
+			int slot = find(hi, lo);
+			keys[slot * 2] = hi;
+			keys[slot * 2 + 1] = lo;
+			values[slot] = oldValues[i];
+		}
+	}
+
+	/**
+	 * @return the number of entries.
+	 */
+	public int size() {
+		return size;
+	}
+}
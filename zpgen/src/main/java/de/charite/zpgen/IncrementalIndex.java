@@ -0,0 +1,236 @@
+package de.charite.zpgen;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import gnu.trove.iterator.TLongLongIterator;
+import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Remembers for every ZFIN row of a run the ZP class and the label that were
+ * assigned to it. A row is identified by a 64 bit fingerprint of the gene or
+ * genotype id, the source string and the term names (the latter make up the
+ * label).
+ *
+ * In an incremental run, rows whose fingerprint is found in the index of the
+ * previous run are not processed again, only their annotation line is written.
+ * This is only valid if the previous ontology, which already contains the
+ * axioms for these rows, is the base of the new one (i.e., --keep-ids), and
+ * if the axioms of a row are generated in the same way. Hence the index also
+ * stores the settings that influence the axioms of a row and the checksum of
+ * the ontology written by its run, see {@link #matches(String, long)}.
+ */
+public class IncrementalIndex {
+	private static Logger log = Logger.getLogger(IncrementalIndex.class.getName());
+
+	private static final int MAGIC = 0x5a50494e; /* "ZPIN" */
+	private static final int VERSION = 2;
+
+	/** The settings of the run that influence the axioms of a row */
+	private final String settings;
+
+	/** The checksum of the ontology file written by the run */
+	private long ontologyChecksum;
+
+	/** Maps the fingerprint of a row to the ZP number (upper half) and the label index (lower half) */
+	private final TLongLongHashMap rows = new TLongLongHashMap();
+
+	private final List<String> labels = new ArrayList<String>();
+	private final TObjectIntHashMap<String> labelIndices = new TObjectIntHashMap<String>(16, 0.5f, -1);
+
+	/**
+	 * @param settings
+	 *            the settings of the run, see {@link #getSettings(ZPGenCLIConfig)}
+	 */
+	public IncrementalIndex(String settings) {
+		this.settings = settings;
+	}
+
+	/**
+	 * @param config
+	 * @return the settings of the given configuration that influence the
+	 *         axioms generated for a row.
+	 */
+	public static String getSettings(ZPGenCLIConfig config) {
+		return "add-source-information=" + config.addSourceInformation;
+	}
+
+	/**
+	 * Sets the checksum of the ontology file written by the run, see
+	 * {@link #checksum(File)}.
+	 *
+	 * @param ontologyChecksum
+	 */
+	public void setOntologyChecksum(long ontologyChecksum) {
+		this.ontologyChecksum = ontologyChecksum;
+	}
+
+	/**
+	 * @param settings
+	 *            the settings of the current run
+	 * @param previousOntologyChecksum
+	 *            the checksum of the previous ontology of the current run
+	 * @return whether the rows of this index can be reused, i.e., whether it
+	 *         was written with the same settings by the run that wrote the
+	 *         previous ontology.
+	 */
+	public boolean matches(String settings, long previousOntologyChecksum) {
+		return this.settings.equals(settings) && ontologyChecksum == previousOntologyChecksum;
+	}
+
+	/**
+	 * @param file
+	 * @return the CRC32 checksum of the given (possibly compressed) file.
+	 * @throws IOException
+	 */
+	public static long checksum(File file) throws IOException {
+		return OBOXrefIndex.checksum(file);
+	}
+
+	/**
+	 * Computes the fingerprint of the given entry. Must be called before the
+	 * entry is corrected.
+	 *
+	 * @param entry
+	 * @return
+	 */
+	public static long fingerprint(ZFINEntry entry) {
+		long h = 0xcbf29ce484222325L;
+		h = hash(h, entry.genxZfinID);
+		h = hash(h, entry.sourceString);
+		h = hash(h, entry.patoName);
+		h = hash(h, entry.entity1SupertermName);
+		h = hash(h, entry.entity1SubtermName);
+		h = hash(h, entry.entity2SupertermName);
+		h = hash(h, entry.entity2SubtermName);
+		return h;
+	}
+
+	private static long hash(long h, String s) {
+		if (s != null) {
+			for (int i = 0; i < s.length(); i++)
+				h = (h ^ s.charAt(i)) * 0x100000001b3L;
+		}
+		/* Separator, so that the boundaries of the fields matter */
+		return (h ^ 0xffff) * 0x100000001b3L;
+	}
+
+	/**
+	 * @return the number of rows in the index.
+	 */
+	public int size() {
+		return rows.size();
+	}
+
+	/**
+	 * Looks up the row with the given fingerprint.
+	 *
+	 * @param fingerprint
+	 * @return the packed ZP number and label index or -1 if the row is not
+	 *         contained. Use {@link #getZPNumber(long)} and
+	 *         {@link #getLabel(long)} to unpack.
+	 */
+	public long get(long fingerprint) {
+		if (!rows.containsKey(fingerprint))
+			return -1;
+		return rows.get(fingerprint);
+	}
+
+	public int getZPNumber(long value) {
+		return (int) (value >>> 32);
+	}
+
+	public String getLabel(long value) {
+		return labels.get((int) value);
+	}
+
+	/**
+	 * Adds a row.
+	 *
+	 * @param fingerprint
+	 * @param zpNumber
+	 * @param label
+	 */
+	public void put(long fingerprint, int zpNumber, String label) {
+		int labelIndex = labelIndices.get(label);
+		if (labelIndex < 0) {
+			labelIndex = labels.size();
+			labels.add(label);
+			labelIndices.put(label, labelIndex);
+		}
+		rows.put(fingerprint, (((long) zpNumber) << 32) | labelIndex);
+	}
+
+	/**
+	 * Loads the index from the given file.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static IncrementalIndex load(File file) throws IOException {
+		IncrementalIndex index;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException("\"" + file + "\" is not an incremental index");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported incremental index version " + version + " in \"" + file + "\"");
+			index = new IncrementalIndex(in.readUTF());
+			index.ontologyChecksum = in.readLong();
+			int numLabels = in.readInt();
+			for (int i = 0; i < numLabels; i++) {
+				String label = in.readUTF();
+				index.labels.add(label);
+				index.labelIndices.put(label, i);
+			}
+			int numRows = in.readInt();
+			index.rows.ensureCapacity(numRows);
+			for (int i = 0; i < numRows; i++)
+				index.rows.put(in.readLong(), in.readLong());
+		} finally {
+			in.close();
+		}
+		log.info("Loaded " + index.size() + " rows from \"" + file + "\"");
+		return index;
+	}
+
+	/**
+	 * Saves the index to the given file.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(settings);
+			out.writeLong(ontologyChecksum);
+			out.writeInt(labels.size());
+			for (String label : labels)
+				out.writeUTF(label);
+			out.writeInt(rows.size());
+			for (TLongLongIterator it = rows.iterator(); it.hasNext();) {
+				it.advance();
+				out.writeLong(it.key());
+				out.writeLong(it.value());
+			}
+		} finally {
+			out.close();
+		}
+		log.info("Wrote " + size() + " rows to \"" + file + "\"");
+	}
+}
@@ -0,0 +1,258 @@
+package de.charite.zpgen;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.google.common.collect.ImmutableSetMultimap;
+
+/**
+ * Maps cross references of an OBO file to the ids of the stanzas that contain
+ * them, e.g., all "xref: ZFA:..." to the "id: UBERON:..." of the same stanza.
+ * The file is scanned as bytes through a channel, only id and xref tags are
+ * looked at.
+ *
+ * The index can be cached in a small binary file, which is reused as long as
+ * the checksum of the OBO file does not change.
+ */
+public class OBOXrefIndex {
+	private static Logger log = Logger.getLogger(OBOXrefIndex.class.getName());
+
+	private static final int MAGIC = 0x5a50584f; /* "ZPXO" */
+	private static final int VERSION = 2;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private static final byte[] ID_TAG = "id:".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] XREF_TAG = "xref:".getBytes(StandardCharsets.US_ASCII);
+
+	private final String idPrefix;
+	private final String xrefPrefix;
+
+	/** Xrefs of the current stanza, written when the stanza ends */
+	private final ImmutableSetMultimap.Builder<String, String> builder = ImmutableSetMultimap.builder();
+	private String currentId;
+	private final List<String> currentXrefs = new ArrayList<String>();
+
+	private OBOXrefIndex(String idPrefix, String xrefPrefix) {
+		this.idPrefix = idPrefix;
+		this.xrefPrefix = xrefPrefix;
+	}
+
+	/**
+	 * Builds the index by scanning the given OBO file, which may be
+	 * compressed.
+	 *
+	 * @param oboFile
+	 * @param idPrefix
+	 *            only stanzas whose id starts with this prefix (e.g.
+	 *            "UBERON:") are considered
+	 * @param xrefPrefix
+	 *            only xrefs starting with this prefix (e.g. "ZFA:") are
+	 *            indexed
+	 * @return a map from xref to the ids of the stanzas
+	 * @throws IOException
+	 */
+	public static ImmutableSetMultimap<String, String> build(File oboFile, String idPrefix, String xrefPrefix) throws IOException {
+		OBOXrefIndex index = new OBOXrefIndex(idPrefix, xrefPrefix);
+		ReadableByteChannel channel;
+		if (CompressedStreams.isCompressed(oboFile))
+			channel = Channels.newChannel(CompressedStreams.openInput(oboFile));
+		else
+			channel = FileChannel.open(oboFile.toPath(), StandardOpenOption.READ);
+		try {
+			index.scan(channel);
+		} finally {
+			channel.close();
+		}
+		return index.builder.build();
+	}
+
+	/**
+	 * Like {@link #build(File, String, String)} but takes the index from the
+	 * cache file if it was built from the same OBO file. Otherwise the cache
+	 * file is (re)written.
+	 *
+	 * @param oboFile
+	 * @param idPrefix
+	 * @param xrefPrefix
+	 * @param cacheFile
+	 * @return a map from xref to the ids of the stanzas
+	 * @throws IOException
+	 */
+	public static ImmutableSetMultimap<String, String> build(File oboFile, String idPrefix, String xrefPrefix, File cacheFile)
+			throws IOException {
+		long length = oboFile.length();
+		Long checksum = null;
+
+		if (cacheFile.exists()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+			try {
+				if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+					long cachedLength = in.readLong();
+					long cachedChecksum = in.readLong();
+					boolean valid = in.readUTF().equals(idPrefix) && in.readUTF().equals(xrefPrefix) && cachedLength == length;
+					if (valid) {
+						/* The modification time may be kept by copies, so always compare the content */
+						checksum = checksum(oboFile);
+						valid = checksum == cachedChecksum;
+					}
+					if (valid) {
+						ImmutableSetMultimap.Builder<String, String> builder = ImmutableSetMultimap.builder();
+						int size = in.readInt();
+						for (int i = 0; i < size; i++)
+							builder.put(in.readUTF(), in.readUTF());
+						log.info("Took " + size + " " + xrefPrefix + " xrefs from \"" + cacheFile + "\"");
+						return builder.build();
+					}
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		ImmutableSetMultimap<String, String> index = build(oboFile, idPrefix, xrefPrefix);
+		if (checksum == null)
+			checksum = checksum(oboFile);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(length);
+			out.writeLong(checksum);
+			out.writeUTF(idPrefix);
+			out.writeUTF(xrefPrefix);
+			out.writeInt(index.size());
+			for (Entry<String, String> entry : index.entries()) {
+				out.writeUTF(entry.getKey());
+				out.writeUTF(entry.getValue());
+			}
+		} finally {
+			out.close();
+		}
+		log.info("Wrote " + index.size() + " " + xrefPrefix + " xrefs to \"" + cacheFile + "\"");
+		return index;
+	}
+
+	/**
+	 * @return the CRC32 checksum of the given file.
+	 */
+	static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		} finally {
+			channel.close();
+		}
+		return crc.getValue();
+	}
+
+	private void scan(ReadableByteChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		byte[] bytes = buffer.array();
+		boolean eof = false;
+		while (!eof) {
+			if (channel.read(buffer) < 0)
+				eof = true;
+			int limit = buffer.position();
+			int lineStart = 0;
+			for (int i = 0; i < limit; i++) {
+				if (bytes[i] == '\n') {
+					line(bytes, lineStart, i);
+					lineStart = i + 1;
+				}
+			}
+			if (eof) {
+				if (lineStart < limit)
+					line(bytes, lineStart, limit);
+			} else if (lineStart == 0 && limit == bytes.length) {
+				/* A single line fills the entire buffer */
+				ByteBuffer larger = ByteBuffer.allocate(bytes.length * 2);
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+				bytes = buffer.array();
+			} else {
+				/* Move the incomplete line to the front */
+				System.arraycopy(bytes, lineStart, bytes, 0, limit - lineStart);
+				buffer.position(limit - lineStart);
+			}
+		}
+		endStanza();
+	}
+
+	/**
+	 * Handles the line bytes[start,end).
+	 */
+	private void line(byte[] bytes, int start, int end) {
+		while (start < end && (bytes[start] == ' ' || bytes[start] == '\t'))
+			start++;
+		while (end > start && (bytes[end - 1] == ' ' || bytes[end - 1] == '\t' || bytes[end - 1] == '\r'))
+			end--;
+
+		if (start == end || bytes[start] == '[') {
+			endStanza();
+		} else if (startsWith(bytes, start, end, ID_TAG)) {
+			currentId = value(bytes, start + ID_TAG.length, end);
+		} else if (startsWith(bytes, start, end, XREF_TAG)) {
+			String xref = value(bytes, start + XREF_TAG.length, end);
+			if (xref.startsWith(xrefPrefix))
+				currentXrefs.add(xref);
+		}
+	}
+
+	/**
+	 * @return the first token starting at start, which is the id without
+	 *         trailing qualifiers or comments.
+	 */
+	private static String value(byte[] bytes, int start, int end) {
+		while (start < end && bytes[start] == ' ')
+			start++;
+		int tokenEnd = start;
+		while (tokenEnd < end && bytes[tokenEnd] != ' ' && bytes[tokenEnd] != '\t')
+			tokenEnd++;
+		return new String(bytes, start, tokenEnd - start, StandardCharsets.UTF_8);
+	}
+
+	private static boolean startsWith(byte[] bytes, int start, int end, byte[] prefix) {
+		if (end - start < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++) {
+			if (bytes[start + i] != prefix[i])
+				return false;
+		}
+		return true;
+	}
+
+	private void endStanza() {
+		if (currentId != null && currentId.startsWith(idPrefix)) {
+			for (String xref : currentXrefs)
+				builder.put(xref, currentId);
+		}
+		currentId = null;
+		currentXrefs.clear();
+	}
+}
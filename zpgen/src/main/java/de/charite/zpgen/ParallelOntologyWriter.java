@@ -0,0 +1,364 @@
+package de.charite.zpgen;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.coode.owlapi.functionalrenderer.OWLObjectRenderer;
+import org.semanticweb.owlapi.io.OWLFunctionalSyntaxOntologyFormat;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLAnnotationProperty;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLDatatype;
+import org.semanticweb.owlapi.model.OWLDisjointClassesAxiom;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLEntityVisitorEx;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+import org.semanticweb.owlapi.util.DefaultPrefixManager;
+
+/**
+ * Writes an ontology in OWL functional syntax with several threads. The
+ * output is the same as the one of OWLAPI's functional syntax renderer, which
+ * writes the declarations of all entities (sorted), then for each entity its
+ * annotation assertions and its axioms that were not written for a preceding
+ * entity, and finally all remaining axioms.
+ *
+ * The sorted entities are split into ranges, and each range is rendered into
+ * a byte buffer by its own task. Whether an axiom was already written for a
+ * preceding entity is decided from the entities of the axiom alone, so the
+ * ranges don't depend on each other. The buffers are written in order to a
+ * large buffered stream.
+ *
+ * OWLAPI builds the indexes of an ontology lazily, which is not safe for
+ * concurrent first access. Hence the axioms of each range are collected on
+ * the calling thread, and the tasks only render these snapshots.
+ */
+public class ParallelOntologyWriter {
+
+	/** Number of entities that are rendered in one part */
+	private static final int ENTITIES_PER_TASK = 4096;
+
+	/** Number of the remaining axioms that are checked for one part */
+	private static final int AXIOMS_PER_TASK = 16384;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final OWLOntology ontology;
+
+	/** The sorted signature of the ontology */
+	private final List<OWLEntity> signature;
+
+	/** The IRIs of the signature, whose annotation assertions are written with the entities */
+	private final Set<IRI> signatureIRIs = new HashSet<IRI>();
+
+	/**
+	 * Collects the axioms that OWLAPI writes for an entity, besides its
+	 * declarations and annotation assertions.
+	 */
+	private final OWLEntityVisitorEx<Set<? extends OWLAxiom>> entityAxioms = new OWLEntityVisitorEx<Set<? extends OWLAxiom>>() {
+		@Override
+		public Set<? extends OWLAxiom> visit(OWLClass cls) {
+			return ontology.getAxioms(cls);
+		}
+
+		@Override
+		public Set<? extends OWLAxiom> visit(OWLObjectProperty property) {
+			return ontology.getAxioms(property);
+		}
+
+		@Override
+		public Set<? extends OWLAxiom> visit(OWLDataProperty property) {
+			return ontology.getAxioms(property);
+		}
+
+		@Override
+		public Set<? extends OWLAxiom> visit(OWLNamedIndividual individual) {
+			return ontology.getAxioms(individual);
+		}
+
+		@Override
+		public Set<? extends OWLAxiom> visit(OWLDatatype datatype) {
+			return ontology.getAxioms(datatype);
+		}
+
+		@Override
+		public Set<? extends OWLAxiom> visit(OWLAnnotationProperty property) {
+			return ontology.getAxioms(property);
+		}
+	};
+
+	/**
+	 * A part of the output, i.e., a snapshot of the axioms to write and of the
+	 * entities that the renderer focuses on while writing them.
+	 */
+	private class Part implements Callable<ByteArrayOutputStream> {
+		private final List<OWLAxiom> axioms = new ArrayList<OWLAxiom>();
+
+		/** The focused entity for each axiom, null for OWLAPI's default */
+		private final List<OWLEntity> focus = new ArrayList<OWLEntity>();
+
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private final Writer out = new BufferedWriter(new OutputStreamWriter(buffer, StandardCharsets.UTF_8), 1 << 16);
+
+		/* The renderer reads the ontology's format, so it is created on the calling thread as well */
+		private final OWLObjectRenderer renderer = createRenderer(out);
+
+		void add(OWLEntity focusedEntity, OWLAxiom axiom) {
+			focus.add(focusedEntity);
+			axioms.add(axiom);
+		}
+
+		@Override
+		public ByteArrayOutputStream call() throws IOException {
+			OWLEntity focusedEntity = null;
+			for (int i = 0; i < axioms.size(); i++) {
+				if (focus.get(i) != focusedEntity) {
+					focusedEntity = focus.get(i);
+					renderer.setFocusedObject(focusedEntity);
+				}
+				axioms.get(i).accept(renderer);
+				out.write("\n");
+			}
+			out.flush();
+			return buffer;
+		}
+	}
+
+	private ParallelOntologyWriter(OWLOntology ontology) {
+		this.ontology = ontology;
+		this.signature = new ArrayList<OWLEntity>(ontology.getSignature());
+		Collections.sort(this.signature);
+		for (OWLEntity entity : signature)
+			signatureIRIs.add(entity.getIRI());
+	}
+
+	/**
+	 * Writes the ontology in functional syntax to the given stream, which is
+	 * closed afterwards.
+	 *
+	 * @param ontology
+	 *            the ontology, which must not be modified concurrently.
+	 * @param outputStream
+	 * @param numThreads
+	 *            the number of threads that render the axioms
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void write(OWLOntology ontology, OutputStream outputStream, int numThreads) throws IOException, InterruptedException {
+		new ParallelOntologyWriter(ontology).write(new BufferedOutputStream(outputStream, BUFFER_SIZE), numThreads);
+	}
+
+	private void write(OutputStream out, int numThreads) throws IOException, InterruptedException {
+		ExecutorService pool = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+		ArrayDeque<Future<ByteArrayOutputStream>> pending = new ArrayDeque<Future<ByteArrayOutputStream>>();
+		try {
+			Writer header = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+			StreamingOntologyWriter.writeHeader(ontology, createRenderer(header), header);
+			header.flush();
+
+			/* Each part is collected here and rendered by the pool while the next one is collected */
+			for (int start = 0; start < signature.size(); start += ENTITIES_PER_TASK)
+				render(collectDeclarations(start, Math.min(start + ENTITIES_PER_TASK, signature.size())), pool, pending, numThreads, out);
+			for (int start = 0; start < signature.size(); start += ENTITIES_PER_TASK)
+				render(collectEntityAxioms(start, Math.min(start + ENTITIES_PER_TASK, signature.size())), pool, pending, numThreads, out);
+			List<OWLAxiom> axioms = new ArrayList<OWLAxiom>(ontology.getAxioms());
+			for (int start = 0; start < axioms.size(); start += AXIOMS_PER_TASK)
+				render(collectRemainingAxioms(axioms.subList(start, Math.min(start + AXIOMS_PER_TASK, axioms.size()))), pool, pending, numThreads, out);
+			while (!pending.isEmpty())
+				get(pending.poll()).writeTo(out);
+
+			out.write(')');
+		} finally {
+			if (pool != null)
+				pool.shutdownNow();
+			out.close();
+		}
+	}
+
+	/**
+	 * Renders the part inline or submits it to the pool, and writes the
+	 * oldest rendered parts while too many are pending.
+	 */
+	private static void render(Part part, ExecutorService pool, ArrayDeque<Future<ByteArrayOutputStream>> pending, int numThreads, OutputStream out)
+			throws IOException, InterruptedException {
+		if (pool == null) {
+			part.call().writeTo(out);
+			return;
+		}
+		pending.add(pool.submit(part));
+		while (pending.size() > 2 * numThreads)
+			get(pending.poll()).writeTo(out);
+	}
+
+	private static ByteArrayOutputStream get(Future<ByteArrayOutputStream> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Creates a renderer that uses the prefixes of the functional syntax
+	 * format, as OWLAPI does when the ontology is saved in this format.
+	 */
+	private OWLObjectRenderer createRenderer(Writer out) {
+		OWLObjectRenderer renderer = new OWLObjectRenderer(ontology, out);
+		DefaultPrefixManager prefixManager = new DefaultPrefixManager();
+		for (Map.Entry<String, String> prefix : new OWLFunctionalSyntaxOntologyFormat().getPrefixName2PrefixMap().entrySet())
+			prefixManager.setPrefix(prefix.getKey(), prefix.getValue());
+		renderer.setPrefixManager(prefixManager);
+		return renderer;
+	}
+
+	/**
+	 * Collects the declarations of the entities in the given range of the
+	 * signature.
+	 */
+	private Part collectDeclarations(int from, int to) {
+		Part part = new Part();
+		for (int i = from; i < to; i++) {
+			for (OWLAxiom axiom : ontology.getDeclarationAxioms(signature.get(i)))
+				part.add(null, axiom);
+		}
+		return part;
+	}
+
+	/**
+	 * Collects the annotation assertions and axioms of the entities in the
+	 * given range of the signature.
+	 */
+	private Part collectEntityAxioms(int from, int to) {
+		Part part = new Part();
+		for (int i = from; i < to; i++) {
+			OWLEntity entity = signature.get(i);
+			for (OWLAnnotationAssertionAxiom axiom : entity.getAnnotationAssertionAxioms(ontology))
+				part.add(entity, axiom);
+			List<OWLAxiom> axioms = new ArrayList<OWLAxiom>(entity.accept(entityAxioms));
+			Collections.sort(axioms);
+			for (OWLAxiom axiom : axioms) {
+				if (isWrittenForEntity(axiom) && !isWrittenBefore(axiom, entity))
+					part.add(entity, axiom);
+			}
+		}
+		return part;
+	}
+
+	/**
+	 * Collects the axioms of the given part of the ontology that are not
+	 * written for any entity.
+	 */
+	private Part collectRemainingAxioms(List<OWLAxiom> axioms) {
+		Part part = new Part();
+		/* OWLAPI keeps the focus on the last entity */
+		OWLEntity last = signature.isEmpty() ? null : signature.get(signature.size() - 1);
+		for (OWLAxiom axiom : axioms) {
+			if (!isWritten(axiom))
+				part.add(last, axiom);
+		}
+		return part;
+	}
+
+	/**
+	 * @return whether the axiom is of a kind that OWLAPI writes together with
+	 *         the entities that it belongs to.
+	 */
+	private static boolean isWrittenForEntity(OWLAxiom axiom) {
+		if (axiom.getAxiomType() == AxiomType.DIFFERENT_INDIVIDUALS)
+			return false;
+		if (axiom.getAxiomType() == AxiomType.DISJOINT_CLASSES && ((OWLDisjointClassesAxiom) axiom).getClassExpressions().size() > 2)
+			return false;
+		return true;
+	}
+
+	/**
+	 * @return the entities that the axiom belongs to if this is known without
+	 *         looking into the axiom index, or null otherwise. OWLAPI indexes
+	 *         subclass axioms by their named subclass and equivalence axioms
+	 *         by their named classes. Computing the whole signature or asking
+	 *         the index is much more expensive for these common axioms.
+	 */
+	private static Collection<? extends OWLEntity> getOwners(OWLAxiom axiom) {
+		if (axiom instanceof OWLSubClassOfAxiom) {
+			OWLClassExpression subClass = ((OWLSubClassOfAxiom) axiom).getSubClass();
+			if (subClass.isAnonymous())
+				return Collections.emptySet();
+			return Collections.singleton(subClass.asOWLClass());
+		}
+		if (axiom instanceof OWLEquivalentClassesAxiom)
+			return ((OWLEquivalentClassesAxiom) axiom).getNamedClasses();
+		return null;
+	}
+
+	/**
+	 * @return whether the axiom belongs to an entity that precedes the given
+	 *         one.
+	 */
+	private boolean isWrittenBefore(OWLAxiom axiom, OWLEntity entity) {
+		Collection<? extends OWLEntity> owners = getOwners(axiom);
+		if (owners != null) {
+			for (OWLEntity other : owners) {
+				if (other.compareTo(entity) < 0)
+					return true;
+			}
+			return false;
+		}
+		for (OWLEntity other : axiom.getSignature()) {
+			if (other.compareTo(entity) < 0 && other.accept(entityAxioms).contains(axiom))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return whether the axiom is written as a declaration, annotation
+	 *         assertion or axiom of an entity.
+	 */
+	private boolean isWritten(OWLAxiom axiom) {
+		if (axiom.getAxiomType() == AxiomType.DECLARATION)
+			return true;
+		if (axiom.getAxiomType() == AxiomType.ANNOTATION_ASSERTION) {
+			OWLAnnotationAssertionAxiom assertion = (OWLAnnotationAssertionAxiom) axiom;
+			return assertion.getSubject() instanceof IRI && signatureIRIs.contains(assertion.getSubject());
+		}
+		if (!isWrittenForEntity(axiom))
+			return false;
+		Collection<? extends OWLEntity> owners = getOwners(axiom);
+		if (owners != null)
+			return !owners.isEmpty();
+		for (OWLEntity entity : axiom.getSignature()) {
+			if (entity.accept(entityAxioms).contains(axiom))
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,602 @@
+package de.charite.zpgen;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.coode.owlapi.obo12.parser.OBOVocabulary;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+
+/**
+ * Reads the equivalence axioms of the ZP classes from a previous zp, without
+ * loading the ontology. This is all that is needed to recover the ids (see
+ * {@link ZPIDDB#ZPIDDB(java.util.Collection, ZPIDRegistry)}), and is much
+ * faster and needs much less memory than loading the ontology with the OWL
+ * API.
+ *
+ * The functional syntax as well as RDF/XML are supported, the syntax is
+ * detected from the first character of the (possibly compressed) file. A file
+ * in functional syntax is read in blocks of whole lines, which are parsed
+ * concurrently. Only lines that start with an EquivalentClasses axiom are
+ * parsed at all. RDF/XML is streamed through StAX, only the
+ * owl:equivalentClass elements of named classes are looked at.
+ *
+ * Only the constructs that are used for the ZP classes are understood, i.e.,
+ * named classes, object intersections and existential restrictions. Axioms
+ * with other constructs are counted (see {@link #getNumUnsupported()}) and
+ * skipped.
+ */
+public class PreviousIdReader {
+	private static Logger log = Logger.getAnonymousLogger();
+
+	private static final int DEFAULT_BLOCK_SIZE = 4 << 20;
+
+	private static final byte[] EQUIVALENT_CLASSES = "EquivalentClasses(".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] PREFIX = "Prefix(".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] ONTOLOGY = "Ontology(".getBytes(StandardCharsets.US_ASCII);
+
+	private static final String OWL = "http://www.w3.org/2002/07/owl#";
+	private static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+	private final OWLDataFactory factory;
+
+	/** Size of the blocks of the functional syntax that are parsed at once */
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+
+	/** The prefixes declared in the functional syntax, including the colon */
+	private final Map<String, String> prefixes = new ConcurrentHashMap<String, String>();
+
+	private int numUnsupported;
+	private int maxZPNumber;
+
+	/**
+	 * @param factory
+	 *            the factory that creates the axioms
+	 */
+	public PreviousIdReader(OWLDataFactory factory) {
+		this.factory = factory;
+	}
+
+	void setBlockSize(int blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Reads the equivalence axioms of the ZP classes from the given file,
+	 * which may be compressed.
+	 *
+	 * @param file
+	 * @param numThreads
+	 *            the number of threads that parse the functional syntax
+	 * @return the axioms in the order of the file.
+	 * @throws IOException
+	 */
+	public List<OWLEquivalentClassesAxiom> read(File file, int numThreads) throws IOException, InterruptedException {
+		prefixes.clear();
+		numUnsupported = 0;
+		maxZPNumber = 0;
+
+		InputStream in = new BufferedInputStream(CompressedStreams.openInput(file), 1 << 16);
+		try {
+			in.mark(1 << 16);
+			int c;
+			do {
+				c = in.read();
+			} while (c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == 0xef || c == 0xbb || c == 0xbf);
+			in.reset();
+
+			List<OWLEquivalentClassesAxiom> axioms;
+			if (c == '<')
+				axioms = readRdfXml(in);
+			else
+				axioms = readFunctionalSyntax(in, numThreads);
+			if (numUnsupported > 0)
+				log.warning("Skipped " + numUnsupported + " equivalence axioms of ZP classes with unsupported constructs in \"" + file + "\"");
+			return axioms;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the number of equivalence axioms of ZP classes that were skipped
+	 *         by the last {@link #read(File, int)}.
+	 */
+	public int getNumUnsupported() {
+		return numUnsupported;
+	}
+
+	/**
+	 * @return the largest number of a ZP class with an equivalence axiom seen
+	 *         by the last {@link #read(File, int)}, including the skipped
+	 *         ones. New ids must be larger than this (see
+	 *         {@link ZPIDDB#reserveIdsUpTo(int)}).
+	 */
+	public int getMaxZPNumber() {
+		return maxZPNumber;
+	}
+
+	/**
+	 * @return the number of the ZP class or -1 if the expression is not a ZP
+	 *         class.
+	 */
+	private static int getZPNumber(OWLClassExpression classExpression) {
+		if (!(classExpression instanceof OWLClass))
+			return -1;
+		String id = OBOVocabulary.IRI2ID(((OWLClass) classExpression).getIRI());
+		if (!id.startsWith("ZP:"))
+			return -1;
+		try {
+			return Integer.parseInt(id.substring(3));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/*
+	 * Functional syntax
+	 */
+
+	/** The result of parsing one block */
+	private static class Chunk {
+		final List<OWLEquivalentClassesAxiom> axioms = new ArrayList<OWLEquivalentClassesAxiom>();
+		int numUnsupported;
+		int maxZPNumber;
+	}
+
+	private List<OWLEquivalentClassesAxiom> readFunctionalSyntax(InputStream in, int numThreads) throws IOException, InterruptedException {
+		List<OWLEquivalentClassesAxiom> axioms = new ArrayList<OWLEquivalentClassesAxiom>();
+		ExecutorService pool = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+		ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+		try {
+			boolean header = true;
+			byte[] buffer = new byte[blockSize];
+			int length = 0;
+			boolean eof = false;
+			while (!eof) {
+				int n = in.read(buffer, length, buffer.length - length);
+				if (n < 0)
+					eof = true;
+				else
+					length += n;
+				if (!eof && length < buffer.length)
+					continue;
+
+				/* Cut the block after the last complete line, the rest is carried over */
+				int end = length;
+				if (!eof) {
+					while (end > 0 && buffer[end - 1] != '\n')
+						end--;
+					if (end == 0) {
+						buffer = Arrays.copyOf(buffer, buffer.length * 2);
+						continue;
+					}
+				}
+				final byte[] block = Arrays.copyOf(buffer, end);
+				System.arraycopy(buffer, end, buffer, 0, length - end);
+				length -= end;
+
+				/* The prefixes must be known before the axioms of the block are parsed */
+				if (header)
+					header = readPrefixes(block);
+
+				if (pool == null) {
+					add(parseBlock(block), axioms);
+				} else {
+					pending.add(pool.submit(new Callable<Chunk>() {
+						@Override
+						public Chunk call() {
+							return parseBlock(block);
+						}
+					}));
+					while (pending.size() > 2 * numThreads)
+						add(get(pending.poll()), axioms);
+				}
+			}
+			while (!pending.isEmpty())
+				add(get(pending.poll()), axioms);
+		} finally {
+			if (pool != null)
+				pool.shutdownNow();
+		}
+		return axioms;
+	}
+
+	private void add(Chunk chunk, List<OWLEquivalentClassesAxiom> axioms) {
+		axioms.addAll(chunk.axioms);
+		numUnsupported += chunk.numUnsupported;
+		maxZPNumber = Math.max(maxZPNumber, chunk.maxZPNumber);
+	}
+
+	private static Chunk get(Future<Chunk> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private static boolean startsWith(byte[] block, int start, int end, byte[] prefix) {
+		if (end - start < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++) {
+			if (block[start + i] != prefix[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Collects the prefix declarations of the block.
+	 *
+	 * @return whether the header, i.e., the part before the ontology, may
+	 *         continue in the next block.
+	 */
+	private boolean readPrefixes(byte[] block) {
+		int start = 0;
+		while (start < block.length) {
+			int end = start;
+			while (end < block.length && block[end] != '\n')
+				end++;
+			if (startsWith(block, start, end, ONTOLOGY))
+				return false;
+			if (startsWith(block, start, end, PREFIX)) {
+				String line = new String(block, start, end - start, StandardCharsets.UTF_8);
+				int equals = line.indexOf('=');
+				int open = line.indexOf('<', equals);
+				int close = line.indexOf('>', open);
+				if (equals > 0 && open > 0 && close > 0)
+					prefixes.put(line.substring(PREFIX.length, equals).trim(), line.substring(open + 1, close));
+			}
+			start = end + 1;
+		}
+		return true;
+	}
+
+	private Chunk parseBlock(byte[] block) {
+		Chunk chunk = new Chunk();
+		int start = 0;
+		while (start < block.length) {
+			int end = start;
+			while (end < block.length && block[end] != '\n')
+				end++;
+			if (startsWith(block, start, end, EQUIVALENT_CLASSES)) {
+				LineParser parser = new LineParser(new String(block, start, end - start, StandardCharsets.UTF_8));
+				OWLEquivalentClassesAxiom axiom = parser.parseEquivalence();
+				if (axiom != null)
+					chunk.axioms.add(axiom);
+				else if (parser.zpNumber >= 0)
+					chunk.numUnsupported++;
+				chunk.maxZPNumber = Math.max(chunk.maxZPNumber, parser.zpNumber);
+			}
+			start = end + 1;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Parses a single EquivalentClasses axiom. The parse methods return null
+	 * if the input is not understood.
+	 */
+	private class LineParser {
+		private final String line;
+		private int pos;
+
+		/** The number of the first class of the axiom if it is a ZP class, otherwise -1 */
+		int zpNumber = -1;
+
+		LineParser(String line) {
+			this.line = line;
+		}
+
+		/**
+		 * @return the axiom or null if it is not the equivalence axiom of a ZP
+		 *         class or it is not understood.
+		 */
+		OWLEquivalentClassesAxiom parseEquivalence() {
+			pos = EQUIVALENT_CLASSES.length;
+			skipSpace();
+			while (line.startsWith("Annotation(", pos)) {
+				if (!skipAnnotation())
+					return null;
+				skipSpace();
+			}
+			OWLClassExpression first = parseClassExpression();
+			zpNumber = getZPNumber(first);
+			if (zpNumber < 0)
+				return null;
+
+			Set<OWLClassExpression> operands = new HashSet<OWLClassExpression>();
+			operands.add(first);
+			if (!parseOperands(operands))
+				return null;
+			return factory.getOWLEquivalentClassesAxiom(operands);
+		}
+
+		/**
+		 * Parses class expressions up to and including the closing
+		 * parenthesis.
+		 */
+		private boolean parseOperands(Set<OWLClassExpression> operands) {
+			while (true) {
+				skipSpace();
+				if (pos >= line.length())
+					return false;
+				if (line.charAt(pos) == ')') {
+					pos++;
+					return true;
+				}
+				OWLClassExpression operand = parseClassExpression();
+				if (operand == null)
+					return false;
+				operands.add(operand);
+			}
+		}
+
+		private OWLClassExpression parseClassExpression() {
+			skipSpace();
+			if (line.startsWith("ObjectIntersectionOf(", pos)) {
+				pos += "ObjectIntersectionOf(".length();
+				Set<OWLClassExpression> operands = new HashSet<OWLClassExpression>();
+				if (!parseOperands(operands) || operands.size() < 2)
+					return null;
+				return factory.getOWLObjectIntersectionOf(operands);
+			}
+			if (line.startsWith("ObjectSomeValuesFrom(", pos)) {
+				pos += "ObjectSomeValuesFrom(".length();
+				skipSpace();
+				IRI property = parseIRI();
+				if (property == null)
+					return null;
+				OWLClassExpression filler = parseClassExpression();
+				if (filler == null)
+					return null;
+				skipSpace();
+				if (pos >= line.length() || line.charAt(pos) != ')')
+					return null;
+				pos++;
+				return factory.getOWLObjectSomeValuesFrom(factory.getOWLObjectProperty(property), filler);
+			}
+			IRI iri = parseIRI();
+			if (iri == null)
+				return null;
+			return factory.getOWLClass(iri);
+		}
+
+		/**
+		 * Parses a full IRI or a prefixed name.
+		 */
+		private IRI parseIRI() {
+			if (pos >= line.length())
+				return null;
+			if (line.charAt(pos) == '<') {
+				int close = line.indexOf('>', pos);
+				if (close < 0)
+					return null;
+				IRI iri = IRI.create(line.substring(pos + 1, close));
+				pos = close + 1;
+				return iri;
+			}
+			int start = pos;
+			while (pos < line.length()) {
+				char c = line.charAt(pos);
+				if (c == ' ' || c == ')' || c == '(' || c == '\t' || c == '\r')
+					break;
+				pos++;
+			}
+			String name = line.substring(start, pos);
+			int colon = name.indexOf(':');
+			if (colon < 0)
+				return null;
+			String namespace = prefixes.get(name.substring(0, colon + 1));
+			if (namespace == null)
+				return null;
+			return IRI.create(namespace + name.substring(colon + 1));
+		}
+
+		/**
+		 * Skips an axiom annotation, which has no influence on the id.
+		 */
+		private boolean skipAnnotation() {
+			int depth = 0;
+			boolean quoted = false;
+			for (; pos < line.length(); pos++) {
+				char c = line.charAt(pos);
+				if (quoted) {
+					if (c == '\\')
+						pos++;
+					else if (c == '"')
+						quoted = false;
+				} else if (c == '"') {
+					quoted = true;
+				} else if (c == '(') {
+					depth++;
+				} else if (c == ')' && --depth == 0) {
+					pos++;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void skipSpace() {
+			while (pos < line.length() && (line.charAt(pos) == ' ' || line.charAt(pos) == '\t' || line.charAt(pos) == '\r'))
+				pos++;
+		}
+	}
+
+	/*
+	 * RDF/XML
+	 */
+
+	private List<OWLEquivalentClassesAxiom> readRdfXml(InputStream in) throws IOException {
+		XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+
+		List<OWLEquivalentClassesAxiom> axioms = new ArrayList<OWLEquivalentClassesAxiom>();
+		try {
+			XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in);
+			int depth = 0;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					/* The class descriptions are the children of rdf:RDF */
+					if (depth == 1 && (is(reader, OWL, "Class") || is(reader, RDF, "Description")))
+						readClass(reader, axioms);
+					else
+						depth++;
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				}
+			}
+			reader.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		return axioms;
+	}
+
+	private static boolean is(XMLStreamReader reader, String namespace, String localName) {
+		return localName.equals(reader.getLocalName()) && namespace.equals(reader.getNamespaceURI());
+	}
+
+	/** Skips the current element including its end */
+	private static void skip(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+		}
+	}
+
+	/**
+	 * Reads the equivalent classes of a named class, consumes the class
+	 * element.
+	 */
+	private void readClass(XMLStreamReader reader, List<OWLEquivalentClassesAxiom> axioms) throws XMLStreamException {
+		String about = reader.getAttributeValue(RDF, "about");
+		OWLClass cl = about != null ? factory.getOWLClass(IRI.create(about)) : null;
+		int zpNumber = cl != null ? getZPNumber(cl) : -1;
+		if (zpNumber < 0) {
+			skip(reader);
+			return;
+		}
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (!is(reader, OWL, "equivalentClass") || reader.getAttributeValue(RDF, "resource") != null) {
+				skip(reader);
+				continue;
+			}
+			OWLClassExpression classExpression = null;
+			if (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				classExpression = readClassExpression(reader);
+				while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+					skip(reader);
+			}
+			if (classExpression != null)
+				axioms.add(factory.getOWLEquivalentClassesAxiom(cl, classExpression));
+			else
+				numUnsupported++;
+			maxZPNumber = Math.max(maxZPNumber, zpNumber);
+		}
+	}
+
+	/**
+	 * Reads the class expression of the current element, consumes the
+	 * element.
+	 *
+	 * @return the class expression or null if it is not understood.
+	 */
+	private OWLClassExpression readClassExpression(XMLStreamReader reader) throws XMLStreamException {
+		if (is(reader, OWL, "Class") || is(reader, RDF, "Description")) {
+			String about = reader.getAttributeValue(RDF, "about");
+			if (about != null) {
+				skip(reader);
+				return factory.getOWLClass(IRI.create(about));
+			}
+			Set<OWLClassExpression> operands = null;
+			boolean supported = true;
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (is(reader, OWL, "intersectionOf") && operands == null) {
+					operands = new HashSet<OWLClassExpression>();
+					while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+						OWLClassExpression operand = readClassExpression(reader);
+						if (operand == null)
+							supported = false;
+						else
+							operands.add(operand);
+					}
+				} else if (is(reader, RDF, "type")) {
+					skip(reader);
+				} else {
+					supported = false;
+					skip(reader);
+				}
+			}
+			if (!supported || operands == null || operands.size() < 2)
+				return null;
+			return factory.getOWLObjectIntersectionOf(operands);
+		}
+
+		if (is(reader, OWL, "Restriction")) {
+			OWLObjectProperty property = null;
+			OWLClassExpression filler = null;
+			boolean supported = true;
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				String resource = reader.getAttributeValue(RDF, "resource");
+				if (is(reader, OWL, "onProperty") && resource != null) {
+					property = factory.getOWLObjectProperty(IRI.create(resource));
+					skip(reader);
+				} else if (is(reader, OWL, "someValuesFrom") && resource != null) {
+					filler = factory.getOWLClass(IRI.create(resource));
+					skip(reader);
+				} else if (is(reader, OWL, "someValuesFrom")) {
+					if (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+						filler = readClassExpression(reader);
+						while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+							skip(reader);
+					}
+				} else {
+					supported = false;
+					skip(reader);
+				}
+			}
+			if (!supported || property == null || filler == null)
+				return null;
+			return factory.getOWLObjectSomeValuesFrom(property, filler);
+		}
+
+		skip(reader);
+		return null;
+	}
+}
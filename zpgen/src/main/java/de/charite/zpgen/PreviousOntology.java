@@ -0,0 +1,109 @@
+package de.charite.zpgen;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddImport;
+import org.semanticweb.owlapi.model.AddOntologyAnnotation;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLImportsDeclaration;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+/**
+ * A previous version of zp that is loaded once and then handed to several
+ * runs, e.g., in batch mode. Every run gets its own copy of the ontology and
+ * of the id database, which is much cheaper than parsing the ontology again.
+ */
+public class PreviousOntology {
+
+	private final OWLOntology ontology;
+	private final ZPIDDB zpIdDB;
+
+	/** The checksum of the file the ontology was loaded from */
+	private final long checksum;
+
+	private PreviousOntology(OWLOntology ontology, long checksum) {
+		this.ontology = ontology;
+		this.zpIdDB = new ZPIDDB(ontology);
+		this.checksum = checksum;
+	}
+
+	/**
+	 * Loads the previous ontology from the given file, which may be
+	 * compressed.
+	 *
+	 * @param file
+	 * @return
+	 * @throws OWLOntologyCreationException
+	 * @throws IOException
+	 */
+	public static PreviousOntology load(File file) throws OWLOntologyCreationException, IOException {
+		return new PreviousOntology(load(OWLManager.createOWLOntologyManager(), file), IncrementalIndex.checksum(file));
+	}
+
+	/**
+	 * Loads the ontology from the given file, which may be compressed, into
+	 * the given manager.
+	 *
+	 * @param manager
+	 * @param file
+	 * @return
+	 * @throws OWLOntologyCreationException
+	 * @throws IOException
+	 */
+	static OWLOntology load(OWLOntologyManager manager, File file) throws OWLOntologyCreationException, IOException {
+		if (!CompressedStreams.isCompressed(file))
+			return manager.loadOntologyFromOntologyDocument(file);
+
+		InputStream in = CompressedStreams.openInput(file);
+		try {
+			return manager.loadOntologyFromOntologyDocument(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Creates a copy of the ontology in the given manager.
+	 *
+	 * @param manager
+	 * @param ontologyIRI
+	 *            the IRI of the copy
+	 * @return
+	 * @throws OWLOntologyCreationException
+	 */
+	public synchronized OWLOntology copyOntology(OWLOntologyManager manager, IRI ontologyIRI) throws OWLOntologyCreationException {
+		OWLOntology copy = manager.createOntology(ontology.getAxioms(), ontologyIRI);
+		List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
+		for (OWLImportsDeclaration declaration : ontology.getImportsDeclarations())
+			changes.add(new AddImport(copy, declaration));
+		for (OWLAnnotation annotation : ontology.getAnnotations())
+			changes.add(new AddOntologyAnnotation(copy, annotation));
+		if (!changes.isEmpty())
+			manager.applyChanges(changes);
+		return copy;
+	}
+
+	/**
+	 * @return the checksum of the file the ontology was loaded from, see
+	 *         {@link IncrementalIndex#checksum(File)}.
+	 */
+	public long getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * @return a copy of the id database that holds the ids of the ontology.
+	 */
+	public ZPIDDB copyIdDB() {
+		return new ZPIDDB(zpIdDB);
+	}
+}
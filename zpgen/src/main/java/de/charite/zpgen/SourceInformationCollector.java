@@ -0,0 +1,149 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.coode.owlapi.obo12.parser.OBOVocabulary;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLAnnotationSubject;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.procedure.TIntObjectProcedure;
+
+/**
+ * Collects the label and the source strings of the ZP classes while the ZFIN
+ * files are walked, so that the source information file can be written
+ * without going through the annotations of the ontology afterwards.
+ */
+public class SourceInformationCollector {
+
+	/**
+	 * Label and sources of a single ZP class.
+	 */
+	private static class SourceInformation {
+		String label;
+		final List<String> sources = new ArrayList<String>(2);
+	}
+
+	private final TIntObjectHashMap<SourceInformation> zp2info = new TIntObjectHashMap<SourceInformation>();
+
+	/**
+	 * Adds the given label and source for the ZP class with the given number.
+	 * Sources are added only once. If a class has several labels (because the
+	 * term names differ), the first one is kept, so labels of the previous
+	 * ontology take precedence.
+	 *
+	 * @param zpNumber
+	 * @param label
+	 * @param source
+	 */
+	public void add(int zpNumber, String label, String source) {
+		SourceInformation info = get(zpNumber);
+		if (info.label == null)
+			info.label = label;
+		if (source != null && !info.sources.contains(source))
+			info.sources.add(source);
+	}
+
+	private SourceInformation get(int zpNumber) {
+		SourceInformation info = zp2info.get(zpNumber);
+		if (info == null) {
+			info = new SourceInformation();
+			zp2info.put(zpNumber, info);
+		}
+		return info;
+	}
+
+	/**
+	 * Adds the labels and sources of the ZP classes of the given (previous)
+	 * ontology in a single pass over its annotation assertions. As the order
+	 * of the axioms is arbitrary, the smallest label of a class is taken and
+	 * its sources are sorted.
+	 *
+	 * @param zp
+	 */
+	public void addFromOntology(OWLOntology zp) {
+		final TIntObjectHashMap<String> labels = new TIntObjectHashMap<String>();
+		final TIntObjectHashMap<List<String>> sources = new TIntObjectHashMap<List<String>>();
+		for (OWLAnnotationAssertionAxiom axiom : zp.getAxioms(AxiomType.ANNOTATION_ASSERTION)) {
+			OWLAnnotationSubject subject = axiom.getSubject();
+			if (!(subject instanceof IRI) || !(axiom.getValue() instanceof OWLLiteral))
+				continue;
+			String zpID = OBOVocabulary.IRI2ID((IRI) subject);
+			if (!zpID.startsWith("ZP:"))
+				continue;
+			int zpNumber = Integer.parseInt(zpID.substring(3));
+			String literal = ((OWLLiteral) axiom.getValue()).getLiteral();
+
+			if (axiom.getProperty().isLabel()) {
+				String label = labels.get(zpNumber);
+				if (label == null || literal.compareTo(label) < 0)
+					labels.put(zpNumber, literal);
+			} else if (axiom.getProperty().getIRI().equals(ZPGen.definitionSourcePropertyIRI)) {
+				List<String> classSources = sources.get(zpNumber);
+				if (classSources == null) {
+					classSources = new ArrayList<String>(2);
+					sources.put(zpNumber, classSources);
+				}
+				classSources.add(literal);
+			}
+		}
+
+		labels.forEachEntry(new TIntObjectProcedure<String>() {
+			public boolean execute(int zpNumber, String label) {
+				add(zpNumber, label, null);
+				return true;
+			}
+		});
+		sources.forEachEntry(new TIntObjectProcedure<List<String>>() {
+			public boolean execute(int zpNumber, List<String> classSources) {
+				Collections.sort(classSources);
+				for (String source : classSources)
+					add(zpNumber, null, source);
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Writes the source information file, one line per ZP class and source
+	 * ordered by the ZP id. Classes without label or source are skipped.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		int[] zpNumbers = zp2info.keys();
+		Arrays.sort(zpNumbers);
+
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(CompressedStreams.openOutput(file)));
+		try {
+			for (int zpNumber : zpNumbers) {
+				SourceInformation info = zp2info.get(zpNumber);
+				if (info.label == null)
+					continue;
+				String zpID = String.format("ZP:%07d", zpNumber);
+				for (String source : info.sources) {
+					writer.append(zpID);
+					writer.append('\t');
+					writer.append(info.label);
+					writer.append('\t');
+					writer.append(source);
+					writer.append('\n');
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+}
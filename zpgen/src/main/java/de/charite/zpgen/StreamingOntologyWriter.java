@@ -0,0 +1,154 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.coode.owlapi.functionalrenderer.OWLObjectRenderer;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
+import org.semanticweb.owlapi.model.OWLImportsDeclaration;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyID;
+
+/**
+ * Writes an ontology in OWL functional syntax while it is constructed. The
+ * header and all axioms of the given base ontology are written when the writer
+ * is created, axioms passed to {@link #addAxiom(OWLAxiom)} are written
+ * immediately in the order they are added (and not kept in memory), the
+ * closing bracket is written on {@link #close()}.
+ *
+ * Axioms that are contained in the base ontology are skipped. Apart from that
+ * the writer doesn't remember what it has written, so the caller must not pass
+ * an axiom twice (see
+ * {@link ZFINOntologyVisitor#setStreamingWriter(StreamingOntologyWriter)}).
+ */
+public class StreamingOntologyWriter {
+
+	private final OWLOntology base;
+	private final Writer out;
+
+	/** The renderer writes into this buffer, which is then copied to out */
+	private final CharArrayWriter buffer = new CharArrayWriter(4096);
+	private final OWLObjectRenderer renderer;
+
+	private int numWrittenAxioms;
+
+	/**
+	 * Creates the writer and writes the header as well as the axioms of the
+	 * given ontology.
+	 *
+	 * @param base
+	 *            the ontology whose id, prefixes, imports, annotations and
+	 *            axioms are written. It is not modified.
+	 * @param outputStream
+	 * @throws IOException
+	 */
+	public StreamingOntologyWriter(OWLOntology base, OutputStream outputStream) throws IOException {
+		this.base = base;
+		this.out = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 1 << 16);
+		this.renderer = new OWLObjectRenderer(base, buffer);
+
+		writeHeader(base, new OWLObjectRenderer(base, out), out);
+
+		/* Sort the axioms of the base ontology to get a deterministic output */
+		for (OWLAxiom axiom : new TreeSet<OWLAxiom>(base.getAxioms())) {
+			axiom.accept(renderer);
+			flushBuffer();
+			out.write("\n");
+		}
+	}
+
+	/**
+	 * Writes the prefixes, the ontology id, the imports and the ontology
+	 * annotations in the same way as OWLAPI, i.e., everything before the
+	 * axioms.
+	 *
+	 * @param ontology
+	 * @param renderer
+	 *            a renderer of the ontology that writes to out
+	 * @param out
+	 * @throws IOException
+	 */
+	static void writeHeader(OWLOntology ontology, OWLObjectRenderer renderer, Writer out) throws IOException {
+		renderer.writePrefixes();
+
+		out.write("\n\nOntology(");
+		OWLOntologyID id = ontology.getOntologyID();
+		if (!id.isAnonymous()) {
+			out.write(id.getOntologyIRI().toQuotedString());
+			out.write("\n");
+			if (id.getVersionIRI() != null) {
+				out.write(id.getVersionIRI().toQuotedString());
+				out.write("\n");
+			}
+		}
+		for (OWLImportsDeclaration importsDeclaration : ontology.getImportsDeclarations()) {
+			out.write("Import(");
+			out.write(importsDeclaration.getIRI().toQuotedString());
+			out.write(")\n");
+		}
+		for (OWLAnnotation annotation : ontology.getAnnotations()) {
+			annotation.accept(renderer);
+			out.write("\n");
+		}
+		out.write("\n");
+	}
+
+	/**
+	 * Writes the given axiom unless it is already contained in the base
+	 * ontology.
+	 *
+	 * @param axiom
+	 * @throws IOException
+	 */
+	public void addAxiom(OWLAxiom axiom) throws IOException {
+		if (base.containsAxiom(axiom))
+			return;
+
+		/* Like OWLAPI, write the named class first */
+		OWLClass focus = null;
+		if (axiom instanceof OWLEquivalentClassesAxiom) {
+			Set<OWLClass> namedClasses = ((OWLEquivalentClassesAxiom) axiom).getNamedClasses();
+			if (!namedClasses.isEmpty())
+				focus = Collections.min(namedClasses);
+		}
+		renderer.setFocusedObject(focus);
+
+		axiom.accept(renderer);
+		flushBuffer();
+		out.write("\n");
+		numWrittenAxioms++;
+	}
+
+	/**
+	 * @return the number of axioms written by {@link #addAxiom(OWLAxiom)}.
+	 */
+	public int getNumWrittenAxioms() {
+		return numWrittenAxioms;
+	}
+
+	/**
+	 * Writes the closing bracket and closes the underlying stream.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		out.write(")");
+		out.close();
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.writeTo(out);
+		buffer.reset();
+	}
+}
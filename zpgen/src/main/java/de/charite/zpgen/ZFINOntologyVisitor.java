@@ -0,0 +1,652 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.coode.owlapi.obo12.parser.OBOVocabulary;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAnnotationProperty;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * Constructs an OWLClass and Axioms for each zfin entry. We expect the reasoner
+ * to collate the classes properly (unless a {@link ZPClassifier} is set, there
+ * is no reasoner used at the moment). We also emit the annotations here.
+ *
+ * The work is split into two halves: {@link #prepare(ZFINEntry)} builds the
+ * class expression and the label and only touches the (thread safe) data
+ * factory, {@link #commit(Definition, BufferedWriter, BufferedWriter)} assigns
+ * the ZP id, adds the axioms and writes the annotation. Only the latter has to
+ * be called in input order.
+ *
+ * @author Sebastian Koehler
+ * @author Sebastian Bauer
+ * @author Heiko Dietze
+ */
+public class ZFINOntologyVisitor implements ZFINParallelVisitor<ZFINOntologyVisitor.Definition>, Flushable {
+
+	/**
+	 * The class expression and label built for a single entry. For entries
+	 * found in the incremental index the class expression is null and the ZP
+	 * number is taken from the index.
+	 */
+	public static class Definition {
+		public final ZFINEntry entry;
+		public final OWLClassExpression classExpression;
+		public final String label;
+
+		/** The fingerprint of the uncorrected entry, only set in incremental mode */
+		long fingerprint;
+
+		/** The ZP number of an entry found in the incremental index */
+		int reusedZPNumber;
+
+		/** The cache entry shared with all entries with the same tuple */
+		CachedDefinition cached;
+
+		public Definition(ZFINEntry entry, OWLClassExpression classExpression, String label) {
+			this.entry = entry;
+			this.classExpression = classExpression;
+			this.label = label;
+		}
+	}
+
+	/**
+	 * The class expression, label and ZP IRI shared by all entries with the
+	 * same corrected EQ tuple and term names.
+	 */
+	static class CachedDefinition {
+		final OWLClassExpression classExpression;
+		final String label;
+
+		/** Assigned when the first entry with this tuple is committed */
+		volatile IRI zpIRI;
+
+		/**
+		 * The source strings of the committed entries with this tuple, whose
+		 * source information axiom was added. Usually only one, but the source
+		 * string is taken before the entry is corrected.
+		 */
+		final List<String> sources = new ArrayList<String>(1);
+
+		CachedDefinition(OWLClassExpression classExpression, String label) {
+			this.classExpression = classExpression;
+			this.label = label;
+		}
+	}
+
+	/** The default number of EQ tuples kept in the expression cache */
+	public static final int DEFAULT_EXPRESSION_CACHE_SIZE = 1 << 16;
+
+	/** Number of axioms that are added to the ontology at once */
+	private static final int AXIOM_BATCH_SIZE = 8192;
+
+	private final OWLOntologyManager manager;
+	private final OWLDataFactory factory;
+	private final OWLOntology zp;
+	private final ZPIDDB zpIdDB;
+	private final boolean addSourceInformation;
+
+	/** If set, axioms are written to this writer instead of being added to zp */
+	private StreamingOntologyWriter streamingWriter;
+
+	/**
+	 * With the streaming output, the ZP numbers whose equivalence axiom was
+	 * written, as the writer doesn't remember the written axioms
+	 */
+	private TIntHashSet streamedClasses;
+
+	/** If set, label and source of every entry are recorded here */
+	private SourceInformationCollector sourceInformation;
+
+	/** If set, the definition of every new class is added here */
+	private ZPClassifier classifier;
+
+	/** Axioms not yet added to the ontology */
+	private final Set<OWLAxiom> pendingAxioms = new LinkedHashSet<OWLAxiom>();
+	private int axiomBatchSize = AXIOM_BATCH_SIZE;
+
+	/** Entries contained in this index of the previous run are not processed again */
+	private IncrementalIndex previousIndex;
+
+	/** All entries of this run are recorded in this index */
+	private IncrementalIndex nextIndex;
+	private int numReusedEntries;
+
+	private final OWLObjectProperty towards;
+	private final OWLObjectProperty partOf;
+	private final OWLObjectProperty inheresProperty;
+	private final OWLObjectProperty hasPart;
+	private final OWLObjectProperty has_modifier;
+	private final OWLClass abnormal;
+
+	/** Maps obo ids to the corresponding classes, the number of terms is small */
+	private final ConcurrentHashMap<String, OWLClass> termClasses = new ConcurrentHashMap<String, OWLClass>();
+
+	/** Maps EQ tuples to the definitions built for them, null if disabled */
+	private final Cache<String, CachedDefinition> expressionCache;
+
+	/**
+	 * @param zp
+	 *            the ontology to which the axioms are added
+	 * @param zpIdDB
+	 *            the id registry
+	 * @param addSourceInformation
+	 *            whether the source string of an entry should be added as
+	 *            annotation
+	 */
+	public ZFINOntologyVisitor(OWLOntology zp, ZPIDDB zpIdDB, boolean addSourceInformation) {
+		this(zp, zpIdDB, addSourceInformation, DEFAULT_EXPRESSION_CACHE_SIZE);
+	}
+
+	/**
+	 * @param zp
+	 *            the ontology to which the axioms are added
+	 * @param zpIdDB
+	 *            the id registry
+	 * @param addSourceInformation
+	 *            whether the source string of an entry should be added as
+	 *            annotation
+	 * @param expressionCacheSize
+	 *            the maximum number of EQ tuples whose class expression, label
+	 *            and ZP IRI are cached. 0 disables the cache.
+	 */
+	public ZFINOntologyVisitor(OWLOntology zp, ZPIDDB zpIdDB, boolean addSourceInformation, int expressionCacheSize) {
+		this.zp = zp;
+		this.manager = zp.getOWLOntologyManager();
+		this.factory = manager.getOWLDataFactory();
+		this.zpIdDB = zpIdDB;
+		this.addSourceInformation = addSourceInformation;
+
+		final IRI purlOboIRI = IRI.create("http://purl.obolibrary.org/obo/");
+
+		// was before BFO_0000070
+		towards = factory.getOWLObjectProperty(IRI.create(purlOboIRI + "RO_0002503"));
+		partOf = factory.getOWLObjectProperty(IRI.create(purlOboIRI + "BFO_0000050"));
+
+		// I have for now replaced the BFO-properties with the RO-properties
+		inheresProperty = factory.getOWLObjectProperty(IRI.create(purlOboIRI + "RO_0000052"));
+
+		hasPart = factory.getOWLObjectProperty(IRI.create(purlOboIRI + "BFO_0000051"));
+
+		/* RO_0002180 = "has qualifier" (previously used) */
+		/* RO_0002573 = "has modifier" (used in most recent version) */
+		// final OWLObjectProperty has_qualifier =
+		// factory.getOWLObjectProperty(IRI.create(zpIRI + "RO_0002180"));
+		has_modifier = factory.getOWLObjectProperty(IRI.create(purlOboIRI + "RO_0002573"));
+		abnormal = factory.getOWLClass(IRI.create(purlOboIRI + "PATO_0000460"));
+
+		if (expressionCacheSize > 0)
+			expressionCache = CacheBuilder.newBuilder().maximumSize(expressionCacheSize).recordStats().build();
+		else
+			expressionCache = null;
+	}
+
+	/**
+	 * Let the visitor write the axioms to the given writer instead of adding
+	 * them to the ontology. Each axiom is passed to the writer once, which
+	 * relies on the expression cache to recognize repeated tuples. Only the
+	 * label and source axioms of a tuple that was evicted from the cache are
+	 * passed again.
+	 *
+	 * @param streamingWriter
+	 * @throws IllegalArgumentException
+	 *             if the expression cache is disabled
+	 */
+	public void setStreamingWriter(StreamingOntologyWriter streamingWriter) {
+		if (expressionCache == null)
+			throw new IllegalArgumentException("The streaming output needs the expression cache");
+		this.streamingWriter = streamingWriter;
+		this.streamedClasses = new TIntHashSet();
+	}
+
+	/**
+	 * Let the visitor record the label and the source string of every entry
+	 * in the given collector (independent of whether the source information
+	 * is added to the ontology).
+	 *
+	 * @param sourceInformation
+	 */
+	public void setSourceInformationCollector(SourceInformationCollector sourceInformation) {
+		this.sourceInformation = sourceInformation;
+	}
+
+	/**
+	 * Let the visitor add the definition of every new ZP class to the given
+	 * classifier.
+	 *
+	 * @param classifier
+	 */
+	public void setClassifier(ZPClassifier classifier) {
+		this.classifier = classifier;
+	}
+
+	/**
+	 * Enables the incremental mode. Entries that are contained in the previous
+	 * index are not processed again, the axioms for them must already be
+	 * contained in the ontology (see {@link IncrementalIndex}). Only their
+	 * annotation is written.
+	 *
+	 * @param previousIndex
+	 *            the index of the previous run, may be null
+	 * @param nextIndex
+	 *            the index to which the entries of this run are added
+	 */
+	public void setIncrementalIndices(IncrementalIndex previousIndex, IncrementalIndex nextIndex) {
+		this.previousIndex = previousIndex;
+		this.nextIndex = nextIndex;
+	}
+
+	/**
+	 * @return the number of walked entries that were taken from the previous
+	 *         incremental index, without the entries that define the roots.
+	 */
+	public int getNumReusedEntries() {
+		return numReusedEntries;
+	}
+
+	/**
+	 * @return the hit and miss counts of the expression cache or null if the
+	 *         cache is disabled.
+	 */
+	public CacheStats getExpressionCacheStats() {
+		if (expressionCache == null)
+			return null;
+		return expressionCache.stats();
+	}
+
+	/**
+	 * Returns an entity class for the given obo id. This is a simple wrapper
+	 * for OBOVocabulary.ID2IRI(id) but checks whether the term stems from a
+	 * supported ontology.
+	 *
+	 * @param id
+	 * @return
+	 */
+	private OWLClass getEntityClassForOBOID(String id) {
+
+		// not perfect, but there are only 2 refs to CARO in phenotype.txt
+		if (id.equals("CARO:0000010")) { // "anatomical boundary (CARO)"
+			id = "ZFA:0001689"; // ZFA anatomical line
+		}
+
+		if (isSupportedEntityId(id))
+			return getClassForOBOID(id);
+
+		throw new RuntimeException("Unknown ontology prefix for name \"" + id + "\"");
+	}
+
+	/**
+	 * @param id
+	 * @return whether the given id can be used as entity.
+	 */
+	static boolean isSupportedEntityId(String id) {
+		return id.equals("CARO:0000010") || id.startsWith("GO:") || id.startsWith("ZFA:") || id.startsWith("BSPO:") || id.startsWith("MPATH:")
+				|| id.startsWith("CHEBI:");
+	}
+
+	/**
+	 * @param id
+	 * @return whether the given id can be used as quality.
+	 */
+	static boolean isSupportedQualityId(String id) {
+		return id.startsWith("PATO:");
+	}
+
+	/**
+	 * Returns an quality class for the given obo id. This is a simple wrapper
+	 * for OBOVocabulary.ID2IRI(id) but checks whether the term stems from a
+	 * supported ontology.
+	 *
+	 * @param id
+	 * @return
+	 */
+	private OWLClass getQualiClassForOBOID(String id) {
+		if (isSupportedQualityId(id))
+			return getClassForOBOID(id);
+
+		throw new RuntimeException("Qualifier must be a pato term");
+	}
+
+	private OWLClass getClassForOBOID(String id) {
+		OWLClass cls = termClasses.get(id);
+		if (cls == null) {
+			cls = factory.getOWLClass(OBOVocabulary.ID2IRI(id));
+			termClasses.put(id, cls);
+		}
+		return cls;
+	}
+
+	public boolean visit(ZFINEntry entry, BufferedWriter outPositiveAnnotations, BufferedWriter outNegativeAnnotations) {
+		Definition definition = prepare(entry);
+		if (definition == null)
+			return true;
+		return commit(definition, outPositiveAnnotations, outNegativeAnnotations);
+	}
+
+	/**
+	 * Builds the class expression and the label for the given entry. May be
+	 * called concurrently.
+	 *
+	 * @param entry
+	 * @return the definition or null, if the entry should be skipped.
+	 */
+	public Definition prepare(ZFINEntry entry) {
+		/*
+		 * Important: exclude useless annotation that look like this
+		 * ...ZFA:0001439|anatomical system|||||||PATO:0000001|quality|abnormal|
+		 */
+		if (entry.entity1SupertermId.equals("ZFA:0001439") && entry.patoID.equals("PATO:0000001") && entry.entity1SubtermId.equals("")
+				&& entry.entity2SupertermId.equals("") && entry.entity2SubtermId.equals(""))
+			return null;
+
+		long fingerprint = 0;
+		if (nextIndex != null) {
+			fingerprint = IncrementalIndex.fingerprint(entry);
+			if (previousIndex != null) {
+				long value = previousIndex.get(fingerprint);
+				if (value != -1) {
+					Definition definition = new Definition(entry, null, previousIndex.getLabel(value));
+					definition.fingerprint = fingerprint;
+					definition.reusedZPNumber = previousIndex.getZPNumber(value);
+					return definition;
+				}
+			}
+		}
+
+		/*
+		 * for annotations that are normal we generate the abnormal counterpart.
+		 * for this we sometimes have to correct the PATO modifier used by the
+		 * annotator. E.g. "normal amount" has to be replace with amount,
+		 * because the "normal"-tag already indicates the fact that this is
+		 * normal
+		 */
+		EntryCorrector corrector = new EntryCorrector(entry);
+		entry = corrector.getCorrectedEntry();
+
+		/*
+		 * The same phenotype is annotated to many genes and genotypes, so the
+		 * class expression, label and ZP IRI are built only once per tuple
+		 */
+		String key = null;
+		if (expressionCache != null) {
+			key = entry.entity1SupertermId + '\t' + entry.entity1SubtermId + '\t' + entry.patoID + '\t' + entry.entity2SupertermId + '\t'
+					+ entry.entity2SubtermId + '\t' + entry.entity1SupertermName + '\t' + entry.entity1SubtermName + '\t' + entry.patoName
+					+ '\t' + entry.entity2SupertermName + '\t' + entry.entity2SubtermName;
+			CachedDefinition cached = expressionCache.getIfPresent(key);
+			if (cached != null)
+				return newDefinition(entry, cached, fingerprint);
+		}
+
+		OWLClass pato = getQualiClassForOBOID(entry.patoID);
+		OWLClass cl1 = getEntityClassForOBOID(entry.entity1SupertermId);
+		OWLClassExpression intersectionExpression;
+		String label;
+
+		Set<OWLClassExpression> intersectionList = new LinkedHashSet<OWLClassExpression>();
+
+		intersectionList.add(pato);
+		// we now use has_modifier (this was has_qualifier before)
+		intersectionList.add(factory.getOWLObjectSomeValuesFrom(has_modifier, abnormal));
+
+		/* Entity 1: Create intersections */
+		if (entry.entity1SubtermId != null && entry.entity1SubtermId.length() > 0) {
+			/*
+			 * Pattern is (all-some interpretation): <pato> inheres_in (<cl2>
+			 * part of <cl1>) AND qualifier abnormal
+			 */
+			OWLClass cl2 = getEntityClassForOBOID(entry.entity1SubtermId);
+
+			intersectionList.add(factory.getOWLObjectSomeValuesFrom(inheresProperty,
+					factory.getOWLObjectIntersectionOf(cl2, factory.getOWLObjectSomeValuesFrom(partOf, cl1))));
+
+			/*
+			 * Note that is language the last word is the more specific part of
+			 * the composition, i.e., we say swim bladder epithelium, which is
+			 * the epithelium of the swim bladder
+			 */
+			label = "abnormal(ly) " + entry.patoName + " " + entry.entity1SupertermName + " " + entry.entity1SubtermName;
+		} else {
+			/*
+			 * Pattern is (all-some interpretation): <pato> inheres_in <cl1> AND
+			 * qualifier abnormal
+			 */
+			intersectionList.add(factory.getOWLObjectSomeValuesFrom(inheresProperty, cl1));
+			label = "abnormal(ly) " + entry.patoName + " " + entry.entity1SupertermName;
+		}
+
+		/* Entity 2: Create intersections */
+		if (entry.entity2SupertermId != null && entry.entity2SupertermId.length() > 0) {
+
+			OWLClass cl3 = getEntityClassForOBOID(entry.entity2SupertermId);
+
+			if (entry.entity2SubtermId != null && entry.entity2SubtermId.length() > 0) {
+				/*
+				 * Pattern is (all-some interpretation): <pato> inheres_in
+				 * (<cl2> part of <cl1>) AND qualifier abnormal
+				 */
+				OWLClass cl4 = getEntityClassForOBOID(entry.entity2SubtermId);
+
+				intersectionList.add(factory.getOWLObjectSomeValuesFrom(towards,
+						factory.getOWLObjectIntersectionOf(cl4, factory.getOWLObjectSomeValuesFrom(partOf, cl3))));
+
+				/*
+				 * Note that is language the last word is the more specific part
+				 * of the composition, i.e., we say swim bladder epithelium,
+				 * which is the epithelium of the swim bladder
+				 */
+				label += " towards " + entry.entity2SupertermName + " " + entry.entity2SubtermName;
+
+			} else {
+				intersectionList.add(factory.getOWLObjectSomeValuesFrom(towards, cl3));
+				label += " towards " + entry.entity2SupertermName;
+			}
+		}
+
+		/* Create intersection */
+		intersectionExpression = factory.getOWLObjectIntersectionOf(intersectionList);
+
+		OWLClassExpression owlSomeClassExp = factory.getOWLObjectSomeValuesFrom(hasPart, intersectionExpression);
+		CachedDefinition cached = new CachedDefinition(owlSomeClassExp, label);
+		if (expressionCache != null) {
+			/* Another thread may have built the same tuple in the meantime */
+			CachedDefinition existing = expressionCache.asMap().putIfAbsent(key, cached);
+			if (existing != null)
+				cached = existing;
+		}
+		return newDefinition(entry, cached, fingerprint);
+	}
+
+	private static Definition newDefinition(ZFINEntry entry, CachedDefinition cached, long fingerprint) {
+		Definition definition = new Definition(entry, cached.classExpression, cached.label);
+		definition.cached = cached;
+		definition.fingerprint = fingerprint;
+		return definition;
+	}
+
+	/**
+	 * Assigns the ZP id to a prepared definition, adds the axioms and writes
+	 * the annotation. Must be called in input order to get stable ids.
+	 *
+	 * @param definition
+	 * @param outPositiveAnnotations
+	 * @param outNegativeAnnotations
+	 * @return
+	 */
+	public boolean commit(Definition definition, BufferedWriter outPositiveAnnotations, BufferedWriter outNegativeAnnotations) {
+		ZFINEntry entry = definition.entry;
+		String label = definition.label;
+		String zpID = assign(definition);
+
+		/*
+		 * Writing the annotation file
+		 */
+		try {
+			// write negative (not-) annotations to a different file
+			if (!entry.isAbnormal) {
+				outNegativeAnnotations.write(entry.genxZfinID + "\t" + zpID + "\t" + label + "\tNOT\n");
+			} else {
+				outPositiveAnnotations.write(entry.genxZfinID + "\t" + zpID + "\t" + label + "\n");
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Assigns the ZP id to a prepared definition and adds the axioms like
+	 * {@link #commit(Definition, BufferedWriter, BufferedWriter)}, but does
+	 * not write an annotation.
+	 *
+	 * @param definition
+	 * @return the ZP id, e.g., "ZP:0000001"
+	 */
+	public String assign(Definition definition) {
+		ZFINEntry entry = definition.entry;
+		String label = definition.label;
+		String zpID;
+
+		if (definition.classExpression == null) {
+			/* Unchanged entry of an incremental run, the axioms are already there */
+			if (!ZPGen.ROOT_ENTRY_ID.equals(entry.genxZfinID))
+				numReusedEntries++;
+			zpID = String.format("ZP:%07d", definition.reusedZPNumber);
+		} else {
+			// get the class, for a repeated tuple the axioms below were already added
+			IRI zpIRI = definition.cached != null ? definition.cached.zpIRI : null;
+			boolean repeated = zpIRI != null;
+			if (!repeated) {
+				zpIRI = zpIdDB.getZPId(definition.classExpression);
+				if (definition.cached != null)
+					definition.cached.zpIRI = zpIRI;
+			}
+			zpID = OBOVocabulary.IRI2ID(zpIRI);
+			OWLClass zpTerm = factory.getOWLClass(zpIRI);
+
+			if (!repeated) {
+				/* Make term equivalent to the intersection, other tuples may have added it already */
+				if (streamedClasses == null || streamedClasses.add(Integer.parseInt(zpID.substring(3)))) {
+					OWLEquivalentClassesAxiom axiom = factory.getOWLEquivalentClassesAxiom(zpTerm, definition.classExpression);
+					addAxiom(axiom);
+				}
+
+				/* Add label */
+				OWLAnnotation labelAnno = factory.getOWLAnnotation(factory.getRDFSLabel(), factory.getOWLLiteral(label));
+				OWLAxiom labelAnnoAxiom = factory.getOWLAnnotationAssertionAxiom(zpTerm.getIRI(), labelAnno);
+				addAxiom(labelAnnoAxiom);
+
+				if (classifier != null)
+					classifier.add(zpTerm, definition.classExpression);
+			}
+
+			/* Add source information, once for each source of a tuple */
+			if (addSourceInformation && (definition.cached == null || !definition.cached.sources.contains(entry.sourceString))) {
+				if (definition.cached != null)
+					definition.cached.sources.add(entry.sourceString);
+				addSourceInformation(zpTerm, entry);
+			}
+		}
+
+		if (nextIndex != null || sourceInformation != null) {
+			int zpNumber = Integer.parseInt(zpID.substring(3));
+			if (nextIndex != null)
+				nextIndex.put(definition.fingerprint, zpNumber, label);
+			if (sourceInformation != null)
+				sourceInformation.add(zpNumber, label, entry.sourceString);
+		}
+		return zpID;
+	}
+
+	/**
+	 * Add the source information for the definition of the equivalent class
+	 * expression for the given ZP class.
+	 *
+	 * @param cls
+	 * @param entry
+	 */
+	private void addSourceInformation(OWLClass cls, ZFINEntry entry) {
+		OWLAnnotationProperty definitionSourceProperty = factory.getOWLAnnotationProperty(ZPGen.definitionSourcePropertyIRI);
+
+		/*
+		 * Should not happen.
+		 */
+		if (entry.sourceString == null) {
+			System.err.println("source string null: " + entry.genxZfinID);
+			return;
+		}
+
+		// add source information
+		OWLAnnotation sourceAnno = factory.getOWLAnnotation(definitionSourceProperty, factory.getOWLLiteral(entry.sourceString));
+		OWLAxiom labelAnnoAxiom = factory.getOWLAnnotationAssertionAxiom(cls.getIRI(), sourceAnno);
+		addAxiom(labelAnnoAxiom);
+	}
+
+	/**
+	 * Adds the axiom to the ontology or writes it to the streaming writer.
+	 * Axioms for the ontology are collected and added in batches. The walk
+	 * calls {@link #flush()} at its end, others who add axioms must call it
+	 * before the ontology is used.
+	 *
+	 * @param axiom
+	 */
+	void addAxiom(OWLAxiom axiom) {
+		if (streamingWriter != null) {
+			try {
+				streamingWriter.addAxiom(axiom);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		} else {
+			/* Most entries map to existing classes, don't bother the manager with these */
+			if (zp.containsAxiom(axiom))
+				return;
+			pendingAxioms.add(axiom);
+			if (pendingAxioms.size() >= axiomBatchSize)
+				flush();
+		}
+	}
+
+	/**
+	 * Sets the number of axioms that are added to the ontology at once.
+	 *
+	 * @param axiomBatchSize
+	 */
+	void setAxiomBatchSize(int axiomBatchSize) {
+		flush();
+		this.axiomBatchSize = axiomBatchSize;
+	}
+
+	/**
+	 * Adds the collected axioms to the ontology.
+	 */
+	@Override
+	public void flush() {
+		if (pendingAxioms.isEmpty())
+			return;
+		manager.addAxioms(zp, pendingAxioms);
+		pendingAxioms.clear();
+	}
+}
@@ -0,0 +1,30 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+
+/**
+ * A visitor whose work can be split into a part that may run concurrently and
+ * a part that has to be executed in input order.
+ *
+ * @param <T>
+ *            the type of the intermediate result
+ */
+public interface ZFINParallelVisitor<T> extends ZFINVisitor {
+	/**
+	 * Called concurrently for any entry. Must not depend on the order in which
+	 * the entries are processed.
+	 *
+	 * @param entry
+	 * @return the intermediate result or null, if the entry should be skipped.
+	 */
+	T prepare(ZFINEntry entry);
+
+	/**
+	 * Called for every non-null result of {@link #prepare(ZFINEntry)} in the
+	 * order the entries appear in the input.
+	 *
+	 * @param prepared
+	 * @return
+	 */
+	boolean commit(T prepared, BufferedWriter outPositiveAnnotations, BufferedWriter outNegativeAnnotations);
+}
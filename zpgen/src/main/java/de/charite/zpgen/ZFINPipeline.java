@@ -0,0 +1,375 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.CharArrayWriter;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import gnu.trove.set.TIntSet;
+
+import de.charite.zpgen.ZFINWalker.ZFIN_FILE_TYPE;
+
+/**
+ * Walks a ZFIN file in stages that run concurrently and are connected by
+ * bounded queues:
+ * <ol>
+ * <li>a reader thread reads and splits the lines and groups them into
+ * batches,</li>
+ * <li>a pool of builder threads calls
+ * {@link ZFINParallelVisitor#prepare(ZFINEntry)} for the batches,</li>
+ * <li>the calling thread commits the prepared batches in input order (ids and
+ * axioms), writing the annotations of a batch into a buffer,</li>
+ * <li>a writer thread appends the buffers to the annotation files.</li>
+ * </ol>
+ * A full queue blocks the stage that feeds it, so at most
+ * {@link #setQueueSize(int)} batches are waiting between two stages. The
+ * outcome is the same as for a sequential walk.
+ */
+public class ZFINPipeline {
+
+	/** Default number of lines per batch */
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+
+	private final int numThreads;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int queueSize;
+
+	/** Time the committer waited for prepared batches */
+	private long commitWaitNanos;
+
+	/** Time the committer waited for the writer */
+	private long writeWaitNanos;
+
+	/**
+	 * @param numThreads
+	 *            number of builder threads.
+	 */
+	public ZFINPipeline(int numThreads) {
+		if (numThreads < 1)
+			throw new IllegalArgumentException("At least one builder thread is needed");
+		this.numThreads = numThreads;
+		this.queueSize = 2 * numThreads;
+	}
+
+	/**
+	 * @param batchSize
+	 *            number of lines handed from stage to stage at once.
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("The batch size must be positive");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param queueSize
+	 *            maximum number of batches waiting between two stages. The
+	 *            default is twice the number of builder threads.
+	 */
+	public void setQueueSize(int queueSize) {
+		if (queueSize < 1)
+			throw new IllegalArgumentException("The queue size must be positive");
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * @return the time in ms the committer spent waiting for prepared batches
+	 *         (reader or builders too slow).
+	 */
+	public long getCommitWaitMillis() {
+		return commitWaitNanos / 1000000;
+	}
+
+	/**
+	 * @return the time in ms the committer spent waiting for the writer (disk
+	 *         too slow).
+	 */
+	public long getWriteWaitMillis() {
+		return writeWaitNanos / 1000000;
+	}
+
+	/**
+	 * An entry together with the outcome of
+	 * {@link ZFINParallelVisitor#prepare(ZFINEntry)}.
+	 */
+	private static class PreparedLine<T> {
+		int lineNumber;
+		String line;
+		ZFINEntry entry;
+		T prepared;
+		Exception exception;
+	}
+
+	private static class PrepareTask<T> implements Callable<List<PreparedLine<T>>> {
+		private final List<PreparedLine<T>> lines;
+		private final ZFINParallelVisitor<T> visitor;
+
+		PrepareTask(List<PreparedLine<T>> lines, ZFINParallelVisitor<T> visitor) {
+			this.lines = lines;
+			this.visitor = visitor;
+		}
+
+		@Override
+		public List<PreparedLine<T>> call() {
+			for (PreparedLine<T> preparedLine : lines) {
+				if (preparedLine.exception != null)
+					continue;
+				try {
+					preparedLine.prepared = visitor.prepare(preparedLine.entry);
+				} catch (Exception e) {
+					preparedLine.exception = e;
+				}
+			}
+			return lines;
+		}
+	}
+
+	/**
+	 * The annotations of a committed batch.
+	 */
+	private static class AnnotationChunk {
+		final CharArrayWriter positive = new CharArrayWriter();
+		final CharArrayWriter negative = new CharArrayWriter();
+	}
+
+	/** Marks the end of the queue of the writer */
+	private static final AnnotationChunk END_OF_CHUNKS = new AnnotationChunk();
+
+	/**
+	 * Reads the lines, submits the batches to the builders and hands the
+	 * futures to the committer in input order.
+	 */
+	private class Reader<T> extends Thread {
+		private final ZFINTokenizer tokenizer;
+		private final ZFINParallelVisitor<T> visitor;
+		private final ExecutorService builders;
+		private final BlockingQueue<Future<List<PreparedLine<T>>>> batches;
+		private final Future<List<PreparedLine<T>>> endOfBatches;
+		private final TIntSet skippedLines;
+		volatile Exception exception;
+
+		Reader(ZFINTokenizer tokenizer, ZFINParallelVisitor<T> visitor, ExecutorService builders,
+				BlockingQueue<Future<List<PreparedLine<T>>>> batches, Future<List<PreparedLine<T>>> endOfBatches, TIntSet skippedLines) {
+			super("zfin-reader");
+			setDaemon(true);
+			this.skippedLines = skippedLines;
+			this.tokenizer = tokenizer;
+			this.visitor = visitor;
+			this.builders = builders;
+			this.batches = batches;
+			this.endOfBatches = endOfBatches;
+		}
+
+		@Override
+		public void run() {
+			try {
+				List<PreparedLine<T>> batch = new ArrayList<PreparedLine<T>>(batchSize);
+				while (tokenizer.nextLine()) {
+					if (skippedLines != null && skippedLines.contains(tokenizer.getLineNumber()))
+						continue;
+					PreparedLine<T> preparedLine = new PreparedLine<T>();
+					preparedLine.lineNumber = tokenizer.getLineNumber();
+					try {
+						preparedLine.entry = new ZFINEntry();
+						ZFINWalker.fillEntry(tokenizer.split(), preparedLine.entry);
+					} catch (Exception e) {
+						preparedLine.line = tokenizer.getLine();
+						preparedLine.exception = e;
+					}
+					batch.add(preparedLine);
+
+					if (batch.size() == batchSize) {
+						batches.put(builders.submit(new PrepareTask<T>(batch, visitor)));
+						batch = new ArrayList<PreparedLine<T>>(batchSize);
+					}
+				}
+				if (!batch.isEmpty())
+					batches.put(builders.submit(new PrepareTask<T>(batch, visitor)));
+			} catch (InterruptedException e) {
+				/* The committer gave up */
+				return;
+			} catch (Exception e) {
+				exception = e;
+			}
+			try {
+				batches.put(endOfBatches);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Appends the annotation chunks to the annotation files.
+	 */
+	private static class Writer extends Thread {
+		private final BlockingQueue<AnnotationChunk> chunks;
+		private final BufferedWriter outPositiveAnnotations;
+		private final BufferedWriter outNegativeAnnotations;
+		volatile Exception exception;
+
+		Writer(BlockingQueue<AnnotationChunk> chunks, BufferedWriter outPositiveAnnotations, BufferedWriter outNegativeAnnotations) {
+			super("zfin-annotation-writer");
+			setDaemon(true);
+			this.chunks = chunks;
+			this.outPositiveAnnotations = outPositiveAnnotations;
+			this.outNegativeAnnotations = outNegativeAnnotations;
+		}
+
+		@Override
+		public void run() {
+			try {
+				AnnotationChunk chunk;
+				while ((chunk = chunks.take()) != END_OF_CHUNKS) {
+					/* After a failure, the chunks are only drained so that the committer does not block */
+					if (exception != null)
+						continue;
+					try {
+						chunk.positive.writeTo(outPositiveAnnotations);
+						chunk.negative.writeTo(outNegativeAnnotations);
+					} catch (Exception e) {
+						exception = e;
+					}
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Walks the given ZFIN file like
+	 * {@link ZFINWalker#walk(InputStream, ZFINVisitor, ZFIN_FILE_TYPE, BufferedWriter, BufferedWriter)}.
+	 *
+	 * @param input
+	 * @param visitor
+	 * @param zfinFileType
+	 * @param outPositiveAnnotations
+	 * @param outNegativeAnnotations
+	 * @return the number of lines.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public <T> int walk(InputStream input, ZFINParallelVisitor<T> visitor, ZFIN_FILE_TYPE zfinFileType, BufferedWriter outPositiveAnnotations,
+			BufferedWriter outNegativeAnnotations) throws IOException, InterruptedException {
+		return walk(input, visitor, zfinFileType, outPositiveAnnotations, outNegativeAnnotations, null);
+	}
+
+	/**
+	 * Walks the given ZFIN file like
+	 * {@link ZFINWalker#walk(InputStream, ZFINVisitor, ZFIN_FILE_TYPE, BufferedWriter, BufferedWriter, TIntSet)}.
+	 *
+	 * @param input
+	 * @param visitor
+	 * @param zfinFileType
+	 * @param outPositiveAnnotations
+	 * @param outNegativeAnnotations
+	 * @param skippedLines
+	 *            the numbers of the lines that are skipped or null.
+	 * @return the number of lines.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws IllegalArgumentException
+	 *             if a line cannot be processed
+	 */
+	public <T> int walk(InputStream input, ZFINParallelVisitor<T> visitor, ZFIN_FILE_TYPE zfinFileType, BufferedWriter outPositiveAnnotations,
+			BufferedWriter outNegativeAnnotations, TIntSet skippedLines) throws IOException, InterruptedException {
+		ExecutorService builders = Executors.newFixedThreadPool(numThreads);
+		BlockingQueue<Future<List<PreparedLine<T>>>> batches = new ArrayBlockingQueue<Future<List<PreparedLine<T>>>>(queueSize);
+		FutureTask<List<PreparedLine<T>>> endOfBatches = new FutureTask<List<PreparedLine<T>>>(new Runnable() {
+			public void run() {
+			}
+		}, null);
+		BlockingQueue<AnnotationChunk> chunks = new ArrayBlockingQueue<AnnotationChunk>(queueSize);
+
+		ZFINTokenizer tokenizer = ZFINWalker.createTokenizer(input, zfinFileType);
+		Reader<T> reader = new Reader<T>(tokenizer, visitor, builders, batches, endOfBatches, skippedLines);
+		Writer writer = new Writer(chunks, outPositiveAnnotations, outNegativeAnnotations);
+		reader.start();
+		writer.start();
+		boolean completed = false;
+		try {
+			while (true) {
+				long start = System.nanoTime();
+				Future<List<PreparedLine<T>>> future = batches.take();
+				List<PreparedLine<T>> batch = future == endOfBatches ? null : get(future);
+				commitWaitNanos += System.nanoTime() - start;
+				if (batch == null)
+					break;
+
+				AnnotationChunk chunk = commitBatch(batch, visitor);
+				start = System.nanoTime();
+				chunks.put(chunk);
+				writeWaitNanos += System.nanoTime() - start;
+			}
+			chunks.put(END_OF_CHUNKS);
+			writer.join();
+			completed = true;
+		} finally {
+			builders.shutdownNow();
+			if (!completed) {
+				reader.interrupt();
+				writer.interrupt();
+			}
+		}
+		rethrow(reader.exception);
+		rethrow(writer.exception);
+		if (visitor instanceof Flushable)
+			((Flushable) visitor).flush();
+		return tokenizer.getLineNumber();
+	}
+
+	private static void rethrow(Exception exception) throws IOException {
+		if (exception instanceof IOException)
+			throw (IOException) exception;
+		if (exception instanceof RuntimeException)
+			throw (RuntimeException) exception;
+		if (exception != null)
+			throw new RuntimeException(exception);
+	}
+
+	private static <T> List<PreparedLine<T>> get(Future<List<PreparedLine<T>>> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private static <T> AnnotationChunk commitBatch(List<PreparedLine<T>> batch, ZFINParallelVisitor<T> visitor) throws IOException {
+		AnnotationChunk chunk = new AnnotationChunk();
+		BufferedWriter positive = new BufferedWriter(chunk.positive);
+		BufferedWriter negative = new BufferedWriter(chunk.negative);
+		for (PreparedLine<T> preparedLine : batch) {
+			try {
+				if (preparedLine.exception != null)
+					throw preparedLine.exception;
+				if (preparedLine.prepared != null)
+					visitor.commit(preparedLine.prepared, positive, negative);
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			} catch (Exception e) {
+				/* The line itself is only kept if it couldn't be split */
+				if (preparedLine.line != null)
+					throw new IllegalArgumentException("Problem in line " + preparedLine.lineNumber + ": " + preparedLine.line, e);
+				throw new IllegalArgumentException("Problem in line " + preparedLine.lineNumber + ": " + preparedLine.entry.genxZfinID + "\t"
+						+ preparedLine.entry.sourceString, e);
+			}
+		}
+		positive.flush();
+		negative.flush();
+		return chunk;
+	}
+}
@@ -0,0 +1,264 @@
+package de.charite.zpgen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits a ZFIN file into entries. Reads the file through a channel into a
+ * large buffer and scans the bytes directly. The delimiter is detected once
+ * from the first line and only the columns that make up a {@link ZFINEntry}
+ * are converted into strings. Term ids and names are interned, so repeated
+ * values are not allocated again.
+ */
+class ZFINTokenizer {
+
+	private static final int INITIAL_BUFFER_SIZE = 1 << 20;
+
+	private final ReadableByteChannel channel;
+
+	/** The columns that are materialized, in the order expected by ZFINWalker.fillEntry() */
+	private final int[] columns;
+
+	/** The number of columns that a line must have at least */
+	private final int minColumns;
+
+	private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	private boolean eof;
+
+	private byte delimiter;
+	private boolean delimiterDetected;
+
+	/** Start and end offsets of the columns of the current line */
+	private final int[] columnStart;
+	private final int[] columnEnd;
+
+	private int lineStart;
+	private int lineEnd;
+	private int lineNumber;
+
+	private final Interner interner = new Interner();
+	private final String[] values;
+
+	/**
+	 * @param channel
+	 *            the input
+	 * @param columns
+	 *            the columns that should be materialized.
+	 */
+	ZFINTokenizer(ReadableByteChannel channel, int[] columns) {
+		this.channel = channel;
+		this.columns = columns;
+		int max = 0;
+		for (int c : columns)
+			max = Math.max(max, c);
+		this.minColumns = max + 1;
+		this.columnStart = new int[minColumns];
+		this.columnEnd = new int[minColumns];
+		this.values = new String[columns.length];
+		buffer.limit(0);
+	}
+
+	/**
+	 * Advances to the next line.
+	 *
+	 * @return false if there are no more lines.
+	 * @throws IOException
+	 */
+	boolean nextLine() throws IOException {
+		byte[] bytes = buffer.array();
+		int pos = buffer.position();
+		while (true) {
+			int limit = buffer.limit();
+			for (int i = pos; i < limit; i++) {
+				if (bytes[i] == '\n') {
+					setLine(buffer.position(), i);
+					buffer.position(i + 1);
+					return true;
+				}
+			}
+			pos = limit;
+			if (eof) {
+				if (buffer.position() == limit)
+					return false;
+				/* Last line without a newline */
+				setLine(buffer.position(), limit);
+				buffer.position(limit);
+				return true;
+			}
+			pos = fill();
+			bytes = buffer.array();
+		}
+	}
+
+	/**
+	 * Reads more data into the buffer, moving the current line to the
+	 * beginning and growing the buffer if needed.
+	 *
+	 * @return the position from which on the buffer has not been scanned yet.
+	 */
+	private int fill() throws IOException {
+		int scanned = buffer.limit() - buffer.position();
+		if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+			/* A single line fills the entire buffer */
+			ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+			larger.put(buffer);
+			buffer = larger;
+		} else {
+			buffer.compact();
+		}
+		/* buffer is now in write mode */
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer);
+			if (n < 0) {
+				eof = true;
+				break;
+			}
+			if (n == 0)
+				break;
+		}
+		buffer.flip();
+		return scanned;
+	}
+
+	private void setLine(int start, int end) {
+		byte[] bytes = buffer.array();
+		if (end > start && bytes[end - 1] == '\r')
+			end--;
+		lineStart = start;
+		lineEnd = end;
+		lineNumber++;
+
+		if (!delimiterDetected) {
+			delimiter = '\t';
+			for (int i = start; i < end; i++) {
+				if (bytes[i] == '|') {
+					delimiter = '|';
+					break;
+				}
+			}
+			delimiterDetected = true;
+		}
+	}
+
+	/**
+	 * Splits the current line and returns the materialized columns. The
+	 * returned array is reused for the next line.
+	 *
+	 * @return the values of the columns given in the constructor.
+	 */
+	String[] split() {
+		byte[] bytes = buffer.array();
+		int column = 0;
+		int start = lineStart;
+		for (int i = lineStart; i < lineEnd && column < minColumns; i++) {
+			if (bytes[i] == delimiter) {
+				columnStart[column] = start;
+				columnEnd[column] = i;
+				column++;
+				start = i + 1;
+			}
+		}
+		if (column < minColumns) {
+			columnStart[column] = start;
+			columnEnd[column] = lineEnd;
+			column++;
+		}
+		if (column < minColumns)
+			throw new IllegalArgumentException("Expected at least " + minColumns + " columns but found only " + column);
+
+		for (int i = 0; i < columns.length; i++) {
+			int c = columns[i];
+			values[i] = interner.intern(bytes, columnStart[c], columnEnd[c]);
+		}
+		return values;
+	}
+
+	/**
+	 * @return the current line as string. Only meant for error reporting.
+	 */
+	String getLine() {
+		return new String(buffer.array(), lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the 1-based number of the current line.
+	 */
+	int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * A simple open addressing table that maps byte sequences to strings.
+	 */
+	private static class Interner {
+		private static final int MAX_LENGTH = 256;
+
+		private byte[][] keys = new byte[1 << 12][];
+		private String[] strings = new String[1 << 12];
+		private int size;
+
+		String intern(byte[] bytes, int start, int end) {
+			int len = end - start;
+			if (len == 0)
+				return "";
+			if (len > MAX_LENGTH)
+				return new String(bytes, start, len, StandardCharsets.UTF_8);
+
+			int h = 0x811c9dc5;
+			for (int i = start; i < end; i++)
+				h = (h ^ bytes[i]) * 0x01000193;
+			int mask = keys.length - 1;
+			int slot = (h ^ (h >>> 16)) & mask;
+			while (true) {
+				byte[] key = keys[slot];
+				if (key == null)
+					break;
+				if (equals(key, bytes, start, len))
+					return strings[slot];
+				slot = (slot + 1) & mask;
+			}
+
+			byte[] key = new byte[len];
+			System.arraycopy(bytes, start, key, 0, len);
+			String string = new String(key, StandardCharsets.UTF_8);
+			keys[slot] = key;
+			strings[slot] = string;
+			if (++size * 2 > keys.length)
+				grow();
+			return string;
+		}
+
+		private static boolean equals(byte[] key, byte[] bytes, int start, int len) {
+			if (key.length != len)
+				return false;
+			for (int i = 0; i < len; i++) {
+				if (key[i] != bytes[start + i])
+					return false;
+			}
+			return true;
+		}
+
+		private void grow() {
+			byte[][] oldKeys = keys;
+			String[] oldStrings = strings;
+			keys = new byte[oldKeys.length * 2][];
+			strings = new String[oldKeys.length * 2];
+			int mask = keys.length - 1;
+			for (int j = 0; j < oldKeys.length; j++) {
+				byte[] key = oldKeys[j];
+				if (key == null)
+					continue;
+				int h = 0x811c9dc5;
+				for (byte b : key)
+					h = (h ^ b) * 0x01000193;
+				int slot = (h ^ (h >>> 16)) & mask;
+				while (keys[slot] != null)
+					slot = (slot + 1) & mask;
+				keys[slot] = key;
+				strings[slot] = oldStrings[j];
+			}
+		}
+	}
+}
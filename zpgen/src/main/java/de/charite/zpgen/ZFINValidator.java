@@ -0,0 +1,219 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+
+import de.charite.zpgen.ZFINWalker.ZFIN_FILE_TYPE;
+
+/**
+ * Checks a ZFIN file before it is walked, so that all problems are reported at
+ * once instead of stopping at the first bad row after possibly minutes of
+ * work. Rows are rejected if they have too few columns, use an entity that
+ * is not from a supported ontology or a quality that is not a PATO term
+ * (i.e., {@link ZFINOntologyVisitor} would fail on them). Unexpected
+ * phenotype tags are reported as warnings only, as these rows are processed
+ * as normal phenotypes.
+ */
+public class ZFINValidator implements Callable<ZFINValidator> {
+
+	/** Maximum number of problems per file that are printed by {@link #report(PrintStream)} */
+	private static final int MAX_PRINTED_PROBLEMS = 100;
+
+	/**
+	 * A problem in a line.
+	 */
+	public static class Problem {
+		public final int lineNumber;
+		public final String message;
+		public final String line;
+
+		/** Whether the row is rejected or only warned about */
+		public final boolean rejected;
+
+		Problem(int lineNumber, String message, String line, boolean rejected) {
+			this.lineNumber = lineNumber;
+			this.message = message;
+			this.line = line;
+			this.rejected = rejected;
+		}
+	}
+
+	private final File file;
+	private final ZFIN_FILE_TYPE zfinFileType;
+
+	private final List<Problem> problems = new ArrayList<Problem>();
+	private final TIntHashSet rejectedLines = new TIntHashSet();
+	private int numLines;
+
+	/**
+	 * @param file
+	 *            the file to check, which may be compressed.
+	 * @param zfinFileType
+	 */
+	public ZFINValidator(File file, ZFIN_FILE_TYPE zfinFileType) {
+		this.file = file;
+		this.zfinFileType = zfinFileType;
+	}
+
+	/**
+	 * Checks the file.
+	 *
+	 * @return this validator
+	 * @throws IOException
+	 */
+	@Override
+	public ZFINValidator call() throws IOException {
+		InputStream input = CompressedStreams.openInput(file);
+		try {
+			validate(input);
+		} finally {
+			input.close();
+		}
+		return this;
+	}
+
+	/**
+	 * Checks the given ZFIN content.
+	 *
+	 * @param input
+	 * @throws IOException
+	 */
+	void validate(InputStream input) throws IOException {
+		ZFINTokenizer tokenizer = ZFINWalker.createTokenizer(input, zfinFileType);
+		while (tokenizer.nextLine()) {
+			String[] values;
+			try {
+				values = tokenizer.split();
+			} catch (IllegalArgumentException e) {
+				reject(tokenizer, e.getMessage());
+				continue;
+			}
+			validate(tokenizer, values);
+		}
+		numLines = tokenizer.getLineNumber();
+	}
+
+	/**
+	 * Checks the values of a line, which are in the order expected by
+	 * {@link ZFINWalker#fillEntry(String[], ZFINEntry)}.
+	 */
+	private void validate(ZFINTokenizer tokenizer, String[] values) {
+		String entity1SupertermId = values[1];
+		String entity1SubtermId = values[3];
+		String entity2SupertermId = values[5];
+		String entity2SubtermId = values[7];
+		String patoID = values[9];
+		String tag = values[11];
+
+		if (!ZFINOntologyVisitor.isSupportedQualityId(patoID))
+			reject(tokenizer, "Qualifier must be a pato term, found \"" + patoID + "\"");
+		else if (!ZFINOntologyVisitor.isSupportedEntityId(entity1SupertermId))
+			reject(tokenizer, "Unknown ontology prefix for entity 1 superterm \"" + entity1SupertermId + "\"");
+		else if (entity1SubtermId.length() > 0 && !ZFINOntologyVisitor.isSupportedEntityId(entity1SubtermId))
+			reject(tokenizer, "Unknown ontology prefix for entity 1 subterm \"" + entity1SubtermId + "\"");
+		/* The subterm of entity 2 is only used together with its superterm */
+		else if (entity2SupertermId.length() > 0 && !ZFINOntologyVisitor.isSupportedEntityId(entity2SupertermId))
+			reject(tokenizer, "Unknown ontology prefix for entity 2 superterm \"" + entity2SupertermId + "\"");
+		else if (entity2SupertermId.length() > 0 && entity2SubtermId.length() > 0
+				&& !ZFINOntologyVisitor.isSupportedEntityId(entity2SubtermId))
+			reject(tokenizer, "Unknown ontology prefix for entity 2 subterm \"" + entity2SubtermId + "\"");
+		else if (!ZFINWalker.isKnownPhenotypeTag(tag))
+			problems.add(new Problem(tokenizer.getLineNumber(), "Expected normal/abnormal, found phenotype tag \"" + tag + "\"", null, false));
+	}
+
+	private void reject(ZFINTokenizer tokenizer, String message) {
+		problems.add(new Problem(tokenizer.getLineNumber(), message, tokenizer.getLine(), true));
+		rejectedLines.add(tokenizer.getLineNumber());
+	}
+
+	/**
+	 * @return all problems in the order of the lines.
+	 */
+	public List<Problem> getProblems() {
+		return Collections.unmodifiableList(problems);
+	}
+
+	/**
+	 * @return the numbers of the rejected lines.
+	 */
+	public TIntSet getRejectedLines() {
+		return rejectedLines;
+	}
+
+	/**
+	 * @return the number of lines of the file.
+	 */
+	public int getNumLines() {
+		return numLines;
+	}
+
+	/**
+	 * Prints the problems (at most {@value #MAX_PRINTED_PROBLEMS}) and a
+	 * summary.
+	 *
+	 * @param out
+	 */
+	public void report(PrintStream out) {
+		for (int i = 0; i < Math.min(problems.size(), MAX_PRINTED_PROBLEMS); i++) {
+			Problem problem = problems.get(i);
+			out.println((problem.rejected ? "Problem in line " : "Warning for line ") + problem.lineNumber + " of \"" + file + "\": "
+					+ problem.message);
+		}
+		if (problems.size() > MAX_PRINTED_PROBLEMS)
+			out.println("... " + (problems.size() - MAX_PRINTED_PROBLEMS) + " more");
+		out.println("Checked " + numLines + " lines of \"" + file + "\": " + rejectedLines.size() + " rejected, "
+				+ (problems.size() - rejectedLines.size()) + " warnings");
+	}
+
+	/**
+	 * Writes the rejected rows (file, line number, problem and the line
+	 * itself, tab separated).
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeRejectedRows(BufferedWriter out) throws IOException {
+		for (Problem problem : problems) {
+			if (problem.rejected)
+				out.write(file + "\t" + problem.lineNumber + "\t" + problem.message + "\t" + problem.line + "\n");
+		}
+	}
+
+	/**
+	 * Runs the given validators concurrently.
+	 *
+	 * @param validators
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void validateAll(List<ZFINValidator> validators) throws IOException, InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, validators.size()));
+		try {
+			for (Future<ZFINValidator> future : pool.invokeAll(validators)) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -1,10 +1,15 @@
 package de.charite.zpgen;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import gnu.trove.set.TIntSet;
 
 /**
  * Provides a method to walk a ZFIN file. Calls
@@ -108,74 +113,180 @@ public class ZFINWalker {
 	private static final int PHENO_GENE_COLUMN_PATO_NAME = 10;
 	private static final int PHENO_GENE_COLUMN_PATO_MODIFIER = 11;
 
-	static public void walk(InputStream input, ZFINVisitor visitor, ZFIN_FILE_TYPE zfinFileType, BufferedWriter outPositiveAnnotations,
+	/**
+	 * The columns of phenoGeneCleanData_fish.txt that are needed for a {@link ZFINEntry}, in the order expected by
+	 * {@link #fillEntry(String[], ZFINEntry)}.
+	 */
+	private static final int[] PHENO_GENE_COLUMNS = { PHENO_GENE_COLUMN_ZFIN_GENE_ID, PHENO_GENE_COLUMN_TERM1_SUPERTERM_ID,
+			PHENO_GENE_COLUMN_TERM1_SUPERTERM_NAME, PHENO_GENE_COLUMN_TERM1_SUBTERM_ID, PHENO_GENE_COLUMN_TERM1_SUBTERM_NAME,
+			PHENO_GENE_COLUMN_TERM2_SUPERTERM_ID, PHENO_GENE_COLUMN_TERM2_SUPERTERM_NAME, PHENO_GENE_COLUMN_TERM2_SUBTERM_ID,
+			PHENO_GENE_COLUMN_TERM2_SUBTERM_NAME, PHENO_GENE_COLUMN_PATO_ID, PHENO_GENE_COLUMN_PATO_NAME, PHENO_GENE_COLUMN_PATO_MODIFIER };
+
+	/**
+	 * The columns of phenotype_fish.txt that are needed for a {@link ZFINEntry}, in the order expected by
+	 * {@link #fillEntry(String[], ZFINEntry)}.
+	 */
+	private static final int[] PHENO_GENOTYPES_COLUMNS = { PHENO_GENOTYPES_COLUMN_ZFIN_GENO_ID, PHENO_GENOTYPES_COLUMN_TERM1_SUPERTERM_ID,
+			PHENO_GENOTYPES_COLUMN_TERM1_SUPERTERM_NAME, PHENO_GENOTYPES_COLUMN_TERM1_SUBTERM_ID, PHENO_GENOTYPES_COLUMN_TERM1_SUBTERM_NAME,
+			PHENO_GENOTYPES_COLUMN_TERM2_SUPERTERM_ID, PHENO_GENOTYPES_COLUMN_TERM2_SUPERTERM_NAME, PHENO_GENOTYPES_COLUMN_TERM2_SUBTERM_ID,
+			PHENO_GENOTYPES_COLUMN_TERM2_SUBTERM_NAME, PHENO_GENOTYPES_COLUMN_PATO_ID, PHENO_GENOTYPES_COLUMN_PATO_NAME,
+			PHENO_GENOTYPES_COLUMN_PATO_MODIFIER };
+
+	/**
+	 * Walks the given ZFIN file and calls the visitor for every line.
+	 * 
+	 * @param input
+	 * @param visitor
+	 * @param zfinFileType
+	 * @param outPositiveAnnotations
+	 * @param outNegativeAnnotations
+	 * @return the number of lines.
+	 * @throws IOException
+	 */
+	static public int walk(InputStream input, ZFINVisitor visitor, ZFIN_FILE_TYPE zfinFileType, BufferedWriter outPositiveAnnotations,
 			BufferedWriter outNegativeAnnotations) throws IOException {
-		BufferedReader in = new BufferedReader(new InputStreamReader(input));
-		String line;
-		while ((line = in.readLine()) != null) {
+		return walk(input, visitor, zfinFileType, outPositiveAnnotations, outNegativeAnnotations, null);
+	}
+
+	/**
+	 * Walks the given ZFIN file and calls the visitor for every line that is
+	 * not to be skipped. A visitor that implements {@link Flushable} is
+	 * flushed at the end of the walk.
+	 * 
+	 * @param input
+	 * @param visitor
+	 * @param zfinFileType
+	 * @param outPositiveAnnotations
+	 * @param outNegativeAnnotations
+	 * @param skippedLines
+	 *            the numbers of the lines that are skipped (e.g., rejected
+	 *            by {@link ZFINValidator}) or null.
+	 * @return the number of lines.
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             if a line cannot be processed
+	 */
+	static public int walk(InputStream input, ZFINVisitor visitor, ZFIN_FILE_TYPE zfinFileType, BufferedWriter outPositiveAnnotations,
+			BufferedWriter outNegativeAnnotations, TIntSet skippedLines) throws IOException {
+		ZFINTokenizer tokenizer = createTokenizer(input, zfinFileType);
+		while (tokenizer.nextLine()) {
+			if (skippedLines != null && skippedLines.contains(tokenizer.getLineNumber()))
+				continue;
 			try {
 				ZFINEntry entry = new ZFINEntry();
-				String[] sp = null;
-				if (line.contains("|"))
-					sp = line.split("\\|", -1);
-				else
-					sp = line.split("\t", -1);
-
-				if (zfinFileType.equals(ZFIN_FILE_TYPE.PHENO_GENES_TXT)) {
-					entry.genxZfinID = sp[PHENO_GENE_COLUMN_ZFIN_GENE_ID];
-
-					entry.entity1SupertermId = sp[PHENO_GENE_COLUMN_TERM1_SUPERTERM_ID];
-					entry.entity1SupertermName = sp[PHENO_GENE_COLUMN_TERM1_SUPERTERM_NAME];
-					entry.entity1SubtermId = sp[PHENO_GENE_COLUMN_TERM1_SUBTERM_ID];
-					entry.entity1SubtermName = sp[PHENO_GENE_COLUMN_TERM1_SUBTERM_NAME];
-
-					entry.entity2SupertermId = sp[PHENO_GENE_COLUMN_TERM2_SUPERTERM_ID];
-					entry.entity2SupertermName = sp[PHENO_GENE_COLUMN_TERM2_SUPERTERM_NAME];
-					entry.entity2SubtermId = sp[PHENO_GENE_COLUMN_TERM2_SUBTERM_ID];
-					entry.entity2SubtermName = sp[PHENO_GENE_COLUMN_TERM2_SUBTERM_NAME];
-
-					entry.patoID = sp[PHENO_GENE_COLUMN_PATO_ID];
-					entry.patoName = sp[PHENO_GENE_COLUMN_PATO_NAME];
-					entry.isAbnormal = sp[PHENO_GENE_COLUMN_PATO_MODIFIER].equalsIgnoreCase("abnormal");
-					
-					checkPhenotypeTag(sp[PHENO_GENE_COLUMN_PATO_MODIFIER], entry);
-					
-				} else if (zfinFileType.equals(ZFIN_FILE_TYPE.PHENO_GENOTYPES_TXT)) {
-
-					entry.genxZfinID = sp[PHENO_GENOTYPES_COLUMN_ZFIN_GENO_ID];
-
-					entry.entity1SupertermId = sp[PHENO_GENOTYPES_COLUMN_TERM1_SUPERTERM_ID];
-					entry.entity1SupertermName = sp[PHENO_GENOTYPES_COLUMN_TERM1_SUPERTERM_NAME];
-					entry.entity1SubtermId = sp[PHENO_GENOTYPES_COLUMN_TERM1_SUBTERM_ID];
-					entry.entity1SubtermName = sp[PHENO_GENOTYPES_COLUMN_TERM1_SUBTERM_NAME];
-
-					entry.entity2SupertermId = sp[PHENO_GENOTYPES_COLUMN_TERM2_SUPERTERM_ID];
-					entry.entity2SupertermName = sp[PHENO_GENOTYPES_COLUMN_TERM2_SUPERTERM_NAME];
-					entry.entity2SubtermId = sp[PHENO_GENOTYPES_COLUMN_TERM2_SUBTERM_ID];
-					entry.entity2SubtermName = sp[PHENO_GENOTYPES_COLUMN_TERM2_SUBTERM_NAME];
-
-					entry.patoID = sp[PHENO_GENOTYPES_COLUMN_PATO_ID];
-					entry.patoName = sp[PHENO_GENOTYPES_COLUMN_PATO_NAME];
-					entry.isAbnormal = sp[PHENO_GENOTYPES_COLUMN_PATO_MODIFIER].equalsIgnoreCase("abnormal");
-					checkPhenotypeTag(sp[PHENO_GENOTYPES_COLUMN_PATO_MODIFIER], entry);
-				} else {
-					throw new IllegalArgumentException("Unrecognized zfin-file-type: " + zfinFileType);
-				}
-
-				// create the source string NOW
-				entry.sourceString = generateSourceString(entry);
-				
+				fillEntry(tokenizer.split(), entry);
 				visitor.visit(entry, outPositiveAnnotations, outNegativeAnnotations);
-			} catch (Exception e) {
-				System.out.println("Problem in line: " + line);
-				e.printStackTrace();
-				System.exit(1);
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException("Problem in line " + tokenizer.getLineNumber() + ": " + tokenizer.getLine(), e);
 			}
 		}
+		if (visitor instanceof Flushable)
+			((Flushable) visitor).flush();
+		return tokenizer.getLineNumber();
+	}
+
+	/**
+	 * Walks the given ZFIN file like {@link #walk(InputStream, ZFINVisitor, ZFIN_FILE_TYPE, BufferedWriter, BufferedWriter)}
+	 * but calls {@link ZFINParallelVisitor#prepare(ZFINEntry)} on the given number of threads, see {@link ZFINPipeline}.
+	 * The results are committed in input order, so the outcome is the same as for a sequential walk.
+	 * 
+	 * @param input
+	 * @param visitor
+	 * @param zfinFileType
+	 * @param outPositiveAnnotations
+	 * @param outNegativeAnnotations
+	 * @param numThreads
+	 * @return the number of lines.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	static public <T> int walk(InputStream input, final ZFINParallelVisitor<T> visitor, final ZFIN_FILE_TYPE zfinFileType,
+			BufferedWriter outPositiveAnnotations, BufferedWriter outNegativeAnnotations, int numThreads) throws IOException,
+			InterruptedException {
+		if (numThreads <= 1)
+			return walk(input, visitor, zfinFileType, outPositiveAnnotations, outNegativeAnnotations);
+		return new ZFINPipeline(numThreads).walk(input, visitor, zfinFileType, outPositiveAnnotations, outNegativeAnnotations);
+	}
+
+	static ZFINTokenizer createTokenizer(InputStream input, ZFIN_FILE_TYPE zfinFileType) {
+		return new ZFINTokenizer(Channels.newChannel(input), getColumns(zfinFileType));
+	}
+
+	private static int[] getColumns(ZFIN_FILE_TYPE zfinFileType) {
+		if (zfinFileType.equals(ZFIN_FILE_TYPE.PHENO_GENES_TXT))
+			return PHENO_GENE_COLUMNS;
+		else if (zfinFileType.equals(ZFIN_FILE_TYPE.PHENO_GENOTYPES_TXT))
+			return PHENO_GENOTYPES_COLUMNS;
+		throw new IllegalArgumentException("Unrecognized zfin-file-type: " + zfinFileType);
+	}
+
+	/**
+	 * Reads all entries of the given ZFIN file.
+	 * 
+	 * @param input
+	 * @param zfinFileType
+	 * @return the entries in input order
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             if a line cannot be parsed
+	 */
+	static List<ZFINEntry> readEntries(InputStream input, ZFIN_FILE_TYPE zfinFileType) throws IOException {
+		List<ZFINEntry> entries = new ArrayList<ZFINEntry>();
+		ZFINTokenizer tokenizer = createTokenizer(input, zfinFileType);
+		while (tokenizer.nextLine()) {
+			try {
+				ZFINEntry entry = new ZFINEntry();
+				fillEntry(tokenizer.split(), entry);
+				entries.add(entry);
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException("Problem in line " + tokenizer.getLineNumber() + ": " + tokenizer.getLine(), e);
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Fills the given entry.
+	 * 
+	 * @param values
+	 *            the values of the columns given by {@link #PHENO_GENE_COLUMNS} or {@link #PHENO_GENOTYPES_COLUMNS}.
+	 * @param entry
+	 */
+	static void fillEntry(String[] values, ZFINEntry entry) {
+		entry.genxZfinID = values[0];
+
+		entry.entity1SupertermId = values[1];
+		entry.entity1SupertermName = values[2];
+		entry.entity1SubtermId = values[3];
+		entry.entity1SubtermName = values[4];
+
+		entry.entity2SupertermId = values[5];
+		entry.entity2SupertermName = values[6];
+		entry.entity2SubtermId = values[7];
+		entry.entity2SubtermName = values[8];
+
+		entry.patoID = values[9];
+		entry.patoName = values[10];
+		entry.isAbnormal = values[11].equalsIgnoreCase("abnormal");
+		checkPhenotypeTag(values[11], entry);
+
+		// create the source string NOW
+		entry.sourceString = generateSourceString(entry);
+	}
+
+	/**
+	 * @param tag
+	 * @return whether the tag is one of the expected phenotype tags
+	 *         (abnormal/normal).
+	 */
+	static boolean isKnownPhenotypeTag(String tag) {
+		return tag.equals("abnormal") || tag.equals("normal");
 	}
 
 	private static void checkPhenotypeTag(String string, ZFINEntry entry) {
-		if (!(string.equals("abnormal") || string.equals("normal"))) {
+		if (!isKnownPhenotypeTag(string)) {
 			System.err.println("wrong format for entry " + entry.genxZfinID + " expected normal/abnormal, found '" + string + "'");
 		}
 		if (string.equals("absent") && entry.entity1SupertermId.equals("GO:0007601")) {
@@ -0,0 +1,544 @@
+package de.charite.zpgen;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * The ZP hierarchy (as computed by {@link ZPClassifier}) together with the
+ * annotations propagated along it, i.e., a gene that is annotated to a ZP
+ * class is also annotated to all of its superclasses.
+ *
+ * The ancestors of every class and the (propagated) genes and genotypes of
+ * every class are kept as sorted int arrays that are concatenated into a
+ * single array each, so that "all genes under X" is a binary search for X and
+ * a copy of a range. The index can be saved to and loaded from a binary file.
+ */
+public class ZPAnnotationIndex {
+	private static Logger log = Logger.getLogger(ZPAnnotationIndex.class.getName());
+
+	private static final int MAGIC = 0x5a504149; /* "ZPAI" */
+	private static final int VERSION = 1;
+
+	/** The ZP numbers of all classes in ascending order, a class is referred to by its position */
+	private final int[] zpNumbers;
+
+	/** The ancestors of class i (including i) are ancestors[ancestorStarts[i]] to ancestors[ancestorStarts[i + 1] - 1] */
+	private final int[] ancestorStarts;
+	private final int[] ancestors;
+
+	/** The genes and genotypes */
+	private final List<String> annotatedIds;
+	private final TObjectIntHashMap<String> annotatedIdIndices = new TObjectIntHashMap<String>(1 << 12, 0.5f, -1);
+
+	/** The annotations of class i are annotations[annotationStarts[i]] to annotations[annotationStarts[i + 1] - 1] */
+	private int[] annotationStarts;
+	private int[] annotations;
+
+	/** Propagated annotations (class << 32 | annotated id) that are not yet in the arrays above */
+	private TLongArrayList pendingAnnotations = new TLongArrayList();
+
+	/** Labels of the classes, as found in the annotation files */
+	private final TIntObjectHashMap<String> labels = new TIntObjectHashMap<String>();
+	private int numUnknownClasses;
+
+	/**
+	 * Builds the hierarchy.
+	 *
+	 * @param directSuperclasses
+	 *            the ZP numbers of the direct superclasses by ZP number (see
+	 *            {@link ZPClassifier#classify(int, File)})
+	 */
+	public ZPAnnotationIndex(TIntObjectHashMap<int[]> directSuperclasses) {
+		zpNumbers = directSuperclasses.keys();
+		Arrays.sort(zpNumbers);
+		int n = zpNumbers.length;
+
+		/* Number the parents and collect the children */
+		int[][] parents = new int[n][];
+		int[] numChildren = new int[n];
+		for (int i = 0; i < n; i++) {
+			int[] superclasses = directSuperclasses.get(zpNumbers[i]);
+			TIntArrayList known = new TIntArrayList(superclasses.length);
+			for (int superclass : superclasses) {
+				int parent = Arrays.binarySearch(zpNumbers, superclass);
+				if (parent >= 0) {
+					known.add(parent);
+					numChildren[parent]++;
+				}
+			}
+			parents[i] = known.toArray();
+		}
+		int[][] children = new int[n][];
+		for (int i = 0; i < n; i++)
+			children[i] = new int[numChildren[i]];
+		int[] numUnfinishedParents = new int[n];
+		for (int i = 0; i < n; i++) {
+			numUnfinishedParents[i] = parents[i].length;
+			for (int parent : parents[i])
+				children[parent][--numChildren[parent]] = i;
+		}
+
+		/* Visit the classes top down, so that the ancestors of all parents are known */
+		int[][] closure = new int[n][];
+		int[] queue = new int[n];
+		int queueEnd = 0;
+		for (int i = 0; i < n; i++) {
+			if (numUnfinishedParents[i] == 0)
+				queue[queueEnd++] = i;
+		}
+		int[] marks = new int[n];
+		long numAncestors = 0;
+		for (int q = 0; q < queueEnd; q++) {
+			int i = queue[q];
+			TIntArrayList union = new TIntArrayList();
+			union.add(i);
+			marks[i] = i + 1;
+			for (int parent : parents[i]) {
+				for (int ancestor : closure[parent]) {
+					if (marks[ancestor] != i + 1) {
+						marks[ancestor] = i + 1;
+						union.add(ancestor);
+					}
+				}
+			}
+			union.sort();
+			closure[i] = union.toArray();
+			numAncestors += closure[i].length;
+			for (int child : children[i]) {
+				if (--numUnfinishedParents[child] == 0)
+					queue[queueEnd++] = child;
+			}
+		}
+		if (queueEnd < n)
+			throw new IllegalArgumentException("The ZP hierarchy contains a cycle");
+		if (numAncestors > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many ancestors in the ZP hierarchy (" + numAncestors + ")");
+
+		ancestorStarts = new int[n + 1];
+		ancestors = new int[(int) numAncestors];
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(closure[i], 0, ancestors, ancestorStarts[i], closure[i].length);
+			ancestorStarts[i + 1] = ancestorStarts[i] + closure[i].length;
+		}
+		annotatedIds = new ArrayList<String>();
+	}
+
+	private ZPAnnotationIndex(int[] zpNumbers, int[] ancestorStarts, int[] ancestors, List<String> annotatedIds, int[] annotationStarts,
+			int[] annotations) {
+		this.zpNumbers = zpNumbers;
+		this.ancestorStarts = ancestorStarts;
+		this.ancestors = ancestors;
+		this.annotatedIds = annotatedIds;
+		for (int i = 0; i < annotatedIds.size(); i++)
+			annotatedIdIndices.put(annotatedIds.get(i), i);
+		this.annotationStarts = annotationStarts;
+		this.annotations = annotations;
+		this.pendingAnnotations = null;
+	}
+
+	/**
+	 * Reads the given (positive) annotation file, which may be compressed,
+	 * adds the annotations to the index and writes the propagated annotations
+	 * to the given file. The lines of a gene or genotype are written together
+	 * (in the order the genes first appear in the input) and ordered by ZP id.
+	 * Annotations to classes that are not part of the hierarchy are copied
+	 * as they are.
+	 *
+	 * @param annotationFile
+	 * @param propagatedFile
+	 *            may be null, if only the index is needed
+	 * @return the number of propagated annotations
+	 * @throws IOException
+	 */
+	public long propagate(File annotationFile, File propagatedFile) throws IOException {
+		if (pendingAnnotations == null)
+			throw new IllegalStateException("Annotations cannot be added to a loaded index");
+		annotationStarts = null;
+
+		List<String> genes = new ArrayList<String>();
+		List<TIntArrayList> direct = new ArrayList<TIntArrayList>();
+		readAnnotations(annotationFile, genes, direct, labels);
+
+		BufferedWriter out = null;
+		if (propagatedFile != null)
+			out = new BufferedWriter(new OutputStreamWriter(CompressedStreams.openOutput(propagatedFile), StandardCharsets.UTF_8), 1 << 16);
+		long numPropagated = 0;
+		try {
+			int[] marks = new int[zpNumbers.length];
+			TIntArrayList propagated = new TIntArrayList();
+			TIntArrayList unknown = new TIntArrayList();
+			for (int g = 0; g < genes.size(); g++) {
+				String gene = genes.get(g);
+				int annotatedId = annotatedIdIndices.get(gene);
+				if (annotatedId < 0) {
+					annotatedId = annotatedIds.size();
+					annotatedIdIndices.put(gene, annotatedId);
+					annotatedIds.add(gene);
+				}
+				propagated.resetQuick();
+				unknown.resetQuick();
+				TIntArrayList classes = direct.get(g);
+				for (int j = 0; j < classes.size(); j++) {
+					int cls = Arrays.binarySearch(zpNumbers, classes.get(j));
+					if (cls < 0) {
+						if (!unknown.contains(classes.get(j)))
+							unknown.add(classes.get(j));
+						continue;
+					}
+					for (int k = ancestorStarts[cls]; k < ancestorStarts[cls + 1]; k++) {
+						int ancestor = ancestors[k];
+						if (marks[ancestor] != g + 1) {
+							marks[ancestor] = g + 1;
+							propagated.add(ancestor);
+						}
+					}
+				}
+				numUnknownClasses += unknown.size();
+				propagated.sort();
+				for (int j = 0; j < propagated.size(); j++)
+					pendingAnnotations.add(((long) propagated.get(j) << 32) | annotatedId);
+				numPropagated += propagated.size() + unknown.size();
+				if (out == null)
+					continue;
+				/* Merge the unknown classes in by ZP number */
+				unknown.sort();
+				int u = 0;
+				for (int j = 0; j < propagated.size(); j++) {
+					int zpNumber = zpNumbers[propagated.get(j)];
+					for (; u < unknown.size() && unknown.get(u) < zpNumber; u++)
+						writeAnnotation(out, gene, unknown.get(u));
+					writeAnnotation(out, gene, zpNumber);
+				}
+				for (; u < unknown.size(); u++)
+					writeAnnotation(out, gene, unknown.get(u));
+			}
+		} finally {
+			if (out != null)
+				out.close();
+		}
+		if (propagatedFile != null)
+			log.info("Wrote " + numPropagated + " propagated annotations to \"" + propagatedFile + "\"");
+		return numPropagated;
+	}
+
+	/**
+	 * Reads an annotation file (gene or genotype, ZP id and label, tab
+	 * separated), which may be compressed.
+	 *
+	 * @param annotationFile
+	 * @param genes
+	 *            receives the genes and genotypes in the order of their first
+	 *            line
+	 * @param zpNumbers
+	 *            receives the annotated ZP numbers of each gene or genotype
+	 * @param labels
+	 *            receives the labels of the ZP classes, may be null
+	 * @throws IOException
+	 */
+	static void readAnnotations(File annotationFile, List<String> genes, List<TIntArrayList> zpNumbers, TIntObjectHashMap<String> labels)
+			throws IOException {
+		TObjectIntHashMap<String> geneIndices = new TObjectIntHashMap<String>(1 << 12, 0.5f, -1);
+		BufferedReader in = new BufferedReader(new InputStreamReader(CompressedStreams.openInput(annotationFile), StandardCharsets.UTF_8), 1 << 16);
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int tab1 = line.indexOf('\t');
+				int tab2 = line.indexOf('\t', tab1 + 1);
+				if (tab1 < 0 || tab2 < 0)
+					continue;
+				String gene = line.substring(0, tab1);
+				int zpNumber = Integer.parseInt(line.substring(tab1 + 4, tab2));
+				if (labels != null && !labels.containsKey(zpNumber)) {
+					int tab3 = line.indexOf('\t', tab2 + 1);
+					labels.put(zpNumber, line.substring(tab2 + 1, tab3 < 0 ? line.length() : tab3));
+				}
+				int geneIndex = geneIndices.get(gene);
+				if (geneIndex < 0) {
+					geneIndex = genes.size();
+					geneIndices.put(gene, geneIndex);
+					genes.add(gene);
+					zpNumbers.add(new TIntArrayList(4));
+				}
+				zpNumbers.get(geneIndex).add(zpNumber);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private void writeAnnotation(BufferedWriter out, String gene, int zpNumber) throws IOException {
+		out.write(gene);
+		out.write("\tZP:");
+		String number = Integer.toString(zpNumber);
+		for (int i = number.length(); i < 7; i++)
+			out.write('0');
+		out.write(number);
+		out.write('\t');
+		String label = labels.get(zpNumber);
+		if (label != null)
+			out.write(label);
+		out.write('\n');
+	}
+
+	/**
+	 * Moves the pending annotations into the arrays.
+	 */
+	private void finishAnnotations() {
+		if (annotationStarts != null)
+			return;
+		long[] pairs = pendingAnnotations.toArray();
+		Arrays.sort(pairs);
+		int numAnnotations = 0;
+		for (int i = 0; i < pairs.length; i++) {
+			if (i == 0 || pairs[i] != pairs[i - 1])
+				pairs[numAnnotations++] = pairs[i];
+		}
+		annotationStarts = new int[zpNumbers.length + 1];
+		annotations = new int[numAnnotations];
+		for (int i = 0; i < numAnnotations; i++) {
+			annotationStarts[(int) (pairs[i] >>> 32) + 1]++;
+			annotations[i] = (int) pairs[i];
+		}
+		for (int i = 0; i < zpNumbers.length; i++)
+			annotationStarts[i + 1] += annotationStarts[i];
+		pendingAnnotations = new TLongArrayList(pairs.length);
+		pendingAnnotations.add(pairs, 0, numAnnotations);
+	}
+
+	/**
+	 * @param zpNumbers
+	 * @return the positions of the given classes and of all their
+	 *         superclasses in ascending order, unknown classes are skipped.
+	 */
+	int[] getAncestorClasses(TIntArrayList zpNumbers) {
+		TIntArrayList result = new TIntArrayList();
+		for (int i = 0; i < zpNumbers.size(); i++) {
+			int cls = Arrays.binarySearch(this.zpNumbers, zpNumbers.get(i));
+			if (cls >= 0)
+				result.add(ancestors, ancestorStarts[cls], ancestorStarts[cls + 1] - ancestorStarts[cls]);
+		}
+		result.sort();
+		int size = 0;
+		for (int i = 0; i < result.size(); i++) {
+			if (i == 0 || result.get(i) != result.get(i - 1))
+				result.set(size++, result.get(i));
+		}
+		result.remove(size, result.size() - size);
+		return result.toArray();
+	}
+
+	/**
+	 * @param zpNumber
+	 * @return the position of the class or -1 if it is unknown
+	 */
+	int getClassIndex(int zpNumber) {
+		int cls = Arrays.binarySearch(zpNumbers, zpNumber);
+		return cls >= 0 ? cls : -1;
+	}
+
+	/**
+	 * @param cls
+	 *            the position of a class
+	 * @return its ZP number
+	 */
+	int getZPNumber(int cls) {
+		return zpNumbers[cls];
+	}
+
+	/**
+	 * @return the number of ZP classes in the hierarchy.
+	 */
+	public int size() {
+		return zpNumbers.length;
+	}
+
+	/**
+	 * @return the number of annotations to classes that are not part of the
+	 *         hierarchy (these are not contained in the index).
+	 */
+	public int getNumUnknownClasses() {
+		return numUnknownClasses;
+	}
+
+	/**
+	 * @param zpNumber
+	 * @return the ZP numbers of all superclasses of the given class (including
+	 *         itself) in ascending order or an empty array if the class is
+	 *         unknown.
+	 */
+	public int[] getAncestors(int zpNumber) {
+		int cls = Arrays.binarySearch(zpNumbers, zpNumber);
+		if (cls < 0)
+			return new int[0];
+		int[] result = new int[ancestorStarts[cls + 1] - ancestorStarts[cls]];
+		for (int i = 0; i < result.length; i++)
+			result[i] = zpNumbers[ancestors[ancestorStarts[cls] + i]];
+		return result;
+	}
+
+	/**
+	 * @param zpNumber
+	 * @param superZPNumber
+	 * @return whether the first class is a subclass of (or the same as) the
+	 *         second one.
+	 */
+	public boolean isSubClassOf(int zpNumber, int superZPNumber) {
+		int cls = Arrays.binarySearch(zpNumbers, zpNumber);
+		int superCls = Arrays.binarySearch(zpNumbers, superZPNumber);
+		if (cls < 0 || superCls < 0)
+			return false;
+		return Arrays.binarySearch(ancestors, ancestorStarts[cls], ancestorStarts[cls + 1], superCls) >= 0;
+	}
+
+	/**
+	 * @param zpNumber
+	 * @return the genes and genotypes that are annotated to the given class or
+	 *         to one of its subclasses.
+	 */
+	public List<String> getAnnotated(int zpNumber) {
+		finishAnnotations();
+		int cls = Arrays.binarySearch(zpNumbers, zpNumber);
+		if (cls < 0)
+			return Collections.emptyList();
+		List<String> result = new ArrayList<String>(annotationStarts[cls + 1] - annotationStarts[cls]);
+		for (int i = annotationStarts[cls]; i < annotationStarts[cls + 1]; i++)
+			result.add(annotatedIds.get(annotations[i]));
+		return result;
+	}
+
+	/**
+	 * @param zpId
+	 *            e.g., "ZP:0000001"
+	 * @return the genes and genotypes that are annotated to the given class or
+	 *         to one of its subclasses.
+	 */
+	public List<String> getAnnotated(String zpId) {
+		return getAnnotated(Integer.parseInt(zpId.substring(3)));
+	}
+
+	/**
+	 * @param zpNumber
+	 * @return the number of genes and genotypes that are annotated to the
+	 *         given class or to one of its subclasses.
+	 */
+	public int getNumAnnotated(int zpNumber) {
+		finishAnnotations();
+		int cls = Arrays.binarySearch(zpNumbers, zpNumber);
+		if (cls < 0)
+			return 0;
+		return annotationStarts[cls + 1] - annotationStarts[cls];
+	}
+
+	/**
+	 * @return the total number of propagated annotations.
+	 */
+	public int getNumAnnotations() {
+		finishAnnotations();
+		return annotations.length;
+	}
+
+	/**
+	 * Saves the index to the given file.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		finishAnnotations();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeInts(out, zpNumbers);
+			writeInts(out, ancestorStarts);
+			writeInts(out, ancestors);
+			StringBuilder ids = new StringBuilder();
+			for (String id : annotatedIds)
+				ids.append(id).append('\n');
+			byte[] bytes = ids.toString().getBytes(StandardCharsets.UTF_8);
+			out.writeInt(annotatedIds.size());
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			writeInts(out, annotationStarts);
+			writeInts(out, annotations);
+		} finally {
+			out.close();
+		}
+		log.info("Wrote " + annotations.length + " propagated annotations of " + annotatedIds.size() + " genes and genotypes to \"" + file + "\"");
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		ByteBuffer buffer = ByteBuffer.allocate(4 * Math.min(values.length, 1 << 14));
+		for (int i = 0; i < values.length; i += buffer.capacity() / 4) {
+			buffer.clear();
+			buffer.asIntBuffer().put(values, i, Math.min(values.length - i, buffer.capacity() / 4));
+			out.write(buffer.array(), 0, 4 * Math.min(values.length - i, buffer.capacity() / 4));
+		}
+	}
+
+	private static int[] readInts(ByteBuffer buffer) {
+		int[] values = new int[buffer.getInt()];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + 4 * values.length);
+		return values;
+	}
+
+	/**
+	 * Loads the index from the given file.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static ZPAnnotationIndex load(File file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		if (buffer.remaining() < 8 || buffer.getInt() != MAGIC)
+			throw new IOException("\"" + file + "\" is not an annotation index");
+		int version = buffer.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported annotation index version " + version + " in \"" + file + "\"");
+		int[] zpNumbers = readInts(buffer);
+		int[] ancestorStarts = readInts(buffer);
+		int[] ancestors = readInts(buffer);
+		int numIds = buffer.getInt();
+		int numBytes = buffer.getInt();
+		List<String> annotatedIds = new ArrayList<String>(numIds);
+		int start = buffer.position();
+		int end = start + numBytes;
+		for (int i = start; i < end; i++) {
+			if (buffer.get(i) == '\n') {
+				annotatedIds.add(new String(buffer.array(), start, i - start, StandardCharsets.UTF_8));
+				start = i + 1;
+			}
+		}
+		buffer.position(buffer.position() + numBytes);
+		int[] annotationStarts = readInts(buffer);
+		int[] annotations = readInts(buffer);
+		if (annotatedIds.size() != numIds)
+			throw new IOException("\"" + file + "\" is corrupt");
+		ZPAnnotationIndex index = new ZPAnnotationIndex(zpNumbers, ancestorStarts, ancestors, annotatedIds, annotationStarts, annotations);
+		log.info("Loaded " + annotations.length + " propagated annotations of " + zpNumbers.length + " ZP classes from \"" + file + "\"");
+		return index;
+	}
+}
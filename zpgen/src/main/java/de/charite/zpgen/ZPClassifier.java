@@ -0,0 +1,758 @@
+package de.charite.zpgen;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import org.coode.owlapi.obo12.parser.OBOVocabulary;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
+import org.semanticweb.owlapi.model.OWLObjectIntersectionOf;
+import org.semanticweb.owlapi.model.OWLObjectSomeValuesFrom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * Computes the direct subclass relations between the ZP classes. All ZP
+ * classes are defined by the same pattern (see
+ * {@link ZFINOntologyVisitor#prepare(ZFINEntry)}):
+ *
+ * <pre>
+ * has_part some (Q and has_modifier some M and inheres_in some E1 [and towards some E2])
+ * </pre>
+ *
+ * where E1 and E2 are either a term X or "X and part_of some Y". For these
+ * definitions, subsumption is decided structurally on the is_a and part_of
+ * (transitive) relations of the reference ontologies (ZFA, GO, PATO, ...),
+ * which are read from OBO files. Candidate superclasses are looked up in an
+ * index over quality and entity, and the classes are classified on several
+ * threads.
+ *
+ * The result can be cached in a file together with a checksum of the
+ * reference ontologies. If only a few ZP classes are new in the next run,
+ * only these and the classes that get a new superclass are classified again.
+ */
+public class ZPClassifier {
+	private static Logger log = Logger.getLogger(ZPClassifier.class.getName());
+
+	private static final int MAGIC = 0x5a50434c; /* "ZPCL" */
+	private static final int VERSION = 1;
+
+	/** Up to this fraction of new classes, the cached classification is updated */
+	private static final double MAX_INCREMENTAL_FRACTION = 0.25;
+
+	private static final String OBO = "http://purl.obolibrary.org/obo/";
+	private static final IRI HAS_PART = IRI.create(OBO + "BFO_0000051");
+	private static final IRI PART_OF = IRI.create(OBO + "BFO_0000050");
+	private static final IRI INHERES_IN = IRI.create(OBO + "RO_0000052");
+	private static final IRI TOWARDS = IRI.create(OBO + "RO_0002503");
+	private static final IRI HAS_MODIFIER = IRI.create(OBO + "RO_0002573");
+
+	/**
+	 * The definition of a ZP class, the terms are indices into
+	 * {@link ZPClassifier#terms}, -1 if absent.
+	 */
+	private static class Definition {
+		final int zpNumber;
+		int quality = -1;
+		int modifier = -1;
+		int entity = -1;
+		int entityPartOf = -1;
+		int towards = -1;
+		int towardsPartOf = -1;
+
+		Definition(int zpNumber) {
+			this.zpNumber = zpNumber;
+		}
+	}
+
+	/** Term ids and their told parents */
+	private final TObjectIntHashMap<String> termIndex = new TObjectIntHashMap<String>(1 << 16, 0.5f, -1);
+	private final List<String> terms = new ArrayList<String>();
+	private final List<TIntArrayList> isaParents = new ArrayList<TIntArrayList>();
+	private final List<TIntArrayList> partOfParents = new ArrayList<TIntArrayList>();
+	private long referenceChecksum = 1;
+
+	private final TIntObjectHashMap<Definition> definitions = new TIntObjectHashMap<Definition>();
+	private int numUnsupported;
+
+	/* Built by prepare() */
+	private Definition[] sorted;
+	private int[][] superTerms;
+	private int[][] partOfSuperTerms;
+	private TLongObjectHashMap<TIntArrayList> index;
+
+	private int numNewClasses;
+
+	private int term(String id) {
+		int term = termIndex.get(id);
+		if (term < 0) {
+			term = terms.size();
+			termIndex.put(id, term);
+			terms.add(id);
+			isaParents.add(new TIntArrayList(2));
+			partOfParents.add(new TIntArrayList(0));
+		}
+		return term;
+	}
+
+	/**
+	 * Reads the is_a and part_of relations of the terms of the given OBO file,
+	 * which may be compressed.
+	 *
+	 * @param oboFile
+	 * @throws IOException
+	 */
+	public void addReferenceOntology(File oboFile) throws IOException {
+		CheckedInputStream checked = new CheckedInputStream(CompressedStreams.openInput(oboFile), new CRC32());
+		BufferedReader in = new BufferedReader(new InputStreamReader(checked, StandardCharsets.UTF_8), 1 << 16);
+		int numRelations = 0;
+		try {
+			String line;
+			int current = -1;
+			boolean inTerm = false;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("[")) {
+					inTerm = line.startsWith("[Term]");
+					current = -1;
+				} else if (!inTerm) {
+					continue;
+				} else if (line.startsWith("id:")) {
+					current = term(firstToken(line, 3));
+				} else if (current < 0) {
+					continue;
+				} else if (line.startsWith("is_a:")) {
+					isaParents.get(current).add(term(firstToken(line, 5)));
+					numRelations++;
+				} else if (line.startsWith("relationship:")) {
+					String[] tokens = line.substring(13).trim().split("\\s+");
+					if (tokens.length >= 2 && (tokens[0].equals("part_of") || tokens[0].equals("BFO:0000050"))) {
+						partOfParents.get(current).add(term(tokens[1]));
+						numRelations++;
+					}
+				}
+			}
+		} finally {
+			in.close();
+		}
+		referenceChecksum = 31 * referenceChecksum + checked.getChecksum().getValue();
+		log.info("Read " + numRelations + " is_a and part_of relations from \"" + oboFile + "\"");
+	}
+
+	private static String firstToken(String line, int start) {
+		String value = line.substring(start).trim();
+		int end = 0;
+		while (end < value.length() && !Character.isWhitespace(value.charAt(end)))
+			end++;
+		return value.substring(0, end);
+	}
+
+	/**
+	 * Adds the definition of a ZP class. Definitions that do not follow the
+	 * pattern are counted and ignored.
+	 *
+	 * @param zpClass
+	 * @param classExpression
+	 * @return whether the definition was understood
+	 */
+	public boolean add(OWLClass zpClass, OWLClassExpression classExpression) {
+		String id = OBOVocabulary.IRI2ID(zpClass.getIRI());
+		Definition definition = id.startsWith("ZP:") ? parse(Integer.parseInt(id.substring(3)), classExpression) : null;
+		if (definition == null) {
+			numUnsupported++;
+			return false;
+		}
+		definitions.put(definition.zpNumber, definition);
+		return true;
+	}
+
+	/**
+	 * Adds the definitions of all ZP classes of the given ontology.
+	 *
+	 * @param zp
+	 */
+	public void addFromOntology(OWLOntology zp) {
+		for (OWLEquivalentClassesAxiom axiom : zp.getAxioms(AxiomType.EQUIVALENT_CLASSES)) {
+			List<OWLClassExpression> expressions = axiom.getClassExpressionsAsList();
+			if (expressions.size() != 2)
+				continue;
+			if (!expressions.get(0).isAnonymous() && expressions.get(1).isAnonymous())
+				add(expressions.get(0).asOWLClass(), expressions.get(1));
+			else if (expressions.get(0).isAnonymous() && !expressions.get(1).isAnonymous())
+				add(expressions.get(1).asOWLClass(), expressions.get(0));
+		}
+	}
+
+	/**
+	 * Removes the subclass axioms between ZP classes (i.e., the result of a
+	 * previous classification) from the given ontology.
+	 *
+	 * @param zp
+	 * @return the number of removed axioms
+	 */
+	public static int removeSubClassAxioms(OWLOntology zp) {
+		List<OWLAxiom> remove = new ArrayList<OWLAxiom>();
+		for (OWLSubClassOfAxiom axiom : zp.getAxioms(AxiomType.SUBCLASS_OF)) {
+			if (isZPClass(axiom.getSubClass()) && isZPClass(axiom.getSuperClass()))
+				remove.add(axiom);
+		}
+		if (!remove.isEmpty())
+			zp.getOWLOntologyManager().removeAxioms(zp, new HashSet<OWLAxiom>(remove));
+		return remove.size();
+	}
+
+	private static boolean isZPClass(OWLClassExpression expression) {
+		return !expression.isAnonymous() && expression.asOWLClass().getIRI().toString().startsWith(OBO + "ZP_");
+	}
+
+	private Definition parse(int zpNumber, OWLClassExpression classExpression) {
+		if (!(classExpression instanceof OWLObjectSomeValuesFrom))
+			return null;
+		OWLObjectSomeValuesFrom hasPart = (OWLObjectSomeValuesFrom) classExpression;
+		if (!isProperty(hasPart, HAS_PART))
+			return null;
+
+		Definition definition = new Definition(zpNumber);
+		for (OWLClassExpression operand : operands(hasPart.getFiller())) {
+			if (!operand.isAnonymous()) {
+				if (definition.quality >= 0)
+					return null;
+				definition.quality = term(operand.asOWLClass());
+			} else if (operand instanceof OWLObjectSomeValuesFrom) {
+				OWLObjectSomeValuesFrom some = (OWLObjectSomeValuesFrom) operand;
+				OWLClassExpression filler = some.getFiller();
+				if (isProperty(some, HAS_MODIFIER) && !filler.isAnonymous() && definition.modifier < 0) {
+					definition.modifier = term(filler.asOWLClass());
+				} else if (isProperty(some, INHERES_IN) && definition.entity < 0) {
+					int[] entity = parseEntity(filler);
+					if (entity == null)
+						return null;
+					definition.entity = entity[0];
+					definition.entityPartOf = entity[1];
+				} else if (isProperty(some, TOWARDS) && definition.towards < 0) {
+					int[] entity = parseEntity(filler);
+					if (entity == null)
+						return null;
+					definition.towards = entity[0];
+					definition.towardsPartOf = entity[1];
+				} else {
+					return null;
+				}
+			} else {
+				return null;
+			}
+		}
+		if (definition.quality < 0 || definition.entity < 0)
+			return null;
+		return definition;
+	}
+
+	/**
+	 * @return the term and the term it is part of (or -1) for "X" or
+	 *         "X and part_of some Y", null for other expressions.
+	 */
+	private int[] parseEntity(OWLClassExpression expression) {
+		if (!expression.isAnonymous())
+			return new int[] { term(expression.asOWLClass()), -1 };
+		int x = -1;
+		int y = -1;
+		for (OWLClassExpression operand : operands(expression)) {
+			if (!operand.isAnonymous() && x < 0) {
+				x = term(operand.asOWLClass());
+			} else if (operand instanceof OWLObjectSomeValuesFrom && isProperty((OWLObjectSomeValuesFrom) operand, PART_OF)
+					&& !((OWLObjectSomeValuesFrom) operand).getFiller().isAnonymous() && y < 0) {
+				y = term(((OWLObjectSomeValuesFrom) operand).getFiller().asOWLClass());
+			} else {
+				return null;
+			}
+		}
+		if (x < 0 || y < 0)
+			return null;
+		return new int[] { x, y };
+	}
+
+	private static Set<OWLClassExpression> operands(OWLClassExpression expression) {
+		if (expression instanceof OWLObjectIntersectionOf)
+			return ((OWLObjectIntersectionOf) expression).getOperands();
+		return Collections.singleton(expression);
+	}
+
+	private static boolean isProperty(OWLObjectSomeValuesFrom some, IRI property) {
+		return !some.getProperty().isAnonymous() && some.getProperty().asOWLObjectProperty().getIRI().equals(property);
+	}
+
+	private int term(OWLClass cls) {
+		return term(OBOVocabulary.IRI2ID(cls.getIRI()));
+	}
+
+	/**
+	 * @return the number of definitions that could be classified.
+	 */
+	public int size() {
+		return definitions.size();
+	}
+
+	/**
+	 * @return the number of definitions that did not follow the pattern.
+	 */
+	public int getNumUnsupported() {
+		return numUnsupported;
+	}
+
+	/**
+	 * @return the number of classes that were classified in the last call of
+	 *         {@link #classify(int, File)}.
+	 */
+	public int getNumClassified() {
+		return numNewClasses;
+	}
+
+	/**
+	 * Classifies all ZP classes.
+	 *
+	 * @param numThreads
+	 * @return the ZP numbers of the direct superclasses by ZP number
+	 * @throws InterruptedException
+	 */
+	public TIntObjectHashMap<int[]> classify(int numThreads) throws InterruptedException {
+		try {
+			return classify(numThreads, null);
+		} catch (IOException e) {
+			/* Does not happen without a cache */
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Classifies the ZP classes, reusing the cached result if the reference
+	 * ontologies did not change and only few classes are new. The cache file
+	 * is (re)written afterwards.
+	 *
+	 * @param numThreads
+	 * @param cacheFile
+	 *            may be null
+	 * @return the ZP numbers of the direct superclasses by ZP number
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public TIntObjectHashMap<int[]> classify(int numThreads, File cacheFile) throws IOException, InterruptedException {
+		prepare(numThreads);
+		final int[][] direct = new int[sorted.length][];
+
+		TIntObjectHashMap<int[]> cached = cacheFile != null && cacheFile.exists() ? readCache(cacheFile) : null;
+		final boolean[] affected = new boolean[sorted.length];
+		if (cached != null)
+			numNewClasses = findAffected(cached, affected, numThreads);
+		if (cached == null || numNewClasses > MAX_INCREMENTAL_FRACTION * sorted.length) {
+			Arrays.fill(affected, true);
+			numNewClasses = sorted.length;
+		} else {
+			log.info("Reusing the classification of " + (sorted.length - numNewClasses) + " classes from \"" + cacheFile + "\"");
+			for (int i = 0; i < sorted.length; i++) {
+				if (!affected[i])
+					direct[i] = cached.get(sorted[i].zpNumber);
+			}
+		}
+
+		/* The reduction to the direct superclasses needs the superclasses of the superclasses */
+		final int[][] superclasses = new int[sorted.length][];
+		computeSuperclasses(affected, superclasses, numThreads);
+		final boolean[] needed = new boolean[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			if (affected[i]) {
+				for (int superclass : superclasses[i])
+					needed[superclass] = superclasses[superclass] == null;
+			}
+		}
+		computeSuperclasses(needed, superclasses, numThreads);
+
+		runParallel(sorted.length, numThreads, new RangeTask() {
+			public void run(int from, int to) {
+				int[] marks = new int[sorted.length];
+				for (int i = from; i < to; i++) {
+					if (affected[i])
+						direct[i] = directSuperclasses(i, superclasses, marks);
+				}
+			}
+		});
+
+		TIntObjectHashMap<int[]> result = new TIntObjectHashMap<int[]>(sorted.length);
+		for (int i = 0; i < sorted.length; i++)
+			result.put(sorted[i].zpNumber, direct[i]);
+		if (cacheFile != null)
+			writeCache(cacheFile, result);
+		return result;
+	}
+
+	/**
+	 * Builds the closures of the referenced terms and the index.
+	 */
+	private void prepare(int numThreads) throws InterruptedException {
+		sorted = definitions.values(new Definition[definitions.size()]);
+		Arrays.sort(sorted, new Comparator<Definition>() {
+			public int compare(Definition o1, Definition o2) {
+				return Integer.compare(o1.zpNumber, o2.zpNumber);
+			}
+		});
+
+		TIntHashSet referenced = new TIntHashSet();
+		for (Definition definition : sorted) {
+			for (int term : new int[] { definition.quality, definition.modifier, definition.entity, definition.entityPartOf, definition.towards,
+					definition.towardsPartOf }) {
+				if (term >= 0)
+					referenced.add(term);
+			}
+		}
+		final int[] referencedTerms = referenced.toArray();
+		superTerms = new int[terms.size()][];
+		partOfSuperTerms = new int[terms.size()][];
+		runParallel(referencedTerms.length, numThreads, new RangeTask() {
+			public void run(int from, int to) {
+				for (int i = from; i < to; i++)
+					closure(referencedTerms[i]);
+			}
+		});
+
+		index = new TLongObjectHashMap<TIntArrayList>();
+		for (int i = 0; i < sorted.length; i++) {
+			long key = key(sorted[i].quality, sorted[i].entity);
+			TIntArrayList list = index.get(key);
+			if (list == null) {
+				list = new TIntArrayList(2);
+				index.put(key, list);
+			}
+			list.add(i);
+		}
+	}
+
+	private static long key(int quality, int entity) {
+		/* Trove hashes longs to the xor of both halves, which collides for small indices, so scramble it */
+		return (((long) quality << 32) | entity) * 0x9E3779B97F4A7C15L;
+	}
+
+	/**
+	 * Computes the terms the given term is a subclass of (including itself)
+	 * and the terms it is part of, following is_a and part_of in any order.
+	 */
+	private void closure(int term) {
+		/* Visit (node, via part_of) states, node * 2 + 1 if a part_of edge was passed */
+		TIntHashSet visited = new TIntHashSet();
+		TIntArrayList queue = new TIntArrayList();
+		queue.add(term * 2);
+		visited.add(term * 2);
+		TIntArrayList sup = new TIntArrayList();
+		TIntArrayList partOf = new TIntArrayList();
+		for (int i = 0; i < queue.size(); i++) {
+			int state = queue.get(i);
+			int node = state >> 1;
+			boolean viaPartOf = (state & 1) != 0;
+			if (viaPartOf)
+				partOf.add(node);
+			else
+				sup.add(node);
+			TIntArrayList parents = isaParents.get(node);
+			for (int j = 0; j < parents.size(); j++) {
+				int next = parents.get(j) * 2 + (viaPartOf ? 1 : 0);
+				if (visited.add(next))
+					queue.add(next);
+			}
+			parents = partOfParents.get(node);
+			for (int j = 0; j < parents.size(); j++) {
+				int next = parents.get(j) * 2 + 1;
+				if (visited.add(next))
+					queue.add(next);
+			}
+		}
+		sup.sort();
+		partOf.sort();
+		superTerms[term] = sup.toArray();
+		partOfSuperTerms[term] = partOf.toArray();
+	}
+
+	private static boolean contains(int[] sortedTerms, int term) {
+		return Arrays.binarySearch(sortedTerms, term) >= 0;
+	}
+
+	/**
+	 * @return whether "x and part_of some y" is subsumed by
+	 *         "x2 and part_of some y2" (y and y2 may be -1).
+	 */
+	private boolean entitySubsumedBy(int x, int y, int x2, int y2) {
+		if (!contains(superTerms[x], x2))
+			return false;
+		if (y2 < 0 || contains(partOfSuperTerms[x], y2))
+			return true;
+		return y >= 0 && (contains(superTerms[y], y2) || contains(partOfSuperTerms[y], y2));
+	}
+
+	/**
+	 * @return whether the class c is a subclass of d.
+	 */
+	private boolean subsumedBy(Definition c, Definition d) {
+		if (!contains(superTerms[c.quality], d.quality))
+			return false;
+		if (d.modifier >= 0 && (c.modifier < 0 || !contains(superTerms[c.modifier], d.modifier)))
+			return false;
+		if (!entitySubsumedBy(c.entity, c.entityPartOf, d.entity, d.entityPartOf))
+			return false;
+		if (d.towards >= 0 && (c.towards < 0 || !entitySubsumedBy(c.towards, c.towardsPartOf, d.towards, d.towardsPartOf)))
+			return false;
+		return true;
+	}
+
+	/**
+	 * @return the indices of the strict superclasses of the given class.
+	 */
+	private TIntArrayList superclasses(int i, TLongObjectHashMap<TIntArrayList> candidates) {
+		Definition c = sorted[i];
+		TIntArrayList result = new TIntArrayList();
+		for (int quality : superTerms[c.quality]) {
+			for (int entity : superTerms[c.entity]) {
+				TIntArrayList list = candidates.get(key(quality, entity));
+				if (list == null)
+					continue;
+				for (int j = 0; j < list.size(); j++) {
+					int candidate = list.get(j);
+					if (candidate != i && subsumedBy(c, sorted[candidate]) && !subsumedBy(sorted[candidate], c))
+						result.add(candidate);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Computes the indices of the strict superclasses of the selected classes.
+	 */
+	private void computeSuperclasses(final boolean[] selected, final int[][] superclasses, int numThreads) throws InterruptedException {
+		runParallel(sorted.length, numThreads, new RangeTask() {
+			public void run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					if (selected[i])
+						superclasses[i] = superclasses(i, index).toArray();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param marks
+	 *            an array of the size of all classes, reused between calls
+	 * @return the ZP numbers of the direct superclasses of the given class,
+	 *         i.e., of the superclasses that are not a strict superclass of
+	 *         another superclass.
+	 */
+	private int[] directSuperclasses(int i, int[][] superclasses, int[] marks) {
+		/* marks[j] == i + 1 if j is a strict superclass of a superclass of i */
+		for (int superclass : superclasses[i]) {
+			for (int indirect : superclasses[superclass])
+				marks[indirect] = i + 1;
+		}
+		TIntArrayList direct = new TIntArrayList();
+		for (int superclass : superclasses[i]) {
+			if (marks[superclass] != i + 1)
+				direct.add(sorted[superclass].zpNumber);
+		}
+		direct.sort();
+		return direct.toArray();
+	}
+
+	/**
+	 * Marks the classes that are new, whose definition changed, whose direct
+	 * superclass is gone or changed or that are subclasses of a new or
+	 * changed class.
+	 *
+	 * @return the number of marked classes
+	 */
+	private int findAffected(TIntObjectHashMap<int[]> cached, final boolean[] affected, int numThreads) throws InterruptedException {
+		final TLongObjectHashMap<TIntArrayList> newClasses = new TLongObjectHashMap<TIntArrayList>();
+		for (int i = 0; i < sorted.length; i++) {
+			if (!cached.containsKey(sorted[i].zpNumber)) {
+				affected[i] = true;
+				long key = key(sorted[i].quality, sorted[i].entity);
+				TIntArrayList list = newClasses.get(key);
+				if (list == null) {
+					list = new TIntArrayList(2);
+					newClasses.put(key, list);
+				}
+				list.add(i);
+			}
+		}
+		for (int i = 0; i < sorted.length; i++) {
+			int[] direct = cached.get(sorted[i].zpNumber);
+			if (direct == null)
+				continue;
+			/* The cache only has the unchanged classes, a changed superclass is gone as well */
+			for (int zpNumber : direct) {
+				if (!cached.containsKey(zpNumber))
+					affected[i] = true;
+			}
+		}
+		runParallel(sorted.length, numThreads, new RangeTask() {
+			public void run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					if (!affected[i] && !superclasses(i, newClasses).isEmpty())
+						affected[i] = true;
+				}
+			}
+		});
+		int numAffected = 0;
+		for (boolean a : affected) {
+			if (a)
+				numAffected++;
+		}
+		return numAffected;
+	}
+
+	/**
+	 * @return a string that identifies the definition independent of the
+	 *         term indices.
+	 */
+	private String signature(Definition definition) {
+		StringBuilder signature = new StringBuilder();
+		for (int term : new int[] { definition.quality, definition.modifier, definition.entity, definition.entityPartOf, definition.towards,
+				definition.towardsPartOf }) {
+			if (term >= 0)
+				signature.append(terms.get(term));
+			signature.append(' ');
+		}
+		return signature.toString();
+	}
+
+	/**
+	 * @return the cached direct superclasses of the classes whose definition
+	 *         did not change or null if the cache is not valid.
+	 */
+	private TIntObjectHashMap<int[]> readCache(File cacheFile) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != referenceChecksum) {
+				log.info("Ignoring \"" + cacheFile + "\" because the reference ontologies changed");
+				return null;
+			}
+			int size = in.readInt();
+			TIntObjectHashMap<int[]> cached = new TIntObjectHashMap<int[]>(size);
+			for (int i = 0; i < size; i++) {
+				int zpNumber = in.readInt();
+				String signature = in.readUTF();
+				int[] direct = new int[in.readInt()];
+				for (int j = 0; j < direct.length; j++)
+					direct[j] = in.readInt();
+				Definition definition = definitions.get(zpNumber);
+				if (definition != null && signature(definition).equals(signature))
+					cached.put(zpNumber, direct);
+			}
+			return cached;
+		} finally {
+			in.close();
+		}
+	}
+
+	private void writeCache(File cacheFile, TIntObjectHashMap<int[]> result) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(referenceChecksum);
+			out.writeInt(sorted.length);
+			for (Definition definition : sorted) {
+				out.writeInt(definition.zpNumber);
+				out.writeUTF(signature(definition));
+				int[] direct = result.get(definition.zpNumber);
+				out.writeInt(direct.length);
+				for (int zpNumber : direct)
+					out.writeInt(zpNumber);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Works on a range of indices.
+	 */
+	private interface RangeTask {
+		void run(int from, int to);
+	}
+
+	/**
+	 * Splits [0,n) into chunks that are processed on the given number of
+	 * threads.
+	 */
+	private static void runParallel(int n, int numThreads, final RangeTask task) throws InterruptedException {
+		if (numThreads <= 1 || n < 1024) {
+			task.run(0, n);
+			return;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			int chunk = Math.max(256, n / (numThreads * 8));
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int from = 0; from < n; from += chunk) {
+				final int start = from;
+				final int end = Math.min(n, from + chunk);
+				futures.add(pool.submit(new Runnable() {
+					public void run() {
+						task.run(start, end);
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return the map from ZP number to the direct superclasses as a list of
+	 *         ZP id pairs, for logging and tests.
+	 */
+	static List<String> toPairs(TIntObjectHashMap<int[]> direct) {
+		int[] zpNumbers = direct.keys();
+		Arrays.sort(zpNumbers);
+		List<String> pairs = new ArrayList<String>();
+		for (int zpNumber : zpNumbers) {
+			for (int superclass : direct.get(zpNumber))
+				pairs.add(String.format("ZP:%07d ZP:%07d", zpNumber, superclass));
+		}
+		return pairs;
+	}
+}
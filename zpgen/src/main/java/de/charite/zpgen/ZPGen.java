@@ -1,36 +1,26 @@
 package de.charite.zpgen;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.logging.Logger;
 
 import org.coode.owlapi.obo12.parser.OBOVocabulary;
 import org.semanticweb.owlapi.apibinding.OWLManager;
-import org.semanticweb.owlapi.io.OWLFunctionalSyntaxOntologyFormat;
 import org.semanticweb.owlapi.io.RDFXMLOntologyFormat;
 import org.semanticweb.owlapi.model.IRI;
-import org.semanticweb.owlapi.model.OWLAnnotation;
-import org.semanticweb.owlapi.model.OWLAnnotationProperty;
-import org.semanticweb.owlapi.model.OWLAnnotationValue;
-import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLClass;
-import org.semanticweb.owlapi.model.OWLClassExpression;
 import org.semanticweb.owlapi.model.OWLDataFactory;
 import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
-import org.semanticweb.owlapi.model.OWLLiteral;
-import org.semanticweb.owlapi.model.OWLObjectProperty;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.semanticweb.owlapi.model.OWLOntologyID;
@@ -39,9 +29,13 @@ import org.semanticweb.owlapi.model.OWLOntologyStorageException;
 import org.semanticweb.owlapi.model.SetOntologyID;
 
 import com.beust.jcommander.JCommander;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Lists;
 
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+
 import de.charite.zpgen.ZFINWalker.ZFIN_FILE_TYPE;
 
 /**
@@ -65,6 +59,9 @@ import de.charite.zpgen.ZFINWalker.ZFIN_FILE_TYPE;
 public class ZPGen {
 	static private Logger log = Logger.getLogger(ZPGen.class.getName());
 
+	/** The gene/genotype id of the entries that define the roots */
+	static final String ROOT_ENTRY_ID = "DUMMY";
+
 	public static void main(String[] args) throws OWLOntologyCreationException, IOException, InterruptedException, OWLOntologyStorageException {
 		ZPGenCLIConfig zpCLIConfig = new ZPGenCLIConfig();
 		JCommander jc = new JCommander(zpCLIConfig);
@@ -76,18 +73,85 @@ public class ZPGen {
 			System.exit(0);
 		}
 
-		final boolean addSourceInformation = zpCLIConfig.addSourceInformation || zpCLIConfig.sourceInformationFile != null;
+		run(zpCLIConfig, null);
+	}
+
+	/**
+	 * Generates zp and the annotation files as configured.
+	 * 
+	 * @param zpCLIConfig
+	 * @param previousOntology
+	 *            the already loaded previous ontology or null. It is used
+	 *            instead of loading the previous ontology file if the ids are
+	 *            to be kept.
+	 * @throws OWLOntologyCreationException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws OWLOntologyStorageException
+	 */
+	public static void run(ZPGenCLIConfig zpCLIConfig, PreviousOntology previousOntology) throws OWLOntologyCreationException, IOException,
+			InterruptedException, OWLOntologyStorageException {
+		final boolean addSourceInformation = zpCLIConfig.addSourceInformation;
 		final String zfinPhenoTxtFilePath = zpCLIConfig.zfinPhenoTxtPath;
 		final String zfinPhenotypeTxtFilePath = zpCLIConfig.zfinPhenotypeTxtPath;
 		final String previousOntologyFilePath = zpCLIConfig.previousOntologyFilePath;
 		final String ontologyOutputFilePath = zpCLIConfig.ontologyOutputFilePath;
 		final String annotFilesFolder = zpCLIConfig.annotationsFolder;
 		final boolean keepIds = zpCLIConfig.keepIds;
+		final boolean recoverIdsOnly = keepIds && zpCLIConfig.recoverIdsOnly;
+		final String idRegistryFilePath = zpCLIConfig.idRegistryFilePath;
+		final String incrementalIndexFilePath = zpCLIConfig.incrementalIndexFilePath;
 		final boolean useOwlRdfSyntax = zpCLIConfig.useOwlRdfSyntax;
+		final int numThreads = zpCLIConfig.numThreads;
+		final boolean streamingOutput = zpCLIConfig.streamingOutput;
 
 		final boolean addZfaUberonEquivalencies = zpCLIConfig.addZfaUberonEquivalencies;
 		final String uberonOboFilePath = zpCLIConfig.uberonOboFilePath;
 
+		if (streamingOutput && useOwlRdfSyntax) {
+			throw new IllegalArgumentException("The streaming output is only supported for the functional syntax. Prefer to stop here...");
+		}
+		if (streamingOutput && zpCLIConfig.expressionCacheSize <= 0) {
+			throw new IllegalArgumentException("The streaming output needs the expression cache to write each axiom once. Prefer to stop here...");
+		}
+
+		/* These options take over the content of the previous ontology, which is not read with --recover-ids-only */
+		if (recoverIdsOnly && previousOntology == null
+				&& (streamingOutput || incrementalIndexFilePath != null || zpCLIConfig.sourceInformationFile != null)) {
+			throw new IllegalArgumentException(
+					"--recover-ids-only drops the classes of the previous ontology, which --streaming-output, --incremental-index-file and --source-information-output-file take over. Prefer to stop here...");
+		}
+
+		final ZPGenMetrics metrics = new ZPGenMetrics();
+
+		/* Check the input first, instead of failing at the first bad row after the expensive steps */
+		TIntSet rejectedPhenoTxtLines = null;
+		TIntSet rejectedPhenotypeTxtLines = null;
+		if (zpCLIConfig.validate || zpCLIConfig.rejectFilePath != null) {
+			metrics.start("validate zfin files");
+			ZFINValidator phenoTxtValidator = new ZFINValidator(new File(zfinPhenoTxtFilePath), ZFIN_FILE_TYPE.PHENO_GENES_TXT);
+			ZFINValidator phenotypeTxtValidator = new ZFINValidator(new File(zfinPhenotypeTxtFilePath), ZFIN_FILE_TYPE.PHENO_GENOTYPES_TXT);
+			ZFINValidator.validateAll(Arrays.asList(phenoTxtValidator, phenotypeTxtValidator));
+			phenoTxtValidator.report(System.out);
+			phenotypeTxtValidator.report(System.out);
+			rejectedPhenoTxtLines = phenoTxtValidator.getRejectedLines();
+			rejectedPhenotypeTxtLines = phenotypeTxtValidator.getRejectedLines();
+			int numRejected = rejectedPhenoTxtLines.size() + rejectedPhenotypeTxtLines.size();
+			if (zpCLIConfig.rejectFilePath != null) {
+				BufferedWriter rejectOut = new BufferedWriter(new OutputStreamWriter(CompressedStreams.openOutput(new File(
+						zpCLIConfig.rejectFilePath))));
+				phenoTxtValidator.writeRejectedRows(rejectOut);
+				phenotypeTxtValidator.writeRejectedRows(rejectOut);
+				rejectOut.close();
+				if (numRejected > 0)
+					log.warning("Skipping " + numRejected + " rows, see \"" + zpCLIConfig.rejectFilePath + "\"");
+			} else if (numRejected > 0) {
+				throw new IllegalArgumentException(numRejected + " rows of the ZFIN files cannot be processed (see above). Prefer to stop here...");
+			}
+			metrics.set("rejectedRows", numRejected);
+			metrics.stop();
+		}
+
 		/* Create ontology manager */
 		final OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
 		/* Obtain the default data factory */
@@ -95,15 +159,27 @@ public class ZPGen {
 
 		/* Create IRIs */
 		final IRI zpIRI = IRI.create("http://purl.obolibrary.org/obo/upheno/zp.owl");
-		final IRI purlOboIRI = IRI.create("http://purl.obolibrary.org/obo/");
 
 		/* Load the previous zp, if requested */
+		metrics.start("load previous ontology");
 		final OWLOntology zp;
-		if (keepIds) {
+		List<OWLEquivalentClassesAxiom> previousEquivalences = null;
+		int previousMaxZPNumber = 0;
+		if (keepIds && previousOntology != null) {
+			System.out.println("copying previous zp-ontology...");
+			zp = previousOntology.copyOntology(manager, zpIRI);
+		} else if (keepIds) {
 			System.out.println("loading previous zp-ontology...");
 			File ontoFile = new File(previousOntologyFilePath);
-			if (ontoFile.exists()) {
-				zp = manager.loadOntologyFromOntologyDocument(ontoFile);
+			if (ontoFile.exists() && recoverIdsOnly) {
+				System.out.println("recovering ids of previous zp-ontology, its classes are not part of the output...");
+				PreviousIdReader reader = new PreviousIdReader(factory);
+				previousEquivalences = reader.read(ontoFile, numThreads);
+				previousMaxZPNumber = reader.getMaxZPNumber();
+				metrics.set("unsupportedPreviousAxioms", reader.getNumUnsupported());
+				zp = manager.createOntology(zpIRI);
+			} else if (ontoFile.exists()) {
+				zp = PreviousOntology.load(manager, ontoFile);
 			} else {
 				// log.info("Ignoring non-existent file \"" +
 				// ontologyOutputFilePath + "\" for keeping the ids");
@@ -119,13 +195,29 @@ public class ZPGen {
 			zp = manager.createOntology(zpIRI);
 		}
 
+		setVersionIRI(manager, zp, zpIRI);
+
 		/*
-		 * Add version IRI by using the date of construction
+		 * The classification replaces the subclass axioms between ZP classes of
+		 * the previous zp, some of them may no longer hold.
 		 */
-		Date date = new Date();
-		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-		IRI versionIRI = IRI.create("http://purl.obolibrary.org/obo/upheno/releases/" + sdf.format(date) + "/zp.owl");
-		manager.applyChange(new SetOntologyID(zp, new OWLOntologyID(zpIRI, versionIRI)));
+		ZPClassifier classifier = null;
+		final boolean propagateAnnotations = zpCLIConfig.propagateAnnotations || zpCLIConfig.annotationIndexFilePath != null;
+		if ((propagateAnnotations || zpCLIConfig.similarity) && !zpCLIConfig.classify) {
+			throw new IllegalArgumentException(
+					"Propagating the annotations requires the ZP hierarchy! Use option --classify. Prefer to stop here...");
+		}
+		if (zpCLIConfig.classify) {
+			if (zpCLIConfig.referenceOboFilePaths.isEmpty()) {
+				throw new IllegalArgumentException(
+						"Classification requested, but no reference obo file was provided! Use option --reference-obo-file. Prefer to stop here...");
+			}
+			int numRemoved = ZPClassifier.removeSubClassAxioms(zp);
+			if (numRemoved > 0)
+				log.info("Removed " + numRemoved + " subclass axioms between ZP classes of the previous ontology");
+			classifier = new ZPClassifier();
+			classifier.addFromOntology(zp);
+		}
 
 		/*
 		 * If user wants to have equivalence axioms between ZFA-classes and
@@ -135,6 +227,7 @@ public class ZPGen {
 		if (addZfaUberonEquivalencies) {
 
 			log.info("creating ZFA-UBERON mapping");
+			metrics.start("create zfa-uberon mapping");
 			if (uberonOboFilePath == null) {
 				log.severe("No uberon-file was provided for creating the ZFA-UBERON-mapping.");
 				throw new IllegalArgumentException(
@@ -146,372 +239,400 @@ public class ZPGen {
 				throw new IllegalArgumentException("ZFA-UBERON-mapping requested, but no uberon.obo file \"" + uberonOboFilePath
 						+ "\" was found! Prefer to stop here...");
 			}
-			Zfa2UberonMapper zfa2uberonMapper = new Zfa2UberonMapper(uberonOboFilePath);
+			Zfa2UberonMapper zfa2uberonMapper = new Zfa2UberonMapper(uberonOboFilePath, zpCLIConfig.uberonXrefCacheFilePath);
 			zfa2uberon = zfa2uberonMapper.getZfa2UberonMapping();
 		}
 
 		/* Instanciate the zpid db */
-		final ZPIDDB zpIdDB = new ZPIDDB(zp);
+		metrics.start("create id database");
+		ZPIDRegistry idRegistry = null;
+		if (idRegistryFilePath != null)
+			idRegistry = ZPIDRegistry.open(new File(idRegistryFilePath));
+		final ZPIDDB zpIdDB;
+		if (keepIds && previousOntology != null && idRegistry == null)
+			zpIdDB = previousOntology.copyIdDB();
+		else if (previousEquivalences != null) {
+			zpIdDB = new ZPIDDB(previousEquivalences, idRegistry);
+			zpIdDB.reserveIdsUpTo(previousMaxZPNumber);
+		} else
+			zpIdDB = new ZPIDDB(zp, idRegistry);
 
 		/* Where to write the annotation file to */
-		final BufferedWriter annotationPhenoTxtOut = new BufferedWriter(new FileWriter(annotFilesFolder + "annot_gene_pos.txt"));
-		final BufferedWriter negativePhenoTxtAnnotationOut = new BufferedWriter(new FileWriter(annotFilesFolder + "annot_gene_neg.txt"));
-		final BufferedWriter annotationPhenotypeTxtOut = new BufferedWriter(new FileWriter(annotFilesFolder + "annot_geno_pos.txt"));
-		final BufferedWriter negativePhenotypeTxtAnnotationOut = new BufferedWriter(new FileWriter(annotFilesFolder + "annot_geno_neg.txt"));
-
-		// was before BFO_0000070
-		final OWLObjectProperty towards = factory.getOWLObjectProperty(IRI.create(purlOboIRI + "RO_0002503"));
-		final OWLObjectProperty partOf = factory.getOWLObjectProperty(IRI.create(purlOboIRI + "BFO_0000050"));
-
-		// I have for now replaced the BFO-properties with the RO-properties
-		final OWLObjectProperty inheresProperty = factory.getOWLObjectProperty(IRI.create(purlOboIRI + "RO_0000052"));
+		final boolean sortAnnotations = zpCLIConfig.sortAnnotations;
+		final long sortMemoryBudget = zpCLIConfig.sortMemoryMB * 1024L * 1024L / 4;
+		final String annotSuffix = zpCLIConfig.compressAnnotations != null ? ".txt." + zpCLIConfig.compressAnnotations : ".txt";
+		final BufferedWriter annotationPhenoTxtOut = createAnnotationWriter(annotFilesFolder + "annot_gene_pos" + annotSuffix, sortAnnotations,
+				sortMemoryBudget);
+		final BufferedWriter negativePhenoTxtAnnotationOut = createAnnotationWriter(annotFilesFolder + "annot_gene_neg" + annotSuffix,
+				sortAnnotations, sortMemoryBudget);
+		final BufferedWriter annotationPhenotypeTxtOut = createAnnotationWriter(annotFilesFolder + "annot_geno_pos" + annotSuffix, sortAnnotations,
+				sortMemoryBudget);
+		final BufferedWriter negativePhenotypeTxtAnnotationOut = createAnnotationWriter(annotFilesFolder + "annot_geno_neg" + annotSuffix,
+				sortAnnotations, sortMemoryBudget);
 
-		final OWLObjectProperty hasPart = factory.getOWLObjectProperty(IRI.create(purlOboIRI + "BFO_0000051"));
+		/* Now walk the file and create instances on the fly */
+		InputStream inputStreamPhenoTxt = CompressedStreams.openInput(new File(zfinPhenoTxtFilePath));
+		InputStream inputStreamPhenotypeTxt = CompressedStreams.openInput(new File(zfinPhenotypeTxtFilePath));
 
-		/* RO_0002180 = "has qualifier" (previously used) */
-		/* RO_0002573 = "has modifier" (used in most recent version) */
-		// final OWLObjectProperty has_qualifier =
-		// factory.getOWLObjectProperty(IRI.create(zpIRI + "RO_0002180"));
-		final OWLObjectProperty has_modifier = factory.getOWLObjectProperty(IRI.create(purlOboIRI + "RO_0002573"));
-		final OWLClass abnormal = factory.getOWLClass(IRI.create(purlOboIRI + "PATO_0000460"));
+		metrics.stop();
+		final int initialAxiomCount = zp.getAxiomCount();
 
-		/* Now walk the file and create instances on the fly */
-		InputStream inputStreamPhenoTxt = new FileInputStream(new File(zfinPhenoTxtFilePath));
-		InputStream inputStreamPhenotypeTxt = new FileInputStream(new File(zfinPhenotypeTxtFilePath));
+		ZFINOntologyVisitor zfinVisitor = new ZFINOntologyVisitor(zp, zpIdDB, addSourceInformation, zpCLIConfig.expressionCacheSize);
 
 		/*
-		 * Constructs an OWLClass and Axioms for each zfin entry. We expect the
-		 * reasoner to collate the classes properly. (There is no reasoner used
-		 * at the moment We also emit the annotations here.
+		 * With the streaming output the ontology is written while walking, the
+		 * axioms are then not added to zp.
 		 */
-		class ZFIN implements ZFINVisitor {
-
-			/**
-			 * Returns an entity class for the given obo id. This is a simple
-			 * wrapper for OBOVocabulary.ID2IRI(id) but checks whether the term
-			 * stems from a supported ontology.
-			 * 
-			 * @param id
-			 * @return
-			 */
-			private OWLClass getEntityClassForOBOID(String id) {
-
-				// not perfect, but there are only 2 refs to CARO in phenotype.txt
-				if (id.equals("CARO:0000010")) { // "anatomical boundary (CARO)"
-					id = "ZFA:0001689"; // ZFA anatomical line
-				}
-
-				if (id.startsWith("GO:") || id.startsWith("ZFA:") || id.startsWith("BSPO:") || id.startsWith("MPATH:")|| id.startsWith("CHEBI:"))
-					return factory.getOWLClass(OBOVocabulary.ID2IRI(id));
+		File of = new File(ontologyOutputFilePath);
+		StreamingOntologyWriter streamingWriter = null;
+		if (streamingOutput) {
+			metrics.start("write previous ontology");
+			streamingWriter = new StreamingOntologyWriter(zp, CompressedStreams.openOutput(of));
+			zfinVisitor.setStreamingWriter(streamingWriter);
+		}
 
-				throw new RuntimeException("Unknown ontology prefix for name \"" + id + "\"");
-			}
+		/*
+		 * The source information file is collected while walking, the classes
+		 * of the previous zp are taken over.
+		 */
+		SourceInformationCollector sourceInformation = null;
+		if (zpCLIConfig.sourceInformationFile != null) {
+			sourceInformation = new SourceInformationCollector();
+			sourceInformation.addFromOntology(zp);
+			zfinVisitor.setSourceInformationCollector(sourceInformation);
+		}
 
-			/**
-			 * Returns an quality class for the given obo id. This is a simple
-			 * wrapper for OBOVocabulary.ID2IRI(id) but checks whether the term
-			 * stems from a supported ontology.
-			 * 
-			 * @param id
-			 * @return
-			 */
-			private OWLClass getQualiClassForOBOID(String id) {
-				if (id.startsWith("PATO:"))
-					return factory.getOWLClass(OBOVocabulary.ID2IRI(id));
-
-				throw new RuntimeException("Qualifier must be a pato term");
-			}
+		if (classifier != null)
+			zfinVisitor.setClassifier(classifier);
 
-			public boolean visit(ZFINEntry entry, BufferedWriter outPositiveAnnotations, BufferedWriter outNegativeAnnotations) {
-
-				/*
-				 * Important: exclude useless annotation that look like this
-				 * ...ZFA:0001439|anatomical
-				 * system|||||||PATO:0000001|quality|abnormal|
-				 */
-				if (entry.entity1SupertermId.equals("ZFA:0001439") && entry.patoID.equals("PATO:0000001") && entry.entity1SubtermId.equals("")
-						&& entry.entity2SupertermId.equals("") && entry.entity2SubtermId.equals(""))
-					return true;
-
-				/*
-				 * for annotations that are normal we generate the abnormal
-				 * counterpart. for this we sometimes have to correct the PATO
-				 * modifier used by the annotator. E.g. "normal amount" has to
-				 * be replace with amount, because the "normal"-tag already
-				 * indicates the fact that this is normal
-				 */
-				EntryCorrector corrector = new EntryCorrector(entry);
-				entry = corrector.getCorrectedEntry();
-
-				OWLClass pato = getQualiClassForOBOID(entry.patoID);
-				OWLClass cl1 = getEntityClassForOBOID(entry.entity1SupertermId);
-				OWLClassExpression intersectionExpression;
-				String label;
-
-				Set<OWLClassExpression> intersectionList = new LinkedHashSet<OWLClassExpression>();
-
-				intersectionList.add(pato);
-				// we now use has_modifier (this was has_qualifier before)
-				intersectionList.add(factory.getOWLObjectSomeValuesFrom(has_modifier, abnormal));
-
-				/* Entity 1: Create intersections */
-				if (entry.entity1SubtermId != null && entry.entity1SubtermId.length() > 0) {
-					/*
-					 * Pattern is (all-some interpretation): <pato> inheres_in
-					 * (<cl2> part of <cl1>) AND qualifier abnormal
-					 */
-					OWLClass cl2 = getEntityClassForOBOID(entry.entity1SubtermId);
-
-					intersectionList.add(factory.getOWLObjectSomeValuesFrom(inheresProperty,
-							factory.getOWLObjectIntersectionOf(cl2, factory.getOWLObjectSomeValuesFrom(partOf, cl1))));
-
-					/*
-					 * Note that is language the last word is the more specific
-					 * part of the composition, i.e., we say swim bladder
-					 * epithelium, which is the epithelium of the swim bladder
-					 */
-					label = "abnormal(ly) " + entry.patoName + " " + entry.entity1SupertermName + " " + entry.entity1SubtermName;
+		/*
+		 * In incremental mode, rows of the previous run are only skipped if the
+		 * previous ontology (which holds their axioms) is the base of the new
+		 * one and was written by the run that wrote the index, with the same
+		 * settings.
+		 */
+		IncrementalIndex nextIncrementalIndex = null;
+		if (incrementalIndexFilePath != null) {
+			String incrementalSettings = IncrementalIndex.getSettings(zpCLIConfig);
+			File indexFile = new File(incrementalIndexFilePath);
+			IncrementalIndex previousIncrementalIndex = null;
+			if (indexFile.exists()) {
+				if (keepIds && previousEquivalences == null) {
+					previousIncrementalIndex = loadIncrementalIndex(indexFile, incrementalSettings, previousOntology != null ? previousOntology.getChecksum()
+							: IncrementalIndex.checksum(new File(previousOntologyFilePath)));
 				} else {
-					/*
-					 * Pattern is (all-some interpretation): <pato> inheres_in
-					 * <cl1> AND qualifier abnormal
-					 */
-					intersectionList.add(factory.getOWLObjectSomeValuesFrom(inheresProperty, cl1));
-					label = "abnormal(ly) " + entry.patoName + " " + entry.entity1SupertermName;
+					log.warning("Ignoring incremental index \"" + indexFile + "\" because the previous ontology is not the base of this run");
 				}
-
-				/* Entity 2: Create intersections */
-				if (entry.entity2SupertermId != null && entry.entity2SupertermId.length() > 0) {
-
-					OWLClass cl3 = getEntityClassForOBOID(entry.entity2SupertermId);
-
-					if (entry.entity2SubtermId != null && entry.entity2SubtermId.length() > 0) {
-						/*
-						 * Pattern is (all-some interpretation): <pato>
-						 * inheres_in (<cl2> part of <cl1>) AND qualifier
-						 * abnormal
-						 */
-						OWLClass cl4 = getEntityClassForOBOID(entry.entity2SubtermId);
-
-						intersectionList.add(factory.getOWLObjectSomeValuesFrom(towards,
-								factory.getOWLObjectIntersectionOf(cl4, factory.getOWLObjectSomeValuesFrom(partOf, cl3))));
-
-						/*
-						 * Note that is language the last word is the more
-						 * specific part of the composition, i.e., we say swim
-						 * bladder epithelium, which is the epithelium of the
-						 * swim bladder
-						 */
-						label += " towards " + entry.entity2SupertermName + " " + entry.entity2SubtermName;
-
-					} else {
-						intersectionList.add(factory.getOWLObjectSomeValuesFrom(towards, cl3));
-						label += " towards " + entry.entity2SupertermName;
-					}
-				}
-
-				/* Create intersection */
-				intersectionExpression = factory.getOWLObjectIntersectionOf(intersectionList);
-
-				OWLClassExpression owlSomeClassExp = factory.getOWLObjectSomeValuesFrom(hasPart, intersectionExpression);
-
-				// get the class
-				IRI zpIRI = zpIdDB.getZPId(owlSomeClassExp);
-				String zpID = OBOVocabulary.IRI2ID(zpIRI);
-				OWLClass zpTerm = factory.getOWLClass(zpIRI);
-
-				/* Make term equivalent to the intersection */
-				OWLEquivalentClassesAxiom axiom = factory.getOWLEquivalentClassesAxiom(zpTerm, owlSomeClassExp);
-				manager.addAxiom(zp, axiom);
-
-				/* Add label */
-				OWLAnnotation labelAnno = factory.getOWLAnnotation(factory.getRDFSLabel(), factory.getOWLLiteral(label));
-				OWLAxiom labelAnnoAxiom = factory.getOWLAnnotationAssertionAxiom(zpTerm.getIRI(), labelAnno);
-				manager.addAxiom(zp, labelAnnoAxiom);
-
-				/* Add source information */
-				if (addSourceInformation) {
-					addSourceInformation(zpTerm, entry, zp);
-				}
-
-				/*
-				 * Writing the annotation file
-				 */
-				try {
-					// write negative (not-) annotations to a different file
-					if (!entry.isAbnormal) {
-						outNegativeAnnotations.write(entry.genxZfinID + "\t" + zpID + "\t" + label + "\tNOT\n");
-					} else {
-						outPositiveAnnotations.write(entry.genxZfinID + "\t" + zpID + "\t" + label + "\n");
-					}
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-
-				return true;
 			}
+			nextIncrementalIndex = new IncrementalIndex(incrementalSettings);
+			zfinVisitor.setIncrementalIndices(previousIncrementalIndex, nextIncrementalIndex);
 		}
 
-		ZFIN zfinVisitor = new ZFIN();
-
 		/* The zp entry that defines the root */
-		List<ZFINEntry> rootEntries = Lists.newArrayList();
-		rootEntries.add(getRootEntry("ZFA:0100000", "zebrafish anatomical entity"));
-		rootEntries.add(getRootEntry("GO:0008150", "biological process"));
-		rootEntries.add(getRootEntry("GO:0003674", "molecular function"));
-		rootEntries.add(getRootEntry("GO:0005575", "cellular component"));
-		for (ZFINEntry rootEntry : rootEntries) {
+		for (ZFINEntry rootEntry : getRootEntries()) {
 			zfinVisitor.visit(rootEntry, annotationPhenoTxtOut, negativePhenoTxtAnnotationOut);
 			zfinVisitor.visit(rootEntry, annotationPhenotypeTxtOut, negativePhenotypeTxtAnnotationOut);
 		}
-		ZFINWalker.walk(inputStreamPhenoTxt, zfinVisitor, ZFIN_FILE_TYPE.PHENO_GENES_TXT, annotationPhenoTxtOut, negativePhenoTxtAnnotationOut);
-		ZFINWalker.walk(inputStreamPhenotypeTxt, zfinVisitor, ZFIN_FILE_TYPE.PHENO_GENOTYPES_TXT, annotationPhenotypeTxtOut,
-				negativePhenotypeTxtAnnotationOut);
+		/* With several threads, reading, building, committing and writing overlap */
+		ZFINPipeline pipeline = null;
+		if (numThreads > 1) {
+			pipeline = new ZFINPipeline(numThreads);
+			pipeline.setBatchSize(zpCLIConfig.batchSize);
+			if (zpCLIConfig.queueSize > 0)
+				pipeline.setQueueSize(zpCLIConfig.queueSize);
+		}
+		metrics.start("walk pheno gene file");
+		int rows = walk(pipeline, inputStreamPhenoTxt, zfinVisitor, ZFIN_FILE_TYPE.PHENO_GENES_TXT, annotationPhenoTxtOut,
+				negativePhenoTxtAnnotationOut, rejectedPhenoTxtLines);
+		metrics.stop(rows);
+		int walkedRows = rows;
+		metrics.start("walk pheno genotype file");
+		rows = walk(pipeline, inputStreamPhenotypeTxt, zfinVisitor, ZFIN_FILE_TYPE.PHENO_GENOTYPES_TXT, annotationPhenotypeTxtOut,
+				negativePhenotypeTxtAnnotationOut, rejectedPhenotypeTxtLines);
+		metrics.stop(rows);
+		walkedRows += rows;
+		if (pipeline != null) {
+			metrics.set("pipelineCommitWaitMs", pipeline.getCommitWaitMillis());
+			metrics.set("pipelineWriteWaitMs", pipeline.getWriteWaitMillis());
+		}
+		inputStreamPhenoTxt.close();
+		inputStreamPhenotypeTxt.close();
+
+		if (zfinVisitor.getExpressionCacheStats() != null) {
+			CacheStats stats = zfinVisitor.getExpressionCacheStats();
+			log.info("Expression cache: " + stats.hitCount() + " hits, " + stats.missCount() + " misses, " + stats.evictionCount() + " evictions");
+			metrics.set("expressionCacheHits", stats.hitCount());
+			metrics.set("expressionCacheMisses", stats.missCount());
+		}
 
 		// if requested, add the equivalence axioms between ZFA-class and
 		// UBERON-classes
 		if (zfa2uberon != null && zfa2uberon.keySet().size() > 0) {
-			for (Entry<String, String> zfa2uberonEntry : zfa2uberon.entries()) {
-
-				String zfaIdObo = zfa2uberonEntry.getKey();
-				String uberonIdObo = zfa2uberonEntry.getValue();
-
-				OWLClass zfaClass = factory.getOWLClass(OBOVocabulary.ID2IRI(zfaIdObo));
-				OWLClass uberonClass = factory.getOWLClass(OBOVocabulary.ID2IRI(uberonIdObo));
+			metrics.start("add zfa-uberon axioms");
+			addZfaUberonEquivalencies(zfinVisitor, factory, zfa2uberon);
+		}
 
-				OWLEquivalentClassesAxiom equivZfaUberonAxiom = factory.getOWLEquivalentClassesAxiom(zfaClass, uberonClass);
-				manager.addAxiom(zp, equivZfaUberonAxiom);
-			}
+		TIntObjectHashMap<int[]> directSuperclasses = null;
+		if (classifier != null) {
+			metrics.start("classify");
+			for (String referenceOboFilePath : zpCLIConfig.referenceOboFilePaths)
+				classifier.addReferenceOntology(new File(referenceOboFilePath));
+			File cacheFile = zpCLIConfig.classificationCacheFilePath != null ? new File(zpCLIConfig.classificationCacheFilePath) : null;
+			directSuperclasses = classifier.classify(numThreads, cacheFile);
+			int numInferred = addSubClassAxioms(zfinVisitor, factory, directSuperclasses);
+			log.info("Classified " + classifier.getNumClassified() + " of " + classifier.size() + " ZP classes, added " + numInferred
+					+ " subclass axioms");
+			if (classifier.getNumUnsupported() > 0)
+				log.warning("Could not classify " + classifier.getNumUnsupported() + " ZP classes with unexpected definitions");
+			metrics.set("classifiedClasses", classifier.getNumClassified());
+			metrics.set("inferredSubClassAxioms", numInferred);
+			metrics.stop(classifier.size());
 		}
+		zfinVisitor.flush();
 
 		/* Write output files */
-		File of = new File(ontologyOutputFilePath);
-		if (useOwlRdfSyntax) {
+		metrics.start("save ontology");
+		if (streamingWriter != null) {
+			streamingWriter.close();
+			log.info("Wrote \"" + of.toString() + "\" in functional syntax (" + streamingWriter.getNumWrittenAxioms() + " streamed axioms)");
+		} else if (useOwlRdfSyntax) {
 			// save in owl/rdf syntax
-			manager.saveOntology(zp, new RDFXMLOntologyFormat(), new FileOutputStream(of));
+			OutputStream out = new BufferedOutputStream(CompressedStreams.openOutput(of), 1 << 20);
+			try {
+				manager.saveOntology(zp, new RDFXMLOntologyFormat(), out);
+			} finally {
+				out.close();
+			}
 			log.info("Wrote \"" + of.toString() + "\" in OWL/RDF syntax");
 		} else {
 			// save in manchester functional syntax
-			manager.saveOntology(zp, new OWLFunctionalSyntaxOntologyFormat(), new FileOutputStream(of));
+			ParallelOntologyWriter.write(zp, CompressedStreams.openOutput(of), numThreads);
 			log.info("Wrote \"" + of.toString() + "\" in Manchester functional syntax");
 		}
 
+		metrics.stop();
+		if (streamingWriter != null)
+			metrics.set("axiomsAdded", streamingWriter.getNumWrittenAxioms());
+		else
+			metrics.set("axiomsAdded", zp.getAxiomCount() - initialAxiomCount);
+		metrics.set("newIds", zpIdDB.getNumNewIds());
+		metrics.set("reusedIds", zpIdDB.getNumReusedIds());
+
+		if (idRegistry != null)
+			idRegistry.close();
+
+		if (nextIncrementalIndex != null) {
+			log.info("Took " + zfinVisitor.getNumReusedEntries() + " of " + walkedRows + " rows from the incremental index");
+			metrics.set("incrementalReusedRows", zfinVisitor.getNumReusedEntries());
+			nextIncrementalIndex.setOntologyChecksum(IncrementalIndex.checksum(of));
+			nextIncrementalIndex.save(new File(incrementalIndexFilePath));
+		}
+
+		if (sortAnnotations)
+			metrics.start("sort annotation files");
 		annotationPhenoTxtOut.close();
 		negativePhenoTxtAnnotationOut.close();
 		annotationPhenotypeTxtOut.close();
 		negativePhenotypeTxtAnnotationOut.close();
 
-		if (zpCLIConfig.sourceInformationFile != null) {
-			saveSourceInformation(zp, zpCLIConfig.sourceInformationFile);
+		if (sourceInformation != null) {
+			metrics.start("save source information");
+			sourceInformation.write(new File(zpCLIConfig.sourceInformationFile));
+			log.info("Wrote \"" + zpCLIConfig.sourceInformationFile + "\"");
 		}
-	}
 
-	private static ZFINEntry getRootEntry(String rootId, String rootLabel) {
-		ZFINEntry rootEntry = new ZFINEntry();
-		rootEntry.genxZfinID = "DUMMY";
-		rootEntry.isAbnormal = true;
-		rootEntry.patoID = "PATO:0000001";
-		rootEntry.patoName = "quality";
-		rootEntry.entity1SupertermId = rootId;// "ZFA:0100000";
-		rootEntry.entity1SupertermName = rootLabel;// "zebrafish anatomical entity";
-		rootEntry.entity2SupertermId = "";
-		rootEntry.sourceString = ZFINWalker.generateSourceString(rootEntry);
-		return rootEntry;
+		ZPAnnotationIndex annotationIndex = null;
+		if (directSuperclasses != null && (propagateAnnotations || zpCLIConfig.similarity))
+			annotationIndex = new ZPAnnotationIndex(directSuperclasses);
+
+		if (annotationIndex != null && propagateAnnotations) {
+			metrics.start("propagate annotations");
+			long numPropagated = 0;
+			for (String annotationFile : new String[] { "annot_gene_pos", "annot_geno_pos" }) {
+				File propagatedFile = zpCLIConfig.propagateAnnotations ? new File(annotFilesFolder + annotationFile + "_propagated" + annotSuffix)
+						: null;
+				numPropagated += annotationIndex.propagate(new File(annotFilesFolder + annotationFile + annotSuffix), propagatedFile);
+			}
+			if (annotationIndex.getNumUnknownClasses() > 0)
+				log.warning(annotationIndex.getNumUnknownClasses() + " annotations are to ZP classes that are not part of the hierarchy");
+			if (zpCLIConfig.annotationIndexFilePath != null)
+				annotationIndex.save(new File(zpCLIConfig.annotationIndexFilePath));
+			metrics.set("propagatedAnnotations", numPropagated);
+			metrics.stop(numPropagated);
+		}
+
+		if (annotationIndex != null && zpCLIConfig.similarity) {
+			ZPSimilarity.Measure measure = ZPSimilarity.Measure.valueOf(zpCLIConfig.similarityMeasure.toUpperCase());
+			for (String kind : new String[] { "gene", "geno" }) {
+				metrics.start("compute " + kind + " similarity");
+				ZPSimilarity similarity = new ZPSimilarity(annotationIndex, new File(annotFilesFolder + "annot_" + kind + "_pos" + annotSuffix));
+				File similarityFile = new File(annotFilesFolder + "similarity_" + kind + annotSuffix);
+				BufferedWriter out = new BufferedWriter(new OutputStreamWriter(CompressedStreams.openOutput(similarityFile)), 1 << 16);
+				long numLines;
+				try {
+					numLines = similarity.write(out, zpCLIConfig.similarityTopK, measure, numThreads);
+				} finally {
+					out.close();
+				}
+				log.info("Wrote " + numLines + " scores of " + similarity.size() + " " + kind + "s to \"" + similarityFile + "\"");
+				metrics.stop(numLines);
+			}
+		}
+
+		metrics.stop();
+		metrics.printSummary(System.out);
+		if (zpCLIConfig.writeMetrics) {
+			File metricsFile = new File(annotFilesFolder + "zpgen_metrics.json");
+			metrics.writeJSON(metricsFile);
+			log.info("Wrote \"" + metricsFile + "\"");
+		}
 	}
 
 	/**
-	 * Custom IRI for the annotation property for the definition of the class
-	 * expression.
+	 * Sets the IRI and the version IRI, which is derived from the current date,
+	 * of the given ontology.
+	 * 
+	 * @param manager
+	 * @param zp
+	 * @param zpIRI
 	 */
-	static final IRI definitionSourcePropertyIRI = IRI.create("http://zfin.org/definition/source_information");
+	static void setVersionIRI(OWLOntologyManager manager, OWLOntology zp, IRI zpIRI) {
+		Date date = new Date();
+		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+		IRI versionIRI = IRI.create("http://purl.obolibrary.org/obo/upheno/releases/" + sdf.format(date) + "/zp.owl");
+		manager.applyChange(new SetOntologyID(zp, new OWLOntologyID(zpIRI, versionIRI)));
+	}
 
 	/**
-	 * Add the source information for the definition of the equivalent class
-	 * expression for the given ZP class.
+	 * Adds the equivalence axioms between ZFA classes and UBERON classes.
 	 * 
-	 * @param cls
-	 * @param entry
-	 * @param zp
+	 * @param zfinVisitor
+	 * @param factory
+	 * @param zfa2uberon
 	 */
-	private static void addSourceInformation(OWLClass cls, ZFINEntry entry, OWLOntology zp) {
+	static void addZfaUberonEquivalencies(ZFINOntologyVisitor zfinVisitor, OWLDataFactory factory, ImmutableSetMultimap<String, String> zfa2uberon) {
+		for (Entry<String, String> zfa2uberonEntry : zfa2uberon.entries()) {
 
-		OWLOntologyManager m = zp.getOWLOntologyManager();
-		OWLDataFactory f = m.getOWLDataFactory();
-		OWLAnnotationProperty definitionSourceProperty = f.getOWLAnnotationProperty(definitionSourcePropertyIRI);
+			String zfaIdObo = zfa2uberonEntry.getKey();
+			String uberonIdObo = zfa2uberonEntry.getValue();
 
-		/*
-		 * Should not happen.
-		 */
-		if (entry.sourceString == null) {
-			System.err.println("source string null: " + entry.genxZfinID);
-			return;
+			OWLClass zfaClass = factory.getOWLClass(OBOVocabulary.ID2IRI(zfaIdObo));
+			OWLClass uberonClass = factory.getOWLClass(OBOVocabulary.ID2IRI(uberonIdObo));
+
+			OWLEquivalentClassesAxiom equivZfaUberonAxiom = factory.getOWLEquivalentClassesAxiom(zfaClass, uberonClass);
+			zfinVisitor.addAxiom(equivZfaUberonAxiom);
 		}
+	}
 
-		// add source information
-		OWLAnnotation sourceAnno = f.getOWLAnnotation(definitionSourceProperty, f.getOWLLiteral(entry.sourceString));
-		OWLAxiom labelAnnoAxiom = f.getOWLAnnotationAssertionAxiom(cls.getIRI(), sourceAnno);
-		m.addAxiom(zp, labelAnnoAxiom);
+	/**
+	 * Adds the subclass axioms between the ZP classes.
+	 * 
+	 * @param zfinVisitor
+	 * @param factory
+	 * @param direct
+	 *            the direct superclasses by ZP number
+	 * @return the number of added axioms
+	 */
+	static int addSubClassAxioms(ZFINOntologyVisitor zfinVisitor, OWLDataFactory factory, TIntObjectHashMap<int[]> direct) {
+		int[] zpNumbers = direct.keys();
+		Arrays.sort(zpNumbers);
+		int numAxioms = 0;
+		for (int zpNumber : zpNumbers) {
+			OWLClass zpClass = factory.getOWLClass(OBOVocabulary.ID2IRI(String.format("ZP:%07d", zpNumber)));
+			for (int superNumber : direct.get(zpNumber)) {
+				OWLClass superClass = factory.getOWLClass(OBOVocabulary.ID2IRI(String.format("ZP:%07d", superNumber)));
+				zfinVisitor.addAxiom(factory.getOWLSubClassOfAxiom(zpClass, superClass));
+				numAxioms++;
+			}
+		}
+		return numAxioms;
 	}
 
 	/**
-	 * Save the source information for all ZP classes in a separate file.
+	 * Loads the incremental index of the previous run.
 	 * 
-	 * @param zp
-	 * @param fileName
+	 * @param indexFile
+	 * @param settings
+	 *            the settings of this run
+	 * @param previousOntologyChecksum
+	 *            the checksum of the previous ontology file
+	 * @return the index or null, if it does not belong to the previous
+	 *         ontology or was written with other settings. All rows are
+	 *         processed again then.
 	 */
-	private static void saveSourceInformation(OWLOntology zp, String fileName) {
-		BufferedWriter writer = null;
+	static IncrementalIndex loadIncrementalIndex(File indexFile, String settings, long previousOntologyChecksum) {
+		IncrementalIndex index;
 		try {
-			writer = new BufferedWriter(new FileWriter(fileName));
-
-			for (OWLClass cls : zp.getClassesInSignature()) {
-
-				String zpID = OBOVocabulary.IRI2ID(cls.getIRI());
-				if (zpID.startsWith("ZP:") == false) {
-					// Ignore non ZP classes
-					continue;
-				}
-
-				String label = null;
-				ArrayList<String> sources = new ArrayList<String>();
-
-				for (OWLAnnotation annotation : cls.getAnnotations(zp)) {
+			index = IncrementalIndex.load(indexFile);
+		} catch (IOException e) {
+			log.warning("Ignoring incremental index \"" + indexFile + "\": " + e.getMessage());
+			return null;
+		}
+		if (!index.matches(settings, previousOntologyChecksum)) {
+			log.warning("Ignoring incremental index \"" + indexFile
+					+ "\" because it was written for another previous ontology or with other settings");
+			return null;
+		}
+		return index;
+	}
 
-					OWLAnnotationValue value = annotation.getValue();
-					OWLAnnotationProperty property = annotation.getProperty();
-					IRI propertyIri = property.getIRI();
+	/**
+	 * Creates the writer for an annotation file.
+	 * 
+	 * @param fileName
+	 * @param sort
+	 *            whether the lines should be sorted and deduplicated
+	 * @param memoryBudget
+	 *            the memory budget for sorting in bytes
+	 * @return
+	 * @throws IOException
+	 */
+	static BufferedWriter createAnnotationWriter(String fileName, boolean sort, long memoryBudget) throws IOException {
+		if (sort)
+			return new BufferedWriter(new ExternalSortWriter(new File(fileName), memoryBudget));
+		return new BufferedWriter(new OutputStreamWriter(CompressedStreams.openOutput(new File(fileName))));
+	}
 
-					if (propertyIri.equals(definitionSourcePropertyIRI)) {
-						String source = ((OWLLiteral) value).getLiteral();
-						sources.add(source);
-					}
+	/**
+	 * Walks the given file with the pipeline or, if there is none, on the
+	 * current thread.
+	 */
+	private static int walk(ZFINPipeline pipeline, InputStream input, ZFINOntologyVisitor zfinVisitor, ZFIN_FILE_TYPE zfinFileType,
+			BufferedWriter outPositiveAnnotations, BufferedWriter outNegativeAnnotations, TIntSet skippedLines) throws IOException,
+			InterruptedException {
+		if (pipeline == null)
+			return ZFINWalker.walk(input, zfinVisitor, zfinFileType, outPositiveAnnotations, outNegativeAnnotations, skippedLines);
+		return pipeline.walk(input, zfinVisitor, zfinFileType, outPositiveAnnotations, outNegativeAnnotations, skippedLines);
+	}
 
-					if (property.isLabel())
-						label = ((OWLLiteral) value).getLiteral();
-				}
+	/**
+	 * @return the zp entries that define the roots.
+	 */
+	static List<ZFINEntry> getRootEntries() {
+		List<ZFINEntry> rootEntries = Lists.newArrayList();
+		rootEntries.add(getRootEntry("ZFA:0100000", "zebrafish anatomical entity"));
+		rootEntries.add(getRootEntry("GO:0008150", "biological process"));
+		rootEntries.add(getRootEntry("GO:0003674", "molecular function"));
+		rootEntries.add(getRootEntry("GO:0005575", "cellular component"));
+		return rootEntries;
+	}
 
-				// write the information
-				if (label != null && sources.size() > 0) {
-					for (String source : sources) {
-						writer.append(zpID);
-						writer.append('\t');
-						writer.append(label);
-						writer.append('\t');
-						writer.append(source);
-						writer.append('\n');
-					}
-				}
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			if (writer != null) {
-				try {
-					writer.close();
-				} catch (IOException e) {
-					// close quietly
-				}
-			}
-		}
+	private static ZFINEntry getRootEntry(String rootId, String rootLabel) {
+		ZFINEntry rootEntry = new ZFINEntry();
+		rootEntry.genxZfinID = ROOT_ENTRY_ID;
+		rootEntry.isAbnormal = true;
+		rootEntry.patoID = "PATO:0000001";
+		rootEntry.patoName = "quality";
+		rootEntry.entity1SupertermId = rootId;// "ZFA:0100000";
+		rootEntry.entity1SupertermName = rootLabel;// "zebrafish anatomical entity";
+		rootEntry.entity2SupertermId = "";
+		rootEntry.sourceString = ZFINWalker.generateSourceString(rootEntry);
+		return rootEntry;
 	}
+
+	/**
+	 * Custom IRI for the annotation property for the definition of the class
+	 * expression.
+	 */
+	static final IRI definitionSourcePropertyIRI = IRI.create("http://zfin.org/definition/source_information");
 }
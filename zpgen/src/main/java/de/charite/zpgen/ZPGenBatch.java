@@ -0,0 +1,159 @@
+package de.charite.zpgen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.beust.jcommander.JCommander;
+
+/**
+ * Runs ZPGen for several inputs (e.g., historical ZFIN releases) in a single
+ * JVM. The runs are listed in a manifest, one per line, each given by the
+ * command line arguments of {@link ZPGen}. Independent runs are processed
+ * concurrently, and a previous ontology that is used by several runs to keep
+ * the ids is loaded only once.
+ */
+public class ZPGenBatch {
+	static private Logger log = Logger.getLogger(ZPGenBatch.class.getName());
+
+	/** The loaded previous ontologies by canonical path */
+	private final ConcurrentHashMap<String, FutureTask<PreviousOntology>> previousOntologies = new ConcurrentHashMap<String, FutureTask<PreviousOntology>>();
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		ZPGenBatchCLIConfig batchCLIConfig = new ZPGenBatchCLIConfig();
+		JCommander jc = new JCommander(batchCLIConfig);
+		jc.parse(args);
+
+		jc.setProgramName(ZPGenBatch.class.getSimpleName());
+		if (batchCLIConfig.help) {
+			jc.usage();
+			System.exit(0);
+		}
+
+		List<ZPGenCLIConfig> runs = readManifest(new File(batchCLIConfig.manifestPath));
+		int failed = new ZPGenBatch().run(runs, batchCLIConfig.parallelism);
+		if (failed > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Reads the runs of the manifest.
+	 *
+	 * @param manifest
+	 * @return the configuration of each run
+	 * @throws IOException
+	 */
+	public static List<ZPGenCLIConfig> readManifest(File manifest) throws IOException {
+		List<ZPGenCLIConfig> runs = new ArrayList<ZPGenCLIConfig>();
+		HashSet<String> outputs = new HashSet<String>();
+		int lineNumber = 0;
+		for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+
+			ZPGenCLIConfig zpCLIConfig = new ZPGenCLIConfig();
+			new JCommander(zpCLIConfig).parse(line.split("\\s+"));
+			if (zpCLIConfig.help)
+				throw new IllegalArgumentException("Line " + lineNumber + " of \"" + manifest + "\" asks for help");
+
+			/* Runs must not overwrite each other's output */
+			for (String output : new String[] { zpCLIConfig.ontologyOutputFilePath, zpCLIConfig.annotationsFolder }) {
+				if (!outputs.add(new File(output).getCanonicalPath()))
+					throw new IllegalArgumentException("Line " + lineNumber + " of \"" + manifest + "\" writes to \"" + output
+							+ "\", which is already used by a previous run");
+			}
+			runs.add(zpCLIConfig);
+		}
+		return runs;
+	}
+
+	/**
+	 * Processes the given runs.
+	 *
+	 * @param runs
+	 * @param parallelism
+	 *            the number of runs processed concurrently
+	 * @return the number of failed runs
+	 * @throws InterruptedException
+	 */
+	public int run(List<ZPGenCLIConfig> runs, int parallelism) throws InterruptedException {
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, parallelism));
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		try {
+			for (final ZPGenCLIConfig zpCLIConfig : runs) {
+				futures.add(pool.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						ZPGen.run(zpCLIConfig, getPreviousOntology(zpCLIConfig));
+						return null;
+					}
+				}));
+			}
+
+			int failed = 0;
+			for (int i = 0; i < runs.size(); i++) {
+				try {
+					futures.get(i).get();
+				} catch (ExecutionException e) {
+					failed++;
+					log.log(Level.SEVERE, "Run writing \"" + runs.get(i).ontologyOutputFilePath + "\" failed", e.getCause());
+				}
+			}
+			System.out.println("Finished " + (runs.size() - failed) + " of " + runs.size() + " runs in "
+					+ String.format("%.1f", (System.nanoTime() - start) / 1e9) + " s");
+			return failed;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns the previous ontology of the given run, which is loaded by the
+	 * first run that needs it.
+	 *
+	 * @param zpCLIConfig
+	 * @return the previous ontology or null if the run does not use it.
+	 * @throws Exception
+	 */
+	private PreviousOntology getPreviousOntology(ZPGenCLIConfig zpCLIConfig) throws Exception {
+		if (!zpCLIConfig.keepIds)
+			return null;
+		final File file = new File(zpCLIConfig.previousOntologyFilePath);
+		if (!file.exists())
+			return null;
+
+		FutureTask<PreviousOntology> task = new FutureTask<PreviousOntology>(new Callable<PreviousOntology>() {
+			public PreviousOntology call() throws Exception {
+				System.out.println("loading previous zp-ontology \"" + file + "\" for the batch...");
+				return PreviousOntology.load(file);
+			}
+		});
+		FutureTask<PreviousOntology> existing = previousOntologies.putIfAbsent(file.getCanonicalPath(), task);
+		if (existing == null) {
+			existing = task;
+			task.run();
+		}
+		try {
+			return existing.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package de.charite.zpgen;
+
+import com.beust.jcommander.Parameter;
+
+/**
+ * The command line interface of the batch mode.
+ */
+public class ZPGenBatchCLIConfig {
+	@Parameter(names = { "-m", "--manifest" }, required = true, description = "A file with one run per line, given by the command line arguments of ZPGen separated by whitespace (file names must not contain whitespace). Empty lines and lines starting with # are ignored.")
+	public String manifestPath;
+
+	@Parameter(names = { "-j", "--parallelism" }, required = false, description = "Number of runs processed concurrently. Runs that keep the ids of the same previous ontology share a single loaded copy of it.")
+	public int parallelism = 1;
+
+	@Parameter(names = { "-h", "--help" }, help = true, description = "Shows this help")
+	public boolean help;
+}
@@ -1,6 +1,11 @@
 package de.charite.zpgen;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import com.beust.jcommander.IParameterValidator;
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
 
 /**
  * The command line interface.
@@ -15,6 +20,12 @@ public class ZPGenCLIConfig {
 	@Parameter(names = { "--zfin-phenotype-txt-input-file" }, required = true, description = "The file containing the decomposed phenotype - genotype associations (i.e. http://zfin.org/downloads/phenotype.txt)")
 	public String zfinPhenotypeTxtPath;
 
+	@Parameter(names = { "--validate" }, required = false, description = "If set to true, both ZFIN files are checked before anything else is done and all problems are reported. The run stops if rows would fail (too few columns, unsupported ontology prefixes, qualifiers that are not PATO terms), unless --reject-file is given.")
+	public boolean validate = false;
+
+	@Parameter(names = { "--reject-file" }, required = false, description = "Implies --validate. Rows that would fail are written to this file (input file, line number, problem and the line, tab separated) and are skipped, so that the run continues.")
+	public String rejectFilePath = null;
+
 	@Parameter(names = { "-p", "--previous-ontology-file" }, required = true, description = "The last version of the ontology. Used to keep IDs!!!")
 	public String previousOntologyFilePath;
 
@@ -27,6 +38,15 @@ public class ZPGenCLIConfig {
 	@Parameter(names = { "-k", "--keep-ids" }, required = false, description = "If the output ontology file is already valid, keep the ids (ZP_nnnnnnn) stored in that file.")
 	public boolean keepIds = false;
 
+	@Parameter(names = { "--recover-ids-only" }, required = false, description = "If set to true together with --keep-ids, only the equivalence axioms of the ZP classes are extracted from the previous ontology by a fast streaming reader (using the given number of threads for the functional syntax) instead of loading it completely. The output then only contains the classes generated in this run (with their previous ids), classes of the previous ontology that are not generated again are dropped. Cannot be combined with --streaming-output, --incremental-index-file and --source-information-output-file.")
+	public boolean recoverIdsOnly = false;
+
+	@Parameter(names = { "--id-registry-file" }, required = false, description = "A file in which the assigned ids are stored persistently. Ids are taken from it in addition to the previous ontology (if --keep-ids is given), which is still the base of the output. If the file does not exist, it is created. The ids of the previous ontology and all newly assigned ids are added to it. The registry does not replace loading the previous ontology: with --keep-ids it is still loaded completely, so the registry only saves that time when used without --keep-ids (ids from the registry only) or together with --recover-ids-only.")
+	public String idRegistryFilePath = null;
+
+	@Parameter(names = { "--incremental-index-file" }, required = false, description = "A file in which the ZP class and label of every input row are stored. If the file exists and --keep-ids is given, rows of the previous run are not processed again, only their annotations are written. This requires that the previous ontology is the one written together with the file and that --add-source-information is the same, otherwise all rows are processed. The file is rewritten with the rows of the current run.")
+	public String incrementalIndexFilePath = null;
+
 	@Parameter(names = { "--add-source-information" }, required = false, description = "If set to true, add a tab delimited source information for the class expression to the ontology.")
 	public boolean addSourceInformation = false;
 
@@ -36,13 +56,90 @@ public class ZPGenCLIConfig {
 	@Parameter(names = { "-u", "--uberon-obo-file" }, required = false, description = "Required if '--add-zfa-uberon-equivalence' is used.")
 	public String uberonOboFilePath;
 
-	@Parameter(names = { "-s", "--source-information-output-file" }, required = false, description = "Add the source information to the ontology and save is also in a separate file. Implies --add-source-information set to true.")
+	@Parameter(names = { "--uberon-xref-cache-file" }, required = false, description = "A file in which the ZFA-UBERON mapping extracted from the uberon obo file is cached. It is reused as long as the uberon obo file does not change.")
+	public String uberonXrefCacheFilePath;
+
+	@Parameter(names = { "--classify" }, required = false, description = "If set to true, the ZP classes are classified after the ZFIN files were walked and the direct subclass axioms between ZP classes are added to the output. Subclass axioms between ZP classes of the previous ontology are replaced. Requires --reference-obo-file.")
+	public boolean classify = false;
+
+	@Parameter(names = { "--reference-obo-file" }, required = false, description = "An obo file (e.g., zfa.obo, go.obo, pato.obo, bspo.obo) whose is_a and part_of relations are used by --classify. Can be given several times.")
+	public List<String> referenceOboFilePaths = new ArrayList<String>();
+
+	@Parameter(names = { "--classification-cache-file" }, required = false, description = "A file in which the result of --classify is cached. If the reference obo files did not change and only few ZP classes are new, only these and their subclasses are classified again.")
+	public String classificationCacheFilePath;
+
+	@Parameter(names = { "--propagate-annotations" }, required = false, description = "If set to true, the positive annotations are propagated to all superclasses of the annotated ZP classes and written to annot_gene_pos_propagated.txt and annot_geno_pos_propagated.txt. Requires --classify.")
+	public boolean propagateAnnotations = false;
+
+	@Parameter(names = { "--annotation-index-file" }, required = false, description = "Save the ZP hierarchy and the propagated positive annotations in a binary index (see ZPAnnotationIndex), which answers which genes and genotypes are annotated to a ZP class or one of its subclasses. Requires --classify.")
+	public String annotationIndexFilePath;
+
+	@Parameter(names = { "--similarity" }, required = false, description = "If set to true, the phenotype similarity (Resnik, Jaccard and simGIC over the ZP classes including their superclasses) between the genes and between the genotypes is written to similarity_gene.txt and similarity_geno.txt. Requires --classify.")
+	public boolean similarity = false;
+
+	@Parameter(names = { "--similarity-top-k" }, required = false, description = "Write only the k most similar genes (genotypes) for every gene (genotype) instead of all pairs. 0 writes all pairs.")
+	public int similarityTopK = 0;
+
+	@Parameter(names = { "--similarity-measure" }, required = false, description = "The measure ('resnik', 'jaccard' or 'simgic') by which the most similar genes are chosen for --similarity-top-k.", validateWith = MeasureValidator.class)
+	public String similarityMeasure = "simgic";
+
+	@Parameter(names = { "-s", "--source-information-output-file" }, required = false, description = "Save the source information (ZP id, label and source) of all ZP classes in a separate file. This is independent of --add-source-information, which adds it to the ontology.")
 	public String sourceInformationFile = null;
 
 	@Parameter(names = { "--use-owlrdf-syntax" }, required = false, description = "If set to true, writes the output ontology in OWL-RDF syntax, which will otherwise be manchester functional syntax.")
 	public boolean useOwlRdfSyntax = false;
 
+	@Parameter(names = { "--streaming-output" }, required = false, description = "If set to true, the generated axioms are written to the output ontology (functional syntax only) as soon as they are created instead of being kept in memory until the end. The axioms of the previous ontology (if --keep-ids) are written first. Needs the expression cache.")
+	public boolean streamingOutput = false;
+
+	@Parameter(names = { "-t", "--threads" }, required = false, description = "Number of threads used to parse the ZFIN files and build the class expressions. IDs are still assigned in input order, so the output does not depend on this setting.")
+	public int numThreads = 1;
+
+	@Parameter(names = { "--batch-size" }, required = false, description = "Number of lines that are handed at once from the reader to the threads building the class expressions and on to the annotation writer (if more than one thread is used).")
+	public int batchSize = ZFINPipeline.DEFAULT_BATCH_SIZE;
+
+	@Parameter(names = { "--queue-size" }, required = false, description = "Maximum number of batches waiting between two stages of the walk (if more than one thread is used). A full queue stops the stage that fills it. 0 uses twice the number of threads.")
+	public int queueSize = 0;
+
+	@Parameter(names = { "--expression-cache-size" }, required = false, description = "Maximum number of distinct phenotypes (entity, quality and term names) whose class expression, label and id are cached while walking the ZFIN files. 0 disables the cache, which is not possible with --streaming-output.")
+	public int expressionCacheSize = ZFINOntologyVisitor.DEFAULT_EXPRESSION_CACHE_SIZE;
+
+	@Parameter(names = { "--sort-annotations" }, required = false, description = "If set to true, the lines of the annotation files are sorted (by gene/genotype and ZP id) and duplicates are removed.")
+	public boolean sortAnnotations = false;
+
+	@Parameter(names = { "--sort-memory" }, required = false, description = "Memory in MB used for sorting the annotation files (shared by all four files). Beyond that, sorted runs are spilled to temporary files in the annotation folder and merged at the end.")
+	public int sortMemoryMB = 256;
+
+	@Parameter(names = { "--compress-annotations" }, required = false, description = "Compress the annotation files with 'gz' or 'zst' (the extension is appended). The ontology and the source information file are compressed if their names end with .gz or .zst. Compressed input files are detected automatically.", validateWith = CompressionValidator.class)
+	public String compressAnnotations = null;
+
+	@Parameter(names = { "--write-metrics" }, required = false, description = "If set to true, the wall time of the stages, the throughput and some counters are written to zpgen_metrics.json in the annotation folder. A summary is always printed.")
+	public boolean writeMetrics = false;
+
 	@Parameter(names = { "-h", "--help" }, help = true, description = "Shows this help")
 	public boolean help;
 
+
+	/**
+	 * Accepts the supported similarity measures.
+	 */
+	public static class MeasureValidator implements IParameterValidator {
+		public void validate(String name, String value) throws ParameterException {
+			for (ZPSimilarity.Measure measure : ZPSimilarity.Measure.values()) {
+				if (measure.name().equalsIgnoreCase(value))
+					return;
+			}
+			throw new ParameterException("Parameter " + name + " must be 'resnik', 'jaccard' or 'simgic' (found " + value + ")");
+		}
+	}
+
+	/**
+	 * Accepts the supported compression formats.
+	 */
+	public static class CompressionValidator implements IParameterValidator {
+		public void validate(String name, String value) throws ParameterException {
+			if (!value.equals("gz") && !value.equals("zst"))
+				throw new ParameterException("Parameter " + name + " must be 'gz' or 'zst' (found " + value + ")");
+		}
+	}
 }
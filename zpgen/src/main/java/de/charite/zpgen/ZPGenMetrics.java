@@ -0,0 +1,159 @@
+package de.charite.zpgen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Collects the wall time and throughput of the stages of a ZPGen run as well as
+ * some counters (axioms, ids, cache hits). The result can be printed as a
+ * summary or written as JSON.
+ */
+public class ZPGenMetrics {
+
+	/**
+	 * A timed stage of the run.
+	 */
+	private static class Stage {
+		final String name;
+		long nanos;
+
+		/** Number of processed rows or -1 if not applicable */
+		long rows = -1;
+
+		Stage(String name) {
+			this.name = name;
+		}
+	}
+
+	private final long startNanos = System.nanoTime();
+	private final List<Stage> stages = new ArrayList<Stage>();
+	private final Map<String, Long> counters = new LinkedHashMap<String, Long>();
+
+	private Stage current;
+	private long currentStart;
+
+	/**
+	 * Starts timing the given stage. A running stage is stopped.
+	 *
+	 * @param name
+	 */
+	public void start(String name) {
+		stop();
+		current = new Stage(name);
+		currentStart = System.nanoTime();
+	}
+
+	/**
+	 * Stops the running stage, if any.
+	 */
+	public void stop() {
+		if (current == null)
+			return;
+		current.nanos = System.nanoTime() - currentStart;
+		stages.add(current);
+		current = null;
+	}
+
+	/**
+	 * Stops the running stage and records the number of rows processed in it.
+	 *
+	 * @param rows
+	 */
+	public void stop(long rows) {
+		Stage stage = current;
+		stop();
+		if (stage != null)
+			stage.rows = rows;
+	}
+
+	/**
+	 * Sets a counter.
+	 *
+	 * @param name
+	 * @param value
+	 */
+	public void set(String name, long value) {
+		counters.put(name, value);
+	}
+
+	/**
+	 * @return the peak usage of all heap memory pools in bytes.
+	 */
+	public static long getPeakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	private long getTotalNanos() {
+		return System.nanoTime() - startNanos;
+	}
+
+	/**
+	 * Prints a human readable summary.
+	 *
+	 * @param out
+	 */
+	public void printSummary(PrintStream out) {
+		stop();
+		out.println("Stage                                   time [s]       rows     rows/s");
+		for (Stage stage : stages) {
+			out.print(String.format("%-38s %9.3f", stage.name, stage.nanos / 1e9));
+			if (stage.rows >= 0)
+				out.print(String.format(" %10d %10.0f", stage.rows, getRowsPerSecond(stage)));
+			out.println();
+		}
+		out.println(String.format("%-38s %9.3f", "total", getTotalNanos() / 1e9));
+		for (Entry<String, Long> counter : counters.entrySet())
+			out.println(String.format("%-38s %10d", counter.getKey(), counter.getValue()));
+		out.println(String.format("%-38s %10.1f", "peak heap [MiB]", getPeakHeap() / (1024.0 * 1024.0)));
+	}
+
+	/**
+	 * Writes the metrics as JSON object to the given file.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeJSON(File file) throws IOException {
+		stop();
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+		try {
+			out.write("{\n  \"stages\": [\n");
+			for (int i = 0; i < stages.size(); i++) {
+				Stage stage = stages.get(i);
+				out.write("    { \"name\": \"" + stage.name + "\", \"seconds\": " + stage.nanos / 1e9);
+				if (stage.rows >= 0)
+					out.write(", \"rows\": " + stage.rows + ", \"rowsPerSecond\": " + Math.round(getRowsPerSecond(stage)));
+				out.write(i + 1 < stages.size() ? " },\n" : " }\n");
+			}
+			out.write("  ],\n  \"totalSeconds\": " + getTotalNanos() / 1e9 + ",\n");
+			out.write("  \"counters\": {\n");
+			for (Entry<String, Long> counter : counters.entrySet())
+				out.write("    \"" + counter.getKey() + "\": " + counter.getValue() + ",\n");
+			out.write("    \"peakHeapBytes\": " + getPeakHeap() + "\n  }\n}\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static double getRowsPerSecond(Stage stage) {
+		return stage.nanos > 0 ? stage.rows / (stage.nanos / 1e9) : 0;
+	}
+}
@@ -0,0 +1,387 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.io.OWLFunctionalSyntaxOntologyFormat;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.OWLOntologyStorageException;
+
+import com.beust.jcommander.JCommander;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.charite.zpgen.ZFINWalker.ZFIN_FILE_TYPE;
+
+/**
+ * Keeps zp, the id database and the ZFA-UBERON mapping in memory and answers
+ * requests over HTTP, so that ids of new phenotypes are available without a
+ * full run. The following requests are supported:
+ *
+ * <pre>
+ * GET  /resolve?entity1SupertermId=ZFA:...&amp;patoID=PATO:...&amp;...   the id and label of an EQ tuple
+ * POST /ingest?type=gene|genotype                                  adds the rows of a ZFIN file (the body)
+ * POST /flush                                                      writes the ontology and the other outputs
+ * POST /shutdown                                                   flushes and stops the server
+ * </pre>
+ *
+ * The parameters of resolve are named like the fields of {@link ZFINEntry},
+ * missing ones are empty. The tuple is abnormal unless tag=normal is given.
+ * Requests are processed one after another.
+ */
+public class ZPGenServer {
+	static private Logger log = Logger.getLogger(ZPGenServer.class.getName());
+
+	private static final String[] ENTRY_PARAMETERS = { "entity1SupertermId", "entity1SupertermName", "entity1SubtermId", "entity1SubtermName",
+			"entity2SupertermId", "entity2SupertermName", "entity2SubtermId", "entity2SubtermName", "patoID", "patoName" };
+
+	private final ZPGenServerCLIConfig config;
+	private final OWLOntologyManager manager;
+	private final OWLOntology zp;
+	private final ZFINOntologyVisitor zfinVisitor;
+	private final SourceInformationCollector sourceInformation;
+
+	private ImmutableSetMultimap<String, String> zfa2uberon;
+
+	private final BufferedWriter annotationPhenoTxtOut;
+	private final BufferedWriter negativePhenoTxtAnnotationOut;
+	private final BufferedWriter annotationPhenotypeTxtOut;
+	private final BufferedWriter negativePhenotypeTxtAnnotationOut;
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	public static void main(String[] args) throws Exception {
+		ZPGenServerCLIConfig config = new ZPGenServerCLIConfig();
+		JCommander jc = new JCommander(config);
+		jc.parse(args);
+
+		jc.setProgramName(ZPGenServer.class.getSimpleName());
+		if (config.help) {
+			jc.usage();
+			System.exit(0);
+		}
+
+		ZPGenServer zpGenServer = new ZPGenServer(config);
+		zpGenServer.start();
+		System.out.println("listening on http://" + config.host + ":" + zpGenServer.getPort() + "/");
+	}
+
+	/**
+	 * Loads the previous ontology and the ZFA-UBERON mapping as configured.
+	 *
+	 * @param config
+	 * @throws OWLOntologyCreationException
+	 * @throws IOException
+	 */
+	public ZPGenServer(ZPGenServerCLIConfig config) throws OWLOntologyCreationException, IOException {
+		this.config = config;
+
+		manager = OWLManager.createOWLOntologyManager();
+		IRI zpIRI = IRI.create("http://purl.obolibrary.org/obo/upheno/zp.owl");
+		if (config.previousOntologyFilePath != null) {
+			System.out.println("loading previous zp-ontology...");
+			zp = PreviousOntology.load(manager, new File(config.previousOntologyFilePath));
+		} else {
+			System.out.println("creating new zp-ontology...");
+			zp = manager.createOntology(zpIRI);
+		}
+		ZPGen.setVersionIRI(manager, zp, zpIRI);
+
+		if (config.addZfaUberonEquivalencies) {
+			if (config.uberonOboFilePath == null)
+				throw new IllegalArgumentException("ZFA-UBERON-mapping requested, but no uberon.obo file was provided! Use option --uberon-obo-file.");
+			zfa2uberon = new Zfa2UberonMapper(config.uberonOboFilePath, config.uberonXrefCacheFilePath).getZfa2UberonMapping();
+		}
+
+		zfinVisitor = new ZFINOntologyVisitor(zp, new ZPIDDB(zp), config.addSourceInformation);
+		if (config.sourceInformationFile != null) {
+			sourceInformation = new SourceInformationCollector();
+			sourceInformation.addFromOntology(zp);
+			zfinVisitor.setSourceInformationCollector(sourceInformation);
+		} else {
+			sourceInformation = null;
+		}
+
+		String annotFilesFolder = config.annotationsFolder;
+		annotationPhenoTxtOut = ZPGen.createAnnotationWriter(annotFilesFolder + "annot_gene_pos.txt", false, 0);
+		negativePhenoTxtAnnotationOut = ZPGen.createAnnotationWriter(annotFilesFolder + "annot_gene_neg.txt", false, 0);
+		annotationPhenotypeTxtOut = ZPGen.createAnnotationWriter(annotFilesFolder + "annot_geno_pos.txt", false, 0);
+		negativePhenotypeTxtAnnotationOut = ZPGen.createAnnotationWriter(annotFilesFolder + "annot_geno_neg.txt", false, 0);
+
+		for (ZFINEntry rootEntry : ZPGen.getRootEntries()) {
+			zfinVisitor.visit(rootEntry, annotationPhenoTxtOut, negativePhenoTxtAnnotationOut);
+			zfinVisitor.visit(rootEntry, annotationPhenotypeTxtOut, negativePhenotypeTxtAnnotationOut);
+		}
+	}
+
+	/**
+	 * Starts listening for requests.
+	 *
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(config.host, config.port), 0);
+		server.createContext("/resolve", new Handler() {
+			@Override
+			String handle(HttpExchange exchange, Map<String, String> parameters) {
+				return resolve(createEntry(parameters));
+			}
+		});
+		server.createContext("/ingest", new Handler() {
+			@Override
+			String handle(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+				String type = parameters.get("type");
+				ZFIN_FILE_TYPE zfinFileType;
+				if ("gene".equals(type))
+					zfinFileType = ZFIN_FILE_TYPE.PHENO_GENES_TXT;
+				else if ("genotype".equals(type))
+					zfinFileType = ZFIN_FILE_TYPE.PHENO_GENOTYPES_TXT;
+				else
+					throw new IllegalArgumentException("Parameter type must be 'gene' or 'genotype' (found " + type + ")");
+				return ingest(exchange.getRequestBody(), zfinFileType) + " rows ingested";
+			}
+		});
+		server.createContext("/flush", new Handler() {
+			@Override
+			String handle(HttpExchange exchange, Map<String, String> parameters) throws Exception {
+				return flush() + " axioms written";
+			}
+		});
+		server.createContext("/shutdown", new Handler() {
+			@Override
+			String handle(HttpExchange exchange, Map<String, String> parameters) throws Exception {
+				flush();
+				/* Stop after the response has been sent */
+				new Thread("zpgen server shutdown") {
+					@Override
+					public void run() {
+						ZPGenServer.this.stop();
+					}
+				}.start();
+				return "shutting down";
+			}
+		});
+		executor = Executors.newFixedThreadPool(4);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Stops the server without flushing.
+	 */
+	public void stop() {
+		server.stop(1);
+		executor.shutdown();
+	}
+
+	/**
+	 * @return the port the server listens on.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Returns the ZP id and label of the given EQ tuple. A new id is assigned
+	 * if the tuple is not yet known.
+	 *
+	 * @param entry
+	 * @return the ZP id and label separated by a tab
+	 */
+	public synchronized String resolve(ZFINEntry entry) {
+		ZFINOntologyVisitor.Definition definition = zfinVisitor.prepare(entry);
+		if (definition == null)
+			throw new IllegalArgumentException("The phenotype is excluded from zp");
+		return zfinVisitor.assign(definition) + "\t" + definition.label;
+	}
+
+	/**
+	 * Adds the rows of the given ZFIN file. Rows are only added if all of
+	 * them could be parsed.
+	 *
+	 * @param input
+	 * @param zfinFileType
+	 * @return the number of rows
+	 * @throws IOException
+	 */
+	public synchronized int ingest(InputStream input, ZFIN_FILE_TYPE zfinFileType) throws IOException {
+		List<ZFINEntry> entries = ZFINWalker.readEntries(input, zfinFileType);
+		ZFINOntologyVisitor.Definition[] definitions = new ZFINOntologyVisitor.Definition[entries.size()];
+		for (int i = 0; i < definitions.length; i++) {
+			ZFINEntry entry = entries.get(i);
+			try {
+				definitions[i] = zfinVisitor.prepare(entry);
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException("Problem in row " + (i + 1) + ": " + entry.genxZfinID + "\t" + entry.sourceString, e);
+			}
+		}
+
+		BufferedWriter outPositiveAnnotations;
+		BufferedWriter outNegativeAnnotations;
+		if (zfinFileType == ZFIN_FILE_TYPE.PHENO_GENES_TXT) {
+			outPositiveAnnotations = annotationPhenoTxtOut;
+			outNegativeAnnotations = negativePhenoTxtAnnotationOut;
+		} else {
+			outPositiveAnnotations = annotationPhenotypeTxtOut;
+			outNegativeAnnotations = negativePhenotypeTxtAnnotationOut;
+		}
+		for (ZFINOntologyVisitor.Definition definition : definitions) {
+			if (definition != null)
+				zfinVisitor.commit(definition, outPositiveAnnotations, outNegativeAnnotations);
+		}
+		log.info("Ingested " + entries.size() + " rows");
+		return entries.size();
+	}
+
+	/**
+	 * Writes the ontology, the annotation files and the source information
+	 * file. The ontology and the source information file are replaced
+	 * atomically.
+	 *
+	 * @return the number of axioms of the ontology
+	 * @throws IOException
+	 * @throws OWLOntologyStorageException
+	 */
+	public synchronized int flush() throws IOException, OWLOntologyStorageException {
+		if (zfa2uberon != null) {
+			ZPGen.addZfaUberonEquivalencies(zfinVisitor, manager.getOWLDataFactory(), zfa2uberon);
+			zfa2uberon = null;
+		}
+		zfinVisitor.flush();
+
+		File of = new File(config.ontologyOutputFilePath);
+		File tmp = temporaryFile(of);
+		OutputStream out = CompressedStreams.openOutput(tmp);
+		try {
+			manager.saveOntology(zp, new OWLFunctionalSyntaxOntologyFormat(), out);
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), of.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		log.info("Wrote \"" + of.toString() + "\" in Manchester functional syntax");
+
+		annotationPhenoTxtOut.flush();
+		negativePhenoTxtAnnotationOut.flush();
+		annotationPhenotypeTxtOut.flush();
+		negativePhenotypeTxtAnnotationOut.flush();
+
+		if (sourceInformation != null) {
+			File sourceInformationFile = new File(config.sourceInformationFile);
+			tmp = temporaryFile(sourceInformationFile);
+			sourceInformation.write(tmp);
+			Files.move(tmp.toPath(), sourceInformationFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.info("Wrote \"" + sourceInformationFile + "\"");
+		}
+		return zp.getAxiomCount();
+	}
+
+	/**
+	 * @return a temporary file next to the given file that keeps its
+	 *         extension (and hence its compression).
+	 */
+	private static File temporaryFile(File file) {
+		return new File(file.getAbsoluteFile().getParentFile(), ".tmp." + file.getName());
+	}
+
+	/**
+	 * Creates an entry from the parameters of a resolve request.
+	 *
+	 * @param parameters
+	 * @return
+	 */
+	static ZFINEntry createEntry(Map<String, String> parameters) {
+		String[] values = new String[ENTRY_PARAMETERS.length];
+		for (int i = 0; i < values.length; i++) {
+			String value = parameters.get(ENTRY_PARAMETERS[i]);
+			values[i] = value != null ? value : "";
+		}
+
+		ZFINEntry entry = new ZFINEntry();
+		entry.genxZfinID = "";
+		entry.entity1SupertermId = values[0];
+		entry.entity1SupertermName = values[1];
+		entry.entity1SubtermId = values[2];
+		entry.entity1SubtermName = values[3];
+		entry.entity2SupertermId = values[4];
+		entry.entity2SupertermName = values[5];
+		entry.entity2SubtermId = values[6];
+		entry.entity2SubtermName = values[7];
+		entry.patoID = values[8];
+		entry.patoName = values[9];
+		entry.isAbnormal = !"normal".equals(parameters.get("tag"));
+		if (entry.entity1SupertermId.isEmpty() || entry.patoID.isEmpty())
+			throw new IllegalArgumentException("Parameters entity1SupertermId and patoID are required");
+		entry.sourceString = ZFINWalker.generateSourceString(entry);
+		return entry;
+	}
+
+	/**
+	 * Parses the parameters of the query and sends the result of
+	 * {@link #handle(HttpExchange, Map)} as plain text.
+	 */
+	private static abstract class Handler implements HttpHandler {
+		abstract String handle(HttpExchange exchange, Map<String, String> parameters) throws Exception;
+
+		public void handle(HttpExchange exchange) throws IOException {
+			int status = 200;
+			String response;
+			try {
+				response = handle(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+			} catch (IllegalArgumentException e) {
+				status = 400;
+				response = e.getMessage();
+			} catch (Exception e) {
+				log.log(Level.SEVERE, "Failed to handle " + exchange.getRequestURI(), e);
+				status = 500;
+				response = e.toString();
+			}
+
+			byte[] bytes = (response + "\n").getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(status, bytes.length);
+			OutputStream out = exchange.getResponseBody();
+			try {
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		if (query == null)
+			return parameters;
+		for (String parameter : query.split("&")) {
+			int eq = parameter.indexOf('=');
+			if (eq < 0)
+				parameters.put(URLDecoder.decode(parameter, "UTF-8"), "");
+			else
+				parameters.put(URLDecoder.decode(parameter.substring(0, eq), "UTF-8"), URLDecoder.decode(parameter.substring(eq + 1), "UTF-8"));
+		}
+		return parameters;
+	}
+}
@@ -0,0 +1,41 @@
+package de.charite.zpgen;
+
+import com.beust.jcommander.Parameter;
+
+/**
+ * The command line interface of the server mode.
+ */
+public class ZPGenServerCLIConfig {
+	@Parameter(names = { "-p", "--previous-ontology-file" }, required = false, description = "The last version of the ontology. If given, its classes and ids are kept.")
+	public String previousOntologyFilePath;
+
+	@Parameter(names = { "-o", "--ontology-output-file" }, required = true, description = "Where the ontology file (e.g. ZP.owl) is written to on a flush")
+	public String ontologyOutputFilePath;
+
+	@Parameter(names = { "-a", "--annotation-output-folder" }, required = true, description = "Where the annotation files of the ingested rows are written to")
+	public String annotationsFolder;
+
+	@Parameter(names = { "-s", "--source-information-output-file" }, required = false, description = "Save the source information (ZP id, label and source) of all ZP classes in a separate file on a flush.")
+	public String sourceInformationFile = null;
+
+	@Parameter(names = { "--add-source-information" }, required = false, description = "If set to true, add a tab delimited source information for the class expression to the ontology.")
+	public boolean addSourceInformation = false;
+
+	@Parameter(names = { "--add-zfa-uberon-equivalence" }, required = false, description = "If set to true, the ontology will contain equivalence axioms between ZFA classes and UBERON classes (this requires uberon.obo).")
+	public boolean addZfaUberonEquivalencies = false;
+
+	@Parameter(names = { "-u", "--uberon-obo-file" }, required = false, description = "Required if '--add-zfa-uberon-equivalence' is used.")
+	public String uberonOboFilePath;
+
+	@Parameter(names = { "--uberon-xref-cache-file" }, required = false, description = "A file in which the ZFA-UBERON mapping extracted from the uberon obo file is cached.")
+	public String uberonXrefCacheFilePath;
+
+	@Parameter(names = { "--host" }, required = false, description = "The address the server listens on. Only local clients can connect by default.")
+	public String host = "127.0.0.1";
+
+	@Parameter(names = { "--port" }, required = false, description = "The port the server listens on (0 picks a free one)")
+	public int port = 8090;
+
+	@Parameter(names = { "-h", "--help" }, help = true, description = "Shows this help")
+	public boolean help;
+}
@@ -1,38 +1,116 @@
 package de.charite.zpgen;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import org.coode.owlapi.obo12.parser.OBOVocabulary;
 import org.semanticweb.owlapi.model.AxiomType;
 import org.semanticweb.owlapi.model.IRI;
-import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLClassExpression;
 import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
 import org.semanticweb.owlapi.model.OWLOntology;
 
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+
 /**
  * Simple zp id registry.
  * 
+ * The id database can be used from several threads. The ids are kept in a
+ * number of stripes, each guarded by its own lock, and new ids are taken from
+ * an atomic counter. If ids are requested concurrently via
+ * {@link #getZPId(OWLClassExpression)}, the numbers of new ids depend on the
+ * scheduling, so callers that need reproducible numbers request them in a
+ * deterministic order, as the walk does by assigning them when a batch is
+ * committed.
+ * 
  * @author Sebastian Bauer
  * @author Heiko Dietze
  */
 public class ZPIDDB {
 	private static Logger log = Logger.getAnonymousLogger();
 
+	/** Number of stripes, must be a power of two */
+	private static final int NUM_STRIPES = 64;
+
+	/**
+	 * Ids of the expressions whose fingerprint falls into a stripe. All fields
+	 * are guarded by the stripe.
+	 */
+	private static class Stripe {
+		/**
+		 * Every class expression gets an own distinct id, which is stored here
+		 * under the fingerprint of the expression.
+		 */
+		final FingerprintIntMap class2Id;
+
+		/**
+		 * The canonical key (see
+		 * {@link ClassExpressionFingerprint#canonicalKey(OWLClassExpression)})
+		 * of the ids in {@link #class2Id}, which is compared on every hit, so
+		 * that a fingerprint collision doesn't merge two expressions. Ids taken
+		 * from the registry, which only stores fingerprints, are verified
+		 * against the first expression that requested them.
+		 */
+		final TIntObjectHashMap<byte[]> id2Key;
+
+		/**
+		 * Keys of the expressions whose fingerprint collided with the one of
+		 * another expression, and their ids.
+		 */
+		final List<byte[]> collidedKeys = new ArrayList<byte[]>();
+		final TIntArrayList collidedIds = new TIntArrayList();
+
+		/** The ids assigned by {@link #getZPId(OWLClassExpression)} that were not known before */
+		final TIntHashSet newIds = new TIntHashSet();
+
+		/** The previously known ids returned by {@link #getZPId(OWLClassExpression)} */
+		final TIntHashSet reusedIds = new TIntHashSet();
+
+		Stripe() {
+			class2Id = new FingerprintIntMap(256);
+			id2Key = new TIntObjectHashMap<byte[]>();
+		}
+
+		Stripe(Stripe other) {
+			class2Id = new FingerprintIntMap(other.class2Id);
+			id2Key = new TIntObjectHashMap<byte[]>(other.id2Key);
+			collidedKeys.addAll(other.collidedKeys);
+			collidedIds.addAll(other.collidedIds);
+			newIds.addAll(other.newIds);
+			reusedIds.addAll(other.reusedIds);
+		}
+	}
+
 	/** Next id to be assigned in case of an unknown class expression */
-	private int nextId = 1;
+	private final AtomicInteger nextId = new AtomicInteger(1);
+
+	private final Stripe[] stripes = new Stripe[NUM_STRIPES];
 
-	/** Every class expression gets an own distinct id, which is stored here */
-	private HashMap<OWLClassExpression, IRI> class2Id = new HashMap<OWLClassExpression, IRI>();
+	/** Optional persistent registry that is consulted for unknown class expressions */
+	private final ZPIDRegistry registry;
+
+	private final ThreadLocal<ClassExpressionFingerprint> fingerprint = new ThreadLocal<ClassExpressionFingerprint>() {
+		@Override
+		protected ClassExpressionFingerprint initialValue() {
+			return createFingerprint();
+		}
+	};
 
 	/**
 	 * Constructs an empty zp id database.
 	 */
 	public ZPIDDB() {
-		this(null);
+		this((OWLOntology) null, null);
 	}
 
 	/**
@@ -42,44 +120,133 @@ public class ZPIDDB {
 	 * @param zp
 	 */
 	public ZPIDDB(OWLOntology zp) {
-		if (zp != null) {
-			for (OWLAxiom ax : zp.getAxioms(AxiomType.EQUIVALENT_CLASSES)) {
-				if (ax instanceof OWLEquivalentClassesAxiom) {
-					OWLEquivalentClassesAxiom eq = (OWLEquivalentClassesAxiom) ax;
-					List<OWLClassExpression> exprList = eq.getClassExpressionsAsList();
-					if (exprList.size() != 2) {
-						log.warning("Unknown format in equivalence axiom: " + eq);
-						continue;
-					}
-					OWLClassExpression cl1 = exprList.get(0);
-					OWLClassExpression cl2 = exprList.get(1);
-
-					OWLClass zpClass = null;
-
-					if (cl1 instanceof OWLClass)
-						zpClass = (OWLClass) cl1;
-					else {
-						log.warning("Unknown format in equivalence axiom: " + eq);
-						continue;
-					}
-
-					IRI zpIRI = zpClass.getIRI();
-					String zpID = OBOVocabulary.IRI2ID(zpIRI);
-					if (!zpID.startsWith("ZP:")) {
-						log.warning("Unknown term name in equivalence axiom: " + eq);
-						continue;
-					}
-					int id = Integer.parseInt(zpID.substring(3));
-					if (id >= nextId)
-						nextId = id + 1;
-
-					class2Id.put(cl2, zpIRI);
+		this(zp, null);
+	}
+
+	/**
+	 * Constructs a zp id data base that is backed by the given registry.
+	 * 
+	 * @param registry
+	 */
+	public ZPIDDB(ZPIDRegistry registry) {
+		this((OWLOntology) null, registry);
+	}
+
+	/**
+	 * Constructs a zp id data base and filling it with previously assigned ids
+	 * gathered from the given ontology. If a registry is given, ids of the
+	 * ontology that are not yet in the registry are added to it, and ids that
+	 * are assigned later on are appended to it.
+	 * 
+	 * @param zp
+	 *            the ontology, may be null
+	 * @param registry
+	 *            the registry, may be null
+	 */
+	public ZPIDDB(OWLOntology zp, ZPIDRegistry registry) {
+		this(zp != null ? zp.getAxioms(AxiomType.EQUIVALENT_CLASSES) : null, registry);
+	}
+
+	/**
+	 * Constructs a zp id data base and filling it with previously assigned ids
+	 * gathered from the given equivalence axioms, e.g., as read by
+	 * {@link PreviousIdReader}. Otherwise like
+	 * {@link #ZPIDDB(OWLOntology, ZPIDRegistry)}.
+	 * 
+	 * @param equivalences
+	 *            the equivalence axioms of the zp classes, may be null
+	 * @param registry
+	 *            the registry, may be null
+	 */
+	public ZPIDDB(Collection<OWLEquivalentClassesAxiom> equivalences, ZPIDRegistry registry) {
+		for (int i = 0; i < NUM_STRIPES; i++)
+			stripes[i] = new Stripe();
+
+		this.registry = registry;
+		if (registry != null && registry.getMaxId() >= nextId.get())
+			nextId.set(registry.getMaxId() + 1);
+
+		if (equivalences != null) {
+			ClassExpressionFingerprint fingerprint = this.fingerprint.get();
+			for (OWLEquivalentClassesAxiom eq : equivalences) {
+				List<OWLClassExpression> exprList = eq.getClassExpressionsAsList();
+				if (exprList.size() != 2) {
+					log.warning("Unknown format in equivalence axiom: " + eq);
+					continue;
 				}
+				OWLClassExpression cl1 = exprList.get(0);
+				OWLClassExpression cl2 = exprList.get(1);
+
+				OWLClass zpClass = null;
+
+				if (cl1 instanceof OWLClass)
+					zpClass = (OWLClass) cl1;
+				else {
+					log.warning("Unknown format in equivalence axiom: " + eq);
+					continue;
+				}
+
+				IRI zpIRI = zpClass.getIRI();
+				String zpID = OBOVocabulary.IRI2ID(zpIRI);
+				if (!zpID.startsWith("ZP:")) {
+					log.warning("Unknown term name in equivalence axiom: " + eq);
+					continue;
+				}
+				int id = Integer.parseInt(zpID.substring(3));
+				if (id >= nextId.get())
+					nextId.set(id + 1);
+
+				fingerprint.compute(cl2);
+				Stripe stripe = stripe(fingerprint.hi);
+				int previousId = stripe.class2Id.get(fingerprint.hi, fingerprint.lo);
+				byte[] key = ClassExpressionFingerprint.canonicalKey(cl2);
+				if (previousId >= 0 && !matches(stripe, previousId, key)) {
+					addCollision(stripe, fingerprint.hi, fingerprint.lo, key, id);
+					continue;
+				}
+				stripe.class2Id.put(fingerprint.hi, fingerprint.lo, id);
+				stripe.id2Key.put(id, key);
+				if (previousId >= 0 && previousId != id)
+					log.fine(String.format("ZP:%07d", previousId) + " and " + zpID + " have the same class expression");
+
+				if (registry != null && registry.lookup(fingerprint.hi, fingerprint.lo) < 0)
+					appendToRegistry(fingerprint.hi, fingerprint.lo, id);
 			}
-			log.info((nextId - 1) + " previous ids recovered");
+			log.info((nextId.get() - 1) + " previous ids recovered");
 		}
 	}
 
+	/**
+	 * Constructs a copy of the given zp id data base, which must not be backed
+	 * by a registry.
+	 * 
+	 * @param other
+	 */
+	public ZPIDDB(ZPIDDB other) {
+		if (other.registry != null)
+			throw new IllegalArgumentException("A zp id data base that is backed by a registry cannot be copied");
+		this.registry = null;
+		for (int i = 0; i < NUM_STRIPES; i++) {
+			synchronized (other.stripes[i]) {
+				stripes[i] = new Stripe(other.stripes[i]);
+			}
+		}
+		nextId.set(other.nextId.get());
+	}
+
+	/**
+	 * Creates the fingerprint that is used by each thread.
+	 * 
+	 * @return
+	 */
+	ClassExpressionFingerprint createFingerprint() {
+		return new ClassExpressionFingerprint();
+	}
+
+	private Stripe stripe(long hi) {
+		return stripes[(int) (hi >>> 58) & (NUM_STRIPES - 1)];
+	}
+
 	/**
 	 * Returns the Id (as IRI) of the given owlSomeClassExp. This may be a new
 	 * one if classExpression was not seen before.
@@ -88,21 +255,181 @@ public class ZPIDDB {
 	 * @return
 	 */
 	public IRI getZPId(OWLClassExpression classExpression) {
+		return OBOVocabulary.ID2IRI(String.format("ZP:%07d", getZPNumber(classExpression)));
+	}
+
+	/**
+	 * Makes sure that ids that are assigned from now on are larger than the
+	 * given one, e.g., if a previous class with this id is known whose class
+	 * expression was not recovered.
+	 * 
+	 * @param id
+	 */
+	public void reserveIdsUpTo(int id) {
+		while (true) {
+			int next = nextId.get();
+			if (next > id || nextId.compareAndSet(next, id + 1))
+				return;
+		}
+	}
+
+	/**
+	 * Like {@link #getZPId(OWLClassExpression)} but returns the number of the
+	 * id rather than its IRI.
+	 * 
+	 * @param classExpression
+	 * @return
+	 */
+	public int getZPNumber(OWLClassExpression classExpression) {
+		ClassExpressionFingerprint fingerprint = this.fingerprint.get().compute(classExpression);
+		long hi = fingerprint.hi;
+		long lo = fingerprint.lo;
+
+		Stripe stripe = stripe(hi);
+		synchronized (stripe) {
+			int id = lookup(stripe, hi, lo, classExpression);
+			if (id >= 0)
+				return id;
+			id = nextId.getAndIncrement();
+			addNewId(stripe, hi, lo, classExpression, id);
+			return id;
+		}
+	}
+
+	/**
+	 * Looks up the id of the given expression in the stripe and then in the
+	 * registry. A found id is counted as reused.
+	 * 
+	 * @return the id or -1 if the expression is unknown.
+	 */
+	private int lookup(Stripe stripe, long hi, long lo, OWLClassExpression classExpression) {
+		int id = find(stripe, hi, lo, classExpression);
+		if (id >= 0) {
+			if (!stripe.newIds.contains(id))
+				stripe.reusedIds.add(id);
+			return id;
+		}
+
+		if (registry != null && stripe.class2Id.get(hi, lo) < 0) {
+			synchronized (registry) {
+				id = registry.lookup(hi, lo);
+			}
+			if (id >= 0) {
+				stripe.class2Id.put(hi, lo, id);
+				stripe.id2Key.put(id, ClassExpressionFingerprint.canonicalKey(classExpression));
+				stripe.reusedIds.add(id);
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the id of the given expression in the stripe without consulting
+	 * the registry.
+	 * 
+	 * @return the id or -1 if the expression is unknown to the stripe.
+	 */
+	private int find(Stripe stripe, long hi, long lo, OWLClassExpression classExpression) {
+		int id = stripe.class2Id.get(hi, lo);
+		if (id < 0)
+			return id;
+		byte[] key = ClassExpressionFingerprint.canonicalKey(classExpression);
+		if (matches(stripe, id, key))
+			return id;
+		for (int i = 0; i < stripe.collidedKeys.size(); i++) {
+			if (Arrays.equals(stripe.collidedKeys.get(i), key))
+				return stripe.collidedIds.get(i);
+		}
+		return -1;
+	}
+
+	/**
+	 * @return whether the expression with the given key is the one the id of
+	 *         the stripe was assigned to.
+	 */
+	private static boolean matches(Stripe stripe, int id, byte[] key) {
+		byte[] known = stripe.id2Key.get(id);
+		return known == null || Arrays.equals(known, key);
+	}
+
+	private void addNewId(Stripe stripe, long hi, long lo, OWLClassExpression classExpression, int id) {
+		byte[] key = ClassExpressionFingerprint.canonicalKey(classExpression);
+		if (stripe.class2Id.get(hi, lo) >= 0) {
+			addCollision(stripe, hi, lo, key, id);
+		} else {
+			if (registry != null)
+				appendToRegistry(hi, lo, id);
+			stripe.class2Id.put(hi, lo, id);
+			stripe.id2Key.put(id, key);
+		}
+		stripe.newIds.add(id);
+	}
+
+	/**
+	 * Stores the id of an expression whose fingerprint is already taken by
+	 * another expression. Such ids are not added to the registry.
+	 */
+	private static void addCollision(Stripe stripe, long hi, long lo, byte[] key, int id) {
+		log.warning("Fingerprint collision of " + new String(key, StandardCharsets.UTF_8) + " and "
+				+ new String(stripe.id2Key.get(stripe.class2Id.get(hi, lo)), StandardCharsets.UTF_8));
+		stripe.collidedKeys.add(key);
+		stripe.collidedIds.add(id);
+	}
+
+	/**
+	 * Appends the given fingerprint to the registry.
+	 * 
+	 * @param id
+	 */
+	private void appendToRegistry(long hi, long lo, int id) {
+		try {
+			synchronized (registry) {
+				registry.append(hi, lo, id);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
 
-		IRI zpIdIRI = class2Id.get(classExpression);
-		if (zpIdIRI != null)
-			return zpIdIRI;
+	/**
+	 * @return the number of ids that were newly assigned.
+	 */
+	public int getNumNewIds() {
+		int num = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				num += stripe.newIds.size();
+			}
+		}
+		return num;
+	}
 
-		String zpId = String.format("ZP:%07d", nextId++);
-		zpIdIRI = OBOVocabulary.ID2IRI(zpId);
-		class2Id.put(classExpression, zpIdIRI);
-		return zpIdIRI;
+	/**
+	 * @return the number of distinct, previously assigned ids that were
+	 *         requested again.
+	 */
+	public int getNumReusedIds() {
+		int num = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				num += stripe.reusedIds.size();
+			}
+		}
+		return num;
 	}
 
 	public boolean isAlreadyContained(OWLClassExpression classExpression) {
-		IRI zpIdIRI = class2Id.get(classExpression);
-		if (zpIdIRI != null)
-			return true;
-		return false;
+		ClassExpressionFingerprint fingerprint = this.fingerprint.get().compute(classExpression);
+		Stripe stripe = stripe(fingerprint.hi);
+		synchronized (stripe) {
+			if (find(stripe, fingerprint.hi, fingerprint.lo, classExpression) >= 0)
+				return true;
+			if (registry == null || stripe.class2Id.get(fingerprint.hi, fingerprint.lo) >= 0)
+				return false;
+		}
+		synchronized (registry) {
+			return registry.lookup(fingerprint.hi, fingerprint.lo) >= 0;
+		}
 	}
 }
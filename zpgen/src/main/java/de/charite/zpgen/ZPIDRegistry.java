@@ -0,0 +1,312 @@
+package de.charite.zpgen;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A persistent zp id registry that maps class expression fingerprints (see
+ * {@link ClassExpressionFingerprint}) to ZP numbers.
+ *
+ * The file consists of a header, a block of records sorted by fingerprint and
+ * a tail of records that were appended since the last compaction. A record is
+ * the 128 bit fingerprint followed by the ZP number (20 bytes). The sorted
+ * block is memory mapped and searched binary, so opening the registry only
+ * needs to read the header and the (small) tail.
+ */
+public class ZPIDRegistry {
+	private static Logger log = Logger.getLogger(ZPIDRegistry.class.getName());
+
+	private static final int MAGIC = 0x5a504944; /* "ZPID" */
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int RECORD_SIZE = 20;
+
+	/** Compact on close, if the unsorted tail exceeds this fraction of the sorted block */
+	private static final int COMPACT_RATIO = 8;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	/** The sorted block */
+	private MappedByteBuffer sorted;
+	private int sortedCount;
+
+	/** The records of the tail */
+	private final Map<Fingerprint, Integer> tail = new HashMap<Fingerprint, Integer>();
+
+	/** Records appended but not yet written */
+	private final ByteBuffer appendBuffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+
+	private int maxId;
+
+	/**
+	 * Key for the records of the tail.
+	 */
+	private static class Fingerprint implements Comparable<Fingerprint> {
+		final long hi;
+		final long lo;
+
+		Fingerprint(long hi, long lo) {
+			this.hi = hi;
+			this.lo = lo;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (hi ^ (hi >>> 32) ^ lo);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Fingerprint))
+				return false;
+			Fingerprint other = (Fingerprint) obj;
+			return hi == other.hi && lo == other.lo;
+		}
+
+		@Override
+		public int compareTo(Fingerprint o) {
+			return compare(hi, lo, o.hi, o.lo);
+		}
+	}
+
+	private ZPIDRegistry(File file) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+
+		if (channel.size() == 0) {
+			writeHeader(channel, 0, 0);
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		channel.read(header, 0);
+		header.flip();
+		if (header.getInt() != MAGIC)
+			throw new IOException("\"" + file + "\" is not a zp id registry");
+		int version = header.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported zp id registry version " + version + " in \"" + file + "\"");
+		sortedCount = header.getInt();
+		maxId = header.getInt();
+
+		long sortedEnd = HEADER_SIZE + (long) sortedCount * RECORD_SIZE;
+		sorted = channel.map(MapMode.READ_ONLY, HEADER_SIZE, (long) sortedCount * RECORD_SIZE);
+
+		/* Read the tail, ignoring a partially written last record */
+		long tailCount = (channel.size() - sortedEnd) / RECORD_SIZE;
+		if (tailCount > 0) {
+			ByteBuffer tailBuffer = ByteBuffer.allocate((int) (tailCount * RECORD_SIZE));
+			channel.read(tailBuffer, sortedEnd);
+			tailBuffer.flip();
+			for (long i = 0; i < tailCount; i++) {
+				Fingerprint fp = new Fingerprint(tailBuffer.getLong(), tailBuffer.getLong());
+				int id = tailBuffer.getInt();
+				tail.put(fp, id);
+				if (id > maxId)
+					maxId = id;
+			}
+		}
+		channel.position(sortedEnd + tailCount * RECORD_SIZE);
+	}
+
+	/**
+	 * Opens the registry stored in the given file. The file is created if it
+	 * doesn't exist.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static ZPIDRegistry open(File file) throws IOException {
+		ZPIDRegistry registry = new ZPIDRegistry(file);
+		log.info("Opened zp id registry \"" + file + "\" with " + registry.size() + " ids");
+		return registry;
+	}
+
+	/**
+	 * @return the number of ids in the registry.
+	 */
+	public int size() {
+		return sortedCount + tail.size();
+	}
+
+	/**
+	 * @return the largest ZP number in the registry or 0 if the registry is
+	 *         empty.
+	 */
+	public int getMaxId() {
+		return maxId;
+	}
+
+	/**
+	 * Returns the ZP number for the given fingerprint.
+	 *
+	 * @param hi
+	 * @param lo
+	 * @return the number or -1 if the fingerprint is unknown.
+	 */
+	public int lookup(long hi, long lo) {
+		int low = 0;
+		int high = sortedCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int pos = mid * RECORD_SIZE;
+			int c = compare(sorted.getLong(pos), sorted.getLong(pos + 8), hi, lo);
+			if (c < 0)
+				low = mid + 1;
+			else if (c > 0)
+				high = mid - 1;
+			else
+				return sorted.getInt(pos + 16);
+		}
+		if (tail.isEmpty())
+			return -1;
+		Integer id = tail.get(new Fingerprint(hi, lo));
+		if (id != null)
+			return id;
+		return -1;
+	}
+
+	/**
+	 * Appends a new fingerprint to the registry. The caller must ensure that
+	 * the fingerprint is not yet contained.
+	 *
+	 * @param hi
+	 * @param lo
+	 * @param id
+	 * @throws IOException
+	 */
+	public void append(long hi, long lo, int id) throws IOException {
+		tail.put(new Fingerprint(hi, lo), id);
+		if (id > maxId)
+			maxId = id;
+
+		if (appendBuffer.remaining() < RECORD_SIZE)
+			flush();
+		appendBuffer.putLong(hi);
+		appendBuffer.putLong(lo);
+		appendBuffer.putInt(id);
+	}
+
+	/**
+	 * Writes the appended records to disk.
+	 *
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		appendBuffer.flip();
+		while (appendBuffer.hasRemaining())
+			channel.write(appendBuffer);
+		appendBuffer.clear();
+	}
+
+	/**
+	 * Rewrites the registry such that all records are in the sorted block.
+	 * Closes the registry.
+	 *
+	 * @throws IOException
+	 */
+	private void compactAndClose() throws IOException {
+		flush();
+
+		int count = size();
+		Fingerprint[] all = new Fingerprint[count];
+		int[] ids = new int[count];
+		Map<Fingerprint, Integer> idMap = new HashMap<Fingerprint, Integer>(tail);
+		int i = 0;
+		for (int j = 0; j < sortedCount; j++) {
+			int pos = j * RECORD_SIZE;
+			Fingerprint fp = new Fingerprint(sorted.getLong(pos), sorted.getLong(pos + 8));
+			idMap.put(fp, sorted.getInt(pos + 16));
+			all[i++] = fp;
+		}
+		for (Fingerprint fp : tail.keySet())
+			all[i++] = fp;
+		Arrays.sort(all);
+		for (i = 0; i < count; i++)
+			ids[i] = idMap.get(all[i]);
+
+		File tmp = new File(file.getPath() + ".tmp");
+		RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+		try {
+			FileChannel outChannel = out.getChannel();
+			outChannel.truncate(0);
+			writeHeader(outChannel, count, maxId);
+			ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE * 4096);
+			outChannel.position(HEADER_SIZE);
+			for (i = 0; i < count; i++) {
+				if (buf.remaining() < RECORD_SIZE) {
+					buf.flip();
+					while (buf.hasRemaining())
+						outChannel.write(buf);
+					buf.clear();
+				}
+				buf.putLong(all[i].hi);
+				buf.putLong(all[i].lo);
+				buf.putInt(ids[i]);
+			}
+			buf.flip();
+			while (buf.hasRemaining())
+				outChannel.write(buf);
+			outChannel.force(true);
+		} finally {
+			out.close();
+		}
+
+		/* Swap in the new file */
+		sorted = null;
+		channel.close();
+		raf.close();
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		log.info("Compacted zp id registry \"" + file + "\" with " + count + " ids");
+	}
+
+	/**
+	 * Closes the registry. The registry is compacted if the tail became large.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (tail.size() > 0 && tail.size() * COMPACT_RATIO > sortedCount) {
+			compactAndClose();
+		} else {
+			flush();
+			channel.force(true);
+			sorted = null;
+			channel.close();
+			raf.close();
+		}
+	}
+
+	private static void writeHeader(FileChannel channel, int sortedCount, int maxId) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(sortedCount);
+		header.putInt(maxId);
+		header.flip();
+		while (header.hasRemaining())
+			channel.write(header, HEADER_SIZE - header.remaining());
+	}
+
+	private static int compare(long hi1, long lo1, long hi2, long lo2) {
+		if (hi1 != hi2)
+			return hi1 < hi2 ? -1 : 1;
+		if (lo1 != lo2)
+			return lo1 < lo2 ? -1 : 1;
+		return 0;
+	}
+}
@@ -0,0 +1,355 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import de.charite.zpgen.ZFINWalker.ZFIN_FILE_TYPE;
+
+/**
+ * Answers which ZP class a ZFIN row belongs to, and which rows (as source
+ * strings, see {@link ZFINWalker#generateSourceString(ZFINEntry)}) define a
+ * ZP class, without building any OWL objects. The lookup is built from the
+ * source information file written by ZPGen (option -s), which lists the ZP
+ * id, label and source string of every ZP class.
+ *
+ * The file is kept as a single byte array, the source strings are found
+ * through an open addressing table over their hashes. Instances are immutable and
+ * can be used from several threads.
+ */
+public class ZPLookup {
+
+	/** The ZP number of each source, sorted */
+	private final int[] sourceZPNumbers;
+
+	/** The content of the source information file, source i is at sourceStarts[i] to sourceEnds[i] */
+	private final byte[] data;
+	private final int[] sourceStarts;
+	private final int[] sourceEnds;
+	private final long[] sourceHashes;
+
+	/** Index of each source plus one, 0 marks a free slot */
+	private final int[] table;
+	private final int mask;
+
+	/** The distinct ZP numbers, their first source and label */
+	private final int[] zpNumbers;
+	private final int[] zpFirstSources;
+	private final String[] zpLabels;
+
+	/**
+	 * @param data
+	 *            the content of the source information file
+	 * @param name
+	 *            the name of the file for error messages
+	 * @throws IOException
+	 */
+	private ZPLookup(byte[] data, String name) throws IOException {
+		this.data = data;
+
+		TIntArrayList zps = new TIntArrayList();
+		TIntArrayList labelStarts = new TIntArrayList();
+		TIntArrayList starts = new TIntArrayList();
+		TIntArrayList ends = new TIntArrayList();
+		int lineStart = 0;
+		int lineNumber = 0;
+		while (lineStart < data.length) {
+			lineNumber++;
+			int lineEnd = lineStart;
+			while (lineEnd < data.length && data[lineEnd] != '\n')
+				lineEnd++;
+			int firstTab = indexOf(data, '\t', lineStart, lineEnd);
+			int secondTab = firstTab < 0 ? -1 : indexOf(data, '\t', firstTab + 1, lineEnd);
+			if (secondTab < 0 || data[lineStart] != 'Z' || data[lineStart + 1] != 'P' || data[lineStart + 2] != ':')
+				throw new IOException("Unexpected format in line " + lineNumber + " of \"" + name + "\"");
+			zps.add(parseNumber(data, lineStart + 3, firstTab));
+			labelStarts.add(firstTab + 1);
+			starts.add(secondTab + 1);
+			ends.add(lineEnd);
+			lineStart = lineEnd + 1;
+		}
+
+		/* The file is written sorted by ZPGen, so this is usually the identity */
+		int n = zps.size();
+		Integer[] order = new Integer[n];
+		boolean sorted = true;
+		final int[] unsorted = zps.toArray();
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+			if (i > 0 && unsorted[i] < unsorted[i - 1])
+				sorted = false;
+		}
+		if (!sorted) {
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer o1, Integer o2) {
+					return Integer.compare(unsorted[o1], unsorted[o2]);
+				}
+			});
+		}
+
+		sourceZPNumbers = new int[n];
+		sourceStarts = new int[n];
+		sourceEnds = new int[n];
+		sourceHashes = new long[n];
+		int numZPs = 0;
+		for (int i = 0; i < n; i++) {
+			int line = order[i];
+			sourceZPNumbers[i] = unsorted[line];
+			sourceStarts[i] = starts.get(line);
+			sourceEnds[i] = ends.get(line);
+			sourceHashes[i] = hash(data, sourceStarts[i], sourceEnds[i]);
+			if (i == 0 || sourceZPNumbers[i] != sourceZPNumbers[i - 1])
+				numZPs++;
+		}
+
+		zpNumbers = new int[numZPs];
+		zpFirstSources = new int[numZPs + 1];
+		zpLabels = new String[numZPs];
+		int z = 0;
+		for (int i = 0; i < n; i++) {
+			if (i == 0 || sourceZPNumbers[i] != sourceZPNumbers[i - 1]) {
+				int labelStart = labelStarts.get(order[i]);
+				zpNumbers[z] = sourceZPNumbers[i];
+				zpFirstSources[z] = i;
+				zpLabels[z] = new String(data, labelStart, sourceStarts[i] - 1 - labelStart, StandardCharsets.UTF_8);
+				z++;
+			}
+		}
+		zpFirstSources[numZPs] = n;
+
+		int capacity = Integer.highestOneBit(Math.max(16, n * 2 - 1)) << 1;
+		table = new int[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < n; i++) {
+			int slot = find(sourceHashes[i], data, sourceStarts[i], sourceEnds[i]);
+			/* A source of several classes (should not happen) is found for the first one */
+			if (table[slot] == 0)
+				table[slot] = i + 1;
+		}
+	}
+
+	/**
+	 * Loads the lookup from the given source information file, which may be
+	 * compressed.
+	 *
+	 * @param sourceInformationFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static ZPLookup load(File sourceInformationFile) throws IOException {
+		InputStream in = CompressedStreams.openInput(sourceInformationFile);
+		try {
+			ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, sourceInformationFile.length()));
+			byte[] buffer = new byte[1 << 16];
+			int read;
+			while ((read = in.read(buffer)) >= 0)
+				content.write(buffer, 0, read);
+			return new ZPLookup(content.toByteArray(), sourceInformationFile.toString());
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int indexOf(byte[] bytes, char c, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (bytes[i] == c)
+				return i;
+		}
+		return -1;
+	}
+
+	private static int parseNumber(byte[] bytes, int start, int end) throws IOException {
+		if (start == end)
+			throw new IOException("Missing ZP number");
+		int number = 0;
+		for (int i = start; i < end; i++) {
+			int digit = bytes[i] - '0';
+			if (digit < 0 || digit > 9)
+				throw new IOException("Invalid ZP number");
+			number = number * 10 + digit;
+		}
+		return number;
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of bytes[start,end).
+	 */
+	private static long hash(byte[] bytes, int start, int end) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = start; i < end; i++) {
+			h ^= bytes[i] & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * @return the slot of the given source bytes[start,end) or the free slot
+	 *         where it would be inserted.
+	 */
+	private int find(long hash, byte[] bytes, int start, int end) {
+		int slot = (int) ((hash * 0x9e3779b97f4a7c15L) >>> 32) & mask;
+		while (table[slot] != 0) {
+			int i = table[slot] - 1;
+			if (sourceHashes[i] == hash && equals(i, bytes, start, end))
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private boolean equals(int i, byte[] bytes, int start, int end) {
+		int offset = sourceStarts[i];
+		if (sourceEnds[i] - offset != end - start)
+			return false;
+		for (int j = start; j < end; j++) {
+			if (data[offset++] != bytes[j])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of sources.
+	 */
+	public int size() {
+		return sourceZPNumbers.length;
+	}
+
+	/**
+	 * @param sourceString
+	 *            the source string of a ZFIN row as created by
+	 *            {@link ZFINWalker#generateSourceString(ZFINEntry)}
+	 * @return the number of the ZP class or -1 if the source is unknown.
+	 */
+	public int lookupZPNumber(String sourceString) {
+		byte[] source = sourceString.getBytes(StandardCharsets.UTF_8);
+		int i = table[find(hash(source, 0, source.length), source, 0, source.length)] - 1;
+		return i < 0 ? -1 : sourceZPNumbers[i];
+	}
+
+	/**
+	 * @param entry
+	 * @return the number of the ZP class of the given entry or -1 if it is
+	 *         unknown.
+	 */
+	public int lookupZPNumber(ZFINEntry entry) {
+		return lookupZPNumber(entry.sourceString != null ? entry.sourceString : ZFINWalker.generateSourceString(entry));
+	}
+
+	/**
+	 * Looks up many source strings at once.
+	 *
+	 * @param sourceStrings
+	 * @return the ZP numbers, -1 for unknown sources
+	 */
+	public int[] lookupZPNumbers(List<String> sourceStrings) {
+		int[] result = new int[sourceStrings.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = lookupZPNumber(sourceStrings.get(i));
+		return result;
+	}
+
+	/**
+	 * @param sourceString
+	 * @return the ZP id (e.g. "ZP:0000001") or null if the source is unknown.
+	 */
+	public String lookupZPId(String sourceString) {
+		int zpNumber = lookupZPNumber(sourceString);
+		return zpNumber < 0 ? null : String.format("ZP:%07d", zpNumber);
+	}
+
+	private int indexOf(int zpNumber) {
+		return Arrays.binarySearch(zpNumbers, zpNumber);
+	}
+
+	private static int parseZPId(String zpId) {
+		if (!zpId.startsWith("ZP:"))
+			throw new IllegalArgumentException("Not a ZP id: " + zpId);
+		return Integer.parseInt(zpId.substring(3));
+	}
+
+	/**
+	 * @param zpNumber
+	 * @return the label of the ZP class or null if it is unknown.
+	 */
+	public String getLabel(int zpNumber) {
+		int z = indexOf(zpNumber);
+		return z < 0 ? null : zpLabels[z];
+	}
+
+	/**
+	 * @param zpId
+	 *            e.g., "ZP:0000001"
+	 * @return the label of the ZP class or null if it is unknown.
+	 */
+	public String getLabel(String zpId) {
+		return getLabel(parseZPId(zpId));
+	}
+
+	/**
+	 * @param zpId
+	 *            e.g., "ZP:0000001"
+	 * @return the source strings that define the given ZP class, empty if it
+	 *         is unknown.
+	 */
+	public List<String> getSourceStrings(String zpId) {
+		int z = indexOf(parseZPId(zpId));
+		if (z < 0)
+			return Collections.emptyList();
+		List<String> sources = new ArrayList<String>(zpFirstSources[z + 1] - zpFirstSources[z]);
+		for (int i = zpFirstSources[z]; i < zpFirstSources[z + 1]; i++)
+			sources.add(new String(data, sourceStarts[i], sourceEnds[i] - sourceStarts[i], StandardCharsets.UTF_8));
+		return sources;
+	}
+
+	/**
+	 * Looks up all rows of the given ZFIN file and writes the annotations of
+	 * the known rows in the format of the ZPGen annotation files.
+	 *
+	 * @param input
+	 * @param zfinFileType
+	 * @param outPositiveAnnotations
+	 * @param outNegativeAnnotations
+	 * @return the number of rows that could not be found
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             if a row cannot be parsed
+	 */
+	public int annotate(InputStream input, ZFIN_FILE_TYPE zfinFileType, BufferedWriter outPositiveAnnotations,
+			BufferedWriter outNegativeAnnotations) throws IOException {
+		int numUnknown = 0;
+		ZFINTokenizer tokenizer = ZFINWalker.createTokenizer(input, zfinFileType);
+		while (tokenizer.nextLine()) {
+			ZFINEntry entry = new ZFINEntry();
+			try {
+				ZFINWalker.fillEntry(tokenizer.split(), entry);
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException("Problem in line " + tokenizer.getLineNumber() + ": " + tokenizer.getLine(), e);
+			}
+
+			int zpNumber = lookupZPNumber(entry);
+			if (zpNumber < 0) {
+				numUnknown++;
+				continue;
+			}
+			String zpID = String.format("ZP:%07d", zpNumber);
+			String label = getLabel(zpNumber);
+			if (!entry.isAbnormal)
+				outNegativeAnnotations.write(entry.genxZfinID + "\t" + zpID + "\t" + label + "\tNOT\n");
+			else
+				outPositiveAnnotations.write(entry.genxZfinID + "\t" + zpID + "\t" + label + "\n");
+		}
+		return numUnknown;
+	}
+}
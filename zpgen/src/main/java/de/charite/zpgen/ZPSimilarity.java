@@ -0,0 +1,389 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Phenotype similarity between the genes (or genotypes) of an annotation file.
+ * Every gene is represented by the set of ZP classes it is annotated to,
+ * including all superclasses (see {@link ZPAnnotationIndex}). The information
+ * content of a class is -log(p), where p is the fraction of the genes that are
+ * annotated to the class or one of its subclasses. For two genes with class
+ * sets A and B the following scores are computed:
+ *
+ * <ul>
+ * <li>Resnik: the maximum information content of a class in A and B (i.e., of
+ * the most informative common ancestor)</li>
+ * <li>Jaccard: |A and B| / |A or B|</li>
+ * <li>simGIC: the sum of the information content of A and B divided by the
+ * sum of the information content of A or B</li>
+ * </ul>
+ *
+ * The classes of a gene are kept as a bitset over the annotated classes, so
+ * that all three are computed in a single pass over the words of two genes,
+ * which only visits the shared classes. Either all pairs or the best k genes
+ * for every gene are written. The genes are compared in blocks on a fork-join
+ * pool, the lines of a block are written (in the order of the genes) before
+ * the next block starts, so that the memory does not grow with the output.
+ */
+public class ZPSimilarity {
+	private static Logger log = Logger.getLogger(ZPSimilarity.class.getName());
+
+	/** Number of result lines kept in memory before they are written */
+	private static final int MAX_BUFFERED_LINES = 1 << 18;
+
+	/**
+	 * The score used for ranking, if only the best genes are written.
+	 */
+	public static enum Measure {
+		RESNIK, JACCARD, SIMGIC
+	}
+
+	private final List<String> ids;
+	private final TObjectIntHashMap<String> idIndices = new TObjectIntHashMap<String>(1 << 12, 0.5f, -1);
+
+	/** Information content by class position */
+	private final double[] informationContent;
+
+	/**
+	 * The classes of gene i as bits over the annotated classes (all others
+	 * cannot be shared), in the words i * numWords to (i + 1) * numWords - 1
+	 */
+	private final long[] bits;
+	private final int numWords;
+
+	/** Information content by bit */
+	private final double[] bitInformationContent;
+
+	/** Number of classes and sum of their information content of each gene */
+	private final int[] numClasses;
+	private final double[] sumInformationContent;
+
+	private final ZPAnnotationIndex hierarchy;
+
+	/**
+	 * Reads the genes or genotypes and their ZP classes from the given
+	 * annotation file and computes the information content from it.
+	 *
+	 * @param hierarchy
+	 * @param annotationFile
+	 *            e.g., annot_gene_pos.txt
+	 * @throws IOException
+	 */
+	public ZPSimilarity(ZPAnnotationIndex hierarchy, File annotationFile) throws IOException {
+		this.hierarchy = hierarchy;
+		List<String> genes = new ArrayList<String>();
+		List<TIntArrayList> direct = new ArrayList<TIntArrayList>();
+		ZPAnnotationIndex.readAnnotations(annotationFile, genes, direct, null);
+
+		/* The entries that define the roots are not real genes */
+		ids = new ArrayList<String>(genes.size());
+		List<int[]> geneClasses = new ArrayList<int[]>(genes.size());
+		int[] frequencies = new int[hierarchy.size()];
+		long numAnnotations = 0;
+		for (int i = 0; i < genes.size(); i++) {
+			if (genes.get(i).equals(ZPGen.ROOT_ENTRY_ID))
+				continue;
+			int[] ancestors = hierarchy.getAncestorClasses(direct.get(i));
+			if (ancestors.length == 0)
+				continue;
+			idIndices.put(genes.get(i), ids.size());
+			ids.add(genes.get(i));
+			geneClasses.add(ancestors);
+			for (int cls : ancestors)
+				frequencies[cls]++;
+			numAnnotations += ancestors.length;
+		}
+
+		informationContent = new double[hierarchy.size()];
+		int[] bitIndices = new int[hierarchy.size()];
+		int numBits = 0;
+		for (int cls = 0; cls < frequencies.length; cls++) {
+			if (frequencies[cls] > 0) {
+				informationContent[cls] = -Math.log((double) frequencies[cls] / ids.size());
+				bitIndices[cls] = numBits++;
+			}
+		}
+		numWords = (numBits + 63) >>> 6;
+		bitInformationContent = new double[numWords << 6];
+		for (int cls = 0; cls < frequencies.length; cls++) {
+			if (frequencies[cls] > 0)
+				bitInformationContent[bitIndices[cls]] = informationContent[cls];
+		}
+
+		if ((long) ids.size() * numWords > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many genes and classes for the similarity (" + ids.size() + " x " + numBits + ")");
+		bits = new long[ids.size() * numWords];
+		numClasses = new int[ids.size()];
+		sumInformationContent = new double[ids.size()];
+		for (int i = 0; i < ids.size(); i++) {
+			for (int cls : geneClasses.get(i)) {
+				int bit = bitIndices[cls];
+				bits[i * numWords + (bit >>> 6)] |= 1L << bit;
+				sumInformationContent[i] += informationContent[cls];
+			}
+			numClasses[i] = geneClasses.get(i).length;
+		}
+		log.info("Read " + ids.size() + " annotated genes or genotypes with " + numAnnotations + " propagated annotations from \"" + annotationFile
+				+ "\"");
+	}
+
+	/**
+	 * @return the number of genes or genotypes.
+	 */
+	public int size() {
+		return ids.size();
+	}
+
+	/**
+	 * @param zpNumber
+	 * @return the information content of the given class, 0 if it is not
+	 *         annotated.
+	 */
+	public double getInformationContent(int zpNumber) {
+		int cls = hierarchy.getClassIndex(zpNumber);
+		return cls >= 0 ? informationContent[cls] : 0;
+	}
+
+	/**
+	 * @param id1
+	 * @param id2
+	 * @param measure
+	 * @return the score of the two genes or genotypes or NaN if one of them
+	 *         is unknown.
+	 */
+	public double score(String id1, String id2, Measure measure) {
+		int a = idIndices.get(id1);
+		int b = idIndices.get(id2);
+		if (a < 0 || b < 0)
+			return Double.NaN;
+		double[] scores = new double[3];
+		compare(a, b, scores);
+		return scores[measure.ordinal()];
+	}
+
+	/**
+	 * Computes the scores of the two genes in the order of {@link Measure}.
+	 */
+	private void compare(int a, int b, double[] scores) {
+		int shared = 0;
+		double sharedIC = 0;
+		double maxIC = 0;
+		int wordA = a * numWords;
+		int wordB = b * numWords;
+		for (int w = 0; w < numWords; w++) {
+			long both = bits[wordA + w] & bits[wordB + w];
+			if (both == 0)
+				continue;
+			shared += Long.bitCount(both);
+			do {
+				double ic = bitInformationContent[(w << 6) + Long.numberOfTrailingZeros(both)];
+				sharedIC += ic;
+				maxIC = Math.max(maxIC, ic);
+				both &= both - 1;
+			} while (both != 0);
+		}
+		int union = numClasses[a] + numClasses[b] - shared;
+		double unionIC = sumInformationContent[a] + sumInformationContent[b] - sharedIC;
+		scores[0] = maxIC;
+		scores[1] = union > 0 ? (double) shared / union : 0;
+		scores[2] = unionIC > 0 ? sharedIC / unionIC : 0;
+	}
+
+	/**
+	 * Writes the scores (two genes or genotypes, Resnik, Jaccard and simGIC,
+	 * tab separated).
+	 *
+	 * @param out
+	 * @param topK
+	 *            if positive, only the k best genes by the given measure are
+	 *            written for every gene, otherwise every pair once
+	 * @param measure
+	 *            the measure used for ranking
+	 * @param numThreads
+	 * @return the number of written lines
+	 * @throws IOException
+	 */
+	public long write(BufferedWriter out, final int topK, final Measure measure, int numThreads) throws IOException {
+		int n = ids.size();
+		int linesPerGene = topK > 0 ? Math.min(topK, Math.max(1, n - 1)) : Math.max(1, n / 2);
+		int blockSize = Math.max(1, Math.min(n, MAX_BUFFERED_LINES / linesPerGene));
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, numThreads));
+		long numLines = 0;
+		try {
+			for (int from = 0; from < n; from += blockSize) {
+				int to = Math.min(n, from + blockSize);
+				StringBuilder[] lines = new StringBuilder[to - from];
+				int[] lineCounts = new int[to - from];
+				pool.invoke(new CompareTask(from, to, from, lines, lineCounts, topK, measure));
+				for (int i = 0; i < lines.length; i++) {
+					out.append(lines[i]);
+					numLines += lineCounts[i];
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		return numLines;
+	}
+
+	/**
+	 * Compares the genes from to to (exclusive) and puts the lines into the
+	 * given array, starting at the given offset. Splits itself while the
+	 * range is larger than a few genes.
+	 */
+	private class CompareTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+		private final int offset;
+		private final StringBuilder[] lines;
+		private final int[] lineCounts;
+		private final int topK;
+		private final Measure measure;
+
+		CompareTask(int from, int to, int offset, StringBuilder[] lines, int[] lineCounts, int topK, Measure measure) {
+			this.from = from;
+			this.to = to;
+			this.offset = offset;
+			this.lines = lines;
+			this.lineCounts = lineCounts;
+			this.topK = topK;
+			this.measure = measure;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 4) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new CompareTask(from, middle, offset, lines, lineCounts, topK, measure), new CompareTask(middle, to, offset, lines,
+						lineCounts, topK, measure));
+				return;
+			}
+			double[] scores = new double[3];
+			for (int a = from; a < to; a++) {
+				StringBuilder line = new StringBuilder();
+				if (topK > 0) {
+					lineCounts[a - offset] = writeBest(a, scores, line);
+				} else {
+					for (int b = a + 1; b < ids.size(); b++) {
+						compare(a, b, scores);
+						appendLine(line, a, b, scores);
+					}
+					lineCounts[a - offset] = ids.size() - a - 1;
+				}
+				lines[a - offset] = line;
+			}
+		}
+
+		/**
+		 * Keeps the best genes in a min heap on the given measure, ties are
+		 * broken by the order of the genes.
+		 *
+		 * @return the number of lines
+		 */
+		private int writeBest(int a, double[] scores, StringBuilder line) {
+			int k = Math.min(topK, ids.size() - 1);
+			int[] heap = new int[Math.max(k, 0)];
+			double[] heapScores = new double[heap.length];
+			int size = 0;
+			for (int b = 0; b < ids.size(); b++) {
+				if (b == a)
+					continue;
+				compare(a, b, scores);
+				double score = scores[measure.ordinal()];
+				if (size < k) {
+					heap[size] = b;
+					heapScores[size] = score;
+					siftUp(heap, heapScores, size++);
+				} else if (k > 0 && score > heapScores[0]) {
+					heap[0] = b;
+					heapScores[0] = score;
+					siftDown(heap, heapScores, size);
+				}
+			}
+			/* Pop the worst to the end */
+			for (int end = size - 1; end > 0; end--) {
+				swap(heap, heapScores, 0, end);
+				siftDown(heap, heapScores, end);
+			}
+			for (int i = 0; i < size; i++) {
+				compare(a, heap[i], scores);
+				appendLine(line, a, heap[i], scores);
+			}
+			return size;
+		}
+	}
+
+	/** Whether gene i with score si is worse than gene j with score sj */
+	private static boolean worse(int i, double si, int j, double sj) {
+		return si < sj || (si == sj && i > j);
+	}
+
+	private static void siftUp(int[] heap, double[] scores, int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!worse(heap[i], scores[i], heap[parent], scores[parent]))
+				break;
+			swap(heap, scores, i, parent);
+			i = parent;
+		}
+	}
+
+	private static void siftDown(int[] heap, double[] scores, int size) {
+		int i = 0;
+		while (true) {
+			int left = 2 * i + 1;
+			if (left >= size)
+				break;
+			int worst = left;
+			if (left + 1 < size && worse(heap[left + 1], scores[left + 1], heap[left], scores[left]))
+				worst = left + 1;
+			if (!worse(heap[worst], scores[worst], heap[i], scores[i]))
+				break;
+			swap(heap, scores, i, worst);
+			i = worst;
+		}
+	}
+
+	private static void swap(int[] heap, double[] scores, int i, int j) {
+		int id = heap[i];
+		heap[i] = heap[j];
+		heap[j] = id;
+		double score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+	}
+
+	private void appendLine(StringBuilder line, int a, int b, double[] scores) {
+		line.append(ids.get(a)).append('\t').append(ids.get(b));
+		for (double score : scores) {
+			line.append('\t');
+			appendScore(line, score);
+		}
+		line.append('\n');
+	}
+
+	/**
+	 * Appends the score with four decimal places (much faster than
+	 * String.format).
+	 */
+	static void appendScore(StringBuilder line, double score) {
+		long scaled = Math.round(score * 10000);
+		line.append(scaled / 10000).append('.');
+		long fraction = scaled % 10000;
+		for (long f = 1000; f > 1 && fraction < f; f /= 10)
+			line.append('0');
+		line.append(fraction);
+	}
+}
@@ -1,7 +1,6 @@
 package de.charite.zpgen;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
 
 import com.google.common.collect.ImmutableSetMultimap;
@@ -28,37 +27,23 @@ public class Zfa2UberonMapper {
 	 * @param uberonOboFilePath
 	 */
 	public Zfa2UberonMapper(String uberonOboFilePath) {
-		try {
+		this(uberonOboFilePath, null);
+	}
 
-			BufferedReader in = new BufferedReader(new FileReader(uberonOboFilePath));
-			String line = null;
-			String currentUberonId = null;
-			String currentZfaId = null;
+	/**
+	 * @param uberonOboFilePath
+	 * @param cacheFilePath
+	 *            file in which the mapping is cached between runs, may be null
+	 */
+	public Zfa2UberonMapper(String uberonOboFilePath, String cacheFilePath) {
+		try {
 			// using multimap because some ZFA-classes are used as xref by
 			// multiple UBERON classes
-			ImmutableSetMultimap.Builder<String, String> builder = ImmutableSetMultimap.builder();
-			while ((line = in.readLine()) != null) {
-				line = line.trim();
-
-				// use empty lines as indicator for new element
-				if (line.equals("")) {
-					if (currentUberonId != null && currentZfaId != null) {
-						builder.put(currentZfaId, currentUberonId);
-					}
-					currentUberonId = null;
-					currentZfaId = null;
-				}
-				if (line.startsWith("id: UBERON:")) {
-					currentUberonId = line.replace("id: ", "");
-				}
-				if (line.startsWith("xref: ZFA:")) {
-					currentZfaId = line.replace("xref: ", "");
-				}
-			}
-			in.close();
-
-			zfa2uberonIm = builder.build();
-
+			File uberonOboFile = new File(uberonOboFilePath);
+			if (cacheFilePath != null)
+				zfa2uberonIm = OBOXrefIndex.build(uberonOboFile, "UBERON:", "ZFA:", new File(cacheFilePath));
+			else
+				zfa2uberonIm = OBOXrefIndex.build(uberonOboFile, "UBERON:", "ZFA:");
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -0,0 +1,112 @@
+package de.charite.zpgen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests CompressedStreams.
+ */
+public class CompressedStreamsTest {
+
+	/**
+	 * Content of several chunks of the read ahead thread, with a short last
+	 * chunk.
+	 */
+	private static byte[] content() {
+		byte[] content = new byte[(5 << 20) / 2 + 17];
+		Random random = new Random(42);
+		for (int i = 0; i < content.length; i++)
+			content[i] = (byte) ('a' + random.nextInt(4));
+		return content;
+	}
+
+	private static File write(String suffix, byte[] content) throws IOException {
+		File file = File.createTempFile("compressedstreams", suffix);
+		file.deleteOnExit();
+		OutputStream out = CompressedStreams.openOutput(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[10000];
+		int read;
+		while ((read = in.read(buffer)) >= 0)
+			out.write(buffer, 0, read);
+		return out.toByteArray();
+	}
+
+	private void assertRoundTrip(String suffix) throws IOException {
+		byte[] content = content();
+		File file = write(suffix, content);
+		Assert.assertTrue(CompressedStreams.isCompressed(file));
+		InputStream in = CompressedStreams.openInput(file);
+		try {
+			Assert.assertTrue(Arrays.equals(content, readAll(in)));
+			Assert.assertEquals(-1, in.read());
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testGzip() throws IOException {
+		assertRoundTrip(".gz");
+	}
+
+	@Test(timeout = 60000)
+	public void testZstd() throws IOException {
+		assertRoundTrip(".zst");
+	}
+
+	@Test(timeout = 60000)
+	public void testUncompressed() throws IOException {
+		File file = write(".txt", content());
+		Assert.assertFalse(CompressedStreams.isCompressed(file));
+	}
+
+	/**
+	 * A truncated input must fail every read instead of blocking.
+	 */
+	@Test(timeout = 60000)
+	public void testTruncated() throws IOException {
+		for (String suffix : new String[] { ".gz", ".zst" }) {
+			File file = write(suffix, content());
+			byte[] compressed = Files.readAllBytes(file.toPath());
+			Files.write(file.toPath(), Arrays.copyOf(compressed, compressed.length / 2));
+
+			InputStream in = CompressedStreams.openInput(file);
+			try {
+				try {
+					readAll(in);
+					Assert.fail(suffix);
+				} catch (IOException e) {
+					/* Expected */
+				}
+				try {
+					in.read();
+					Assert.fail(suffix);
+				} catch (IOException e) {
+					/* Expected */
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+}
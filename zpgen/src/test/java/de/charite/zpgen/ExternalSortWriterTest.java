@@ -0,0 +1,73 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests ExternalSortWriter.
+ */
+public class ExternalSortWriterTest {
+
+	private List<String> sort(List<String> lines, long memoryBudget) throws Exception {
+		File dir = Files.createTempDirectory("zpsort").toFile();
+		File target = new File(dir, "annot.txt");
+		BufferedWriter out = new BufferedWriter(new ExternalSortWriter(target, memoryBudget));
+		for (String line : lines)
+			out.write(line + "\n");
+		out.close();
+		List<String> sorted = Files.readAllLines(target.toPath(), StandardCharsets.UTF_8);
+		target.delete();
+		/* Runs must have been removed */
+		Assert.assertEquals(0, dir.list().length);
+		dir.delete();
+		return sorted;
+	}
+
+	@Test
+	public void testSortAndDeduplicate() throws Exception {
+		Random random = new Random(1);
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < 20000; i++)
+			lines.add("ZDB-GENE-" + random.nextInt(500) + "\tZP:" + String.format("%07d", random.nextInt(50)) + "\tlabel");
+		List<String> expected = new ArrayList<String>(new TreeSet<String>(lines));
+
+		/* In memory */
+		Assert.assertEquals(expected, sort(lines, 1L << 30));
+		/* Many runs */
+		Assert.assertEquals(expected, sort(lines, 10000));
+	}
+
+	/**
+	 * The runs are removed if the merge fails.
+	 */
+	@Test
+	public void testFailedMerge() throws Exception {
+		File dir = Files.createTempDirectory("zpsort").toFile();
+		/* The target cannot be written, as it is a directory */
+		File target = new File(dir, "annot.txt");
+		target.mkdir();
+		BufferedWriter out = new BufferedWriter(new ExternalSortWriter(target, 10000));
+		for (int i = 0; i < 2000; i++)
+			out.write("ZDB-GENE-" + i + "\tZP:0000001\tlabel\n");
+		try {
+			out.close();
+			Assert.fail();
+		} catch (IOException e) {
+			/* Expected */
+		}
+		Assert.assertEquals(1, dir.list().length);
+		target.delete();
+		dir.delete();
+	}
+}
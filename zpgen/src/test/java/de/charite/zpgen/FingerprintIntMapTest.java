@@ -0,0 +1,41 @@
+package de.charite.zpgen;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests FingerprintIntMap.
+ */
+public class FingerprintIntMapTest {
+
+	@Test
+	public void testPutAndGet() {
+		Random random = new Random(1);
+		FingerprintIntMap map = new FingerprintIntMap(16);
+		Map<String, Integer> expected = new HashMap<String, Integer>();
+		long[] his = new long[5000];
+		long[] los = new long[5000];
+
+		for (int i = 0; i < his.length; i++) {
+			his[i] = random.nextLong();
+			/* Keys that only differ in one half must be kept apart */
+			los[i] = i % 2 == 0 ? random.nextLong() : los[i - 1];
+			Assert.assertEquals(-1, map.put(his[i], los[i], i));
+			expected.put(his[i] + "/" + los[i], i);
+		}
+		Assert.assertEquals(his.length, map.size());
+
+		for (int i = 0; i < his.length; i++)
+			Assert.assertEquals(expected.get(his[i] + "/" + los[i]).intValue(), map.get(his[i], los[i]));
+
+		Assert.assertEquals(-1, map.get(1, 2));
+		Assert.assertEquals(7, map.put(his[7], los[7], 0));
+		Assert.assertEquals(0, map.get(his[7], los[7]));
+		Assert.assertEquals(his.length, map.size());
+	}
+}
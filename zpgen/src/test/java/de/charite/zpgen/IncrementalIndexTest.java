@@ -0,0 +1,136 @@
+package de.charite.zpgen;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.beust.jcommander.JCommander;
+
+/**
+ * Tests IncrementalIndex and the incremental mode of ZPGen.
+ */
+public class IncrementalIndexTest {
+
+	static File tempDir() throws Exception {
+		File dir = Files.createTempDirectory("incrementalindex").toFile();
+		dir.deleteOnExit();
+		return dir;
+	}
+
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		IncrementalIndex index = new IncrementalIndex("add-source-information=false");
+		index.put(17, 3, "abnormal(ly) size eye");
+		index.put(-5, 4, "abnormal(ly) size lens");
+		index.put(42, 3, "abnormal(ly) size eye");
+		index.setOntologyChecksum(1234);
+
+		File file = new File(tempDir(), "index");
+		index.save(file);
+		IncrementalIndex loaded = IncrementalIndex.load(file);
+		Assert.assertEquals(3, loaded.size());
+		Assert.assertEquals(4, loaded.getZPNumber(loaded.get(-5)));
+		Assert.assertEquals("abnormal(ly) size eye", loaded.getLabel(loaded.get(42)));
+		Assert.assertEquals(-1, loaded.get(18));
+
+		Assert.assertTrue(loaded.matches("add-source-information=false", 1234));
+		Assert.assertFalse(loaded.matches("add-source-information=true", 1234));
+		Assert.assertFalse(loaded.matches("add-source-information=false", 1235));
+	}
+
+	/**
+	 * Runs ZPGen on the given gene file (and an empty genotype file) and
+	 * returns the output folder.
+	 */
+	static File run(File dir, String name, File genes, String... args) throws Exception {
+		File genotypes = new File(dir, "genotypes.txt");
+		if (!genotypes.exists())
+			genotypes.createNewFile();
+		File out = new File(dir, name);
+		out.mkdir();
+
+		/* Relative paths of the arguments are relative to dir */
+		List<String> arguments = new ArrayList<String>(Arrays.asList("--zfin-pheno-txt-input-file", genes.getPath(),
+				"--zfin-phenotype-txt-input-file", genotypes.getPath(), "-o", new File(out, "zp.owl").getPath(), "-a", out.getPath() + File.separator));
+		for (int i = 0; i < args.length; i++) {
+			boolean path = i > 0 && (args[i - 1].equals("-p") || args[i - 1].endsWith("-file")) && !args[i].equals("none");
+			arguments.add(path ? new File(dir, args[i]).getPath() : args[i]);
+		}
+		ZPGenCLIConfig config = new ZPGenCLIConfig();
+		new JCommander(config).parse(arguments.toArray(new String[0]));
+		ZPGen.run(config, null);
+		return out;
+	}
+
+	static void assertSameOutput(File expected, File actual) throws Exception {
+		for (String name : new String[] { "zp.owl", "annot_gene_pos.txt", "annot_gene_neg.txt" }) {
+			Assert.assertEquals(name, new String(Files.readAllBytes(new File(expected, name).toPath()), "UTF-8"),
+					new String(Files.readAllBytes(new File(actual, name).toPath()), "UTF-8"));
+		}
+	}
+
+	static File geneFile(File dir, String name, int numLines) throws Exception {
+		File file = new File(dir, name);
+		Files.write(file.toPath(), ZFINWalkerTest.geneFile(numLines));
+		return file;
+	}
+
+	@Test
+	public void testReuseRows() throws Exception {
+		File dir = tempDir();
+		File genes = geneFile(dir, "genes.txt", 300);
+		File moreGenes = geneFile(dir, "moregenes.txt", 400);
+
+		run(dir, "a", genes, "-p", "none", "--incremental-index-file", "index");
+		File incremental = run(dir, "b", moreGenes, "-k", "-p", "a/zp.owl", "--incremental-index-file", "index", "--write-metrics");
+		File full = run(dir, "c", moreGenes, "-k", "-p", "a/zp.owl");
+		assertSameOutput(full, incremental);
+		/* The rows of the first run, without the entries that define the roots */
+		String metrics = new String(Files.readAllBytes(new File(incremental, "zpgen_metrics.json").toPath()), "UTF-8");
+		Assert.assertTrue(metrics, metrics.contains("\"incrementalReusedRows\": 300,"));
+	}
+
+	/**
+	 * The source information of the reused rows is missing in the previous
+	 * ontology, so all rows must be processed again.
+	 */
+	@Test
+	public void testOtherSettings() throws Exception {
+		File dir = tempDir();
+		File genes = geneFile(dir, "genes.txt", 300);
+
+		run(dir, "a", genes, "-p", "none", "--incremental-index-file", "index");
+		File incremental = run(dir, "b", genes, "-k", "-p", "a/zp.owl", "--add-source-information", "--incremental-index-file", "index");
+		File full = run(dir, "c", genes, "-k", "-p", "a/zp.owl", "--add-source-information");
+		assertSameOutput(full, incremental);
+	}
+
+	/**
+	 * The index belongs to another previous ontology, whose ids differ.
+	 */
+	@Test
+	public void testOtherOntology() throws Exception {
+		File dir = tempDir();
+		File genes = geneFile(dir, "genes.txt", 300);
+
+		/* The same rows in another order get other ids */
+		File reversed = new File(dir, "reversed.txt");
+		String[] lines = new String(Files.readAllBytes(genes.toPath()), "UTF-8").split("\n");
+		StringBuilder reversedLines = new StringBuilder();
+		for (int i = lines.length - 1; i >= 0; i--)
+			reversedLines.append(lines[i]).append('\n');
+		Files.write(reversed.toPath(), reversedLines.toString().getBytes("UTF-8"));
+
+		run(dir, "a", genes, "-p", "none", "--incremental-index-file", "index");
+		run(dir, "other", reversed, "-p", "none");
+		File incremental = run(dir, "b", genes, "-k", "-p", "other/zp.owl", "--incremental-index-file", "index");
+		File full = run(dir, "c", genes, "-k", "-p", "other/zp.owl");
+		assertSameOutput(full, incremental);
+	}
+}
@@ -0,0 +1,60 @@
+package de.charite.zpgen;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+
+/**
+ * Tests OBOXrefIndex.
+ */
+public class OBOXrefIndexTest {
+
+	private static final String OBO = "format-version: 1.2\n\n" //
+			+ "[Term]\nid: UBERON:0000001\nname: a\nxref: ZFA:0000001\nxref: ZFA:0000002 {source=\"ZFA\"}\nxref: MA:0000001\n\n" //
+			+ "[Term]\r\nid: UBERON:0000002\r\n  xref: ZFA:0000001 ! comment\r\n" //
+			+ "[Term]\nid: GO:0000001\nxref: ZFA:0000003\n\n" //
+			+ "[Term]\nid: UBERON:0000003\nxref: ZFA:0000004";
+
+	@Test
+	public void testBuild() throws Exception {
+		File dir = Files.createTempDirectory("zpobo").toFile();
+		File obo = new File(dir, "uberon.obo");
+		Files.write(obo.toPath(), OBO.getBytes(StandardCharsets.UTF_8));
+		File cache = new File(dir, "uberon.idx");
+
+		ImmutableSetMultimap<String, String> index = OBOXrefIndex.build(obo, "UBERON:", "ZFA:", cache);
+		Assert.assertEquals(ImmutableSet.of("UBERON:0000001", "UBERON:0000002"), index.get("ZFA:0000001"));
+		Assert.assertEquals(ImmutableSet.of("UBERON:0000001"), index.get("ZFA:0000002"));
+		Assert.assertEquals(ImmutableSet.of("UBERON:0000003"), index.get("ZFA:0000004"));
+		Assert.assertTrue(index.get("ZFA:0000003").isEmpty());
+		Assert.assertEquals(4, index.size());
+		Assert.assertTrue(cache.exists());
+
+		/* Taken from the cache */
+		Assert.assertEquals(index, OBOXrefIndex.build(obo, "UBERON:", "ZFA:", cache));
+
+		/* Same length, different content */
+		Files.write(obo.toPath(), OBO.replace("ZFA:0000004", "ZFA:0000005").getBytes(StandardCharsets.UTF_8));
+		obo.setLastModified(obo.lastModified() + 10000);
+		ImmutableSetMultimap<String, String> changed = OBOXrefIndex.build(obo, "UBERON:", "ZFA:", cache);
+		Assert.assertEquals(ImmutableSet.of("UBERON:0000003"), changed.get("ZFA:0000005"));
+
+		/* Same length and modification time, different content */
+		long lastModified = obo.lastModified();
+		Files.write(obo.toPath(), OBO.replace("ZFA:0000004", "ZFA:0000006").getBytes(StandardCharsets.UTF_8));
+		obo.setLastModified(lastModified);
+		changed = OBOXrefIndex.build(obo, "UBERON:", "ZFA:", cache);
+		Assert.assertEquals(ImmutableSet.of("UBERON:0000003"), changed.get("ZFA:0000006"));
+
+		obo.delete();
+		cache.delete();
+		dir.delete();
+	}
+}
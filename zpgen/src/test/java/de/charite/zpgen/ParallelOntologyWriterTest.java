@@ -0,0 +1,103 @@
+package de.charite.zpgen;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.io.OWLFunctionalSyntaxOntologyFormat;
+import org.semanticweb.owlapi.model.AddOntologyAnnotation;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+/**
+ * Tests ParallelOntologyWriter.
+ */
+public class ParallelOntologyWriterTest {
+
+	private static final String OBO = "http://purl.obolibrary.org/obo/";
+
+	private final OWLDataFactory factory = OWLManager.getOWLDataFactory();
+
+	private OWLClass cl(String id) {
+		return factory.getOWLClass(IRI.create(OBO + id));
+	}
+
+	/**
+	 * Creates the test ontology with a new manager, so that none of its
+	 * indexes are built yet.
+	 */
+	private OWLOntology createOntology() throws Exception {
+		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+		OWLOntology zp = manager.createOntology(IRI.create(OBO + "zp.owl"));
+		manager.applyChange(new AddOntologyAnnotation(zp, factory.getOWLAnnotation(factory.getRDFSComment(),
+				factory.getOWLLiteral("test"))));
+
+		OWLObjectProperty hasPart = factory.getOWLObjectProperty(IRI.create(OBO + "BFO_0000051"));
+		OWLObjectProperty inheresIn = factory.getOWLObjectProperty(IRI.create(OBO + "RO_0000052"));
+
+		/* Enough classes and axioms for several tasks */
+		for (int i = 1; i <= 6000; i++) {
+			OWLClass zpClass = cl(String.format("ZP_%07d", i));
+			OWLClassExpression expression = factory.getOWLObjectSomeValuesFrom(hasPart, factory.getOWLObjectIntersectionOf(cl("PATO_0000001"),
+					factory.getOWLObjectSomeValuesFrom(inheresIn, cl(String.format("ZFA_%07d", i % 500)))));
+			manager.addAxiom(zp, factory.getOWLEquivalentClassesAxiom(zpClass, expression));
+			manager.addAxiom(zp, factory.getOWLAnnotationAssertionAxiom(factory.getRDFSLabel(), zpClass.getIRI(),
+					factory.getOWLLiteral("abnormal (" + i + ")")));
+			if (i > 1)
+				manager.addAxiom(zp, factory.getOWLSubClassOfAxiom(zpClass, cl(String.format("ZP_%07d", i / 2))));
+		}
+
+		/* Axioms that belong to several entities or to none */
+		manager.addAxiom(zp, factory.getOWLEquivalentClassesAxiom(cl("ZP_0000003"), cl("ZP_0000002"), cl("ZP_0000001")));
+		manager.addAxiom(zp, factory.getOWLDisjointClassesAxiom(cl("ZFA_0000001"), cl("ZFA_0000002")));
+		manager.addAxiom(zp, factory.getOWLDisjointClassesAxiom(cl("ZFA_0000001"), cl("ZFA_0000002"), cl("ZFA_0000003")));
+		manager.addAxiom(zp, factory.getOWLSubClassOfAxiom(factory.getOWLObjectSomeValuesFrom(hasPart, cl("ZFA_0000004")), cl("ZP_0000004")));
+		manager.addAxiom(zp, factory.getOWLDeclarationAxiom(cl("ZFA_0001000")));
+		manager.addAxiom(zp, factory.getOWLSubObjectPropertyOfAxiom(inheresIn, hasPart));
+		manager.addAxiom(zp, factory.getOWLAnnotationAssertionAxiom(factory.getRDFSLabel(), IRI.create(OBO + "not_in_signature"),
+				factory.getOWLLiteral("label")));
+		OWLAnnotation comment = factory.getOWLAnnotation(factory.getRDFSComment(), factory.getOWLLiteral("comment"));
+		manager.addAxiom(zp, factory.getOWLSubClassOfAxiom(cl("ZP_0000005"), cl("ZP_0000001"), new HashSet<OWLAnnotation>(Arrays.asList(comment))));
+
+		return zp;
+	}
+
+	@Test
+	public void testSameAsOWLAPI() throws Exception {
+		OWLOntology zp = createOntology();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		zp.getOWLOntologyManager().saveOntology(zp, new OWLFunctionalSyntaxOntologyFormat(), expected);
+
+		for (int numThreads : new int[] { 1, 3 }) {
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+			ParallelOntologyWriter.write(zp, actual, numThreads);
+			Assert.assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+		}
+	}
+
+	/**
+	 * Writing a fresh ontology with several threads must not depend on
+	 * indexes that OWLAPI builds lazily on first access.
+	 */
+	@Test
+	public void testFreshOntology() throws Exception {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		ParallelOntologyWriter.write(createOntology(), expected, 1);
+
+		for (int numThreads : new int[] { 2, 4, 8 }) {
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+			ParallelOntologyWriter.write(createOntology(), actual, numThreads);
+			Assert.assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+		}
+	}
+}
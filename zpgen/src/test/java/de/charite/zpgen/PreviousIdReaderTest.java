@@ -0,0 +1,151 @@
+package de.charite.zpgen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.coode.owlapi.obo12.parser.OBOVocabulary;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.io.OWLFunctionalSyntaxOntologyFormat;
+import org.semanticweb.owlapi.io.RDFXMLOntologyFormat;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyFormat;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+/**
+ * Tests PreviousIdReader.
+ */
+public class PreviousIdReaderTest {
+
+	private static final String OBO = "http://purl.obolibrary.org/obo/";
+
+	private final OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+	private final OWLDataFactory factory = manager.getOWLDataFactory();
+
+	private OWLClass cl(String id) {
+		return factory.getOWLClass(IRI.create(OBO + id));
+	}
+
+	private OWLClassExpression expression(String quality, String entity, String partOf) {
+		OWLObjectProperty hasPart = factory.getOWLObjectProperty(IRI.create(OBO + "BFO_0000051"));
+		OWLObjectProperty inheresIn = factory.getOWLObjectProperty(IRI.create(OBO + "RO_0000052"));
+		OWLObjectProperty partOfProperty = factory.getOWLObjectProperty(IRI.create(OBO + "BFO_0000050"));
+		OWLClassExpression bearer = cl(entity);
+		if (partOf != null)
+			bearer = factory.getOWLObjectIntersectionOf(bearer, factory.getOWLObjectSomeValuesFrom(partOfProperty, cl(partOf)));
+		return factory.getOWLObjectSomeValuesFrom(hasPart,
+				factory.getOWLObjectIntersectionOf(cl(quality), factory.getOWLObjectSomeValuesFrom(inheresIn, bearer)));
+	}
+
+	private File save(OWLOntology ontology, OWLOntologyFormat format) throws Exception {
+		File file = File.createTempFile("previousidreader", ".owl");
+		file.deleteOnExit();
+		OutputStream out = new FileOutputStream(file);
+		manager.saveOntology(ontology, format, out);
+		out.close();
+		return file;
+	}
+
+	@Test
+	public void testRead() throws Exception {
+		OWLOntology zp = manager.createOntology(IRI.create("test"));
+		Set<OWLAxiom> expected = new HashSet<OWLAxiom>();
+		for (int i = 1; i <= 50; i++) {
+			String entity = String.format("ZFA_%07d", i);
+			OWLEquivalentClassesAxiom axiom = factory.getOWLEquivalentClassesAxiom(cl(String.format("ZP_%07d", i * 3)),
+					expression("PATO_0000001", entity, i % 2 == 0 ? "ZFA_0000100" : null));
+			manager.addAxiom(zp, axiom);
+			manager.addAxiom(zp, factory.getOWLAnnotationAssertionAxiom(factory.getRDFSLabel(), cl(String.format("ZP_%07d", i * 3)).getIRI(),
+					factory.getOWLLiteral("label (" + i + ")\nEquivalentClasses(")));
+			expected.add(axiom);
+		}
+
+		/* An annotated axiom, whose annotation doesn't matter */
+		OWLAnnotation comment = factory.getOWLAnnotation(factory.getRDFSComment(), factory.getOWLLiteral("a \"comment\" (1)"));
+		OWLEquivalentClassesAxiom annotated = factory.getOWLEquivalentClassesAxiom(cl("ZP_0000200"),
+				expression("PATO_0000002", "ZFA_0000001", null), new HashSet<OWLAnnotation>(Arrays.asList(comment)));
+		manager.addAxiom(zp, annotated);
+
+		/* Equivalences of other classes are ignored, unsupported ones of ZP classes are counted */
+		manager.addAxiom(zp, factory.getOWLEquivalentClassesAxiom(cl("ZFA_0000001"), expression("PATO_0000001", "ZFA_0000002", null)));
+		manager.addAxiom(zp, factory.getOWLEquivalentClassesAxiom(cl("ZP_0000201"),
+				factory.getOWLObjectAllValuesFrom(factory.getOWLObjectProperty(IRI.create(OBO + "BFO_0000051")), cl("PATO_0000001"))));
+
+		OWLFunctionalSyntaxOntologyFormat functionalSyntax = new OWLFunctionalSyntaxOntologyFormat();
+		functionalSyntax.setPrefix("obo:", OBO);
+		OWLOntologyFormat rdfXml = new RDFXMLOntologyFormat();
+
+		for (OWLOntologyFormat format : Arrays.asList(functionalSyntax, rdfXml)) {
+			for (int numThreads : new int[] { 1, 3 }) {
+				PreviousIdReader reader = new PreviousIdReader(factory);
+				reader.setBlockSize(256);
+				List<OWLEquivalentClassesAxiom> axioms = reader.read(save(zp, format), numThreads);
+
+				Set<OWLAxiom> actual = new HashSet<OWLAxiom>();
+				for (OWLEquivalentClassesAxiom axiom : axioms) {
+					if (!axiom.equals(annotated.getAxiomWithoutAnnotations()))
+						actual.add(axiom);
+				}
+				Assert.assertEquals(expected, actual);
+				Assert.assertEquals(51, axioms.size());
+				Assert.assertEquals(1, reader.getNumUnsupported());
+				Assert.assertEquals(201, reader.getMaxZPNumber());
+
+				/* The same ids are recovered as from the loaded ontology */
+				ZPIDDB loaded = new ZPIDDB(zp);
+				ZPIDDB recovered = new ZPIDDB(axioms, null);
+				recovered.reserveIdsUpTo(reader.getMaxZPNumber());
+				for (int i = 1; i <= 51; i++) {
+					OWLClassExpression classExpression = expression("PATO_0000001", "ZFA_" + String.format("%07d", i), i % 2 == 0 ? "ZFA_0000100"
+							: null);
+					Assert.assertEquals(loaded.getZPNumber(classExpression), recovered.getZPNumber(classExpression));
+				}
+				Assert.assertEquals(OBOVocabulary.ID2IRI("ZP:0000200"), recovered.getZPId(expression("PATO_0000002", "ZFA_0000001", null)));
+			}
+		}
+	}
+
+	/**
+	 * The ids are the same as with the loaded ontology, but the classes of the
+	 * previous ontology that are not generated again are dropped.
+	 */
+	@Test
+	public void testRecoverIdsOnly() throws Exception {
+		File dir = IncrementalIndexTest.tempDir();
+		File genes = IncrementalIndexTest.geneFile(dir, "genes.txt", 400);
+		File fewerGenes = IncrementalIndexTest.geneFile(dir, "fewergenes.txt", 200);
+
+		IncrementalIndexTest.run(dir, "a", genes, "-p", "none");
+		File loaded = IncrementalIndexTest.run(dir, "b", fewerGenes, "-k", "-p", "a/zp.owl");
+		File recovered = IncrementalIndexTest.run(dir, "c", fewerGenes, "-k", "-p", "a/zp.owl", "--recover-ids-only");
+		for (String name : new String[] { "annot_gene_pos.txt", "annot_gene_neg.txt" }) {
+			Assert.assertEquals(new String(Files.readAllBytes(new File(loaded, name).toPath()), "UTF-8"),
+					new String(Files.readAllBytes(new File(recovered, name).toPath()), "UTF-8"));
+		}
+		Assert.assertTrue(new File(recovered, "zp.owl").length() < new File(loaded, "zp.owl").length());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRecoverIdsOnlyWithSourceInformation() throws Exception {
+		File dir = IncrementalIndexTest.tempDir();
+		File genes = IncrementalIndexTest.geneFile(dir, "genes.txt", 100);
+		IncrementalIndexTest.run(dir, "a", genes, "-p", "none");
+		IncrementalIndexTest.run(dir, "b", genes, "-k", "-p", "a/zp.owl", "--recover-ids-only", "-s", "b/zp.annot_sourceinfo");
+	}
+}
@@ -0,0 +1,94 @@
+package de.charite.zpgen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.coode.owlapi.obo12.parser.OBOVocabulary;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+/**
+ * Tests SourceInformationCollector.
+ */
+public class SourceInformationCollectorTest {
+
+	private static List<String> write(SourceInformationCollector collector, String suffix) throws Exception {
+		File file = File.createTempFile("sourceinformation", suffix);
+		file.deleteOnExit();
+		collector.write(file);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		InputStream in = CompressedStreams.openInput(file);
+		try {
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) >= 0)
+				bytes.write(buffer, 0, read);
+		} finally {
+			in.close();
+		}
+		return Arrays.asList(bytes.toString("UTF-8").split("\n"));
+	}
+
+	@Test
+	public void testAdd() throws Exception {
+		SourceInformationCollector collector = new SourceInformationCollector();
+		collector.add(12, "small eye", "ZFA:0000107\t\tPATO:0000587\tPATO:0000460\t\t");
+		collector.add(3, "abnormal(ly) absent fin", "ZFA:0000108\t\tPATO:0000462\tPATO:0000460\t\t");
+		/* A known source is added once, a second label is ignored */
+		collector.add(12, "small eye", "ZFA:0000107\t\tPATO:0000587\tPATO:0000460\t\t");
+		collector.add(12, "decreased size eye", "ZFA:0000107\t\tPATO:0000117\tPATO:0000460\t\t");
+		/* Classes without source are skipped */
+		collector.add(7, "large eye", null);
+
+		for (String suffix : new String[] { ".annot_sourceinfo", ".annot_sourceinfo.gz" }) {
+			Assert.assertEquals(Arrays.asList("ZP:0000003\tabnormal(ly) absent fin\tZFA:0000108\t\tPATO:0000462\tPATO:0000460\t\t",
+					"ZP:0000012\tsmall eye\tZFA:0000107\t\tPATO:0000587\tPATO:0000460\t\t",
+					"ZP:0000012\tsmall eye\tZFA:0000107\t\tPATO:0000117\tPATO:0000460\t\t"), write(collector, suffix));
+		}
+	}
+
+	/**
+	 * Of several labels of a class in the ontology the smallest one is taken,
+	 * regardless of the order of the axioms, and it takes precedence over the
+	 * labels of the walk.
+	 */
+	@Test
+	public void testAddFromOntology() throws Exception {
+		for (String[] labels : new String[][] { { "b label", "a label" }, { "a label", "b label" } }) {
+			OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+			OWLDataFactory factory = manager.getOWLDataFactory();
+			OWLOntology zp = manager.createOntology(IRI.create("test"));
+			IRI zp1 = OBOVocabulary.ID2IRI("ZP:0000001");
+			IRI zp2 = OBOVocabulary.ID2IRI("ZP:0000002");
+			for (String label : labels)
+				manager.addAxiom(zp, factory.getOWLAnnotationAssertionAxiom(factory.getRDFSLabel(), zp1, factory.getOWLLiteral(label)));
+			manager.addAxiom(zp, factory.getOWLAnnotationAssertionAxiom(factory.getOWLAnnotationProperty(ZPGen.definitionSourcePropertyIRI), zp1,
+					factory.getOWLLiteral("source b")));
+			manager.addAxiom(zp, factory.getOWLAnnotationAssertionAxiom(factory.getOWLAnnotationProperty(ZPGen.definitionSourcePropertyIRI), zp1,
+					factory.getOWLLiteral("source a")));
+			manager.addAxiom(zp, factory.getOWLAnnotationAssertionAxiom(factory.getRDFSLabel(), zp2, factory.getOWLLiteral("other")));
+			/* Other subjects are ignored */
+			manager.addAxiom(zp, factory.getOWLAnnotationAssertionAxiom(factory.getRDFSLabel(), OBOVocabulary.ID2IRI("ZFA:0000001"),
+					factory.getOWLLiteral("eye")));
+
+			SourceInformationCollector collector = new SourceInformationCollector();
+			collector.addFromOntology(zp);
+			collector.add(1, "c label", "source c");
+			collector.add(2, "z label", "source z");
+			collector.add(5, "new", "source n");
+
+			Assert.assertEquals(Arrays.asList("ZP:0000001\ta label\tsource a", "ZP:0000001\ta label\tsource b", "ZP:0000001\ta label\tsource c",
+					"ZP:0000002\tother\tsource z", "ZP:0000005\tnew\tsource n"), write(collector, ".annot_sourceinfo"));
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package de.charite.zpgen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.io.OWLFunctionalSyntaxOntologyFormat;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+/**
+ * Tests StreamingOntologyWriter.
+ */
+public class StreamingOntologyWriterTest {
+
+	private static final String OBO = "http://purl.obolibrary.org/obo/";
+
+	private final OWLDataFactory factory = OWLManager.getOWLDataFactory();
+
+	private OWLClass cl(String id) {
+		return factory.getOWLClass(IRI.create(OBO + id));
+	}
+
+	/**
+	 * Distinct axioms as the visitor adds them.
+	 */
+	private List<OWLAxiom> createAxioms() {
+		OWLObjectProperty hasPart = factory.getOWLObjectProperty(IRI.create(OBO + "BFO_0000051"));
+		OWLObjectProperty inheresIn = factory.getOWLObjectProperty(IRI.create(OBO + "RO_0000052"));
+		List<OWLAxiom> axioms = new ArrayList<OWLAxiom>();
+		for (int i = 1; i <= 2000; i++) {
+			OWLClass zpClass = cl(String.format("ZP_%07d", i));
+			OWLClass zfaClass = cl(String.format("ZFA_%07d", i % 300));
+			axioms.add(factory.getOWLEquivalentClassesAxiom(zpClass, factory.getOWLObjectSomeValuesFrom(hasPart,
+					factory.getOWLObjectIntersectionOf(cl("PATO_0000001"), factory.getOWLObjectSomeValuesFrom(inheresIn, zfaClass)))));
+			axioms.add(factory.getOWLAnnotationAssertionAxiom(factory.getRDFSLabel(), zpClass.getIRI(), factory.getOWLLiteral("abnormal(ly) " + i)));
+			axioms.add(factory.getOWLSubClassOfAxiom(zpClass, cl("ZP_0000000")));
+		}
+		return axioms;
+	}
+
+	private static OWLOntology parse(byte[] bytes) throws Exception {
+		return OWLManager.createOWLOntologyManager().loadOntologyFromOntologyDocument(new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * The streamed ontology must have the same axioms as the one written by
+	 * OWLAPI, without the ones of the base written twice.
+	 */
+	@Test
+	public void testSameAxiomsAsOWLAPI() throws Exception {
+		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+		OWLOntology base = manager.createOntology(IRI.create(OBO + "zp.owl"));
+		manager.addAxiom(base, factory.getOWLDeclarationAxiom(cl("ZP_0000000")));
+		manager.addAxiom(base, factory.getOWLSubClassOfAxiom(cl("ZP_0000001"), cl("ZP_0000000")));
+
+		List<OWLAxiom> axioms = createAxioms();
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		StreamingOntologyWriter writer = new StreamingOntologyWriter(base, streamed);
+		for (OWLAxiom axiom : axioms)
+			writer.addAxiom(axiom);
+		writer.close();
+
+		for (OWLAxiom axiom : axioms)
+			manager.addAxiom(base, axiom);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		manager.saveOntology(base, new OWLFunctionalSyntaxOntologyFormat(), expected);
+
+		Assert.assertEquals(axioms.size() - 1, writer.getNumWrittenAxioms());
+		Assert.assertEquals(parse(expected.toByteArray()).getAxioms(), parse(streamed.toByteArray()).getAxioms());
+	}
+
+	/**
+	 * The visitor must pass every axiom of a run once, though tuples,
+	 * classes and sources repeat in the input.
+	 */
+	@Test
+	public void testStreamingRun() throws Exception {
+		File dir = IncrementalIndexTest.tempDir();
+		File genes = IncrementalIndexTest.geneFile(dir, "genes.txt", 3000);
+		IncrementalIndexTest.run(dir, "a", IncrementalIndexTest.geneFile(dir, "previous.txt", 500), "-p", "none",
+				"--add-source-information");
+		File full = IncrementalIndexTest.run(dir, "b", genes, "-k", "-p", "a/zp.owl", "--add-source-information");
+		File streamed = IncrementalIndexTest.run(dir, "c", genes, "-k", "-p", "a/zp.owl", "--add-source-information",
+				"--streaming-output");
+
+		byte[] streamedBytes = Files.readAllBytes(new File(streamed, "zp.owl").toPath());
+		Assert.assertEquals(parse(Files.readAllBytes(new File(full, "zp.owl").toPath())).getAxioms(), parse(streamedBytes).getAxioms());
+		/* No axiom is written twice */
+		List<String> lines = new ArrayList<String>();
+		for (String line : new String(streamedBytes, "UTF-8").split("\n")) {
+			if (line.length() > 0)
+				lines.add(line);
+		}
+		Assert.assertEquals(lines.size(), new HashSet<String>(lines).size());
+	}
+}
@@ -0,0 +1,59 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import de.charite.zpgen.ZFINWalker.ZFIN_FILE_TYPE;
+
+/**
+ * Tests ZFINValidator.
+ */
+public class ZFINValidatorTest {
+
+	@Test
+	public void testValidate() throws Exception {
+		File file = File.createTempFile("pheno", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), Arrays.asList(
+				ZFINWalkerTest.geneLine("ZDB-GENE-1", "ZFA:0000001", "", "PATO:0000001", "abnormal", "", ""),
+				ZFINWalkerTest.geneLine("ZDB-GENE-2", "ZFA:0000001", "", "ZFA:0000002", "abnormal", "", ""),
+				ZFINWalkerTest.geneLine("ZDB-GENE-3", "XAO:0000001", "", "PATO:0000001", "abnormal", "", ""),
+				ZFINWalkerTest.geneLine("ZDB-GENE-4", "ZFA:0000001", "", "PATO:0000001", "ameliorated", "", ""),
+				"ZDB-GENE-5\tshort",
+				ZFINWalkerTest.geneLine("ZDB-GENE-6", "CARO:0000010", "BSPO:0000001", "PATO:0000001", "normal", "GO:0000001", "")),
+				StandardCharsets.UTF_8);
+
+		ZFINValidator validator = new ZFINValidator(file, ZFIN_FILE_TYPE.PHENO_GENES_TXT);
+		ZFINValidator.validateAll(Arrays.asList(validator));
+		Assert.assertEquals(6, validator.getNumLines());
+
+		List<ZFINValidator.Problem> problems = validator.getProblems();
+		Assert.assertEquals(4, problems.size());
+		Assert.assertEquals(2, problems.get(0).lineNumber);
+		Assert.assertEquals(3, problems.get(1).lineNumber);
+		Assert.assertEquals(4, problems.get(2).lineNumber);
+		Assert.assertFalse(problems.get(2).rejected);
+		Assert.assertEquals(5, problems.get(3).lineNumber);
+
+		Assert.assertEquals(3, validator.getRejectedLines().size());
+		Assert.assertTrue(validator.getRejectedLines().contains(5));
+		Assert.assertFalse(validator.getRejectedLines().contains(4));
+
+		StringWriter rejected = new StringWriter();
+		BufferedWriter out = new BufferedWriter(rejected);
+		validator.writeRejectedRows(out);
+		out.close();
+		String[] rows = rejected.toString().split("\n");
+		Assert.assertEquals(3, rows.length);
+		Assert.assertTrue(rows[2].endsWith("\tZDB-GENE-5\tshort"));
+	}
+}
@@ -0,0 +1,213 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+import de.charite.zpgen.ZFINWalker.ZFIN_FILE_TYPE;
+
+/**
+ * Tests ZFINWalker.
+ */
+public class ZFINWalkerTest {
+
+	/**
+	 * Creates a line of phenoGeneCleanData_fish.txt.
+	 */
+	static String geneLine(String gene, String e1Super, String e1Sub, String pato, String tag, String e2Super, String e2Sub) {
+		String[] cols = new String[25];
+		for (int i = 0; i < cols.length; i++)
+			cols[i] = "";
+		cols[2] = gene;
+		cols[3] = e1Sub;
+		cols[4] = e1Sub.length() > 0 ? "name " + e1Sub : "";
+		cols[7] = e1Super;
+		cols[8] = "name " + e1Super;
+		cols[9] = pato;
+		cols[10] = "name " + pato;
+		cols[11] = tag;
+		cols[12] = e2Sub;
+		cols[13] = e2Sub.length() > 0 ? "name " + e2Sub : "";
+		cols[16] = e2Super;
+		cols[17] = e2Super.length() > 0 ? "name " + e2Super : "";
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < cols.length; i++) {
+			if (i > 0)
+				line.append('\t');
+			line.append(cols[i]);
+		}
+		return line.toString();
+	}
+
+	static byte[] geneFile(int numLines) {
+		StringBuilder file = new StringBuilder();
+		for (int i = 0; i < numLines; i++) {
+			String e1Super = String.format("ZFA:%07d", i % 17);
+			String e1Sub = i % 3 == 0 ? String.format("ZFA:%07d", i % 5) : "";
+			String pato = String.format("PATO:%07d", i % 11);
+			String tag = i % 7 == 0 ? "normal" : "abnormal";
+			String e2Super = i % 4 == 0 ? String.format("GO:%07d", i % 13) : "";
+			file.append(geneLine("ZDB-GENE-" + (i % 31), e1Super, e1Sub, pato, tag, e2Super, "")).append('\n');
+		}
+		return file.toString().getBytes();
+	}
+
+	private String[] walk(byte[] input, int numThreads) throws Exception {
+		return walk(input, numThreads, ZFINOntologyVisitor.DEFAULT_EXPRESSION_CACHE_SIZE);
+	}
+
+	private String[] walk(byte[] input, int numThreads, int expressionCacheSize) throws Exception {
+		OWLOntology zp = OWLManager.createOWLOntologyManager().createOntology(IRI.create("test"));
+		return walk(input, numThreads, new ZFINOntologyVisitor(zp, new ZPIDDB(), true, expressionCacheSize), zp);
+	}
+
+	/**
+	 * Walks the input with the given visitor, which isn't flushed explicitly.
+	 */
+	private String[] walk(byte[] input, int numThreads, ZFINOntologyVisitor visitor, OWLOntology zp) throws Exception {
+
+		StringWriter pos = new StringWriter();
+		StringWriter neg = new StringWriter();
+		BufferedWriter posOut = new BufferedWriter(pos);
+		BufferedWriter negOut = new BufferedWriter(neg);
+		ZFINWalker.walk(new ByteArrayInputStream(input), visitor, ZFIN_FILE_TYPE.PHENO_GENES_TXT, posOut, negOut, numThreads);
+		posOut.close();
+		negOut.close();
+		return new String[] { pos.toString(), neg.toString(), Integer.toString(zp.getAxiomCount()) };
+	}
+
+	@Test
+	public void testReadEntries() throws Exception {
+		List<ZFINEntry> entries = ZFINWalker.readEntries(new ByteArrayInputStream((geneLine("ZDB-GENE-1", "ZFA:0000001", "ZFA:0000002",
+				"PATO:0000003", "abnormal", "", "") + "\n").getBytes("UTF-8")), ZFIN_FILE_TYPE.PHENO_GENES_TXT);
+		Assert.assertEquals(1, entries.size());
+		ZFINEntry entry = entries.get(0);
+		Assert.assertEquals("ZDB-GENE-1", entry.genxZfinID);
+		Assert.assertEquals("ZFA:0000001", entry.entity1SupertermId);
+		Assert.assertEquals("ZFA:0000002", entry.entity1SubtermId);
+		Assert.assertEquals("PATO:0000003", entry.patoID);
+		Assert.assertTrue(entry.isAbnormal);
+		Assert.assertEquals("ZFA:0000001\tZFA:0000002\tPATO:0000003\tPATO:0000460\t\t", entry.sourceString);
+	}
+
+	@Test
+	public void testTokenizer() throws Exception {
+		String line1 = geneLine("ZDB-GENE-1", "ZFA:0000001", "ZFA:0000002", "PATO:0000003", "abnormal", "GO:0000004", "");
+		String line2 = geneLine("ZDB-GENE-2", "ZFA:0000001", "", "PATO:0000003", "normal", "", "");
+
+		/* Pipe delimited, windows line endings and no newline at the end */
+		String input = line1.replace('\t', '|') + "\r\n" + line2.replace('\t', '|');
+		ZFINTokenizer tokenizer = new ZFINTokenizer(Channels.newChannel(new ByteArrayInputStream(input.getBytes())), new int[] { 2, 7, 11 });
+		Assert.assertTrue(tokenizer.nextLine());
+		String[] values = tokenizer.split();
+		Assert.assertEquals("ZDB-GENE-1", values[0]);
+		Assert.assertEquals("ZFA:0000001", values[1]);
+		Assert.assertEquals("abnormal", values[2]);
+		String interned = values[1];
+
+		Assert.assertTrue(tokenizer.nextLine());
+		Assert.assertEquals(2, tokenizer.getLineNumber());
+		values = tokenizer.split();
+		Assert.assertEquals("ZDB-GENE-2", values[0]);
+		Assert.assertSame(interned, values[1]);
+		Assert.assertEquals("normal", values[2]);
+		Assert.assertFalse(tokenizer.nextLine());
+	}
+
+	@Test
+	public void testParallelWalkIsSameAsSequential() throws Exception {
+		byte[] input = geneFile(5000);
+		String[] sequential = walk(input, 1);
+		String[] parallel = walk(input, 4);
+		Assert.assertTrue(sequential[0].length() > 0);
+		Assert.assertTrue(sequential[1].length() > 0);
+		Assert.assertEquals(sequential[0], parallel[0]);
+		Assert.assertEquals(sequential[1], parallel[1]);
+		Assert.assertEquals(sequential[2], parallel[2]);
+	}
+
+	/**
+	 * The axioms that are added in batches must all be in the ontology at the
+	 * end of the walk.
+	 */
+	@Test
+	public void testBatchedAxioms() throws Exception {
+		byte[] input = geneFile(20000);
+		for (int numThreads : new int[] { 1, 4 }) {
+			OWLOntology batched = OWLManager.createOWLOntologyManager().createOntology(IRI.create("test"));
+			walk(input, numThreads, new ZFINOntologyVisitor(batched, new ZPIDDB(), true), batched);
+
+			OWLOntology unbatched = OWLManager.createOWLOntologyManager().createOntology(IRI.create("test"));
+			ZFINOntologyVisitor visitor = new ZFINOntologyVisitor(unbatched, new ZPIDDB(), true);
+			visitor.setAxiomBatchSize(1);
+			walk(input, numThreads, visitor, unbatched);
+
+			Assert.assertTrue(batched.getAxiomCount() > 8192);
+			Assert.assertEquals(unbatched.getAxioms(), batched.getAxioms());
+		}
+	}
+
+	@Test
+	public void testPipelineWithSmallQueues() throws Exception {
+		byte[] input = geneFile(3000);
+		String[] sequential = walk(input, 1);
+
+		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+		OWLOntology zp = manager.createOntology(IRI.create("test"));
+		ZFINOntologyVisitor visitor = new ZFINOntologyVisitor(zp, new ZPIDDB(), true);
+		StringWriter pos = new StringWriter();
+		StringWriter neg = new StringWriter();
+		BufferedWriter posOut = new BufferedWriter(pos);
+		BufferedWriter negOut = new BufferedWriter(neg);
+		ZFINPipeline pipeline = new ZFINPipeline(3);
+		pipeline.setBatchSize(7);
+		pipeline.setQueueSize(1);
+		Assert.assertEquals(3000, pipeline.walk(new ByteArrayInputStream(input), visitor, ZFIN_FILE_TYPE.PHENO_GENES_TXT, posOut, negOut));
+		visitor.flush();
+		posOut.close();
+		negOut.close();
+		Assert.assertEquals(sequential[0], pos.toString());
+		Assert.assertEquals(sequential[1], neg.toString());
+		Assert.assertEquals(sequential[2], Integer.toString(zp.getAxiomCount()));
+	}
+
+	@Test
+	public void testExpressionCache() throws Exception {
+		byte[] input = geneFile(2000);
+		String[] uncached = walk(input, 1, 0);
+		String[] cached = walk(input, 4, 3);
+		Assert.assertEquals(uncached[0], cached[0]);
+		Assert.assertEquals(uncached[1], cached[1]);
+		Assert.assertEquals(uncached[2], cached[2]);
+	}
+
+	/**
+	 * A bad row fails the walk with its line number instead of exiting the
+	 * JVM.
+	 */
+	@Test
+	public void testBadRow() throws Exception {
+		StringBuilder input = new StringBuilder(new String(geneFile(100)));
+		input.append(geneLine("ZDB-GENE-1", "XYZ:0000001", "", "PATO:0000001", "abnormal", "", "")).append('\n');
+		input.append(new String(geneFile(50)));
+
+		for (int numThreads : new int[] { 1, 3 }) {
+			try {
+				walk(input.toString().getBytes(), numThreads);
+				Assert.fail("The bad row was not reported");
+			} catch (IllegalArgumentException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Problem in line 101: "));
+			}
+		}
+	}
+}
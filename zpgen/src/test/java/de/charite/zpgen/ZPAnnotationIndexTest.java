@@ -0,0 +1,62 @@
+package de.charite.zpgen;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * Tests ZPAnnotationIndex.
+ */
+public class ZPAnnotationIndexTest {
+
+	@Test
+	public void testPropagate() throws Exception {
+		/* 1 <- 2 <- 4, 1 <- 3 <- 4, 5 */
+		TIntObjectHashMap<int[]> direct = new TIntObjectHashMap<int[]>();
+		direct.put(1, new int[0]);
+		direct.put(2, new int[] { 1 });
+		direct.put(3, new int[] { 1 });
+		direct.put(4, new int[] { 2, 3 });
+		direct.put(5, new int[0]);
+		ZPAnnotationIndex index = new ZPAnnotationIndex(direct);
+		Assert.assertEquals(5, index.size());
+		Assert.assertTrue(Arrays.equals(new int[] { 1, 2, 3, 4 }, index.getAncestors(4)));
+		Assert.assertTrue(index.isSubClassOf(4, 1));
+		Assert.assertFalse(index.isSubClassOf(2, 3));
+		Assert.assertFalse(index.isSubClassOf(9, 1));
+
+		File annotations = File.createTempFile("zpannot", ".txt");
+		annotations.deleteOnExit();
+		Files.write(annotations.toPath(), Arrays.asList("ZDB-GENE-1\tZP:0000004\tfour", "ZDB-GENE-2\tZP:0000002\ttwo",
+				"ZDB-GENE-1\tZP:0000003\tthree", "ZDB-GENE-2\tZP:0000009\tnine", "ZDB-GENE-3\tZP:0000001\tone"), StandardCharsets.UTF_8);
+		File propagated = File.createTempFile("zpannot", ".txt");
+		propagated.deleteOnExit();
+		Assert.assertEquals(8, index.propagate(annotations, propagated));
+		Assert.assertEquals(1, index.getNumUnknownClasses());
+
+		List<String> lines = Files.readAllLines(propagated.toPath(), StandardCharsets.UTF_8);
+		Assert.assertEquals(Arrays.asList("ZDB-GENE-1\tZP:0000001\tone", "ZDB-GENE-1\tZP:0000002\ttwo", "ZDB-GENE-1\tZP:0000003\tthree",
+				"ZDB-GENE-1\tZP:0000004\tfour", "ZDB-GENE-2\tZP:0000001\tone", "ZDB-GENE-2\tZP:0000002\ttwo", "ZDB-GENE-2\tZP:0000009\tnine",
+				"ZDB-GENE-3\tZP:0000001\tone"), lines);
+
+		Assert.assertEquals(Arrays.asList("ZDB-GENE-1", "ZDB-GENE-2", "ZDB-GENE-3"), index.getAnnotated("ZP:0000001"));
+		Assert.assertEquals(Arrays.asList("ZDB-GENE-1"), index.getAnnotated(3));
+		Assert.assertTrue(index.getAnnotated(5).isEmpty());
+
+		File indexFile = File.createTempFile("zpannot", ".idx");
+		indexFile.deleteOnExit();
+		index.save(indexFile);
+		ZPAnnotationIndex loaded = ZPAnnotationIndex.load(indexFile);
+		Assert.assertEquals(index.getNumAnnotations(), loaded.getNumAnnotations());
+		Assert.assertEquals(Arrays.asList("ZDB-GENE-1", "ZDB-GENE-2"), loaded.getAnnotated(2));
+		Assert.assertTrue(Arrays.equals(index.getAncestors(4), loaded.getAncestors(4)));
+	}
+}
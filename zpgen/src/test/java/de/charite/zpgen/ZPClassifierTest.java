@@ -0,0 +1,167 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+import de.charite.zpgen.ZFINWalker.ZFIN_FILE_TYPE;
+
+/**
+ * Tests ZPClassifier.
+ */
+public class ZPClassifierTest {
+
+	/* eye, special eye is_a eye, lens part_of eye, lens fiber is_a lens; size, decreased size is_a size */
+	private static final List<String> OBO = Arrays.asList("format-version: 1.2", "", "[Term]", "id: ZFA:0000001", "name: eye", "", "[Term]",
+			"id: ZFA:0000002", "is_a: ZFA:0000001 ! eye", "", "[Term]", "id: ZFA:0000003", "relationship: part_of ZFA:0000001 ! eye", "",
+			"[Term]", "id: ZFA:0000004", "is_a: ZFA:0000003 ! lens", "", "[Term]", "id: PATO:0000002", "is_a: PATO:0000001", "", "[Term]",
+			"id: PATO:0000003", "is_a: PATO:0000002 ! size", "", "[Typedef]", "id: part_of", "is_a: BFO:0000050");
+
+	private static final String A = ZFINWalkerTest.geneLine("A", "ZFA:0000001", "", "PATO:0000002", "abnormal", "", "");
+	private static final String B = ZFINWalkerTest.geneLine("B", "ZFA:0000002", "", "PATO:0000002", "abnormal", "", "");
+	private static final String C = ZFINWalkerTest.geneLine("C", "ZFA:0000002", "", "PATO:0000003", "abnormal", "", "");
+	private static final String D = ZFINWalkerTest.geneLine("D", "ZFA:0000001", "ZFA:0000003", "PATO:0000002", "abnormal", "", "");
+	private static final String E = ZFINWalkerTest.geneLine("E", "ZFA:0000003", "", "PATO:0000002", "abnormal", "", "");
+	private static final String F = ZFINWalkerTest.geneLine("F", "ZFA:0000001", "ZFA:0000004", "PATO:0000002", "normal", "", "");
+	private static final String G = ZFINWalkerTest.geneLine("G", "ZFA:0000001", "", "PATO:0000004", "abnormal", "", "");
+	private static final String H = ZFINWalkerTest.geneLine("H", "ZFA:0000002", "", "PATO:0000004", "abnormal", "", "");
+
+	/**
+	 * Walks the given lines and classifies the resulting classes.
+	 *
+	 * @return the subclass relations with the gene names instead of the ZP ids
+	 */
+	private static List<String> classify(File obo, List<String> lines, File cacheFile, int[] numClassified) throws Exception {
+		OWLOntology zp = OWLManager.createOWLOntologyManager().createOntology(IRI.create("test"));
+		ZFINOntologyVisitor visitor = new ZFINOntologyVisitor(zp, new ZPIDDB(), false);
+		ZPClassifier classifier = new ZPClassifier();
+		visitor.setClassifier(classifier);
+
+		StringWriter annotations = new StringWriter();
+		BufferedWriter out = new BufferedWriter(annotations);
+		StringBuilder input = new StringBuilder();
+		for (String line : lines)
+			input.append(line).append('\n');
+		ZFINWalker.walk(new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)), visitor, ZFIN_FILE_TYPE.PHENO_GENES_TXT,
+				out, out, 1);
+		out.close();
+
+		Map<String, String> genes = new HashMap<String, String>();
+		for (String annotation : annotations.toString().split("\n")) {
+			String[] fields = annotation.split("\t");
+			genes.put(fields[1], fields[0]);
+		}
+
+		classifier.addReferenceOntology(obo);
+		String[] pairs = ZPClassifier.toPairs(classifier.classify(2, cacheFile)).toArray(new String[0]);
+		for (int i = 0; i < pairs.length; i++) {
+			String[] ids = pairs[i].split(" ");
+			pairs[i] = genes.get(ids[0]) + " " + genes.get(ids[1]);
+		}
+		Arrays.sort(pairs);
+		numClassified[0] = classifier.getNumClassified();
+		Assert.assertEquals(0, classifier.getNumUnsupported());
+		return Arrays.asList(pairs);
+	}
+
+	@Test
+	public void testClassify() throws Exception {
+		File obo = File.createTempFile("zpclassifier", ".obo");
+		obo.deleteOnExit();
+		Files.write(obo.toPath(), OBO, StandardCharsets.UTF_8);
+
+		int[] numClassified = new int[1];
+		/* D and E are equivalent, as every lens is part of an eye */
+		Assert.assertEquals(Arrays.asList("B A", "C B", "F D", "F E"), classify(obo, Arrays.asList(A, B, C, D, E, F), null, numClassified));
+		Assert.assertEquals(6, numClassified[0]);
+	}
+
+	@Test
+	public void testIncremental() throws Exception {
+		File obo = File.createTempFile("zpclassifier", ".obo");
+		obo.deleteOnExit();
+		Files.write(obo.toPath(), OBO, StandardCharsets.UTF_8);
+		File cacheFile = File.createTempFile("zpclassifier", ".cache");
+		cacheFile.delete();
+		cacheFile.deleteOnExit();
+
+		int[] numClassified = new int[1];
+		Assert.assertEquals(Arrays.asList("C A", "F D", "F E", "H G"), classify(obo, Arrays.asList(A, C, D, E, F, G, H), cacheFile, numClassified));
+		Assert.assertTrue(cacheFile.exists());
+
+		/* B is new and C is now below B */
+		Assert.assertEquals(Arrays.asList("B A", "C B", "F D", "F E", "H G"),
+				classify(obo, Arrays.asList(A, C, D, E, F, G, H, B), cacheFile, numClassified));
+		Assert.assertEquals(2, numClassified[0]);
+
+		/* A changed reference ontology invalidates the cache */
+		Files.write(obo.toPath(), OBO.subList(0, OBO.size() - 3), StandardCharsets.UTF_8);
+		classify(obo, Arrays.asList(A, C, D, E, F, G, H, B), cacheFile, numClassified);
+		Assert.assertEquals(8, numClassified[0]);
+	}
+
+	private static OWLClass cl(OWLDataFactory factory, String id) {
+		return factory.getOWLClass(IRI.create("http://purl.obolibrary.org/obo/" + id.replace(':', '_')));
+	}
+
+	/**
+	 * Classifies ZP:1, ZP:2 with the given entity and 30 unrelated classes.
+	 */
+	private static List<String> classify(File obo, String entity2, File cacheFile, int[] numClassified) throws Exception {
+		OWLDataFactory factory = OWLManager.getOWLDataFactory();
+		ZPClassifier classifier = new ZPClassifier();
+		String[] entities = new String[32];
+		entities[0] = "ZFA:0000002";
+		entities[1] = entity2;
+		for (int i = 2; i < entities.length; i++)
+			entities[i] = String.format("ZFA:%07d", 1000 + i);
+		for (int i = 0; i < entities.length; i++) {
+			OWLClassExpression definition = factory.getOWLObjectSomeValuesFrom(factory.getOWLObjectProperty(IRI
+					.create("http://purl.obolibrary.org/obo/BFO_0000051")), factory.getOWLObjectIntersectionOf(cl(factory, "PATO:0000002"),
+					factory.getOWLObjectSomeValuesFrom(factory.getOWLObjectProperty(IRI.create("http://purl.obolibrary.org/obo/RO_0000052")),
+							cl(factory, entities[i]))));
+			Assert.assertTrue(classifier.add(cl(factory, String.format("ZP:%07d", i + 1)), definition));
+		}
+		classifier.addReferenceOntology(obo);
+		List<String> pairs = ZPClassifier.toPairs(classifier.classify(2, cacheFile));
+		numClassified[0] = classifier.getNumClassified();
+		return pairs;
+	}
+
+	/**
+	 * A cached superclass whose definition changed must not be kept.
+	 */
+	@Test
+	public void testIncrementalChangedSuperclass() throws Exception {
+		File obo = File.createTempFile("zpclassifier", ".obo");
+		obo.deleteOnExit();
+		Files.write(obo.toPath(), OBO, StandardCharsets.UTF_8);
+		File cacheFile = File.createTempFile("zpclassifier", ".cache");
+		cacheFile.delete();
+		cacheFile.deleteOnExit();
+
+		int[] numClassified = new int[1];
+		/* special eye is_a eye */
+		Assert.assertEquals(Arrays.asList("ZP:0000001 ZP:0000002"), classify(obo, "ZFA:0000001", cacheFile, numClassified));
+		/* ZP:2 is now about the lens, ZP:1 and ZP:2 are classified again */
+		Assert.assertEquals(Arrays.<String> asList(), classify(obo, "ZFA:0000003", cacheFile, numClassified));
+		Assert.assertEquals(2, numClassified[0]);
+	}
+}
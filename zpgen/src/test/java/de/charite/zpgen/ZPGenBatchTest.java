@@ -0,0 +1,68 @@
+package de.charite.zpgen;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests the manifest of ZPGenBatch.
+ */
+public class ZPGenBatchTest {
+
+	private static final String INPUTS = "--zfin-pheno-txt-input-file gene.txt --zfin-phenotype-txt-input-file fish.txt -p zp.owl";
+
+	private static File manifest(String... lines) throws Exception {
+		File file = File.createTempFile("manifest", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+		return file;
+	}
+
+	@Test
+	public void testReadManifest() throws Exception {
+		List<ZPGenCLIConfig> runs = ZPGenBatch.readManifest(manifest("# two releases", INPUTS + " -o a/zp.owl -a a/", "",
+				"  " + INPUTS + "\t-k -o b/zp.owl -a b/ -t 2"));
+		Assert.assertEquals(2, runs.size());
+		Assert.assertEquals("a/zp.owl", runs.get(0).ontologyOutputFilePath);
+		Assert.assertFalse(runs.get(0).keepIds);
+		Assert.assertEquals("b/", runs.get(1).annotationsFolder);
+		Assert.assertTrue(runs.get(1).keepIds);
+		Assert.assertEquals(2, runs.get(1).numThreads);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSameOutput() throws Exception {
+		ZPGenBatch.readManifest(manifest(INPUTS + " -o a/zp.owl -a a/", INPUTS + " -o b/zp.owl -a a/"));
+	}
+
+	/**
+	 * A bad row fails only its own run.
+	 */
+	@Test
+	public void testFailedRun() throws Exception {
+		File dir = IncrementalIndexTest.tempDir();
+		File genes = IncrementalIndexTest.geneFile(dir, "genes.txt", 100);
+		File badGenes = new File(dir, "badgenes.txt");
+		Files.write(badGenes.toPath(), Arrays.asList(ZFINWalkerTest.geneLine("ZDB-GENE-1", "XYZ:0000001", "", "PATO:0000001", "abnormal", "", "")),
+				StandardCharsets.UTF_8);
+		File genotypes = new File(dir, "genotypes.txt");
+		genotypes.createNewFile();
+
+		String good = "--zfin-pheno-txt-input-file " + genes + " --zfin-phenotype-txt-input-file " + genotypes + " -p none -o " + new File(dir, "good.owl")
+				+ " -a " + dir + File.separator + "good" + File.separator;
+		String bad = "--zfin-pheno-txt-input-file " + badGenes + " --zfin-phenotype-txt-input-file " + genotypes + " -p none -o "
+				+ new File(dir, "bad.owl") + " -a " + dir + File.separator + "bad" + File.separator;
+		new File(dir, "good").mkdir();
+		new File(dir, "bad").mkdir();
+
+		Assert.assertEquals(1, new ZPGenBatch().run(ZPGenBatch.readManifest(manifest(bad, good)), 2));
+		Assert.assertTrue(new File(dir, "good.owl").exists());
+		Assert.assertFalse(new File(dir, "bad.owl").exists());
+	}
+}
@@ -0,0 +1,91 @@
+package de.charite.zpgen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests ZPGenMetrics.
+ */
+public class ZPGenMetricsTest {
+
+	private static ZPGenMetrics createMetrics() throws Exception {
+		ZPGenMetrics metrics = new ZPGenMetrics();
+		metrics.start("load");
+		Thread.sleep(5);
+		/* Starting a stage stops the running one */
+		metrics.start("walk");
+		Thread.sleep(5);
+		metrics.stop(1000);
+		/* Stopping without a running stage is ignored */
+		metrics.stop(5);
+		metrics.set("newIds", 3);
+		metrics.set("reusedIds", 7);
+		metrics.set("newIds", 4);
+		metrics.start("save");
+		return metrics;
+	}
+
+	@Test
+	public void testSummary() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes, true, "UTF-8");
+		createMetrics().printSummary(out);
+		String[] lines = bytes.toString("UTF-8").split("\n");
+
+		Assert.assertEquals(8, lines.length);
+		Assert.assertTrue(lines[0].startsWith("Stage"));
+		Assert.assertTrue(lines[1].matches("load +[0-9.,]+"));
+		Assert.assertTrue(lines[2].matches("walk +[0-9.,]+ +1000 +[0-9]+"));
+		/* The running stage is stopped by printing */
+		Assert.assertTrue(lines[3].matches("save +[0-9.,]+"));
+		Assert.assertTrue(lines[4].matches("total +[0-9.,]+"));
+		Assert.assertTrue(lines[5].matches("newIds +4"));
+		Assert.assertTrue(lines[6].matches("reusedIds +7"));
+		Assert.assertTrue(lines[7].startsWith("peak heap [MiB]"));
+	}
+
+	@Test
+	public void testJSON() throws Exception {
+		File file = File.createTempFile("zpgenmetrics", ".json");
+		file.deleteOnExit();
+		createMetrics().writeJSON(file);
+		String[] lines = new String(Files.readAllBytes(file.toPath()), "UTF-8").split("\n");
+
+		Assert.assertEquals("{", lines[0]);
+		Assert.assertEquals("  \"stages\": [", lines[1]);
+		Assert.assertTrue(lines[2].matches("    \\{ \"name\": \"load\", \"seconds\": [0-9.E-]+ \\},"));
+		Assert.assertTrue(lines[3].matches("    \\{ \"name\": \"walk\", \"seconds\": [0-9.E-]+, \"rows\": 1000, \"rowsPerSecond\": [0-9]+ \\},"));
+		Assert.assertTrue(lines[4].matches("    \\{ \"name\": \"save\", \"seconds\": [0-9.E-]+ \\}"));
+		Assert.assertEquals("  ],", lines[5]);
+		Assert.assertTrue(lines[6].matches("  \"totalSeconds\": [0-9.E-]+,"));
+		Assert.assertEquals("  \"counters\": {", lines[7]);
+		Assert.assertEquals("    \"newIds\": 4,", lines[8]);
+		Assert.assertEquals("    \"reusedIds\": 7,", lines[9]);
+		Assert.assertTrue(lines[10].matches("    \"peakHeapBytes\": [0-9]+"));
+		Assert.assertEquals("  }", lines[11]);
+		Assert.assertEquals("}", lines[12]);
+		Assert.assertEquals(13, lines.length);
+	}
+
+	@Test
+	public void testRowsPerSecond() throws Exception {
+		ZPGenMetrics metrics = new ZPGenMetrics();
+		metrics.start("walk");
+		Thread.sleep(100);
+		metrics.stop(1000);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		metrics.printSummary(new PrintStream(bytes, true, "UTF-8"));
+		String[] walk = bytes.toString("UTF-8").split("\n")[1].trim().split(" +");
+
+		double seconds = Double.parseDouble(walk[1].replace(',', '.'));
+		double rowsPerSecond = Double.parseDouble(walk[3].replace(',', '.'));
+		Assert.assertTrue(seconds >= 0.1);
+		Assert.assertEquals(1000 / seconds, rowsPerSecond, 1000 / seconds * 0.01 + 1);
+	}
+}
@@ -0,0 +1,74 @@
+package de.charite.zpgen;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Scanner;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests ZPGenServer.
+ */
+public class ZPGenServerTest {
+
+	private static String request(int port, String method, String path, byte[] body) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+		connection.setRequestMethod(method);
+		if (body != null) {
+			connection.setDoOutput(true);
+			OutputStream out = connection.getOutputStream();
+			out.write(body);
+			out.close();
+		}
+		InputStream in = connection.getResponseCode() == 200 ? connection.getInputStream() : connection.getErrorStream();
+		Scanner scanner = new Scanner(in, "UTF-8").useDelimiter("\\A");
+		String response = scanner.hasNext() ? scanner.next().trim() : "";
+		in.close();
+		return connection.getResponseCode() + " " + response;
+	}
+
+	@Test
+	public void testServer() throws Exception {
+		File dir = Files.createTempDirectory("zpserver").toFile();
+		ZPGenServerCLIConfig config = new ZPGenServerCLIConfig();
+		config.ontologyOutputFilePath = new File(dir, "zp.owl").getPath();
+		config.annotationsFolder = dir.getPath() + File.separator;
+		config.sourceInformationFile = new File(dir, "zp.annot_sourceinfo").getPath();
+		config.port = 0;
+
+		ZPGenServer server = new ZPGenServer(config);
+		server.start();
+		try {
+			int port = server.getPort();
+
+			/* The roots got the first ids */
+			String tuple = "/resolve?entity1SupertermId=ZFA:0000001&entity1SupertermName=eye&patoID=PATO:0000002&patoName=small";
+			String resolved = request(port, "GET", tuple, null);
+			Assert.assertTrue(resolved, resolved.startsWith("200 ZP:0000005\t"));
+			Assert.assertEquals(resolved, request(port, "GET", tuple, null));
+			Assert.assertTrue(request(port, "GET", tuple + "&tag=normal", null).startsWith("200 ZP:0000005\t"));
+			Assert.assertTrue(request(port, "GET", "/resolve?patoID=PATO:0000002", null).startsWith("400 "));
+
+			byte[] rows = ZFINWalkerTest.geneFile(20);
+			Assert.assertEquals("200 20 rows ingested", request(port, "POST", "/ingest?type=gene", rows));
+			Assert.assertTrue(request(port, "POST", "/ingest?type=other", rows).startsWith("400 "));
+
+			Assert.assertTrue(request(port, "POST", "/flush", null).startsWith("200 "));
+			Assert.assertTrue(new File(config.ontologyOutputFilePath).length() > 0);
+			List<String> annotations = Files.readAllLines(new File(dir, "annot_gene_pos.txt").toPath(), StandardCharsets.UTF_8);
+			Assert.assertTrue(annotations.size() > 4);
+			List<String> sources = Files.readAllLines(new File(config.sourceInformationFile).toPath(), StandardCharsets.UTF_8);
+			Assert.assertTrue(sources.get(4).startsWith("ZP:0000005\t"));
+		} finally {
+			server.stop();
+		}
+	}
+}
@@ -2,6 +2,15 @@ package de.charite.zpgen;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 
@@ -91,4 +100,111 @@ public class ZPIDDBTest {
 		Assert.assertEquals(OBOVocabulary.ID2IRI("ZP:0000004"), zpIdDB2.getZPId(expr24));
 
 	}
+
+	/**
+	 * Concurrent requests must give every expression exactly one id, though
+	 * the numbers depend on the scheduling.
+	 */
+	@Test
+	public void testConcurrentIds() throws Exception {
+		OWLDataFactory factory = OWLManager.getOWLDataFactory();
+		final OWLObjectProperty partOf = factory.getOWLObjectProperty(IRI.create("http://purl.obolibrary.org/obo/BFO_0000050"));
+
+		/* Expressions with many repetitions */
+		Random random = new Random(1);
+		final List<OWLClassExpression> exprs = new ArrayList<OWLClassExpression>();
+		for (int i = 0; i < 20000; i++) {
+			OWLClass cl1 = factory.getOWLClass(IRI.create("TEST:" + random.nextInt(100)));
+			OWLClass cl2 = factory.getOWLClass(IRI.create("TEST:" + random.nextInt(50)));
+			exprs.add(factory.getOWLObjectIntersectionOf(cl1, factory.getOWLObjectSomeValuesFrom(partOf, cl2)));
+		}
+
+		final ZPIDDB concurrent = new ZPIDDB();
+		final int[] ids = new int[exprs.size()];
+		final AtomicInteger next = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					int i;
+					while ((i = next.getAndIncrement()) < exprs.size())
+						ids[i] = concurrent.getZPNumber(exprs.get(i));
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		Map<OWLClassExpression, Integer> expr2Id = new HashMap<OWLClassExpression, Integer>();
+		Set<Integer> distinctIds = new HashSet<Integer>();
+		for (int i = 0; i < exprs.size(); i++) {
+			Integer id = expr2Id.put(exprs.get(i), ids[i]);
+			if (id != null)
+				Assert.assertEquals(id.intValue(), ids[i]);
+			distinctIds.add(ids[i]);
+			Assert.assertEquals(ids[i], concurrent.getZPNumber(exprs.get(i)));
+		}
+		Assert.assertEquals(expr2Id.size(), distinctIds.size());
+		Assert.assertEquals(expr2Id.size(), concurrent.getNumNewIds());
+		Assert.assertEquals(1, Collections.min(distinctIds).intValue());
+		Assert.assertEquals(expr2Id.size(), Collections.max(distinctIds).intValue());
+	}
+
+	/**
+	 * Fingerprints every expression to the same value.
+	 */
+	private static class CollidingZPIDDB extends ZPIDDB {
+		CollidingZPIDDB(OWLOntology zp) {
+			super(zp);
+		}
+
+		@Override
+		ClassExpressionFingerprint createFingerprint() {
+			return new ClassExpressionFingerprint() {
+				@Override
+				public ClassExpressionFingerprint compute(OWLClassExpression classExpression) {
+					super.compute(classExpression);
+					hi = 0;
+					lo = 0;
+					return this;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Expressions with the same fingerprint must still get distinct ids.
+	 */
+	@Test
+	public void testFingerprintCollision() throws Exception {
+		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+		OWLDataFactory factory = manager.getOWLDataFactory();
+		OWLObjectProperty partOf = factory.getOWLObjectProperty(IRI.create("http://purl.obolibrary.org/obo/BFO_0000050"));
+		List<OWLClassExpression> exprs = new ArrayList<OWLClassExpression>();
+		for (int i = 0; i < 5; i++) {
+			exprs.add(factory.getOWLObjectIntersectionOf(factory.getOWLClass(IRI.create("TEST:" + i)),
+					factory.getOWLObjectSomeValuesFrom(partOf, factory.getOWLClass(IRI.create("TEST:" + (i + 10))))));
+		}
+
+		ZPIDDB zpIdDB = new CollidingZPIDDB(null);
+		for (int i = 0; i < 4; i++)
+			Assert.assertEquals(i + 1, zpIdDB.getZPNumber(exprs.get(i)));
+		Assert.assertEquals(2, zpIdDB.getZPNumber(factory.getOWLObjectIntersectionOf(factory.getOWLClass(IRI.create("TEST:1")),
+				factory.getOWLObjectSomeValuesFrom(partOf, factory.getOWLClass(IRI.create("TEST:11"))))));
+		Assert.assertTrue(zpIdDB.isAlreadyContained(exprs.get(3)));
+		Assert.assertFalse(zpIdDB.isAlreadyContained(exprs.get(4)));
+		Assert.assertEquals(4, zpIdDB.getNumNewIds());
+
+		/* The ids are recovered from an ontology as well */
+		OWLOntology zp = manager.createOntology(IRI.create("test"));
+		for (int i = 0; i < 4; i++)
+			manager.addAxiom(zp, factory.getOWLEquivalentClassesAxiom(factory.getOWLClass(zpIdDB.getZPId(exprs.get(i))), exprs.get(i)));
+		ZPIDDB recovered = new CollidingZPIDDB(zp);
+		for (int i = 3; i >= 0; i--)
+			Assert.assertEquals(i + 1, recovered.getZPNumber(exprs.get(i)));
+		Assert.assertEquals(5, recovered.getZPNumber(exprs.get(4)));
+		Assert.assertEquals(4, recovered.getNumReusedIds());
+	}
 }
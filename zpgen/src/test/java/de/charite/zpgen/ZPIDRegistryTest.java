@@ -0,0 +1,97 @@
+package de.charite.zpgen;
+
+import java.io.File;
+
+import junit.framework.Assert;
+
+import org.coode.owlapi.obo12.parser.OBOVocabulary;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+
+/**
+ * Tests ZPIDRegistry and its use in ZPIDDB.
+ */
+public class ZPIDRegistryTest {
+
+	@Test
+	public void testRegistry() throws Exception {
+		File file = File.createTempFile("zpid", ".idx");
+		file.delete();
+		file.deleteOnExit();
+
+		ZPIDRegistry registry = ZPIDRegistry.open(file);
+		Assert.assertEquals(0, registry.size());
+		for (int i = 1; i <= 1000; i++)
+			registry.append(i * 31L, -i, i);
+		Assert.assertEquals(1000, registry.size());
+		Assert.assertEquals(17, registry.lookup(17 * 31L, -17));
+		registry.close();
+
+		/* The registry has been compacted, add some ids to the tail */
+		registry = ZPIDRegistry.open(file);
+		Assert.assertEquals(1000, registry.size());
+		Assert.assertEquals(1000, registry.getMaxId());
+		Assert.assertEquals(17, registry.lookup(17 * 31L, -17));
+		Assert.assertEquals(-1, registry.lookup(17 * 31L, 17));
+		registry.append(5, 5, 1001);
+		registry.close();
+
+		registry = ZPIDRegistry.open(file);
+		Assert.assertEquals(1001, registry.size());
+		Assert.assertEquals(1001, registry.getMaxId());
+		Assert.assertEquals(1001, registry.lookup(5, 5));
+		Assert.assertEquals(1000, registry.lookup(1000 * 31L, -1000));
+		registry.close();
+	}
+
+	@Test
+	public void testZPIDDBWithRegistry() throws Exception {
+		File file = File.createTempFile("zpid", ".idx");
+		file.delete();
+		file.deleteOnExit();
+
+		OWLDataFactory factory = OWLManager.getOWLDataFactory();
+		OWLObjectProperty partOf = factory.getOWLObjectProperty(IRI.create("http://purl.obolibrary.org/obo/BFO_0000050"));
+		OWLClassExpression expr1 = factory.getOWLObjectIntersectionOf(factory.getOWLClass(IRI.create("TEST:1")),
+				factory.getOWLObjectSomeValuesFrom(partOf, factory.getOWLClass(IRI.create("TEST:2"))));
+		OWLClassExpression expr2 = factory.getOWLObjectIntersectionOf(factory.getOWLClass(IRI.create("TEST:1")),
+				factory.getOWLObjectSomeValuesFrom(partOf, factory.getOWLClass(IRI.create("TEST:3"))));
+
+		ZPIDRegistry registry = ZPIDRegistry.open(file);
+		ZPIDDB zpIdDB = new ZPIDDB(registry);
+		Assert.assertEquals(OBOVocabulary.ID2IRI("ZP:0000001"), zpIdDB.getZPId(expr1));
+		Assert.assertEquals(OBOVocabulary.ID2IRI("ZP:0000002"), zpIdDB.getZPId(expr2));
+		registry.close();
+
+		/* Same ids in reverse order with a fresh database */
+		registry = ZPIDRegistry.open(file);
+		zpIdDB = new ZPIDDB(registry);
+		Assert.assertTrue(zpIdDB.isAlreadyContained(expr2));
+		Assert.assertEquals(OBOVocabulary.ID2IRI("ZP:0000002"), zpIdDB.getZPId(expr2));
+		Assert.assertEquals(OBOVocabulary.ID2IRI("ZP:0000001"), zpIdDB.getZPId(expr1));
+		registry.close();
+	}
+
+	/**
+	 * The classes of the previous ontology are kept, whether the registry
+	 * exists or not.
+	 */
+	@Test
+	public void testKeepPreviousClasses() throws Exception {
+		File dir = IncrementalIndexTest.tempDir();
+		File genes = IncrementalIndexTest.geneFile(dir, "genes.txt", 400);
+		File fewerGenes = IncrementalIndexTest.geneFile(dir, "fewergenes.txt", 200);
+
+		IncrementalIndexTest.run(dir, "a", genes, "-p", "none");
+		File withoutRegistry = IncrementalIndexTest.run(dir, "b", fewerGenes, "-k", "-p", "a/zp.owl");
+		File newRegistry = IncrementalIndexTest.run(dir, "c", fewerGenes, "-k", "-p", "a/zp.owl", "--id-registry-file", "registry");
+		Assert.assertTrue(new File(dir, "registry").exists());
+		File existingRegistry = IncrementalIndexTest.run(dir, "d", fewerGenes, "-k", "-p", "a/zp.owl", "--id-registry-file", "registry");
+		IncrementalIndexTest.assertSameOutput(withoutRegistry, newRegistry);
+		IncrementalIndexTest.assertSameOutput(withoutRegistry, existingRegistry);
+	}
+}
@@ -0,0 +1,126 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import de.charite.zpgen.ZFINWalker.ZFIN_FILE_TYPE;
+
+/**
+ * Tests ZPLookup.
+ */
+public class ZPLookupTest {
+
+	@Test
+	public void testLookup() throws Exception {
+		SourceInformationCollector collector = new SourceInformationCollector();
+		collector.add(12, "small eye", "ZFA:0000107\t\t\tPATO:0000069\t\t\t\t");
+		collector.add(3, "large heart", "ZFA:0000114\t\t\tPATO:0000586\t\t\t\t");
+		collector.add(12, "small eye", "ZFA:0000107\t\t\tPATO:0000069\t\t\t\tZDB-GENE-1");
+		File file = File.createTempFile("zplookup", ".annot_sourceinfo");
+		file.deleteOnExit();
+		collector.write(file);
+
+		ZPLookup lookup = ZPLookup.load(file);
+		Assert.assertEquals(3, lookup.size());
+		Assert.assertEquals(12, lookup.lookupZPNumber("ZFA:0000107\t\t\tPATO:0000069\t\t\t\t"));
+		Assert.assertEquals("ZP:0000003", lookup.lookupZPId("ZFA:0000114\t\t\tPATO:0000586\t\t\t\t"));
+		Assert.assertEquals(-1, lookup.lookupZPNumber("ZFA:0000114\t\t\tPATO:0000069\t\t\t\t"));
+		Assert.assertNull(lookup.lookupZPId("ZFA:0000114"));
+		Assert.assertEquals("small eye", lookup.getLabel("ZP:0000012"));
+		Assert.assertNull(lookup.getLabel(4));
+		Assert.assertEquals(2, lookup.getSourceStrings("ZP:0000012").size());
+		Assert.assertTrue(lookup.getSourceStrings("ZP:0000004").isEmpty());
+	}
+
+	@Test
+	public void testAnnotate() throws Exception {
+		byte[] rows = ZFINWalkerTest.geneFile(40);
+		List<ZFINEntry> entries = ZFINWalker.readEntries(new ByteArrayInputStream(rows), ZFIN_FILE_TYPE.PHENO_GENES_TXT);
+		SourceInformationCollector collector = new SourceInformationCollector();
+		/* Leave out the last row */
+		for (int i = 0; i < entries.size() - 1; i++)
+			collector.add(i + 1, "class " + i, ZFINWalker.generateSourceString(entries.get(i)));
+		File file = File.createTempFile("zplookup", ".annot_sourceinfo");
+		file.deleteOnExit();
+		collector.write(file);
+
+		ZPLookup lookup = ZPLookup.load(file);
+		Assert.assertEquals(lookup.lookupZPNumber(entries.get(5)),
+				lookup.lookupZPNumbers(Arrays.asList(ZFINWalker.generateSourceString(entries.get(5))))[0]);
+		StringWriter positive = new StringWriter();
+		StringWriter negative = new StringWriter();
+		BufferedWriter outPositive = new BufferedWriter(positive);
+		BufferedWriter outNegative = new BufferedWriter(negative);
+		int numUnknown = lookup.annotate(new ByteArrayInputStream(rows), ZFIN_FILE_TYPE.PHENO_GENES_TXT, outPositive, outNegative);
+		outPositive.close();
+		outNegative.close();
+
+		int numAnnotations = positive.toString().split("\n").length + negative.toString().split("\n").length;
+		Assert.assertTrue(numUnknown <= 1);
+		Assert.assertEquals(entries.size() - numUnknown, numAnnotations);
+		Assert.assertTrue(negative.toString().contains("\tNOT\n"));
+	}
+
+	private static ZPLookup createLookup(byte[] rows) throws Exception {
+		List<ZFINEntry> entries = ZFINWalker.readEntries(new ByteArrayInputStream(rows), ZFIN_FILE_TYPE.PHENO_GENES_TXT);
+		SourceInformationCollector collector = new SourceInformationCollector();
+		for (int i = 0; i < entries.size(); i++)
+			collector.add(i + 1, "class " + i, ZFINWalker.generateSourceString(entries.get(i)));
+		File file = File.createTempFile("zplookup", ".annot_sourceinfo");
+		file.deleteOnExit();
+		collector.write(file);
+		return ZPLookup.load(file);
+	}
+
+	@Test
+	public void testAnnotateBadRow() throws Exception {
+		byte[] rows = ZFINWalkerTest.geneFile(10);
+		ZPLookup lookup = createLookup(rows);
+		byte[] badRows = (new String(rows, "UTF-8") + "ZDB-GENE-1\tabc\n").getBytes("UTF-8");
+		try {
+			lookup.annotate(new ByteArrayInputStream(badRows), ZFIN_FILE_TYPE.PHENO_GENES_TXT, new BufferedWriter(new StringWriter()),
+					new BufferedWriter(new StringWriter()));
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Problem in line 11: "));
+		}
+	}
+
+	@Test
+	public void testAnnotateWriteError() throws Exception {
+		byte[] rows = ZFINWalkerTest.geneFile(10);
+		ZPLookup lookup = createLookup(rows);
+		Writer failing = new Writer() {
+			@Override
+			public void write(char[] cbuf, int off, int len) throws IOException {
+				throw new IOException("disk full");
+			}
+
+			@Override
+			public void flush() throws IOException {
+			}
+
+			@Override
+			public void close() throws IOException {
+			}
+		};
+		try {
+			/* Small buffers, so that the first row reaches the failing writer */
+			lookup.annotate(new ByteArrayInputStream(rows), ZFIN_FILE_TYPE.PHENO_GENES_TXT, new BufferedWriter(failing, 1),
+					new BufferedWriter(failing, 1));
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertEquals("disk full", e.getMessage());
+		}
+	}
+}
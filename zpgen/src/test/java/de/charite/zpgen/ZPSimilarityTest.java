@@ -0,0 +1,63 @@
+package de.charite.zpgen;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import de.charite.zpgen.ZPSimilarity.Measure;
+
+/**
+ * Tests ZPSimilarity.
+ */
+public class ZPSimilarityTest {
+
+	@Test
+	public void testSimilarity() throws Exception {
+		/* 1 <- 2 <- 4, 1 <- 3 <- 4, 1 <- 5 */
+		TIntObjectHashMap<int[]> direct = new TIntObjectHashMap<int[]>();
+		direct.put(1, new int[0]);
+		direct.put(2, new int[] { 1 });
+		direct.put(3, new int[] { 1 });
+		direct.put(4, new int[] { 2, 3 });
+		direct.put(5, new int[] { 1 });
+
+		File annotations = File.createTempFile("zpsim", ".txt");
+		annotations.deleteOnExit();
+		Files.write(annotations.toPath(), Arrays.asList(ZPGen.ROOT_ENTRY_ID + "\tZP:0000001\tone", "G1\tZP:0000004\tfour", "G2\tZP:0000002\ttwo",
+				"G3\tZP:0000005\tfive", "G4\tZP:0000003\tthree"), StandardCharsets.UTF_8);
+		ZPSimilarity similarity = new ZPSimilarity(new ZPAnnotationIndex(direct), annotations);
+		Assert.assertEquals(4, similarity.size());
+		Assert.assertEquals(0, similarity.getInformationContent(1), 1e-9);
+		Assert.assertEquals(Math.log(4), similarity.getInformationContent(4), 1e-9);
+
+		Assert.assertEquals(Math.log(2), similarity.score("G1", "G2", Measure.RESNIK), 1e-9);
+		Assert.assertEquals(0.5, similarity.score("G1", "G2", Measure.JACCARD), 1e-9);
+		Assert.assertEquals(0.25, similarity.score("G1", "G2", Measure.SIMGIC), 1e-9);
+		Assert.assertEquals(0, similarity.score("G2", "G3", Measure.RESNIK), 1e-9);
+		Assert.assertEquals(1.0 / 3, similarity.score("G2", "G3", Measure.JACCARD), 1e-9);
+		Assert.assertTrue(Double.isNaN(similarity.score("G1", ZPGen.ROOT_ENTRY_ID, Measure.SIMGIC)));
+
+		StringWriter all = new StringWriter();
+		BufferedWriter out = new BufferedWriter(all);
+		Assert.assertEquals(6, similarity.write(out, 0, Measure.SIMGIC, 2));
+		out.close();
+		Assert.assertTrue(all.toString().startsWith("G1\tG2\t0.6931\t0.5000\t0.2500\n"));
+
+		StringWriter best = new StringWriter();
+		out = new BufferedWriter(best);
+		Assert.assertEquals(4, similarity.write(out, 1, Measure.SIMGIC, 2));
+		out.close();
+		/* G2 and G4 are equally similar to G1, the first one wins */
+		Assert.assertEquals("G1\tG2", best.toString().split("\n")[0].substring(0, 5));
+		Assert.assertEquals("G3\tG1", best.toString().split("\n")[2].substring(0, 5));
+	}
+}